@@ -21,15 +21,28 @@ package co.rsk;
 import co.rsk.config.RskSystemProperties;
 import co.rsk.core.Rsk;
 import co.rsk.core.RskFactory;
+import co.rsk.db.RepositoryImpl;
+import co.rsk.db.StatePruner;
 import co.rsk.mine.TxBuilder;
 import co.rsk.mine.TxBuilderEx;
 import co.rsk.net.Metrics;
 import co.rsk.net.discovery.UDPServer;
+import co.rsk.rpc.JsonRpcFilterServer;
 import co.rsk.rpc.Web3RskImpl;
+import co.rsk.rpc.netty.EthSubscriptionNotificationEmitter;
+import co.rsk.rpc.netty.RskWebSocketJsonRpcHandler;
+import co.rsk.rpc.netty.Web3WebSocketServer;
+import co.rsk.trie.TrieStoreImpl;
+import co.rsk.trie.TrieStorePruner;
+import com.googlecode.jsonrpc4j.AnnotationsErrorResolver;
+import com.googlecode.jsonrpc4j.DefaultErrorResolver;
+import com.googlecode.jsonrpc4j.MultipleErrorResolver;
 import org.ethereum.cli.CLIInterface;
 import org.ethereum.config.DefaultConfig;
+import org.ethereum.db.BlockStore;
 import org.ethereum.rpc.JsonRpcListener;
 import org.ethereum.rpc.Web3;
+import org.ethereum.rpc.exception.RskErrorResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -86,6 +99,20 @@ public class Start {
         enableMiningFunctionality(rsk);
 
         enablePeerDiscovery();
+
+        enableStatePruning(rsk);
+    }
+
+    private void enableStatePruning(Rsk rsk) {
+        RskSystemProperties config = RskSystemProperties.RSKCONFIG;
+
+        if (config.isStatePruningEnabled()) {
+            logger.info("State pruning enabled, keeping {} blocks", config.statePruningBlocks());
+            RepositoryImpl repository = (RepositoryImpl) rsk.getRepository();
+            TrieStoreImpl store = (TrieStoreImpl) repository.getTrieStore();
+            TrieStorePruner pruner = new TrieStorePruner(store, config.statePruningBatchSize(), config.statePruningBatchPause());
+            rsk.addListener(new StatePruner(pruner, RskFactory.getContext().getBean(BlockStore.class), repository, config.statePruningBlocks(), config.statePruningInterval()));
+        }
     }
 
     private void enablePeerDiscovery() {
@@ -110,12 +137,29 @@ public class Start {
             logger.info("RPC enabled");
             Web3 web3Service = new Web3RskImpl(rsk);
             new JsonRpcListener(rsk, web3Service).start();
+
+            if (RskSystemProperties.RSKCONFIG.isRpcWebSocketEnabled()) {
+                enableWebSocketRpc(rsk, web3Service);
+            }
         }
         else {
             logger.info("RPC disabled");
         }
     }
 
+    private void enableWebSocketRpc(Rsk rsk, Web3 web3Service) throws InterruptedException {
+        RskSystemProperties config = RskSystemProperties.RSKCONFIG;
+
+        JsonRpcFilterServer jsonRpcServer = new JsonRpcFilterServer(web3Service, web3Service.getClass(), config.getRpcModules());
+        jsonRpcServer.setErrorResolver(new MultipleErrorResolver(new RskErrorResolver(), AnnotationsErrorResolver.INSTANCE, DefaultErrorResolver.INSTANCE));
+
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(rsk.getWorldManager().getBlockchain());
+        rsk.addListener(emitter);
+
+        new Web3WebSocketServer(config.rpcWebSocketPort(), config.rpcWorkers(), config.rpcWebSocketMaxPendingBytes(),
+                new RskWebSocketJsonRpcHandler(jsonRpcServer, emitter)).start();
+    }
+
     private void enableSimulateTx(Rsk rsk) {
         if (RskSystemProperties.RSKCONFIG.simulateTxs()) {
             new TxBuilder(rsk).simulateTxs();
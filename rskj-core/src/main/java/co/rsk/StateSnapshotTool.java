@@ -0,0 +1,96 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk;
+
+import co.rsk.db.RepositoryImpl;
+import co.rsk.db.StateSnapshotExporter;
+import co.rsk.db.StateSnapshotImporter;
+import org.ethereum.config.DefaultConfig;
+import org.ethereum.core.Block;
+import org.ethereum.core.Repository;
+import org.ethereum.db.BlockStore;
+import org.spongycastle.util.encoders.Hex;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Exports the state at a block of the node database to a file, or imports it from a file.
+ * It should run with the node stopped, using the node configuration.
+ *
+ * export [block number] [file]
+ * import [file] [block hash]
+ */
+public class StateSnapshotTool {
+    private static final int CHUNK_SIZE = 1000;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !("export".equals(args[0]) || "import".equals(args[0]))) {
+            System.out.println("usage: StateSnapshotTool export <block number> <file>");
+            System.out.println("       StateSnapshotTool import <file> <block hash>");
+            return;
+        }
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(DefaultConfig.class);
+
+        try {
+            RepositoryImpl repository = (RepositoryImpl) context.getBean(Repository.class);
+
+            if ("export".equals(args[0]))
+                exportState(repository, context.getBean(BlockStore.class), Long.parseLong(args[1]), args[2]);
+            else
+                importState(repository, args[1], Hex.decode(args[2]));
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void exportState(RepositoryImpl repository, BlockStore blockStore, long number, String filename) throws IOException {
+        Block block = blockStore.getChainBlockByNumber(number);
+
+        if (block == null) {
+            System.out.println("Block " + number + " not found");
+            return;
+        }
+
+        try (OutputStream out = new FileOutputStream(filename)) {
+            new StateSnapshotExporter(repository, CHUNK_SIZE).export(block.getHeader(), out);
+        }
+
+        System.out.println("Exported state of block " + number + " " + Hex.toHexString(block.getHash()) + " to " + filename);
+    }
+
+    private static void importState(RepositoryImpl repository, String filename, byte[] blockHash) throws IOException {
+        StateSnapshotImporter importer = new StateSnapshotImporter(repository);
+
+        try (InputStream in = new FileInputStream(filename)) {
+            if (!importer.importSnapshot(in, blockHash)) {
+                System.out.println("State snapshot " + filename + " not imported, the database must be empty, and it must be removed after an invalid snapshot");
+                return;
+            }
+        }
+
+        System.out.println("Imported state of block " + importer.getHeader().getNumber() + ", state root " + Hex.toHexString(importer.getHeader().getStateRoot()));
+    }
+}
@@ -18,6 +18,8 @@
 
 package co.rsk.config;
 
+import co.rsk.net.BlockStore;
+import co.rsk.net.BlockSyncProcessor;
 import co.rsk.net.eth.MessageFilter;
 import co.rsk.net.eth.MessageRecorder;
 import co.rsk.net.eth.WriterMessageRecorder;
@@ -27,17 +29,21 @@ import com.typesafe.config.ConfigObject;
 import org.ethereum.config.SystemProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
 
+import javax.annotation.Nullable;
 import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by ajlopez on 3/3/2016.
@@ -55,6 +61,13 @@ public class RskSystemProperties extends SystemProperties {
 
     private List<ModuleDescription> moduleDescriptions;
 
+    public RskSystemProperties() {
+    }
+
+    public RskSystemProperties(Config apiConfig) {
+        super(apiConfig);
+    }
+
     public boolean minerClientEnabled() {
         return config.hasPath("miner.client.enabled") ?
                 config.getBoolean("miner.client.enabled") : false;
@@ -164,6 +177,34 @@ public class RskSystemProperties extends SystemProperties {
                 config.getInt("blockchain.flushNumberOfBlocks") : 20;
     }
 
+    public boolean isFlushInBackground() {
+        return config.hasPath("blockchain.flushInBackground") && config.getBoolean("blockchain.flushInBackground");
+    }
+
+    public boolean isStatePruningEnabled() {
+        return config.hasPath("database.prune.enabled") && config.getBoolean("database.prune.enabled");
+    }
+
+    public int statePruningBlocks() {
+        return config.hasPath("database.prune.blocks") ?
+                config.getInt("database.prune.blocks") : 5000;
+    }
+
+    public int statePruningInterval() {
+        return config.hasPath("database.prune.interval") ?
+                config.getInt("database.prune.interval") : 1000;
+    }
+
+    public int statePruningBatchSize() {
+        return config.hasPath("database.prune.batch.size") ?
+                config.getInt("database.prune.batch.size") : 10000;
+    }
+
+    public long statePruningBatchPause() {
+        return config.hasPath("database.prune.batch.pause") ?
+                config.getLong("database.prune.batch.pause") : 100;
+    }
+
     public int soLingerTime() {
         return config.hasPath("rpc.linger.time") ?
                 config.getInt("rpc.linger.time") : -1;
@@ -181,6 +222,112 @@ public class RskSystemProperties extends SystemProperties {
                 config.getInt("rpc.accept.queue.size") : 0;
     }
 
+    public int blockPreprocessThreads() {
+        return config.hasPath("blockchain.preprocess.threads") ?
+                config.getInt("blockchain.preprocess.threads") : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int blockPreprocessMaxPending() {
+        return config.hasPath("blockchain.preprocess.pending") ?
+                config.getInt("blockchain.preprocess.pending") : 1000;
+    }
+
+    public boolean isParallelSyncEnabled() {
+        return config.hasPath("sync.parallel.enabled") && config.getBoolean("sync.parallel.enabled");
+    }
+
+    public int parallelSyncSegmentSize() {
+        return config.hasPath("sync.parallel.segmentSize") ?
+                config.getInt("sync.parallel.segmentSize") : BlockSyncProcessor.DEFAULT_SEGMENT_SIZE;
+    }
+
+    public int blockStoreMaxBlocks() {
+        return config.hasPath("sync.store.maxBlocks") ?
+                config.getInt("sync.store.maxBlocks") : BlockStore.DEFAULT_MAX_BLOCKS;
+    }
+
+    // bytes
+    public long blockStoreMaxMemory() {
+        return config.hasPath("sync.store.maxMemory") ?
+                config.getBytes("sync.store.maxMemory") : BlockStore.DEFAULT_MAX_BYTES;
+    }
+
+    // by default, the blocks are shared by the active peers
+    public int blockStoreMaxBlocksPerPeer() {
+        if (config.hasPath("sync.store.maxBlocksPerPeer"))
+            return config.getInt("sync.store.maxBlocksPerPeer");
+
+        if (config.hasPath("peer.maxActivePeers"))
+            return Math.max(1, blockStoreMaxBlocks() / Math.max(1, config.getInt("peer.maxActivePeers")));
+
+        return BlockStore.DEFAULT_MAX_BLOCKS_PER_PEER;
+    }
+
+    public long blockStoreMaxDistance() {
+        return config.hasPath("sync.store.maxDistance") ?
+                config.getLong("sync.store.maxDistance") : BlockStore.DEFAULT_MAX_DISTANCE;
+    }
+
+    // milliseconds
+    public long blockStoreMaxAge() {
+        return config.hasPath("sync.store.maxAge") ?
+                config.getDuration("sync.store.maxAge", TimeUnit.MILLISECONDS) : BlockStore.DEFAULT_MAX_AGE;
+    }
+
+    public boolean isStateSyncEnabled() {
+        return config.hasPath("sync.state.enabled") && config.getBoolean("sync.state.enabled");
+    }
+
+    @Nullable
+    public byte[] stateSyncPivotHash() {
+        return config.hasPath("sync.state.pivotHash") ?
+                Hex.decode(config.getString("sync.state.pivotHash")) : null;
+    }
+
+    public BigInteger stateSyncPivotDifficulty() {
+        return config.hasPath("sync.state.pivotDifficulty") ?
+                new BigInteger(config.getString("sync.state.pivotDifficulty")) : BigInteger.ZERO;
+    }
+
+    public int rpcWorkers() {
+        return config.hasPath("rpc.workers.threads") && config.getInt("rpc.workers.threads") > 0 ?
+                config.getInt("rpc.workers.threads") : 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    public int rpcWorkersQueueSize() {
+        return config.hasPath("rpc.workers.queue.size") && config.getInt("rpc.workers.queue.size") > 0 ?
+                config.getInt("rpc.workers.queue.size") : 1024;
+    }
+
+    public int rpcBatchThreads() {
+        return config.hasPath("rpc.batch.threads") && config.getInt("rpc.batch.threads") > 0 ?
+                config.getInt("rpc.batch.threads") : Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean isRpcWebSocketEnabled() {
+        return config.hasPath("rpc.websocket.enabled") && config.getBoolean("rpc.websocket.enabled");
+    }
+
+    public int rpcWebSocketPort() {
+        return config.hasPath("rpc.websocket.port") ?
+                config.getInt("rpc.websocket.port") : 4445;
+    }
+
+    public int rpcWebSocketMaxPendingBytes() {
+        return config.hasPath("rpc.websocket.maxPendingBytes") && config.getInt("rpc.websocket.maxPendingBytes") >= 64 * 1024 ?
+                config.getInt("rpc.websocket.maxPendingBytes") : 1024 * 1024;
+    }
+
+    public long rpcBlockCacheSize() {
+        return config.hasPath("rpc.blockCache.size") ?
+                config.getBytes("rpc.blockCache.size") : 32L * 1024 * 1024;
+    }
+
+    public int rpcLatenciesLogInterval() {
+        return config.hasPath("rpc.latencies.log.interval") ?
+                config.getInt("rpc.latencies.log.interval") : 0;
+    }
+
     public String multipleUsersAccountsFile()  {
         return config.hasPath("multipleUser.file.path") ? config.getString("multipleUser.file.path") : "";
     }
@@ -19,13 +19,18 @@
 package co.rsk.core;
 
 import co.rsk.config.RskSystemProperties;
+import co.rsk.core.bc.BlockPreprocessor;
+import co.rsk.db.RepositoryImpl;
 import co.rsk.mine.MinerClient;
 import co.rsk.mine.MinerServer;
 import co.rsk.net.BlockStore;
+import co.rsk.net.BlockSyncProcessor;
 import co.rsk.net.MessageHandler;
 import co.rsk.net.NodeBlockProcessor;
 import co.rsk.net.NodeMessageHandler;
+import co.rsk.net.StateSyncProcessor;
 import co.rsk.net.handler.TxHandlerImpl;
+import org.ethereum.core.Blockchain;
 import org.ethereum.facade.EthereumImpl;
 import org.springframework.stereotype.Component;
 
@@ -40,6 +45,8 @@ public class RskImpl extends EthereumImpl implements Rsk {
 
     private MessageHandler messageHandler;
 
+    private StateSyncProcessor stateSyncProcessor;
+
     @Override
     public MinerClient getMinerClient() {
         return getWorldManager().getMinerClient();
@@ -56,6 +63,7 @@ public class RskImpl extends EthereumImpl implements Rsk {
             this.nodeBlockProcessor = getNodeBlockProcessor(); // Initialize nodeBlockProcessor if not done already.
             NodeMessageHandler handler = new NodeMessageHandler(this.nodeBlockProcessor, getChannelManager(),
                     getWorldManager().getPendingState(), new TxHandlerImpl(getWorldManager()));
+            handler.setStateSyncProcessor(getStateSyncProcessor());
             handler.start();
             this.messageHandler = handler;
         }
@@ -66,11 +74,41 @@ public class RskImpl extends EthereumImpl implements Rsk {
     @Override
     public NodeBlockProcessor getNodeBlockProcessor() {
         if (this.nodeBlockProcessor == null) {
-            this.nodeBlockProcessor = new NodeBlockProcessor(new BlockStore(), this.getWorldManager().getBlockchain(), this.getWorldManager());
+            RskSystemProperties rskConfig = RskSystemProperties.RSKCONFIG;
+            BlockStore store = new BlockStore(rskConfig.blockStoreMaxBlocks(), rskConfig.blockStoreMaxMemory(),
+                    rskConfig.blockStoreMaxBlocksPerPeer(), rskConfig.blockStoreMaxDistance(), rskConfig.blockStoreMaxAge());
+
+            this.nodeBlockProcessor = new NodeBlockProcessor(store, this.getWorldManager().getBlockchain(), this.getWorldManager());
+
+            int threads = RskSystemProperties.RSKCONFIG.blockPreprocessThreads();
+
+            if (threads > 0)
+                this.nodeBlockProcessor.setBlockPreprocessor(new BlockPreprocessor(threads, RskSystemProperties.RSKCONFIG.blockPreprocessMaxPending()));
+
+            if (RskSystemProperties.RSKCONFIG.isParallelSyncEnabled())
+                this.nodeBlockProcessor.setBlockSyncProcessor(new BlockSyncProcessor(this.getWorldManager().getBlockchain(), RskSystemProperties.RSKCONFIG.parallelSyncSegmentSize()));
+
+            byte[] pivotHash = RskSystemProperties.RSKCONFIG.stateSyncPivotHash();
+
+            // the state is downloaded only by a new node
+            if (RskSystemProperties.RSKCONFIG.isStateSyncEnabled() && pivotHash != null && getStateSyncProcessor() != null &&
+                    this.nodeBlockProcessor.getBestBlockNumber() == 0)
+                this.nodeBlockProcessor.setStateSync(getStateSyncProcessor(), pivotHash, RskSystemProperties.RSKCONFIG.stateSyncPivotDifficulty());
         }
         return this.nodeBlockProcessor;
     }
 
+    private StateSyncProcessor getStateSyncProcessor() {
+        if (this.stateSyncProcessor == null) {
+            Blockchain blockchain = this.getWorldManager().getBlockchain();
+
+            if (blockchain.getRepository() instanceof RepositoryImpl)
+                this.stateSyncProcessor = new StateSyncProcessor((RepositoryImpl) blockchain.getRepository(), blockchain);
+        }
+
+        return this.stateSyncProcessor;
+    }
+
     @Override
     public boolean isPlayingBlocks() {
         return isplaying;
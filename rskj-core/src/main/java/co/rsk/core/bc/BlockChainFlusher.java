@@ -0,0 +1,183 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.core.bc;
+
+import co.rsk.panic.PanicProcessor;
+import org.ethereum.core.Repository;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.DetailsDataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BlockChainFlusher writes the contract details in a background thread
+ * while the import thread saves the state trie.
+ *
+ * The block store index is committed by the import thread, the block store is not thread safe,
+ * and only once the details are written: the best block is loaded from the index on restart,
+ * so the index never points to blocks whose details are not in the database.
+ */
+public class BlockChainFlusher {
+    private static final Logger logger = LoggerFactory.getLogger("blockchain");
+    private static final PanicProcessor panicProcessor = new PanicProcessor();
+
+    private final Repository repository;
+    private final BlockStore blockStore;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "BlockChainFlusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long dirtyBytes;
+
+    private long flushes;
+    private long flushedBytes;
+    private long lastFlushTime;
+    private long lastFlushBytes;
+    private long waitTime;
+
+    public BlockChainFlusher(Repository repository, BlockStore blockStore) {
+        this.repository = repository;
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * flush takes the dirty contract details and queues them to be written, saves the state trie,
+     * and commits the block store index when the details are written.
+     */
+    public void flush() {
+        long start = System.nanoTime();
+
+        DetailsDataStore detailsDataStore = this.repository.getDetailsDataStore();
+        Map<ByteArrayWrapper, byte[]> batch = detailsDataStore != null ? detailsDataStore.takeDirty() : Collections.emptyMap();
+        long size = sizeOf(batch);
+
+        synchronized (this) {
+            this.dirtyBytes += size;
+        }
+
+        Future<Boolean> written = this.executor.submit(() -> write(detailsDataStore, batch, size));
+
+        this.repository.save();
+
+        try {
+            if (written.get())
+                this.blockStore.flush();
+            else
+                logger.error("Block store index not flushed, the contract details were not written");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Error flushing block chain data", e);
+        }
+
+        this.waitTime += System.nanoTime() - start;
+    }
+
+    /**
+     * stop waits for the pending writes
+     */
+    public void stop() {
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(1, TimeUnit.MINUTES))
+                logger.warn("Block chain flusher didn't finish its pending writes");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long getDirtyBytes() {
+        return this.dirtyBytes;
+    }
+
+    public synchronized long getFlushes() {
+        return this.flushes;
+    }
+
+    public synchronized long getFlushedBytes() {
+        return this.flushedBytes;
+    }
+
+    // nanoseconds
+    public synchronized long getLastFlushTime() {
+        return this.lastFlushTime;
+    }
+
+    public synchronized long getLastFlushBytes() {
+        return this.lastFlushBytes;
+    }
+
+    // nanoseconds spent by the import thread in flush, including the wait for the details
+    public long getWaitTime() {
+        return this.waitTime;
+    }
+
+    private boolean write(DetailsDataStore detailsDataStore, Map<ByteArrayWrapper, byte[]> batch, long size) {
+        long start = System.nanoTime();
+        boolean written = true;
+
+        try {
+            if (detailsDataStore != null)
+                detailsDataStore.writeDirty(batch);
+        } catch (RuntimeException e) {
+            logger.error("Error flushing block chain data", e);
+            panicProcessor.panic("flush", e.getMessage());
+            written = false;
+        }
+
+        long time = System.nanoTime() - start;
+
+        synchronized (this) {
+            this.dirtyBytes -= size;
+            this.flushes++;
+            this.flushedBytes += size;
+            this.lastFlushTime = time;
+            this.lastFlushBytes = size;
+            this.notifyAll();
+        }
+
+        logger.info("background details flush: {} keys, {} bytes in [{}]nano", batch.size(), size, time);
+
+        return written;
+    }
+
+    private static long sizeOf(Map<ByteArrayWrapper, byte[]> batch) {
+        long size = 0;
+
+        for (byte[] value : batch.values())
+            if (value != null)
+                size += value.length;
+
+        return size;
+    }
+}
@@ -445,7 +445,8 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     @Override
     public void close() {
-
+        if (this.flusher != null)
+            this.flusher.stop();
     }
 
     @Override
@@ -521,8 +522,17 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
     // We did this because flush is slow, and doing flush for every block degrades the node performance.
     private int nFlush = 0;
 
+    // Writes the contract details in background while the state is saved, if enabled
+    private BlockChainFlusher flusher;
+
     private void flushData() {
-        if (RskSystemProperties.RSKCONFIG.isFlushEnabled() && nFlush == 0)  {
+        if (RskSystemProperties.RSKCONFIG.isFlushEnabled() && nFlush == 0 && RskSystemProperties.RSKCONFIG.isFlushInBackground()) {
+            long saveTime = System.nanoTime();
+            getFlusher().flush();
+            long totalTime = System.nanoTime() - saveTime;
+            logger.info("background flush: [{}]nano", totalTime);
+        }
+        else if (RskSystemProperties.RSKCONFIG.isFlushEnabled() && nFlush == 0)  {
             long saveTime = System.nanoTime();
             repository.flush();
             long totalTime = System.nanoTime() - saveTime;
@@ -536,6 +546,13 @@ public class BlockChainImpl implements Blockchain, org.ethereum.facade.Blockchai
         nFlush = nFlush % RskSystemProperties.RSKCONFIG.flushNumberOfBlocks();
     }
 
+    private BlockChainFlusher getFlusher() {
+        if (this.flusher == null)
+            this.flusher = new BlockChainFlusher(repository, blockStore);
+
+        return this.flusher;
+    }
+
     public static byte[] calcTxTrie(List<Transaction> transactions) {
         return Block.getTxTrie(transactions).getHash();
     }
@@ -182,7 +182,23 @@ public class BlockExecutor {
         return execute(block, stateRoot, false, true);
     }
 
+    /**
+     * Replay a block from the state of its parent, following its transactions with the given tracer.
+     * The replay stops when the tracer asks for it.
+     *
+     * @param tracer       The tracer to follow the transactions
+     * @param block        A block to replay
+     * @param parent       The parent of the block.
+     */
+    public void traceBlock(BlockTracer tracer, Block block, Block parent) {
+        execute(block, parent.getStateRoot(), false, false, tracer);
+    }
+
     private BlockResult execute(Block block, byte[] stateRoot, boolean discardInvalidTxs, boolean ignoreReadyToExecute) {
+        return execute(block, stateRoot, discardInvalidTxs, ignoreReadyToExecute, null);
+    }
+
+    private BlockResult execute(Block block, byte[] stateRoot, boolean discardInvalidTxs, boolean ignoreReadyToExecute, BlockTracer tracer) {
         logger.info("applyBlock: block: [{}] tx.list: [{}]", block.getNumber(), block.getTransactionsList().size());
 
         Repository initialRepository = repository.getSnapshotTo(stateRoot);
@@ -213,10 +229,17 @@ public class BlockExecutor {
 
             executedTransactions.add(tx);
 
+            if (tracer != null)
+                txExecutor.setTracer(tracer.startTransaction(tx));
+
             txExecutor.execute();
             txExecutor.go();
             txExecutor.finalization();
 
+            if (tracer != null && !tracer.endTransaction(tx, txExecutor)) {
+                break;
+            }
+
             logger.info("tx executed");
 
             track.commit();
@@ -248,6 +271,9 @@ public class BlockExecutor {
             logger.info("tx done");
         }
 
+        // intermediate roots are only hashed, the final state is written once
+        initialRepository.save();
+
         return new BlockResult(executedTransactions, receipts, lastStateRootHash, totalGasUsed, totalPaidFees);
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.core.bc;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BlockPreprocessor runs ahead, on worker threads, the stateless work of the blocks waiting
+ * to be connected: parsing their transactions and recovering their senders from the signatures.
+ * The results are cached in the blocks, so their import only does the stateful validations
+ * and the execution.
+ *
+ * A block given to preprocess must not be used until await returns for it.
+ */
+public class BlockPreprocessor {
+    private static final Logger logger = LoggerFactory.getLogger("blockprocessor");
+
+    private final ExecutorService executor;
+    private final int maxPending;
+
+    // preprocessing tasks by block hash
+    private final Map<ByteArrayWrapper, FutureTask<Void>> tasks = new HashMap<>();
+
+    public BlockPreprocessor(int threads, int maxPending) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "BlockPreprocessor-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * preprocess queues the block to be preprocessed
+     *
+     * @param block     the block, it should be already parsed
+     * @return true if the block was queued, false if there are too many pending blocks
+     */
+    public synchronized boolean preprocess(Block block) {
+        ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+
+        if (this.tasks.containsKey(hash))
+            return true;
+
+        if (this.tasks.size() >= this.maxPending) {
+            // tasks of blocks that were discarded before being connected
+            this.tasks.values().removeIf(FutureTask::isDone);
+
+            if (this.tasks.size() >= this.maxPending)
+                return false;
+        }
+
+        FutureTask<Void> task = new FutureTask<>(() -> preprocessTransactions(block), null);
+        this.tasks.put(hash, task);
+
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the preprocessor was stopped, the task will be run by await
+            logger.trace("Block preprocessing rejected", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * await waits for the preprocessing of the block. If it was not started,
+     * it is done in the calling thread.
+     *
+     * @param block     the block to be connected
+     */
+    public void await(Block block) {
+        FutureTask<Void> task;
+
+        synchronized (this) {
+            task = this.tasks.remove(new ByteArrayWrapper(block.getHash()));
+        }
+
+        if (task == null)
+            return;
+
+        // it does nothing if the task is already running or done
+        task.run();
+
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            logger.trace("Block preprocessing wait was interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Error preprocessing block {} {}", block.getNumber(), block.getShortHash(), e.getCause());
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return this.tasks.size();
+    }
+
+    public void stop() {
+        this.executor.shutdownNow();
+    }
+
+    private static void preprocessTransactions(Block block) {
+        for (Transaction tx : block.getTransactionsList())
+            tx.getSender();
+    }
+}
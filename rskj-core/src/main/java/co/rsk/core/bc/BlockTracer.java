@@ -0,0 +1,38 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.core.bc;
+
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionExecutor;
+import org.ethereum.vm.trace.ProgramTracer;
+
+/**
+ * Follows the transactions of a block replayed by BlockExecutor.traceBlock
+ */
+public interface BlockTracer {
+    /**
+     * @return the tracer to follow the code of the transaction, null to run it untraced
+     */
+    ProgramTracer startTransaction(Transaction tx);
+
+    /**
+     * @return false to stop the replay after this transaction
+     */
+    boolean endTransaction(Transaction tx, TransactionExecutor executor);
+}
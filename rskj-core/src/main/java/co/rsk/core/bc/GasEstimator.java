@@ -0,0 +1,121 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.core.bc;
+
+import org.ethereum.core.*;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ReceiptStore;
+import org.ethereum.vm.program.ProgramResult;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+
+import static org.ethereum.util.BIUtil.toBI;
+
+/**
+ * Estimates the gas a call message needs, running it against the state of a block.
+ *
+ * The gas used by a single run is not enough: gas refunds and code that depends on the
+ * available gas can make a call fail with exactly that limit. So the estimator searches
+ * the lowest gas limit the call succeeds with, between the gas used at the message gas
+ * limit and that limit. Every run starts from the same snapshot, so the state read by
+ * the first run is already loaded for the following ones.
+ */
+public class GasEstimator {
+    private static final int MAX_RUNS = 64;
+
+    private final Repository repository;
+    private final Block block;
+    private final BlockStore blockStore;
+    private final ReceiptStore receiptStore;
+    private final ProgramInvokeFactory programInvokeFactory;
+
+    private int runs;
+
+    /**
+     * @param repository   A snapshot of the state of the block, it is never changed
+     * @param block        The block the call is run in
+     */
+    public GasEstimator(Repository repository, Block block, BlockStore blockStore, ReceiptStore receiptStore, ProgramInvokeFactory programInvokeFactory) {
+        this.repository = repository;
+        this.block = block;
+        this.blockStore = blockStore;
+        this.receiptStore = receiptStore;
+        this.programInvokeFactory = programInvokeFactory;
+    }
+
+    /**
+     * @return the lowest gas limit the call succeeds with, or the gas it used
+     * when it fails even with the gas limit of the message
+     */
+    public long estimateGas(CallMessage message) {
+        runs = 0;
+
+        long gasLimit = toBI(message.getGasLimit()).longValue();
+        ProgramResult result = run(message);
+
+        if (result.getException() != null)
+            return result.getGasUsed();
+
+        // the call can not succeed with less than it used, most calls succeed with exactly that
+        long low = Math.max(result.getGasUsed(), message.transactionCost(block)) - 1;
+        long high = gasLimit;
+        long next = low + 1;
+
+        while (low + 1 < high && runs < MAX_RUNS) {
+            if (succeeds(message, next))
+                high = next;
+            else
+                low = next;
+
+            next = low + (high - low) / 2;
+        }
+
+        return high;
+    }
+
+    /**
+     * @return the number of times the call was run by the last estimation
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    private boolean succeeds(CallMessage message, long gasLimit) {
+        return run(message.withGasLimit(gasLimit)).getException() == null;
+    }
+
+    private ProgramResult run(Transaction tx) {
+        runs++;
+
+        Repository track = repository.startTracking();
+
+        try {
+            TransactionExecutor executor = new TransactionExecutor(tx, block.getCoinbase(), track, blockStore, receiptStore, programInvokeFactory, block)
+                    .setLocalCall(true);
+
+            executor.init();
+            executor.execute();
+            executor.go();
+            executor.finalization();
+
+            return executor.getResult();
+        } finally {
+            track.rollback();
+        }
+    }
+}
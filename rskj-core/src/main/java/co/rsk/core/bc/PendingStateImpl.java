@@ -18,14 +18,15 @@
 
 package co.rsk.core.bc;
 
+import co.rsk.crypto.Keccak256;
 import co.rsk.remasc.RemascTransaction;
 import co.rsk.trie.Trie;
 import co.rsk.trie.TrieImpl;
+import co.rsk.util.collections.LongObjectHashMap;
 import com.google.common.annotations.VisibleForTesting;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.db.BlockStore;
-import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FastByteComparisons;
@@ -53,10 +54,13 @@ public class PendingStateImpl implements PendingState {
     private static final Logger logger = LoggerFactory.getLogger("pendingstate");
     private static final byte[] emptyUncleHashList = sha3(RLP.encodeList(new byte[0]));
 
-    private Map<ByteArrayWrapper, Transaction> pendingTransactions = new HashMap<>();
-    private Map<ByteArrayWrapper, Transaction> wireTransactions = new HashMap<>();
-    private Map<ByteArrayWrapper, Long> transactionBlocks = new HashMap<>();
-    private Map<ByteArrayWrapper, Long> transactionTimes = new HashMap<>();
+    private Map<Keccak256, Transaction> pendingTransactions = new HashMap<>();
+    private Map<Keccak256, Transaction> wireTransactions = new HashMap<>();
+    // hashes of the known transactions, grouped by the best block number when they were added
+    private LongObjectHashMap<Set<Keccak256>> transactionBlocks = new LongObjectHashMap<>();
+    // the block number of each hash in transactionBlocks, to remove it without scanning the groups
+    private Map<Keccak256, Long> transactionBlockNumbers = new HashMap<>();
+    private Map<Keccak256, Long> transactionTimes = new HashMap<>();
 
     private int outdatedThreshold = 0;
     private int outdatedTimeout = 0;
@@ -162,7 +166,7 @@ public class PendingStateImpl implements PendingState {
     @Override
     public synchronized List<Transaction> addWireTransactions(List<Transaction> transactions) {
         List<Transaction> added = new ArrayList<>();
-        Long bnumber = Long.valueOf(getCurrentBestBlockNumber());
+        long bnumber = getCurrentBestBlockNumber();
 
         logger.info("Trying add {} wire transactions using block {} {}", transactions.size(), bnumber, getBestBlock().getShortHash());
 
@@ -172,7 +176,7 @@ public class PendingStateImpl implements PendingState {
 
             logger.info("Trying add wire transaction nonce {} hash {}", tx.getHash(), toBI(tx.getNonce()));
 
-            ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
+            Keccak256 hash = new Keccak256(tx.getHash());
 
             if (pendingTransactions.containsKey(hash) || wireTransactions.containsKey(hash)) {
                 logger.info("TX already exists: {} ", tx);
@@ -180,7 +184,7 @@ public class PendingStateImpl implements PendingState {
             }
 
             wireTransactions.put(hash, tx);
-            transactionBlocks.put(hash, bnumber);
+            addTransactionBlock(hash, bnumber);
             final long timestampSeconds = this.getCurrentTimeInSeconds();
             transactionTimes.put(hash, timestampSeconds);
 
@@ -222,14 +226,14 @@ public class PendingStateImpl implements PendingState {
 
         logger.trace("add pending transaction {} {}", toBI(tx.getNonce()), Hex.toHexString(tx.getHash()));
 
-        ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
-        Long bnumber = Long.valueOf(getCurrentBestBlockNumber());
+        Keccak256 hash = new Keccak256(tx.getHash());
+        long bnumber = getCurrentBestBlockNumber();
 
         if (pendingTransactions.containsKey(hash))
             return;
 
         pendingTransactions.put(hash, tx);
-        transactionBlocks.put(hash, bnumber);
+        addTransactionBlock(hash, bnumber);
         final long timestampSeconds = this.getCurrentTimeInSeconds();
         transactionTimes.put(hash, timestampSeconds);
 
@@ -281,18 +285,19 @@ public class PendingStateImpl implements PendingState {
 
     @VisibleForTesting
     public void removeObsoleteTransactions(long currentBlock, int depth, int timeout) {
-        List<ByteArrayWrapper> toremove = new ArrayList<>();
+        List<Keccak256> toremove = new ArrayList<>();
         final long timestampSeconds = this.getCurrentTimeInSeconds();
 
-        for (Map.Entry<ByteArrayWrapper, Long> entry : transactionBlocks.entrySet()) {
-            long block = entry.getValue().longValue();
+        for (long block : transactionBlocks.keys()) {
+            if (block >= currentBlock - depth)
+                continue;
 
-            if (block < currentBlock - depth) {
-                toremove.add(entry.getKey());
+            for (Keccak256 hash : transactionBlocks.get(block)) {
+                toremove.add(hash);
                 logger.info(
                         "Clear outdated transaction, block.number: [{}] hash: [{}]",
                         block,
-                        entry.getKey().toString());
+                        hash.toString());
             }
         }
 
@@ -304,9 +309,9 @@ public class PendingStateImpl implements PendingState {
 
     @VisibleForTesting
     public synchronized void removeObsoleteTransactions(long timeSeconds) {
-        List<ByteArrayWrapper> toremove = new ArrayList<>();
+        List<Keccak256> toremove = new ArrayList<>();
 
-        for (Map.Entry<ByteArrayWrapper, Long> entry : transactionTimes.entrySet()) {
+        for (Map.Entry<Keccak256, Long> entry : transactionTimes.entrySet()) {
             long txtime = entry.getValue().longValue();
 
             if (txtime <= timeSeconds) {
@@ -320,20 +325,53 @@ public class PendingStateImpl implements PendingState {
         removeTransactionList(toremove);
     }
 
-    private void removeTransactionList(List<ByteArrayWrapper> toremove) {
-        for (ByteArrayWrapper key : toremove) {
+    private void removeTransactionList(List<Keccak256> toremove) {
+        for (Keccak256 key : toremove) {
             pendingTransactions.remove(key);
             wireTransactions.remove(key);
-            transactionBlocks.remove(key);
             transactionTimes.remove(key);
         }
+
+        removeTransactionBlocks(toremove);
+    }
+
+    private void addTransactionBlock(Keccak256 hash, long bnumber) {
+        // a transaction already known is moved to the new block number
+        removeTransactionBlock(hash);
+
+        Set<Keccak256> hashes = transactionBlocks.get(bnumber);
+
+        if (hashes == null) {
+            hashes = new HashSet<>();
+            transactionBlocks.put(bnumber, hashes);
+        }
+
+        hashes.add(hash);
+        transactionBlockNumbers.put(hash, bnumber);
+    }
+
+    private void removeTransactionBlocks(Collection<Keccak256> hashes) {
+        for (Keccak256 hash : hashes)
+            removeTransactionBlock(hash);
+    }
+
+    private void removeTransactionBlock(Keccak256 hash) {
+        Long bnumber = transactionBlockNumbers.remove(hash);
+
+        if (bnumber == null)
+            return;
+
+        Set<Keccak256> blockHashes = transactionBlocks.get(bnumber);
+
+        if (blockHashes.remove(hash) && blockHashes.isEmpty())
+            transactionBlocks.remove(bnumber);
     }
 
     @Override
     public synchronized void clearPendingState(List<Transaction> txs) {
         for (Transaction tx : txs) {
             byte[] bhash = tx.getHash();
-            ByteArrayWrapper hash = new ByteArrayWrapper(bhash);
+            Keccak256 hash = new Keccak256(bhash);
             pendingTransactions.remove(hash);
             logger.info("Clear pending transaction, hash: [{}]", Hex.toHexString(bhash));
         }
@@ -343,7 +381,7 @@ public class PendingStateImpl implements PendingState {
     public synchronized void clearWire(List<Transaction> txs) {
         for (Transaction tx: txs) {
             byte[] bhash = tx.getHash();
-            ByteArrayWrapper hash = new ByteArrayWrapper(bhash);
+            Keccak256 hash = new Keccak256(bhash);
             wireTransactions.remove(hash);
             logger.info("Clear wire transaction, hash: [{}]", Hex.toHexString(bhash));
         }
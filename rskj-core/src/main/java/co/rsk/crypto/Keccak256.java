@@ -0,0 +1,120 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.crypto;
+
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.Serializable;
+
+/**
+ * Immutable key for 32 byte hashes (block, transaction and message hashes).
+ *
+ * The hash is kept as four longs, so equals is four long compares and the hash code
+ * is computed once on construction. The given array is not copied: callers own a
+ * fresh hash array and must not modify it afterwards.
+ *
+ * Ordering is the unsigned lexicographic byte ordering, the same as ByteArrayWrapper.
+ */
+public final class Keccak256 implements Serializable, Comparable<Keccak256> {
+    public static final int LENGTH = 32;
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] bytes;
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
+    private final int hashCode;
+
+    public Keccak256(byte[] bytes) {
+        if (bytes == null || bytes.length != LENGTH) {
+            throw new IllegalArgumentException("A hash must have " + LENGTH + " bytes");
+        }
+
+        this.bytes = bytes;
+        this.w0 = toLong(bytes, 0);
+        this.w1 = toLong(bytes, 8);
+        this.w2 = toLong(bytes, 16);
+        this.w3 = toLong(bytes, 24);
+        // hash bytes are uniformly distributed, any of the words makes a good hash code
+        this.hashCode = (int) (w3 ^ (w3 >>> 32));
+    }
+
+    /**
+     * Returns the internal byte array, without defensively copying. Therefore do NOT modify the returned array.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof Keccak256)) {
+            return false;
+        }
+
+        Keccak256 that = (Keccak256) other;
+
+        return hashCode == that.hashCode && w3 == that.w3 && w0 == that.w0 && w1 == that.w1 && w2 == that.w2;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public int compareTo(Keccak256 other) {
+        int result = Long.compareUnsigned(w0, other.w0);
+
+        if (result == 0) {
+            result = Long.compareUnsigned(w1, other.w1);
+        }
+
+        if (result == 0) {
+            result = Long.compareUnsigned(w2, other.w2);
+        }
+
+        if (result == 0) {
+            result = Long.compareUnsigned(w3, other.w3);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Hex.toHexString(bytes);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long result = 0;
+
+        for (int k = 0; k < 8; k++) {
+            result = (result << 8) | (bytes[offset + k] & 0xff);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import co.rsk.crypto.Keccak256;
+import co.rsk.vm.DecodedCode;
+import org.ethereum.crypto.HashUtil;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of contract code, addressed by code hash.
+ *
+ * Popular contracts (and identical code deployed at many addresses) are kept once,
+ * so repositories can return the code without loading and decoding the contract details.
+ * Each repository owns its cache, shared with its snapshots and tracks.
+ * The code returned is a shared instance: callers must not modify it (see Repository.getCode).
+ *
+ * The decoded form of a cached code (see DecodedCode) is kept along with it, keyed by the
+ * code instance, so only code that came from this cache reuses a previous analysis.
+ */
+public class CodeCache {
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final Map<Keccak256, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Map<byte[], Entry> entriesByCode = new IdentityHashMap<>();
+    private long bytes;
+
+    public CodeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cached code with the given hash, or null if it is not cached
+     */
+    public synchronized byte[] getCode(byte[] codeHash) {
+        if (codeHash == null || codeHash.length != Keccak256.LENGTH)
+            return null;
+
+        Entry entry = entries.get(new Keccak256(codeHash));
+
+        return entry == null ? null : entry.code;
+    }
+
+    /**
+     * Adds the code, if it matches the given hash.
+     *
+     * @return the shared instance of the code, or the given code if it was not cached
+     */
+    public byte[] putCode(byte[] codeHash, byte[] code) {
+        if (code == null || code.length == 0 || code.length > maxBytes)
+            return code;
+
+        // the hash comes from the account state, only cache code that actually has that hash
+        if (!Arrays.equals(codeHash, HashUtil.sha3(code)))
+            return code;
+
+        Keccak256 key = new Keccak256(codeHash);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null)
+                return entry.code;
+
+            entry = new Entry(code.clone());
+            entries.put(key, entry);
+            entriesByCode.put(entry.code, entry);
+            bytes += entry.code.length;
+
+            evict();
+
+            return entry.code;
+        }
+    }
+
+    /**
+     * @return true if this code instance is the one kept by the cache
+     */
+    public synchronized boolean isCached(byte[] code) {
+        return entriesByCode.containsKey(code);
+    }
+
+    /**
+     * @return the decoded form of this code instance, or null if it is not known
+     */
+    public synchronized DecodedCode getDecodedCode(byte[] code) {
+        Entry entry = entriesByCode.get(code);
+
+        return entry == null ? null : entry.decoded;
+    }
+
+    /**
+     * Keeps the decoded form of the code, if it is a cached code instance
+     */
+    public synchronized void putDecodedCode(byte[] code, DecodedCode decoded) {
+        Entry entry = entriesByCode.get(code);
+
+        if (entry != null)
+            entry.decoded = decoded;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        entriesByCode.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            entriesByCode.remove(eldest.code);
+            bytes -= eldest.code.length;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] code;
+        private DecodedCode decoded;
+
+        Entry(byte[] code) {
+            this.code = code;
+        }
+    }
+}
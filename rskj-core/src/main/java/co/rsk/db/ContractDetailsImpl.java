@@ -24,9 +24,9 @@ import com.google.common.annotations.VisibleForTesting;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.datasource.DataSourcePool;
 import org.ethereum.datasource.HashMapDB;
-import org.ethereum.datasource.KeyValueDataSource;
-import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.ContractDetails;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FileUtil;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPElement;
 import org.ethereum.util.RLPItem;
@@ -38,12 +38,14 @@ import org.spongycastle.pqc.math.linearalgebra.ByteUtils;
 import org.spongycastle.util.encoders.Hex;
 
 import javax.annotation.Nullable;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 import static org.ethereum.datasource.DataSourcePool.levelDbByName;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.toHexString;
-import static org.ethereum.util.ByteUtil.wrap;
 
 /**
  * Created by ajlopez on 05/04/2017.
@@ -52,17 +54,33 @@ public class ContractDetailsImpl implements ContractDetails {
     private static final PanicProcessor panicProcessor = new PanicProcessor();
     private static final Logger logger = LoggerFactory.getLogger("contractdetails");
 
-    private Trie trie;
+    // previous versions kept each external storage in its own data source, under this directory
+    private static final String LEGACY_STORAGE_DATA_SOURCE_NAME = "details-storage";
+
+    private static final byte[] KEY_MARK = new byte[] { 1 };
+
+    // storage reads don't take the details lock, they work on the current (persistent) trie
+    private volatile Trie trie;
     private byte[] code;
     private byte[] address;
     private boolean dirty;
     private boolean deleted;
     private boolean originalExternalStorage;
     private boolean externalStorage;
-    private boolean closed;
-    private Set<ByteArrayWrapper> keys = new HashSet<>();
+
+    // the storage keys, in a non secure trie so they can be listed, with the same store kind as the storage trie
+    private Trie keysTrie;
+    private int storageSize;
+
+    // the store of the external storage tries, shared by the details of a repository
+    private TrieStoreImpl storageStore;
 
     public ContractDetailsImpl(byte[] encoded) {
+        this(encoded, null);
+    }
+
+    public ContractDetailsImpl(byte[] encoded, TrieStoreImpl storageStore) {
+        this.storageStore = storageStore;
         decode(encoded);
     }
 
@@ -74,14 +92,13 @@ public class ContractDetailsImpl implements ContractDetails {
         this.address = ByteUtils.clone(address);
         this.trie = trie;
         this.code = ByteUtils.clone(code);
+        this.keysTrie = newKeysTrie();
     }
 
     @Override
     public synchronized void put(DataWord key, DataWord value) {
         logger.trace("put word");
 
-        checkDataSourceIsOpened();
-
         byte[] keyBytes = key.getData();
 
         if (value.equals(DataWord.ZERO)) {
@@ -101,8 +118,6 @@ public class ContractDetailsImpl implements ContractDetails {
     public synchronized void putBytes(DataWord key, byte[] bytes) {
         logger.trace("put bytes");
 
-        checkDataSourceIsOpened();
-
         byte[] keyBytes = key.getData();
 
         if (bytes == null) {
@@ -119,11 +134,9 @@ public class ContractDetailsImpl implements ContractDetails {
     }
 
     @Override
-    public synchronized DataWord get(DataWord key) {
+    public DataWord get(DataWord key) {
         logger.trace("get word");
 
-        checkDataSourceIsOpened();
-
         byte[] value = null;
 
         value = this.trie.get(key.getData());
@@ -135,20 +148,10 @@ public class ContractDetailsImpl implements ContractDetails {
     }
 
     @Override
-    public synchronized byte[] getBytes(DataWord key) {
+    public byte[] getBytes(DataWord key) {
         logger.trace("get bytes");
 
-        checkDataSourceIsOpened();
-
-        try {
-            return this.trie.get(key.getData());
-        }
-        catch (RuntimeException ex) {
-            logger.error("error in get bytes", ex);
-            logger.trace("retrying get bytes");
-            checkDataSourceIsOpened();
-            return this.trie.get(key.getData());
-        }
+        return this.trie.get(key.getData());
     }
 
     @Override
@@ -163,8 +166,6 @@ public class ContractDetailsImpl implements ContractDetails {
 
     @Override
     public synchronized byte[] getStorageHash() {
-        checkDataSourceIsOpened();
-
         this.trie.save();
         byte[] trieHash = this.trie.getHash();
         logger.trace("getting contract details trie hash {}, address {}", getHashAsString(trieHash), this.getAddressAsString());
@@ -180,21 +181,34 @@ public class ContractDetailsImpl implements ContractDetails {
         RLPItem rlpIsExternalStorage = (RLPItem) rlpList.get(1);
         RLPItem rlpStorage = (RLPItem) rlpList.get(2);
         RLPElement rlpCode = rlpList.get(3);
-        RLPList rlpKeys = (RLPList) rlpList.get(4);
+        RLPElement rlpKeys = rlpList.get(4);
 
         this.address = rlpAddress.getRLPData();
         this.externalStorage = rlpIsExternalStorage.getRLPData() != null;
         this.originalExternalStorage = this.externalStorage;
 
         if (this.externalStorage)
-            this.trie = new TrieImpl(new TrieStoreImpl(levelDbByName(getDataSourceName())), true).getSnapshotTo(rlpStorage.getRLPData());
+            this.trie = retrieveExternalTrie(rlpStorage.getRLPData());
         else
             this.trie = TrieImpl.deserialize(rlpStorage.getRLPData());
 
         this.code = (rlpCode.getRLPData() == null) ? EMPTY_BYTE_ARRAY : rlpCode.getRLPData();
 
-        for (RLPElement key : rlpKeys)
-            addKey(key.getRLPData());
+        if (rlpKeys instanceof RLPList) {
+            // details encoded by previous versions list all their keys
+            this.keysTrie = newKeysTrie();
+
+            for (RLPElement key : (RLPList) rlpKeys)
+                addKey(key.getRLPData());
+        }
+        else {
+            if (this.externalStorage)
+                this.keysTrie = new TrieImpl(getStorageStore(), false).getSnapshotTo(rlpKeys.getRLPData());
+            else
+                this.keysTrie = TrieImpl.deserialize(rlpKeys.getRLPData());
+
+            this.storageSize = ByteUtil.byteArrayToInt(rlpList.get(5).getRLPData());
+        }
 
         logger.trace("decoding contract details from bytes, hash {}, address {}, storage size {}, has external storage {}", this.getStorageHashAsString(), this.getAddressAsString(), this.getStorageSize(), this.hasExternalStorage());
     }
@@ -230,33 +244,55 @@ public class ContractDetailsImpl implements ContractDetails {
         byte[] rlpStorage = RLP.encodeElement(externalStorage ? this.trie.getHash() : this.trie.serialize());
 
         byte[] rlpCode = RLP.encodeElement(this.code);
-        byte[] rlpKeys = RLP.encodeSet(this.keys);
+        byte[] rlpKeys = RLP.encodeElement(externalStorage ? this.keysTrie.getHash() : this.keysTrie.serialize());
+        byte[] rlpStorageSize = RLP.encodeInt(this.storageSize);
 
-        return RLP.encodeList(rlpAddress, rlpIsExternalStorage, rlpStorage, rlpCode, rlpKeys);
+        return RLP.encodeList(rlpAddress, rlpIsExternalStorage, rlpStorage, rlpCode, rlpKeys, rlpStorageSize);
     }
 
     @Override
     public synchronized int getStorageSize() {
-        return keys.size();
+        return storageSize;
     }
 
     @Override
     public synchronized Set<DataWord> getStorageKeys() {
         Set<DataWord> result = new HashSet<>();
+        Iterator<byte[]> keys = this.keysTrie.keys();
 
-        for (ByteArrayWrapper key : keys)
-            result.add(new DataWord(key));
+        while (keys.hasNext())
+            result.add(new DataWord(keys.next()));
 
         return result;
     }
 
+    /**
+     * getStorageKeys walks the storage keys from a key on, in increasing order, reading them as they are requested
+     */
+    public synchronized Iterator<DataWord> getStorageKeys(DataWord from) {
+        // the keys trie is immutable, it can be walked after it is replaced
+        Iterator<byte[]> keys = this.keysTrie.keys(from.getData());
+
+        return new Iterator<DataWord>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public DataWord next() {
+                return new DataWord(keys.next());
+            }
+        };
+    }
+
     @Override
     public synchronized Map<DataWord, DataWord> getStorage(@Nullable Collection<DataWord> keys) {
         Map<DataWord, DataWord> storage = new HashMap<>();
 
         if (keys == null)
-            for (ByteArrayWrapper keyBytes : this.keys) {
-                DataWord key = new DataWord(keyBytes);
+            for (Iterator<byte[]> keysBytes = this.keysTrie.keys(); keysBytes.hasNext();) {
+                DataWord key = new DataWord(keysBytes.next());
                 DataWord value = get(key);
 
                 // we check if the value is not null,
@@ -314,13 +350,13 @@ public class ContractDetailsImpl implements ContractDetails {
             logger.trace("syncing to storage, hash {}, address {}, storage size {}", hashString, addressString, this.getStorageSize());
 
             this.trie.save();
+            this.keysTrie.save();
 
             if (this.externalStorage && !this.originalExternalStorage) {
                 // switching to data source
 
                 logger.trace("switching to data source, hash {}, address {}", hashString, addressString);
-                KeyValueDataSource ds = levelDbByName(this.getDataSourceName());
-                TrieStoreImpl newStore = new TrieStoreImpl(ds);
+                TrieStoreImpl newStore = getStorageStore();
                 TrieStoreImpl originalStore = (TrieStoreImpl)((TrieImpl) this.trie).getStore();
                 newStore.copyFrom(originalStore);
                 Trie newTrie = newStore.retrieve(this.trie.getHash());
@@ -335,15 +371,12 @@ public class ContractDetailsImpl implements ContractDetails {
                     throw new TrieSerializationException(message, null);
                 }
 
+                newStore.copyFrom((TrieStoreImpl)((TrieImpl) this.keysTrie).getStore());
+                this.keysTrie = new TrieImpl(newStore, false).getSnapshotTo(this.keysTrie.getHash());
+
                 // to avoid re switching to data source
                 this.originalExternalStorage = true;
             }
-
-            if (this.externalStorage) {
-                logger.trace("closing contract details data source, hash {}, address {}", hashString, addressString);
-                DataSourcePool.closeDataSource(getDataSourceName());
-                this.closed = true;
-            }
         }
     }
 
@@ -353,14 +386,13 @@ public class ContractDetailsImpl implements ContractDetails {
 
         this.trie.save();
 
+        // the keys tries are immutable, the snapshot shares the current one
         ContractDetailsImpl details = new ContractDetailsImpl(this.address, this.trie.getSnapshotTo(hash), this.code);
-        details.keys = new HashSet<>();
-        details.keys.addAll(this.keys);
+        details.keysTrie = this.keysTrie;
+        details.storageSize = this.storageSize;
         details.externalStorage = this.externalStorage;
         details.originalExternalStorage = this.originalExternalStorage;
-
-        if (this.externalStorage)
-            levelDbByName(getDataSourceName());
+        details.storageStore = this.storageStore;
 
         logger.trace("getting contract details snapshot hash {}, address {}, storage size {}, has external storage {}", details.getStorageHashAsString(), details.getAddressAsString(), details.getStorageSize(), details.hasExternalStorage());
 
@@ -369,7 +401,7 @@ public class ContractDetailsImpl implements ContractDetails {
 
     @Override
     public boolean isNullObject() {
-        return (code==null || code.length==0) && keys.isEmpty();
+        return (code==null || code.length==0) && storageSize == 0;
     }
 
     @VisibleForTesting
@@ -381,20 +413,97 @@ public class ContractDetailsImpl implements ContractDetails {
         return this.externalStorage;
     }
 
+    /**
+     * Sets the store where the storage trie is kept once the storage goes over the in memory limit.
+     * The details data store sets its own store to the details it keeps.
+     */
+    public synchronized void setStorageStore(TrieStoreImpl storageStore) {
+        this.storageStore = storageStore;
+    }
+
     private void addKey(byte[] key) {
-        keys.add(wrap(key));
+        if (keysTrie.get(key) != null)
+            return;
+
+        keysTrie = keysTrie.put(key, KEY_MARK);
+        storageSize++;
     }
 
     private void removeKey(byte[] key) {
-        keys.remove(wrap(key));
+        if (keysTrie.get(key) == null)
+            return;
+
+        keysTrie = keysTrie.delete(key);
+        storageSize--;
+    }
+
+    private Trie newKeysTrie() {
+        if (this.externalStorage)
+            return new TrieImpl(getStorageStore(), false);
+
+        return new TrieImpl(new TrieStoreImpl(new HashMapDB()), false);
     }
 
     private void checkExternalStorage() {
-        this.externalStorage = (keys.size() > SystemProperties.CONFIG.detailsInMemoryStorageLimit()) || this.externalStorage;
+        this.externalStorage = (storageSize > SystemProperties.CONFIG.detailsInMemoryStorageLimit()) || this.externalStorage;
+    }
+
+    /**
+     * Retrieves an external storage trie from the storage store. Tries still kept in the data source
+     * of their own contract, as written by previous versions, are moved to the storage store,
+     * and the old data source is deleted.
+     */
+    private Trie retrieveExternalTrie(byte[] root) {
+        TrieStoreImpl store = getStorageStore();
+        Trie result = new TrieImpl(store, true).getSnapshotTo(root);
+
+        if (result != null)
+            return result;
+
+        String legacyName = getLegacyDataSourceName();
+        logger.trace("moving contract details storage from data source {}, hash {}", legacyName, getHashAsString(root));
+
+        store.copyFrom(new TrieStoreImpl(levelDbByName(legacyName)));
+        DataSourcePool.closeDataSource(legacyName);
+
+        result = new TrieImpl(store, true).getSnapshotTo(root);
+
+        if (result == null) {
+            String message = "error retrieving contract details storage, hash " + getHashAsString(root) + ", address " + getAddressAsString();
+            logger.error(message);
+            panicProcessor.panic("contractdetails", message);
+            throw new TrieSerializationException(message, null);
+        }
+
+        deleteLegacyDataSource(legacyName);
+
+        return result;
+    }
+
+    private TrieStoreImpl getStorageStore() {
+        if (this.storageStore == null)
+            throw new IllegalStateException("contract details with external storage but no storage store, address " + getAddressAsString());
+
+        return this.storageStore;
+    }
+
+    private String getLegacyDataSourceName() {
+        return LEGACY_STORAGE_DATA_SOURCE_NAME + "/" + toHexString(address);
     }
 
-    private String getDataSourceName() {
-        return "details-storage/" + toHexString(address);
+    private static void deleteLegacyDataSource(String name) {
+        String databaseDir = SystemProperties.CONFIG.databaseDir();
+        Path path = Paths.get(databaseDir).isAbsolute() ? Paths.get(databaseDir, name) : Paths.get(System.getProperty("user.dir"), databaseDir, name);
+
+        logger.info("deleting moved contract details storage data source {}", path);
+        FileUtil.recursiveDelete(path.toString());
+
+        // the legacy directory is removed with its last data source
+        File parent = path.getParent().toFile();
+        String[] remaining = parent.list();
+
+        if (remaining != null && remaining.length == 0 && !parent.delete())
+            logger.warn("could not delete directory {}", parent);
     }
 
     private String getAddressAsString() {
@@ -406,21 +515,6 @@ public class ContractDetailsImpl implements ContractDetails {
         return Hex.toHexString(addr);
     }
 
-    private void checkDataSourceIsOpened() {
-        if (!this.closed)
-            return;
-
-        if (!this.externalStorage)
-            return;
-
-        logger.trace("reopening contract details data source");
-        KeyValueDataSource ds = levelDbByName(this.getDataSourceName());
-        TrieStoreImpl newStore = new TrieStoreImpl(ds);
-        Trie newTrie = newStore.retrieve(this.trie.getHash());
-        this.trie = newTrie;
-        this.closed = false;
-    }
-
     private String getStorageHashAsString() {
         return getHashAsString(this.trie.getHash());
     }
@@ -44,6 +44,11 @@ import static org.ethereum.util.ByteUtil.wrap;
 
 /**
  * Created by ajlopez on 29/03/2017.
+ *
+ * Writes are serialized on the repository monitor. Reads are not synchronized:
+ * each read takes the current trie root once and works on it. Tries are
+ * persistent (put and delete return a new trie), so a reader sees a consistent
+ * state while a block is being imported.
  */
 public class RepositoryImpl implements Repository, org.ethereum.facade.Repository {
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
@@ -51,33 +56,55 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     private static final Logger logger = LoggerFactory.getLogger("repository");
 
-    private TrieStore store;
-    private Trie trie;
-    private DetailsDataStore detailsDataStore;
-    private boolean closed;
+    // the unsaved roots returned by getRoot that can still be snapshotted
+    static final int RECENT_ROOTS = 32;
+
+    private final TrieStore store;
+    private volatile Trie trie;
+    private final Map<ByteArrayWrapper, Trie> recentTries = Collections.synchronizedMap(new LinkedHashMap<ByteArrayWrapper, Trie>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Trie> eldest) {
+            return size() > RECENT_ROOTS;
+        }
+    });
+    private final DetailsDataStore detailsDataStore;
+    private final CodeCache codeCache;
+    private volatile boolean closed;
+    // snapshots share the details data store of their repository, they don't close it
+    private boolean snapshot;
 
     public RepositoryImpl() {
         this(null);
     }
 
     public RepositoryImpl(TrieStore store) {
-        this.store = store;
-        this.trie = new TrieImpl(store, true);
-        this.detailsDataStore = new DetailsDataStore();
-        this.detailsDataStore.setDB(new DatabaseImpl(new HashMapDB()));
+        this(store, new HashMapDB());
     }
 
     public RepositoryImpl(TrieStore store, KeyValueDataSource detailsDS) {
-        this.store = store;
-        this.trie = new TrieImpl(store, true);
-        this.detailsDataStore = new DetailsDataStore();
-        this.detailsDataStore.setDB(new DatabaseImpl(detailsDS));
+        this(store, newDetailsDataStore(detailsDS));
+    }
+
+    public RepositoryImpl(TrieStore store, KeyValueDataSource detailsDS, KeyValueDataSource contractStorageDS) {
+        this(store, newDetailsDataStore(detailsDS));
+        this.detailsDataStore.setStorageDataSource(contractStorageDS);
     }
 
     public RepositoryImpl(TrieStore store, DetailsDataStore detailsDataStore) {
+        this(store, detailsDataStore, new CodeCache(CodeCache.DEFAULT_MAX_BYTES));
+    }
+
+    public RepositoryImpl(TrieStore store, DetailsDataStore detailsDataStore, CodeCache codeCache) {
         this.store = store;
         this.trie = new TrieImpl(store, true);
         this.detailsDataStore = detailsDataStore;
+        this.codeCache = codeCache;
+    }
+
+    private static DetailsDataStore newDetailsDataStore(KeyValueDataSource detailsDS) {
+        DetailsDataStore detailsDataStore = new DetailsDataStore();
+        detailsDataStore.setDB(new DatabaseImpl(detailsDS));
+        return detailsDataStore;
     }
 
     @Override
@@ -89,16 +116,20 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized boolean isExist(byte[] addr) {
+    public boolean isExist(byte[] addr) {
         return getAccountState(addr) != null;
     }
 
     @Override
-    public synchronized AccountState getAccountState(byte[] addr) {
+    public AccountState getAccountState(byte[] addr) {
+        return getAccountState(this.trie, addr);
+    }
+
+    private static AccountState getAccountState(Trie trie, byte[] addr) {
         AccountState result = null;
         byte[] accountData = null;
 
-        accountData = this.trie.get(addr);
+        accountData = trie.get(addr);
 
         if (accountData != null && accountData.length != 0)
             result = new AccountState(accountData);
@@ -137,14 +168,17 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized ContractDetails getContractDetails(byte[] addr) {
+    public ContractDetails getContractDetails(byte[] addr) {
+        return getContractDetails(getAccountState(addr), addr);
+    }
+
+    private ContractDetails getContractDetails(AccountState accountState, byte[] addr) {
         // That part is important cause if we have
         // to sync details storage according the trie root
         // saved in the account
-        AccountState accountState = getAccountState(addr);
         byte[] storageRoot = EMPTY_TRIE_HASH;
         if (accountState != null)
-            storageRoot = getAccountState(addr).getStateRoot();
+            storageRoot = accountState.getStateRoot();
         ContractDetails details =  detailsDataStore.get(addr);
         if (details != null)
             details = details.getSnapshotTo(storageRoot);
@@ -170,11 +204,11 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized byte[] getCode(byte[] addr) {
-        if (!isExist(addr))
-            return EMPTY_BYTE_ARRAY;
+    public byte[] getCode(byte[] addr) {
+        AccountState account = getAccountState(addr);
 
-        AccountState  account = getAccountState(addr);
+        if (account == null)
+            return EMPTY_BYTE_ARRAY;
 
         if (account.isHibernated())
             return EMPTY_BYTE_ARRAY;
@@ -184,8 +218,13 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         if (Arrays.equals(codeHash, EMPTY_DATA_HASH))
             return EMPTY_BYTE_ARRAY;
 
-        ContractDetails details = getContractDetails(addr);
-        return (details == null) ? null : details.getCode();
+        byte[] code = this.codeCache.getCode(codeHash);
+
+        if (code != null)
+            return code;
+
+        ContractDetails details = getContractDetails(account, addr);
+        return (details == null) ? null : this.codeCache.putCode(codeHash, details.getCode());
     }
 
     @Override
@@ -216,7 +255,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized DataWord getStorageValue(byte[] addr, DataWord key) {
+    public DataWord getStorageValue(byte[] addr, DataWord key) {
         ContractDetails details = getContractDetails(addr);
         return (details == null) ? null : details.get(key);
     }
@@ -240,13 +279,13 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized byte[] getStorageBytes(byte[] addr, DataWord key) {
+    public byte[] getStorageBytes(byte[] addr, DataWord key) {
         ContractDetails details = getContractDetails(addr);
         return (details == null) ? null : details.getBytes(key);
     }
 
     @Override
-    public synchronized BigInteger getBalance(byte[] addr) {
+    public BigInteger getBalance(byte[] addr) {
         AccountState account = getAccountState(addr);
         return (account == null) ? AccountState.EMPTY.getBalance() : account.getBalance();
     }
@@ -308,17 +347,23 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     @Override
     public synchronized void syncToRoot(byte[] root) {
-        this.trie = this.trie.getSnapshotTo(root);
+        this.trie = retrieveTrie(root);
     }
 
     @Override
-    public synchronized boolean isClosed() {
+    public boolean isClosed() {
         return this.closed;
     }
 
     @Override
     public synchronized void close() {
+        if (this.closed)
+            return;
+
         this.closed = true;
+
+        if (!this.snapshot)
+            this.detailsDataStore.close();
     }
 
     @Override
@@ -374,23 +419,30 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     @Override
     public synchronized byte[] getRoot() {
-        if (this.trie.hasStore())
-            this.trie.save();
-
+        // the hash is calculated in memory, the nodes are written by save
         byte[] rootHash = this.trie.getHash();
 
+        // the hash is calculated under the lock, and the root can be snapshotted before it is saved
+        this.recentTries.put(wrap(rootHash), this.trie);
+
         logger.trace("getting repository root hash {}", Hex.toHexString(rootHash));
 
         return rootHash;
     }
 
     @Override
-    public synchronized void loadAccount(byte[] addr,
-                                         Map<ByteArrayWrapper, AccountState> cacheAccounts,
-                                         Map<ByteArrayWrapper, ContractDetails> cacheDetails) {
+    public synchronized void save() {
+        if (this.trie.hasStore())
+            this.trie.save();
+    }
+
+    @Override
+    public void loadAccount(byte[] addr,
+                            Map<ByteArrayWrapper, AccountState> cacheAccounts,
+                            Map<ByteArrayWrapper, ContractDetails> cacheDetails) {
 
         AccountState account = getAccountState(addr);
-        ContractDetails details = getContractDetails(addr);
+        ContractDetails details = getContractDetails(account, addr);
 
         account = (account == null) ? new AccountState(BigInteger.ZERO, BigInteger.ZERO) : account.clone();
         details = new ContractDetailsCacheImpl(details);
@@ -401,17 +453,56 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized Repository getSnapshotTo(byte[] root) {
-        RepositoryImpl snapshotRepository = new RepositoryImpl(this.store, this.detailsDataStore);
-        snapshotRepository.syncToRoot(root);
+    public Repository getSnapshotTo(byte[] root) {
+        // the root must be the current one, one of the last returned by getRoot or a saved one,
+        // the state roots are saved at the end of each block and when the genesis state is loaded
+        RepositoryImpl snapshotRepository = new RepositoryImpl(this.store, this.detailsDataStore, this.codeCache);
+        snapshotRepository.snapshot = true;
+        snapshotRepository.trie = this.retrieveTrie(root);
         return snapshotRepository;
     }
 
+    private Trie retrieveTrie(byte[] root) {
+        if (Arrays.equals(root, EMPTY_TRIE_HASH))
+            return new TrieImpl(this.store, true);
+
+        // the tries are immutable, the recent ones are shared without saving them
+        Trie recent = this.recentTries.get(wrap(root));
+
+        if (recent != null)
+            return recent;
+
+        // the hash of the current trie is calculated under the lock, as in getRoot
+        synchronized (this) {
+            if (Arrays.equals(root, this.trie.getHash()))
+                return this.trie;
+        }
+
+        Trie result = this.store == null ? null : this.store.retrieve(root);
+
+        if (result == null) {
+            String message = "state root " + Hex.toHexString(root) + " is not saved";
+            logger.error(message);
+            throw new IllegalArgumentException(message);
+        }
+
+        return result;
+    }
+
+    public TrieStore getTrieStore() {
+        return this.store;
+    }
+
     @Override
-    public synchronized DetailsDataStore getDetailsDataStore() {
+    public DetailsDataStore getDetailsDataStore() {
         return this.detailsDataStore;
     }
 
+    @Override
+    public CodeCache getCodeCache() {
+        return this.codeCache;
+    }
+
     @Override
     public synchronized void updateContractDetails(final byte[] address, final ContractDetails contractDetails) {
         detailsDataStore.update(address, contractDetails);
@@ -0,0 +1,155 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.db;
+
+import co.rsk.trie.TrieStorePruner;
+import org.ethereum.core.Block;
+import org.ethereum.core.Repository;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.db.BlockStore;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * StatePruner keeps the account state of the last blocks, removing the state trie nodes
+ * that are not reachable from their roots.
+ *
+ * Every interval of blocks, it prunes in background using the state roots of all the blocks
+ * (including forks) from the best block minus the number of blocks to keep. The number of blocks
+ * to keep should be greater than any expected reorganization, because the older states are lost.
+ * The current state of the repository is kept too.
+ *
+ * The roots are read by the import thread, the block store is not thread safe. The nodes saved
+ * from then on are kept: the block that triggers the pruning is already in the block store, and
+ * the blocks are executed and stored in the same import, so every state saved before is reachable
+ * from a read root.
+ */
+public class StatePruner extends EthereumListenerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger("statepruner");
+
+    private final TrieStorePruner pruner;
+    private final BlockStore blockStore;
+    private final Repository repository;
+    private final int blocksToKeep;
+    private final int interval;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "StatePruner"));
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long lastPruning;
+
+    public StatePruner(TrieStorePruner pruner, BlockStore blockStore, Repository repository, int blocksToKeep, int interval) {
+        this.pruner = pruner;
+        this.blockStore = blockStore;
+        this.repository = repository;
+        this.blocksToKeep = blocksToKeep;
+        this.interval = interval;
+    }
+
+    @Override
+    public void onBlock(Block block, List<TransactionReceipt> receipts) {
+        long number = block.getNumber();
+
+        if (number <= this.blocksToKeep || number - this.lastPruning < this.interval || this.executor.isShutdown())
+            return;
+
+        // only one pruning at a time, new blocks don't queue more
+        if (!this.running.compareAndSet(false, true))
+            return;
+
+        this.lastPruning = number;
+
+        // the states saved by the next blocks are kept
+        this.pruner.startPruning();
+        List<byte[]> roots;
+
+        try {
+            roots = getRootsToKeep();
+        } catch (RuntimeException ex) {
+            // the next pruning stops keeping the saved states
+            logger.error("Error reading the state roots to keep", ex);
+            this.running.set(false);
+            return;
+        }
+
+        this.executor.execute(() -> {
+            try {
+                prune(() -> roots);
+            } catch (RuntimeException ex) {
+                logger.error("Error pruning the state", ex);
+            } finally {
+                this.running.set(false);
+            }
+        });
+    }
+
+    /**
+     * prune removes the state not reachable from the roots of the blocks to keep
+     *
+     * @return  the number of removed trie nodes
+     */
+    public long prune() {
+        return prune(this::getRootsToKeep);
+    }
+
+    public TrieStorePruner getPruner() {
+        return this.pruner;
+    }
+
+    public void stop() {
+        this.executor.shutdownNow();
+    }
+
+    private long prune(Supplier<Collection<byte[]>> roots) {
+        long nodes = this.pruner.prune(roots);
+
+        logger.info("State pruning: {} trie nodes and {} bytes reclaimed in {} prunings", this.pruner.getPrunedNodes(), this.pruner.getReclaimedBytes(), this.pruner.getPrunings());
+
+        return nodes;
+    }
+
+    private List<byte[]> getRootsToKeep() {
+        long bestNumber = this.blockStore.getBestBlock().getNumber();
+        List<byte[]> roots = new ArrayList<>();
+
+        roots.add(this.repository.getRoot());
+
+        // the levels over the best block could have blocks of other branches
+        for (long number = Math.max(0, bestNumber - this.blocksToKeep + 1);; number++) {
+            List<Block> blocks = this.blockStore.getChainBlocksByNumber(number);
+
+            if (number > bestNumber && blocks.isEmpty())
+                break;
+
+            for (Block block : blocks)
+                roots.add(block.getStateRoot());
+        }
+
+        return roots;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.db;
+
+import co.rsk.trie.TrieStoreImpl;
+import co.rsk.trie.TrieStoreSnapshot;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Repository;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.ContractDetails;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.ethereum.vm.DataWord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * StateSnapshotExporter writes the complete state at a block, to bootstrap a node without replaying the blocks
+ *
+ * The snapshot is a sequence of chunks. Each chunk is written as its length, its RLP encoding
+ * [type, item, item, ...] and the hash of that encoding. The chunks are:
+ *
+ * - a header chunk, with a magic string, the format version and the block header
+ * - node chunks, with the serialized nodes of the account trie
+ * - account chunks, with the address and code of each account with contract details,
+ *   each one followed by storage chunks with its [address, key, value] storage rows
+ * - an end chunk, with the number of exported nodes, accounts and storage rows
+ */
+public class StateSnapshotExporter {
+    private static final Logger logger = LoggerFactory.getLogger("snapshot");
+
+    static final byte[] MAGIC = "rsk-state-snapshot".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    static final int HEADER_CHUNK = 0;
+    static final int NODES_CHUNK = 1;
+    static final int ACCOUNTS_CHUNK = 2;
+    static final int STORAGE_CHUNK = 3;
+    static final int END_CHUNK = 4;
+
+    private final RepositoryImpl repository;
+    private final int chunkSize;
+
+    /**
+     * @param repository    the repository to export
+     * @param chunkSize     the maximum number of items in a chunk
+     */
+    public StateSnapshotExporter(RepositoryImpl repository, int chunkSize) {
+        this.repository = repository;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * export writes the state at a block
+     *
+     * @param header    the header of the block, its state root is exported
+     * @param output    the stream to write to
+     */
+    public void export(BlockHeader header, OutputStream output) throws IOException {
+        long start = System.currentTimeMillis();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+
+        writeChunk(out, HEADER_CHUNK, RLP.encodeElement(MAGIC), RLP.encodeInt(VERSION), header.getEncoded());
+
+        Repository snapshot = this.repository.getSnapshotTo(header.getStateRoot());
+        TrieStoreSnapshot trieSnapshot = new TrieStoreSnapshot((TrieStoreImpl) this.repository.getTrieStore());
+
+        ChunkWriter nodesWriter = new ChunkWriter(out, NODES_CHUNK);
+
+        long nodes;
+
+        try {
+            nodes = trieSnapshot.exportNodes(header.getStateRoot(), message -> nodesWriter.addUnchecked(RLP.encodeElement(message)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        nodesWriter.flush();
+
+        ChunkWriter accountsWriter = new ChunkWriter(out, ACCOUNTS_CHUNK);
+        ChunkWriter storageWriter = new ChunkWriter(out, STORAGE_CHUNK);
+
+        long accounts = 0;
+        long rows = 0;
+
+        TreeSet<byte[]> addresses = new TreeSet<>((a1, a2) -> FastByteComparisons.compareTo(a1, 0, a1.length, a2, 0, a2.length));
+
+        for (ByteArrayWrapper address : snapshot.getAccountsKeys())
+            addresses.add(address.getData());
+
+        for (byte[] address : addresses) {
+            ContractDetails details = snapshot.getContractDetails(address);
+
+            if (details == null)
+                continue;
+
+            // the storage rows of an account follow its account chunk
+            storageWriter.flush();
+            accountsWriter.add(RLP.encodeList(RLP.encodeElement(address), RLP.encodeElement(details.getCode())));
+            accounts++;
+
+            TreeSet<DataWord> keys = new TreeSet<>(details.getStorageKeys());
+
+            if (!keys.isEmpty())
+                accountsWriter.flush();
+
+            for (DataWord key : keys) {
+                byte[] value = details.getBytes(key);
+
+                if (value == null)
+                    continue;
+
+                storageWriter.add(RLP.encodeList(RLP.encodeElement(address), RLP.encodeElement(key.getData()), RLP.encodeElement(value)));
+                rows++;
+            }
+        }
+
+        accountsWriter.flush();
+        storageWriter.flush();
+
+        writeChunk(out, END_CHUNK, RLP.encodeBigInteger(BigInteger.valueOf(nodes)), RLP.encodeBigInteger(BigInteger.valueOf(accounts)), RLP.encodeBigInteger(BigInteger.valueOf(rows)));
+
+        out.flush();
+
+        logger.info("Exported state of block {}: {} nodes, {} accounts, {} storage rows, in {} ms", header.getNumber(), nodes, accounts, rows, System.currentTimeMillis() - start);
+    }
+
+    private static void writeChunk(DataOutputStream out, int type, byte[]... items) throws IOException {
+        byte[][] elements = new byte[items.length + 1][];
+        elements[0] = RLP.encodeInt(type);
+        System.arraycopy(items, 0, elements, 1, items.length);
+
+        byte[] encoded = RLP.encodeList(elements);
+
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        out.write(HashUtil.sha3(encoded));
+    }
+
+    private class ChunkWriter {
+        private final DataOutputStream out;
+        private final int type;
+        private final List<byte[]> items = new ArrayList<>();
+
+        ChunkWriter(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        void add(byte[] item) throws IOException {
+            this.items.add(item);
+
+            if (this.items.size() >= chunkSize)
+                flush();
+        }
+
+        void addUnchecked(byte[] item) {
+            try {
+                add(item);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void flush() throws IOException {
+            if (this.items.isEmpty())
+                return;
+
+            writeChunk(this.out, this.type, this.items.toArray(new byte[this.items.size()][]));
+            this.items.clear();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.db;
+
+import co.rsk.trie.TrieStoreImpl;
+import co.rsk.trie.TrieStoreSnapshot;
+import org.ethereum.core.AccountState;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.ContractDetails;
+import org.ethereum.db.DetailsDataStore;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+import org.ethereum.vm.DataWord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static co.rsk.db.StateSnapshotExporter.*;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * StateSnapshotImporter reads a snapshot written by StateSnapshotExporter into a repository
+ *
+ * Every chunk is checked against its hash, the block header against the expected block hash,
+ * and the imported account trie against the state root of that header. Each contract is
+ * checked against the code hash and the storage root of its account, and every account
+ * with code or storage must have its contract in the snapshot.
+ *
+ * The data is written while it is read, so the repository must be empty: the import is
+ * rejected otherwise, and the data of an invalid snapshot has to be discarded with its database.
+ */
+public class StateSnapshotImporter {
+    private static final Logger logger = LoggerFactory.getLogger("snapshot");
+
+    private static final byte[] EMPTY_DATA_HASH = HashUtil.sha3(EMPTY_BYTE_ARRAY);
+
+    // larger chunks are rejected before reading them
+    private static final int MAX_CHUNK_LENGTH = 64 * 1024 * 1024;
+
+    private final RepositoryImpl repository;
+
+    private BlockHeader header;
+    private boolean stateChecked;
+    private byte[] contractAddress;
+    private ContractDetailsImpl contractDetails;
+    private byte[] lastAddress;
+    // the imported contracts with code or storage
+    private long contracts;
+
+    private long nodes;
+    private long accounts;
+    private long rows;
+
+    public StateSnapshotImporter(RepositoryImpl repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * importSnapshot reads a snapshot into an empty repository, and leaves the repository at its state
+     *
+     * @param input     the stream to read from
+     * @param blockHash the hash of the expected block
+     *
+     * @return  true if the snapshot was imported, false if it was invalid or the repository was not empty
+     */
+    public boolean importSnapshot(InputStream input, byte[] blockHash) {
+        long start = System.currentTimeMillis();
+
+        if (!getTrieStore().isEmpty() || !this.repository.getDetailsDataStore().isEmpty()) {
+            logger.error("The state snapshot can only be imported into an empty database");
+            return false;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+
+            processHeader(readChunk(in, HEADER_CHUNK), blockHash);
+
+            while (true) {
+                RLPList chunk = readChunk(in, -1);
+                int type = decodeInt(chunk.get(0));
+
+                if (type == END_CHUNK) {
+                    processEnd(chunk);
+                    break;
+                }
+
+                if (type == NODES_CHUNK)
+                    processNodes(chunk);
+                else if (type == ACCOUNTS_CHUNK)
+                    processAccounts(chunk);
+                else if (type == STORAGE_CHUNK)
+                    processStorage(chunk);
+                else
+                    throw new IOException("Unknown chunk type " + type);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Invalid state snapshot: {}", e.getMessage());
+            return false;
+        }
+
+        logger.info("Imported state of block {}: {} nodes, {} accounts, {} storage rows, in {} ms", this.header.getNumber(), this.nodes, this.accounts, this.rows, System.currentTimeMillis() - start);
+
+        return true;
+    }
+
+    /**
+     * isValidContract checks the code and the storage of a contract against its account
+     *
+     * @param accountState  the account state, from a verified state trie
+     * @param details       the contract code and storage
+     *
+     * @return  true if the code hash and the storage root match the account
+     */
+    public static boolean isValidContract(AccountState accountState, ContractDetails details) {
+        byte[] code = details.getCode();
+        byte[] codeHash = code == null || code.length == 0 ? EMPTY_DATA_HASH : HashUtil.sha3(code);
+
+        return Arrays.equals(codeHash, accountState.getCodeHash()) && Arrays.equals(details.getStorageHash(), accountState.getStateRoot());
+    }
+
+    public BlockHeader getHeader() {
+        return this.header;
+    }
+
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    public long getAccounts() {
+        return this.accounts;
+    }
+
+    public long getRows() {
+        return this.rows;
+    }
+
+    private void processHeader(RLPList chunk, byte[] blockHash) throws IOException {
+        if (chunk.size() != 4 || !Arrays.equals(MAGIC, chunk.get(1).getRLPData()))
+            throw new IOException("Not a state snapshot");
+
+        int version = decodeInt(chunk.get(2));
+
+        if (version != VERSION)
+            throw new IOException("Unsupported version " + version);
+
+        this.header = new BlockHeader((RLPList) chunk.get(3));
+
+        if (!Arrays.equals(this.header.getHash(), blockHash))
+            throw new IOException("Block hash mismatch, snapshot of block " + Hex.toHexString(this.header.getHash()));
+    }
+
+    private void processNodes(RLPList chunk) throws IOException {
+        if (this.stateChecked)
+            throw new IOException("Trie nodes after accounts");
+
+        List<byte[]> messages = new ArrayList<>();
+
+        for (int k = 1; k < chunk.size(); k++)
+            messages.add(chunk.get(k).getRLPData());
+
+        new TrieStoreSnapshot(getTrieStore()).importNodes(messages);
+
+        this.nodes += messages.size();
+    }
+
+    private void processAccounts(RLPList chunk) throws IOException {
+        checkState();
+
+        for (int k = 1; k < chunk.size(); k++) {
+            RLPList item = (RLPList) chunk.get(k);
+
+            finishContract();
+
+            byte[] address = item.get(0).getRLPData();
+
+            // in increasing order, so each account is imported once
+            if (address == null || (this.lastAddress != null && FastByteComparisons.compareTo(address, 0, address.length, this.lastAddress, 0, this.lastAddress.length) <= 0))
+                throw new IOException("Accounts out of order");
+
+            this.lastAddress = address;
+            this.contractAddress = address;
+            this.contractDetails = new ContractDetailsImpl();
+            this.contractDetails.setCode(getData(item.get(1)));
+            this.accounts++;
+        }
+
+        flushDetails();
+    }
+
+    private void processStorage(RLPList chunk) throws IOException {
+        for (int k = 1; k < chunk.size(); k++) {
+            RLPList item = (RLPList) chunk.get(k);
+
+            if (this.contractDetails == null || !Arrays.equals(this.contractAddress, item.get(0).getRLPData()))
+                throw new IOException("Storage row out of its account");
+
+            this.contractDetails.putBytes(new DataWord(item.get(1).getRLPData()), getData(item.get(2)));
+            this.rows++;
+        }
+    }
+
+    private void processEnd(RLPList chunk) throws IOException {
+        checkState();
+        finishContract();
+        flushDetails();
+
+        long expectedNodes = decodeLong(chunk.get(1));
+        long expectedAccounts = decodeLong(chunk.get(2));
+        long expectedRows = decodeLong(chunk.get(3));
+
+        if (expectedNodes != this.nodes || expectedAccounts != this.accounts || expectedRows != this.rows)
+            throw new IOException("Incomplete snapshot");
+
+        if (!Arrays.equals(this.repository.getRoot(), this.header.getStateRoot()))
+            throw new IOException("State root mismatch");
+
+        // the imported contracts were checked against distinct accounts, so if there are
+        // as many accounts with code or storage, none of them is missing its contract
+        long[] expectedContracts = new long[1];
+
+        new TrieStoreSnapshot(getTrieStore()).forEachValue(this.header.getStateRoot(), value -> {
+            if (hasContract(new AccountState(value)))
+                expectedContracts[0]++;
+        });
+
+        if (expectedContracts[0] != this.contracts)
+            throw new IOException("Missing contracts, " + expectedContracts[0] + " accounts with code or storage, " + this.contracts + " imported");
+    }
+
+    // the account trie must be complete before the accounts are checked
+    private void checkState() throws IOException {
+        if (this.stateChecked)
+            return;
+
+        if (!new TrieStoreSnapshot(getTrieStore()).hasAllNodes(this.header.getStateRoot()))
+            throw new IOException("Missing trie nodes for state root " + Hex.toHexString(this.header.getStateRoot()));
+
+        this.repository.syncToRoot(this.header.getStateRoot());
+        this.stateChecked = true;
+    }
+
+    private void finishContract() throws IOException {
+        if (this.contractDetails == null)
+            return;
+
+        AccountState accountState = this.repository.getAccountState(this.contractAddress);
+
+        if (accountState == null)
+            throw new IOException("Unknown account " + Hex.toHexString(this.contractAddress));
+
+        if (!isValidContract(accountState, this.contractDetails))
+            throw new IOException("Code or storage mismatch for account " + Hex.toHexString(this.contractAddress));
+
+        if (hasContract(accountState))
+            this.contracts++;
+
+        this.repository.getDetailsDataStore().update(this.contractAddress, this.contractDetails);
+
+        this.contractAddress = null;
+        this.contractDetails = null;
+    }
+
+    // the finished contracts are written every chunk, to bound the memory in use
+    private void flushDetails() {
+        DetailsDataStore detailsDataStore = this.repository.getDetailsDataStore();
+        detailsDataStore.flush();
+    }
+
+    private static boolean hasContract(AccountState accountState) {
+        return !Arrays.equals(accountState.getCodeHash(), EMPTY_DATA_HASH) || !Arrays.equals(accountState.getStateRoot(), EMPTY_TRIE_HASH);
+    }
+
+    private TrieStoreImpl getTrieStore() {
+        return (TrieStoreImpl) this.repository.getTrieStore();
+    }
+
+    private RLPList readChunk(DataInputStream in, int expectedType) throws IOException {
+        byte[] encoded;
+        byte[] hash = new byte[32];
+
+        try {
+            int length = in.readInt();
+
+            if (length <= 0 || length > MAX_CHUNK_LENGTH)
+                throw new IOException("Invalid chunk length " + length);
+
+            encoded = new byte[length];
+            in.readFully(encoded);
+            in.readFully(hash);
+        } catch (EOFException e) {
+            throw new IOException("Truncated snapshot", e);
+        }
+
+        if (!Arrays.equals(HashUtil.sha3(encoded), hash))
+            throw new IOException("Chunk hash mismatch");
+
+        RLPList chunk = (RLPList) RLP.decode2(encoded).get(0);
+
+        if (expectedType >= 0 && decodeInt(chunk.get(0)) != expectedType)
+            throw new IOException("Unexpected chunk type");
+
+        return chunk;
+    }
+
+    private static byte[] getData(RLPElement element) {
+        byte[] data = element.getRLPData();
+        return data == null ? EMPTY_BYTE_ARRAY : data;
+    }
+
+    private static int decodeInt(RLPElement element) {
+        return ByteUtil.byteArrayToInt(element.getRLPData());
+    }
+
+    private static long decodeLong(RLPElement element) {
+        byte[] data = element.getRLPData();
+        return data == null ? 0 : new BigInteger(1, data).longValue();
+    }
+}
@@ -18,30 +18,129 @@
 
 package co.rsk.net;
 
+import co.rsk.crypto.Keccak256;
+import co.rsk.util.collections.LongObjectHashMap;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
-import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by ajlopez on 5/11/2016.
+ *
+ * Holds the blocks that cannot be connected yet. The store is bounded: by number of blocks,
+ * by their encoded size and by blocks per peer, evicting first the blocks farthest from the best block,
+ * and the oldest of the equally far blocks.
+ * The blocks too far from the best block, or waiting for too long, are expired.
  */
 public class BlockStore {
-    private Map<ByteArrayWrapper, Block> blocks = new HashMap<>();
-    private Map<Long, Set<Block>> blocksbynumber = new HashMap<>();
-    private Map<ByteArrayWrapper, Set<Block>> blocksbyparent = new HashMap<>();
-
-    private final Map<ByteArrayWrapper, BlockHeader> headers = new HashMap<>();
-    private final Map<Long, Set<ByteArrayWrapper>> headersbynumber = new HashMap<>();
-    private final Map<ByteArrayWrapper, Set<ByteArrayWrapper>> headersbyparent = new HashMap<>();
-
-    public synchronized void saveBlock(Block block) {
-        ByteArrayWrapper key = new ByteArrayWrapper(block.getHash());
-        ByteArrayWrapper pkey = new ByteArrayWrapper(block.getParentHash());
-        Long nkey = Long.valueOf(block.getNumber());
-        this.blocks.put(key, block);
+    private static final Logger logger = LoggerFactory.getLogger("blockprocessor");
+
+    public static final int DEFAULT_MAX_BLOCKS = 10000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_BLOCKS_PER_PEER = 500;
+    public static final long DEFAULT_MAX_DISTANCE = 10000;
+    public static final long DEFAULT_MAX_AGE = 60L * 60 * 1000;
+
+    private final int maxBlocks;
+    private final long maxBytes;
+    private final int maxBlocksPerPeer;
+    private final long maxDistance;
+    private final long maxAge;
+
+    // read without the lock: the lookups by hash and by parent don't wait for the writers
+    private final Map<Keccak256, Block> blocks = new ConcurrentHashMap<>();
+    private final Map<Keccak256, Set<Block>> blocksbyparent = new ConcurrentHashMap<>();
+    private LongObjectHashMap<Set<Block>> blocksbynumber = new LongObjectHashMap<>();
+
+    // in arrival order, the oldest first
+    private final Map<Keccak256, Entry> entries = new LinkedHashMap<>();
+    private final EvictionIndex evictionIndex = new EvictionIndex();
+    private final Map<NodeID, EvictionIndex> blocksbypeer = new HashMap<>();
+    private long arrivals;
+
+    private volatile long bytes;
+    private long bestNumber = -1;
+
+    private final Map<Keccak256, BlockHeader> headers = new HashMap<>();
+    private final LongObjectHashMap<Set<Keccak256>> headersbynumber = new LongObjectHashMap<>();
+    private final Map<Keccak256, Set<Keccak256>> headersbyparent = new HashMap<>();
+
+    public BlockStore() {
+        this(DEFAULT_MAX_BLOCKS, DEFAULT_MAX_BYTES, DEFAULT_MAX_BLOCKS_PER_PEER, DEFAULT_MAX_DISTANCE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param maxBlocks         maximum number of blocks
+     * @param maxBytes          maximum encoded size of the blocks
+     * @param maxBlocksPerPeer  maximum number of blocks received from the same peer
+     * @param maxDistance       maximum distance in blocks from the best block
+     * @param maxAge            maximum time in milliseconds a block waits for its ancestors
+     */
+    public BlockStore(int maxBlocks, long maxBytes, int maxBlocksPerPeer, long maxDistance, long maxAge) {
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+        this.maxBlocksPerPeer = maxBlocksPerPeer;
+        this.maxDistance = maxDistance;
+        this.maxAge = maxAge;
+    }
+
+    public boolean saveBlock(Block block) {
+        return this.saveBlock(block, null, System.currentTimeMillis());
+    }
+
+    public boolean saveBlock(Block block, @Nullable NodeID sender) {
+        return this.saveBlock(block, sender, System.currentTimeMillis());
+    }
+
+    /**
+     * saveBlock saves a block received from the given peer, evicting the farthest blocks
+     * from the best block of that peer or of the store if a limit is reached.
+     *
+     * @param block     the block to save
+     * @param sender    the peer that sent the block, null if unknown
+     * @param now       the current time in milliseconds
+     * @return true if the block is in the store, false if it was rejected
+     */
+    public synchronized boolean saveBlock(Block block, @Nullable NodeID sender, long now) {
+        Keccak256 key = new Keccak256(block.getHash());
+
+        if (this.blocks.containsKey(key))
+            return true;
+
+        Keccak256 pkey = toKey(block.getParentHash());
+
+        if (pkey == null) {
+            logger.trace("Block {} with invalid parent hash, rejected", block.getNumber());
+            return false;
+        }
+
+        if (this.isTooFar(block.getNumber())) {
+            logger.trace("Block {} too far from the best block {}, rejected", block.getNumber(), this.bestNumber);
+            return false;
+        }
+
+        if (sender != null) {
+            EvictionIndex bypeer = this.blocksbypeer.get(sender);
+
+            if (bypeer != null && bypeer.size() >= this.maxBlocksPerPeer)
+                this.evict(bypeer.getFarthest(this.bestNumber));
+        }
+
+        long nkey = block.getNumber();
+        Entry entry = new Entry(block, sender, now, block.getEncoded().length, this.arrivals++);
+
+        this.entries.put(key, entry);
+        this.bytes += entry.size;
+        this.evictionIndex.add(key, entry);
+
+        if (sender != null)
+            this.blocksbypeer.computeIfAbsent(sender, k -> new EvictionIndex()).add(key, entry);
 
         Set<Block> bsbynumber = this.blocksbynumber.get(nkey);
 
@@ -52,76 +151,95 @@ public class BlockStore {
 
         bsbynumber.add(block);
 
-        Set<Block> bsbyphash = this.blocksbyparent.get(pkey);
+        // the children are indexed before the block is visible by hash
+        this.blocksbyparent.computeIfAbsent(pkey, k -> ConcurrentHashMap.newKeySet()).add(block);
+        this.blocks.put(key, block);
 
-        if (bsbyphash == null) {
-            bsbyphash = new HashSet<>();
-            this.blocksbyparent.put(pkey, bsbyphash);
-        }
+        while (this.blocks.size() > this.maxBlocks || this.bytes > this.maxBytes)
+            this.evict(this.evictionIndex.getFarthest(this.bestNumber));
 
-        bsbyphash.add(block);
+        return this.blocks.containsKey(key);
     }
 
     public synchronized void removeBlock(Block block) {
-        if (!this.hasBlock(block.getHash()))
-            return;
+        Keccak256 key = new Keccak256(block.getHash());
+        // the indexes hold the stored instance, so it can be removed without rehashing the other blocks
+        Block stored = this.blocks.remove(key);
 
-        ByteArrayWrapper key = new ByteArrayWrapper(block.getHash());
-        ByteArrayWrapper pkey = new ByteArrayWrapper(block.getParentHash());
-        Long nkey = Long.valueOf(block.getNumber());
+        if (stored == null)
+            return;
 
-        this.blocks.remove(key);
+        // a stored block always has a valid parent hash
+        Keccak256 pkey = toKey(block.getParentHash());
+        long nkey = block.getNumber();
 
         Set<Block> bynumber = this.blocksbynumber.get(nkey);
 
-        if (bynumber != null && !bynumber.isEmpty()) {
-            Block toremove = null;
+        if (bynumber != null && bynumber.remove(stored) && bynumber.isEmpty())
+            this.blocksbynumber.remove(nkey);
 
-            for (Block blk : bynumber) {
-                if (new ByteArrayWrapper(blk.getHash()).equals(key)) {
-                    toremove = blk;
-                    break;
-                }
-            }
+        Set<Block> byparent = this.blocksbyparent.get(pkey);
 
-            if (toremove != null) {
-                bynumber.remove(toremove);
-                if (bynumber.isEmpty())
-                    this.blocksbynumber.remove(nkey);
-            }
+        if (byparent != null && byparent.remove(stored) && byparent.isEmpty())
+            this.blocksbyparent.remove(pkey);
+
+        Entry entry = this.entries.remove(key);
+
+        this.bytes -= entry.size;
+        this.evictionIndex.remove(key, entry);
+
+        if (entry.sender != null) {
+            EvictionIndex bypeer = this.blocksbypeer.get(entry.sender);
+
+            if (bypeer.remove(key, entry) && bypeer.size() == 0)
+                this.blocksbypeer.remove(entry.sender);
         }
+    }
 
-        Set<Block> byparent = this.blocksbyparent.get(pkey);
+    /**
+     * expire removes the blocks and headers too far from the new best block,
+     * and the blocks waiting for their ancestors for too long.
+     *
+     * @param bestNumber    the number of the best block
+     * @param now           the current time in milliseconds
+     */
+    public synchronized void expire(long bestNumber, long now) {
+        this.bestNumber = bestNumber;
 
-        if (byparent != null && !byparent.isEmpty()) {
-            Block toremove = null;
+        List<Block> expired = new ArrayList<>();
 
-            for (Block blk : byparent) {
-                if (new ByteArrayWrapper(blk.getHash()).equals(key)) {
-                    toremove = blk;
-                    break;
-                }
-            }
+        for (Entry entry : this.entries.values())
+            if (this.isTooFar(entry.block.getNumber()) || now - entry.time > this.maxAge)
+                expired.add(entry.block);
 
-            if (toremove != null){
-                byparent.remove(toremove);
+        for (Block block : expired)
+            this.removeBlock(block);
 
-                if (byparent.isEmpty())
-                    this.blocksbyparent.remove(pkey);
-            }
-        }
+        List<BlockHeader> farHeaders = new ArrayList<>();
+
+        for (BlockHeader header : this.headers.values())
+            if (this.isTooFar(header.getNumber()))
+                farHeaders.add(header);
+
+        for (BlockHeader header : farHeaders)
+            this.removeHeader(header);
+
+        if (!expired.isEmpty() || !farHeaders.isEmpty())
+            logger.trace("Expired {} blocks and {} headers, best block {}", expired.size(), farHeaders.size(), bestNumber);
+    }
+
+    public void expire(long bestNumber) {
+        this.expire(bestNumber, System.currentTimeMillis());
     }
 
-    public synchronized Block getBlockByHash(byte[] hash) {
-        ByteArrayWrapper key = new ByteArrayWrapper(hash);
+    public Block getBlockByHash(byte[] hash) {
+        Keccak256 key = toKey(hash);
 
-        return this.blocks.get(key);
+        return key != null ? this.blocks.get(key) : null;
     }
 
     public synchronized List<Block> getBlocksByNumber(long number) {
-        Long nkey = Long.valueOf(number);
-
-        Set<Block> blocks = this.blocksbynumber.get(nkey);
+        Set<Block> blocks = this.blocksbynumber.get(number);
 
         if (blocks == null)
             blocks = new HashSet<Block>();
@@ -131,10 +249,10 @@ public class BlockStore {
         return ls;
     }
 
-    public synchronized List<Block> getBlocksByParentHash(byte[] hash) {
-        ByteArrayWrapper key = new ByteArrayWrapper(hash);
+    public List<Block> getBlocksByParentHash(byte[] hash) {
+        Keccak256 key = toKey(hash);
 
-        Set<Block> blocks = this.blocksbyparent.get(key);
+        Set<Block> blocks = key != null ? this.blocksbyparent.get(key) : null;
 
         if (blocks == null)
             blocks = new HashSet<Block>();
@@ -144,18 +262,37 @@ public class BlockStore {
         return ls;
     }
 
-    public synchronized boolean hasBlock(Block block) {
-        return this.blocks.containsKey(new ByteArrayWrapper(block.getHash()));
+    public boolean hasBlock(Block block) {
+        return this.blocks.containsKey(new Keccak256(block.getHash()));
     }
 
-    public synchronized boolean hasBlock(byte[] hash) {
-        return this.blocks.containsKey(new ByteArrayWrapper(hash));
+    public boolean hasBlock(byte[] hash) {
+        Keccak256 key = toKey(hash);
+
+        return key != null && this.blocks.containsKey(key);
     }
 
-    public synchronized int size() {
+    public int size() {
         return this.blocks.size();
     }
 
+    /**
+     * @return the encoded size of the blocks in the store
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    public synchronized int getBlocksCount(@Nonnull NodeID sender) {
+        EvictionIndex bypeer = this.blocksbypeer.get(sender);
+
+        return bypeer != null ? bypeer.size() : 0;
+    }
+
+    public synchronized int getHeadersCount() {
+        return this.headers.size();
+    }
+
     public synchronized long minimalHeight() {
         long value = 0;
 
@@ -189,7 +326,7 @@ public class BlockStore {
      * @return true if the store has the header, false otherwise.
      */
     public synchronized boolean hasHeader(@Nonnull final byte[] hash) {
-        return this.headers.containsKey(new ByteArrayWrapper(hash));
+        return this.headers.containsKey(toKey(hash));
     }
 
     /**
@@ -198,19 +335,24 @@ public class BlockStore {
      * @param header the header to store.
      */
     public synchronized void saveHeader(@Nonnull final BlockHeader header) {
-        ByteArrayWrapper key = new ByteArrayWrapper(header.getHash());
-        ByteArrayWrapper pkey = new ByteArrayWrapper(header.getParentHash());
-        Long nkey = Long.valueOf(header.getNumber());
+        Keccak256 pkey = toKey(header.getParentHash());
+
+        // a header with an invalid parent hash is ignored
+        if (pkey == null)
+            return;
+
+        Keccak256 key = new Keccak256(header.getHash());
+        long nkey = header.getNumber();
         this.headers.put(key, header);
 
-        Set<ByteArrayWrapper> hsbynumber = this.headersbynumber.get(nkey);
+        Set<Keccak256> hsbynumber = this.headersbynumber.get(nkey);
         if (hsbynumber == null) {
             hsbynumber = new HashSet<>();
             this.headersbynumber.put(nkey, hsbynumber);
         }
         hsbynumber.add(key);
 
-        Set<ByteArrayWrapper> hsbyphash = this.headersbyparent.get(pkey);
+        Set<Keccak256> hsbyphash = this.headersbyparent.get(pkey);
         if (hsbyphash == null) {
             hsbyphash = new HashSet<>();
             this.headersbyparent.put(pkey, hsbyphash);
@@ -227,26 +369,108 @@ public class BlockStore {
         if (!this.hasHeader(header.getHash()))
             return;
 
-        ByteArrayWrapper key = new ByteArrayWrapper(header.getHash());
-        ByteArrayWrapper pkey = new ByteArrayWrapper(header.getParentHash());
-        Long nkey = Long.valueOf(header.getNumber());
+        Keccak256 key = new Keccak256(header.getHash());
+        Keccak256 pkey = toKey(header.getParentHash());
+        long nkey = header.getNumber();
 
         this.headers.remove(key);
 
-        Set<ByteArrayWrapper> byNumber = this.headersbynumber.get(nkey);
+        Set<Keccak256> byNumber = this.headersbynumber.get(nkey);
         if (byNumber != null) {
             byNumber.remove(key);
             if (byNumber.isEmpty()) {
-                this.headersbynumber.remove(byNumber);
+                this.headersbynumber.remove(nkey);
             }
         }
 
-        Set<ByteArrayWrapper> byParent = this.headersbyparent.get(pkey);
+        Set<Keccak256> byParent = this.headersbyparent.get(pkey);
         if (byParent != null) {
             byParent.remove(key);
             if (byParent.isEmpty()) {
-                this.headersbyparent.remove(byParent);
+                this.headersbyparent.remove(pkey);
             }
         }
     }
+
+    private boolean isTooFar(long number) {
+        return this.bestNumber >= 0 && Math.abs(number - this.bestNumber) > this.maxDistance;
+    }
+
+    private void evict(Keccak256 key) {
+        Block block = this.blocks.get(key);
+
+        logger.trace("Block {} {} evicted from the store", block.getNumber(), block.getShortHash());
+
+        this.removeBlock(block);
+    }
+
+    /**
+     * Lookup key for a hash received from outside, null if it is not a valid hash.
+     * The maps don't hold null keys, so a malformed hash is simply not found.
+     */
+    private static Keccak256 toKey(byte[] hash) {
+        return hash.length == Keccak256.LENGTH ? new Keccak256(hash) : null;
+    }
+
+    private static class Entry {
+        private final Block block;
+        private final NodeID sender;
+        private final long time;
+        private final int size;
+        private final long arrival;
+
+        Entry(Block block, NodeID sender, long time, int size, long arrival) {
+            this.block = block;
+            this.sender = sender;
+            this.time = time;
+            this.size = size;
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * The blocks by number, and in arrival order for each number. The farthest blocks from
+     * the best block are the lowest or the highest ones, so they are found in O(log n)
+     * whatever the best block is. Before the best block is known, the oldest block is the farthest.
+     */
+    private static class EvictionIndex {
+        private final TreeMap<Long, Map<Keccak256, Entry>> bynumber = new TreeMap<>();
+        private final Map<Keccak256, Entry> byarrival = new LinkedHashMap<>();
+
+        void add(Keccak256 key, Entry entry) {
+            this.bynumber.computeIfAbsent(entry.block.getNumber(), k -> new LinkedHashMap<>()).put(key, entry);
+            this.byarrival.put(key, entry);
+        }
+
+        boolean remove(Keccak256 key, Entry entry) {
+            long number = entry.block.getNumber();
+            Map<Keccak256, Entry> level = this.bynumber.get(number);
+
+            if (level != null && level.remove(key) != null && level.isEmpty())
+                this.bynumber.remove(number);
+
+            return this.byarrival.remove(key) != null;
+        }
+
+        int size() {
+            return this.byarrival.size();
+        }
+
+        Keccak256 getFarthest(long bestNumber) {
+            if (bestNumber < 0)
+                return this.byarrival.keySet().iterator().next();
+
+            Map.Entry<Keccak256, Entry> lowest = this.bynumber.firstEntry().getValue().entrySet().iterator().next();
+            Map.Entry<Keccak256, Entry> highest = this.bynumber.lastEntry().getValue().entrySet().iterator().next();
+
+            long below = Math.abs(bestNumber - lowest.getValue().block.getNumber());
+            long above = Math.abs(highest.getValue().block.getNumber() - bestNumber);
+
+            // the oldest of the equally far blocks
+            if (below > above || (below == above && lowest.getValue().arrival <= highest.getValue().arrival))
+                return lowest.getKey();
+
+            return highest.getKey();
+        }
+    }
 }
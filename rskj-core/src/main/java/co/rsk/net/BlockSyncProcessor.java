@@ -0,0 +1,422 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net;
+
+import co.rsk.net.messages.GetBlockHeadersMessage;
+import co.rsk.net.messages.GetBlockMessage;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Blockchain;
+import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * BlockSyncProcessor downloads the blocks after the best block from several peers at the same time
+ *
+ * First, a sparse skeleton of headers, one every segment size blocks, is requested to the best
+ * peer, starting at the local best block. Then, the segments between the skeleton headers are
+ * requested in parallel to all the peers, and each one is checked against the hashes of its
+ * skeleton ends. Last, the blocks of the checked headers are requested to all the peers, in
+ * ascending order, and the NodeBlockProcessor connects them to the blockchain as they arrive.
+ *
+ * The number of blocks requested at once and the request timeout of each peer adapt to the
+ * latency of its previous responses.
+ */
+public class BlockSyncProcessor {
+    private static final Logger logger = LoggerFactory.getLogger("blocksync");
+
+    public static final int DEFAULT_SEGMENT_SIZE = 128;
+    public static final int MAX_SKELETON_HEADERS = 64;
+    // blocks are requested up to this distance from the best block, less than the distance NodeBlockProcessor accepts
+    public static final int MAX_BLOCKS_AHEAD = 512;
+
+    // a segment that doesn't match its skeleton after these attempts discards the skeleton
+    public static final int MAX_SEGMENT_ATTEMPTS = 3;
+
+    public static final int MIN_BLOCKS_PER_REQUEST = 4;
+    public static final int INITIAL_BLOCKS_PER_REQUEST = 16;
+    public static final int MAX_BLOCKS_PER_REQUEST = 128;
+
+    public static final long INITIAL_LATENCY = 1000;
+    public static final long TARGET_LATENCY = 2000;
+    public static final long MIN_TIMEOUT = 2000;
+    public static final long MAX_TIMEOUT = 30000;
+
+    private final Blockchain blockchain;
+    private final int segmentSize;
+
+    private final Map<NodeID, Peer> peers = new LinkedHashMap<>();
+
+    // the skeleton request, from the local best block to skeletonTop
+    private Peer skeletonPeer;
+    private long skeletonTop;
+
+    // the peer of the last skeleton, and the best block number when it was requested
+    private Peer lastSkeletonPeer;
+    private long lastSkeletonBestNumber = -1;
+
+    private final Deque<Segment> pendingSegments = new ArrayDeque<>();
+
+    // checked headers without block, and the hashes already requested
+    private final TreeMap<Long, BlockHeader> headers = new TreeMap<>();
+    private final Set<ByteArrayWrapper> requestedBlocks = new HashSet<>();
+
+    /**
+     * @param blockchain    the blockchain to sync
+     * @param segmentSize   the distance between skeleton headers, a sync starts with a peer at least this far
+     */
+    public BlockSyncProcessor(@Nonnull Blockchain blockchain, int segmentSize) {
+        this.blockchain = blockchain;
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized boolean isSyncing() {
+        if (this.skeletonPeer != null || !this.pendingSegments.isEmpty() || !this.headers.isEmpty())
+            return true;
+
+        for (Peer peer : this.peers.values())
+            if (peer.hasRequest())
+                return true;
+
+        return false;
+    }
+
+    /**
+     * isDownloading returns true if the block was requested by the sync
+     */
+    public synchronized boolean isDownloading(@Nonnull byte[] hash) {
+        return this.requestedBlocks.contains(new ByteArrayWrapper(hash));
+    }
+
+    public synchronized int getPendingHeaders() {
+        return this.headers.size();
+    }
+
+    /**
+     * processStatus updates the best block of a peer, and starts a sync if it is far enough
+     */
+    public synchronized void processStatus(@Nonnull MessageSender sender, @Nonnull Status status) {
+        Peer peer = this.peers.get(sender.getNodeID());
+
+        if (peer == null) {
+            peer = new Peer(sender);
+            this.peers.put(sender.getNodeID(), peer);
+        }
+
+        if (status.getBestBlockNumber() > peer.bestNumber)
+            peer.bestNumber = status.getBestBlockNumber();
+
+        this.tick();
+    }
+
+    /**
+     * processBlockHeaders processes the headers that answer a skeleton or segment request
+     *
+     * @return  true if the headers were requested by the sync
+     */
+    public synchronized boolean processBlockHeaders(@Nonnull MessageSender sender, @Nonnull List<BlockHeader> blockHeaders) {
+        Peer peer = this.peers.get(sender.getNodeID());
+
+        if (peer == null || blockHeaders.isEmpty())
+            return false;
+
+        // the headers arrive in descending order
+        List<BlockHeader> received = new ArrayList<>(blockHeaders);
+        received.sort((a, b) -> Long.compare(b.getNumber(), a.getNumber()));
+
+        if (peer == this.skeletonPeer && received.get(0).getNumber() == this.skeletonTop) {
+            peer.updateLatency(System.currentTimeMillis() - peer.requestTime);
+            this.skeletonPeer = null;
+
+            if (!processSkeleton(peer, received))
+                peer.failures++;
+
+            this.sendRequests();
+            return true;
+        }
+
+        Segment segment = peer.segment;
+
+        if (segment != null && Arrays.equals(received.get(0).getHash(), segment.upper.getHash())) {
+            peer.updateLatency(System.currentTimeMillis() - peer.requestTime);
+            peer.segment = null;
+
+            if (!processSegment(segment, received)) {
+                logger.trace("Invalid segment {} from {}", segment.upper.getNumber(), sender.getNodeID());
+                peer.failures++;
+
+                if (++segment.attempts < MAX_SEGMENT_ATTEMPTS)
+                    this.pendingSegments.addFirst(segment);
+                else
+                    discardSkeleton(segment);
+            }
+
+            this.sendRequests();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * processBlock takes note of a block received from a peer
+     *
+     * @return  true if the block was requested by the sync
+     */
+    public synchronized boolean processBlock(@Nonnull MessageSender sender, @Nonnull Block block) {
+        ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+
+        if (!this.requestedBlocks.remove(hash))
+            return false;
+
+        this.headers.remove(block.getNumber());
+
+        Peer sent = this.peers.get(sender.getNodeID());
+
+        for (Peer peer : this.peers.values())
+            if (peer.blocks.remove(hash) && peer.blocks.isEmpty() && peer == sent)
+                peer.completeBlocksRequest();
+
+        return true;
+    }
+
+    /**
+     * tick requests again the data of timed out requests, and sends new requests to the idle peers
+     */
+    public synchronized void tick() {
+        long now = System.currentTimeMillis();
+
+        for (Peer peer : this.peers.values()) {
+            if (!peer.hasRequest() || now - peer.requestTime <= peer.getTimeout())
+                continue;
+
+            logger.trace("Sync request to {} timed out", peer.sender.getNodeID());
+
+            if (peer == this.skeletonPeer)
+                this.skeletonPeer = null;
+
+            if (peer.segment != null)
+                this.pendingSegments.addFirst(peer.segment);
+
+            this.requestedBlocks.removeAll(peer.blocks);
+
+            peer.segment = null;
+            peer.blocks.clear();
+            peer.timeout();
+        }
+
+        this.sendRequests();
+    }
+
+    // no peer agrees with the skeleton, the segments not downloaded yet are discarded
+    private void discardSkeleton(Segment segment) {
+        logger.trace("Discarding skeleton from {}", segment.source.sender.getNodeID());
+        segment.source.failures++;
+        this.pendingSegments.removeIf(s -> s.source == segment.source);
+    }
+
+    private boolean processSkeleton(Peer source, List<BlockHeader> skeleton) {
+        long from = this.skeletonTop - (long) (skeleton.size() - 1) * this.segmentSize;
+        Block start = this.blockchain.getBlockByNumber(from);
+
+        for (int k = 0; k < skeleton.size(); k++)
+            if (skeleton.get(k).getNumber() != this.skeletonTop - (long) k * this.segmentSize)
+                return false;
+
+        // the skeleton must start at the local chain, other forks are left to the block by block sync
+        if (start == null || !Arrays.equals(start.getHash(), skeleton.get(skeleton.size() - 1).getHash()))
+            return false;
+
+        for (int k = skeleton.size() - 1; k > 0; k--)
+            this.pendingSegments.add(new Segment(source, skeleton.get(k), skeleton.get(k - 1)));
+
+        logger.trace("Skeleton from {} to {}, {} segments", from, this.skeletonTop, this.pendingSegments.size());
+
+        return true;
+    }
+
+    private boolean processSegment(Segment segment, List<BlockHeader> received) {
+        if (received.size() != segment.upper.getNumber() - segment.lower.getNumber())
+            return false;
+
+        byte[] hash = segment.upper.getHash();
+
+        for (BlockHeader header : received) {
+            if (!Arrays.equals(hash, header.getHash()))
+                return false;
+
+            hash = header.getParentHash();
+        }
+
+        if (!Arrays.equals(hash, segment.lower.getHash()))
+            return false;
+
+        for (BlockHeader header : received)
+            if (this.blockchain.getBlockByHash(header.getHash()) == null)
+                this.headers.put(header.getNumber(), header);
+
+        return true;
+    }
+
+    private void sendRequests() {
+        long bestNumber = this.blockchain.getBestBlock().getNumber();
+        List<Peer> available = new ArrayList<>(this.peers.values());
+
+        // the fastest peers first
+        available.sort(Comparator.comparingInt((Peer p) -> p.failures).thenComparingLong(p -> p.latency));
+
+        for (Peer peer : available) {
+            if (peer.hasRequest())
+                continue;
+
+            Segment segment = this.pendingSegments.peek();
+
+            if (segment != null && peer.bestNumber >= segment.upper.getNumber()) {
+                this.pendingSegments.poll();
+                peer.segment = segment;
+                peer.requestTime = System.currentTimeMillis();
+                peer.sender.sendMessage(new GetBlockHeadersMessage(0, segment.upper.getHash(), (int) (segment.upper.getNumber() - segment.lower.getNumber()), 0, false));
+                continue;
+            }
+
+            sendBlocksRequest(peer, bestNumber);
+        }
+
+        if (!isSyncing())
+            startSkeleton(bestNumber);
+    }
+
+    private void sendBlocksRequest(Peer peer, long bestNumber) {
+        for (BlockHeader header : this.headers.headMap(bestNumber + MAX_BLOCKS_AHEAD).values()) {
+            if (peer.blocks.size() >= peer.maxBlocks || header.getNumber() > peer.bestNumber)
+                break;
+
+            ByteArrayWrapper hash = new ByteArrayWrapper(header.getHash());
+
+            if (!this.requestedBlocks.add(hash))
+                continue;
+
+            peer.blocks.add(hash);
+            peer.sender.sendMessage(new GetBlockMessage(header.getHash()));
+        }
+
+        if (!peer.blocks.isEmpty())
+            peer.requestTime = System.currentTimeMillis();
+    }
+
+    private void startSkeleton(long bestNumber) {
+        // a previous skeleton that didn't advance the best block is blamed on its peer
+        if (this.lastSkeletonPeer != null && bestNumber == this.lastSkeletonBestNumber) {
+            this.lastSkeletonPeer.failures++;
+            this.lastSkeletonPeer = null;
+        }
+
+        Peer best = null;
+
+        // the peer with less failures, then the highest best block
+        for (Peer peer : this.peers.values())
+            if (peer.bestNumber >= bestNumber + this.segmentSize &&
+                    (best == null || peer.failures < best.failures || (peer.failures == best.failures && peer.bestNumber > best.bestNumber)))
+                best = peer;
+
+        if (best == null)
+            return;
+
+        long segments = Math.min((best.bestNumber - bestNumber) / this.segmentSize, MAX_SKELETON_HEADERS - 1);
+
+        if (segments == 0)
+            return;
+
+        this.skeletonPeer = best;
+        this.skeletonTop = bestNumber + segments * this.segmentSize;
+        this.lastSkeletonPeer = best;
+        this.lastSkeletonBestNumber = bestNumber;
+
+        best.requestTime = System.currentTimeMillis();
+        best.sender.sendMessage(new GetBlockHeadersMessage(this.skeletonTop, null, (int) segments + 1, this.segmentSize - 1, false));
+
+        logger.trace("Requesting skeleton from {} to {} to {}", bestNumber, this.skeletonTop, best.sender.getNodeID());
+    }
+
+    /**
+     * The headers between two skeleton headers, lower excluded
+     */
+    private static class Segment {
+        private final Peer source;
+        private final BlockHeader lower;
+        private final BlockHeader upper;
+        private int attempts;
+
+        Segment(Peer source, BlockHeader lower, BlockHeader upper) {
+            this.source = source;
+            this.lower = lower;
+            this.upper = upper;
+        }
+    }
+
+    private class Peer {
+        private final MessageSender sender;
+        private long bestNumber;
+
+        private Segment segment;
+        private final Set<ByteArrayWrapper> blocks = new HashSet<>();
+        private long requestTime;
+
+        // moving average of the response time, in milliseconds
+        private long latency = INITIAL_LATENCY;
+        private int maxBlocks = INITIAL_BLOCKS_PER_REQUEST;
+        private int failures;
+
+        Peer(MessageSender sender) {
+            this.sender = sender;
+        }
+
+        boolean hasRequest() {
+            return this == skeletonPeer || this.segment != null || !this.blocks.isEmpty();
+        }
+
+        long getTimeout() {
+            return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, this.latency * 4));
+        }
+
+        void updateLatency(long time) {
+            this.latency = (this.latency * 3 + time) / 4;
+        }
+
+        // a fast response allows a larger request
+        void completeBlocksRequest() {
+            long time = System.currentTimeMillis() - this.requestTime;
+            updateLatency(time);
+
+            if (time < TARGET_LATENCY)
+                this.maxBlocks = Math.min(this.maxBlocks * 2, MAX_BLOCKS_PER_REQUEST);
+        }
+
+        void timeout() {
+            updateLatency(getTimeout());
+            this.maxBlocks = Math.max(this.maxBlocks / 2, MIN_BLOCKS_PER_REQUEST);
+            this.failures++;
+        }
+    }
+}
@@ -18,6 +18,7 @@
 
 package co.rsk.net;
 
+import co.rsk.core.bc.BlockPreprocessor;
 import co.rsk.core.bc.BlockUtils;
 import co.rsk.net.messages.*;
 import org.ethereum.core.Block;
@@ -35,6 +36,7 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
+import java.math.BigInteger;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -70,6 +72,17 @@ public class NodeBlockProcessor implements BlockProcessor {
 
     private long lastStatusTime;
 
+    // preprocesses the blocks waiting for their ancestors, null if disabled
+    private BlockPreprocessor preprocessor;
+
+    // downloads the blocks in parallel from several peers, null if disabled
+    private BlockSyncProcessor syncProcessor;
+
+    // downloads the state of a pivot block instead of processing the blocks before it, null if disabled
+    private StateSyncProcessor stateSyncProcessor;
+    private byte[] statePivotHash;
+    private BigInteger statePivotDifficulty;
+
     /**
      * Creates a new NodeBlockProcessor using the given BlockStore and Blockchain.
      *
@@ -99,6 +112,36 @@ public class NodeBlockProcessor implements BlockProcessor {
         this.channelManager = null;
     }
 
+    public void setBlockPreprocessor(@Nullable BlockPreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    public void setBlockSyncProcessor(@Nullable BlockSyncProcessor syncProcessor) {
+        this.syncProcessor = syncProcessor;
+    }
+
+    /**
+     * setStateSync enables the state sync mode: the pivot block is requested to the peers,
+     * and its state is downloaded before processing the blocks as usual.
+     *
+     * @param processor         the processor that downloads the state
+     * @param pivotHash         the hash of the pivot block, from a trusted source
+     * @param pivotDifficulty   the total difficulty of the pivot block
+     */
+    public void setStateSync(@Nonnull StateSyncProcessor processor, @Nonnull byte[] pivotHash, @Nonnull BigInteger pivotDifficulty) {
+        this.stateSyncProcessor = processor;
+        this.statePivotHash = pivotHash;
+        this.statePivotDifficulty = pivotDifficulty;
+    }
+
+    private boolean isSyncingInParallel() {
+        return this.syncProcessor != null && this.syncProcessor.isSyncing();
+    }
+
+    public boolean isSyncingState() {
+        return this.stateSyncProcessor != null && this.statePivotHash != null && !this.stateSyncProcessor.isCompleted();
+    }
+
     @Override
     @Nonnull
     public Blockchain getBlockchain() {
@@ -138,6 +181,9 @@ public class NodeBlockProcessor implements BlockProcessor {
     public void processBlockHeaders(@Nonnull final MessageSender sender, @Nonnull final List<BlockHeader> blockHeaders) {
         // TODO(mvanotti): Implement missing functionality.
 
+        if (this.syncProcessor != null && this.syncProcessor.processBlockHeaders(sender, blockHeaders))
+            return;
+
         // sort block headers in ascending order, so we can process them in that order.
         blockHeaders.sort((a, b) -> Long.compare(a.getNumber(), b.getNumber()));
 
@@ -176,13 +222,15 @@ public class NodeBlockProcessor implements BlockProcessor {
             return new BlockProcessResult(false, null);
         }
 
+        if (this.isSyncingState())
+            return processBlockSyncingState(block);
+
         if ((++processedBlocksCounter % 200) == 0) {
+            store.expire(bestBlockNumber);
+
             long minimal = store.minimalHeight();
             long maximum = store.maximumHeight();
-            logger.trace("Blocks in block processor {} from height {} to height {}", this.store.size(), minimal, maximum);
-
-            if (minimal < bestBlockNumber - 1000)
-                store.releaseRange(minimal, minimal + 1000);
+            logger.trace("Blocks in block processor {} ({} bytes) from height {} to height {}", this.store.size(), this.store.getBytes(), minimal, maximum);
 
             sendStatus(sender);
         }
@@ -193,6 +241,9 @@ public class NodeBlockProcessor implements BlockProcessor {
 
         this.store.removeHeader(block.getHeader());
 
+        if (this.syncProcessor != null)
+            this.syncProcessor.processBlock(sender, block);
+
         final ByteArrayWrapper blockHash = new ByteArrayWrapper(block.getHash());
 
         unknownBlockHashes.remove(blockHash);
@@ -217,25 +268,34 @@ public class NodeBlockProcessor implements BlockProcessor {
 
         final Set<ByteArrayWrapper> unknownHashes = BlockUtils.unknownDirectAncestorsHashes(block, blockchain, store);
 
-        this.processMissingHashes(sender, unknownHashes);
+        // the sync downloads the missing ancestors, if any
+        if (!this.isSyncingInParallel())
+            this.processMissingHashes(sender, unknownHashes);
 
         // We can't add the block if there are missing ancestors or uncles. Request the missing blocks to the sender.
         if (!unknownHashes.isEmpty()) {
             logger.trace("Missing hashes for block " + blockNumber + " " + block.getShortHash());
 
-            if (!this.store.hasBlock(block))
-                this.store.saveBlock(block);
+            // the store rejects the blocks too far from the best block
+            if (!this.store.hasBlock(block) && this.store.saveBlock(block, sender != null ? sender.getNodeID() : null)) {
+                if (this.preprocessor != null)
+                    this.preprocessor.preprocess(block);
+            }
 
             return new BlockProcessResult(false, null);
         }
 
         if (!this.store.hasBlock(block))
-            this.store.saveBlock(block);
+            this.store.saveBlock(block, sender != null ? sender.getNodeID() : null);
 
         logger.trace("Trying to add to blockchain");
 
         BlockProcessResult result = new BlockProcessResult(true, connectBlocksAndDescendants(sender, BlockUtils.sortBlocksByNumber(getBlocksNotInBlockchain(block))));
 
+        // the best block could be advanced, more blocks can be requested
+        if (this.syncProcessor != null)
+            this.syncProcessor.tick();
+
         // After adding a long blockchain, refresh status if needed
         if (this.hasBetterBlockToSync())
             sendStatusToAll();
@@ -243,6 +303,20 @@ public class NodeBlockProcessor implements BlockProcessor {
         return result;
     }
 
+    // while the state is downloaded, only the pivot block is processed
+    private BlockProcessResult processBlockSyncingState(@Nonnull final Block block) {
+        if (!Arrays.equals(block.getHash(), this.statePivotHash) || this.stateSyncProcessor.isSyncing())
+            return new BlockProcessResult(false, null);
+
+        if (block.getNumber() > this.lastKnownBlockNumber)
+            this.lastKnownBlockNumber = block.getNumber();
+
+        // the peers send the blocks after the pivot as answer to the new status
+        this.stateSyncProcessor.startSync(block, this.statePivotDifficulty, this::sendStatusToAll);
+
+        return new BlockProcessResult(false, null);
+    }
+
     private Map<ByteArrayWrapper, ImportResult> connectBlocksAndDescendants(MessageSender sender, List<Block> blocks) {
         Map<ByteArrayWrapper, ImportResult> connectionsResult = new HashMap<>();
         while (!blocks.isEmpty()) {
@@ -256,10 +330,16 @@ public class NodeBlockProcessor implements BlockProcessor {
                 if (!missingHashes.isEmpty()) {
                     logger.trace("Missing hashes for block in process " + block.getNumber() + " " + block.getShortHash());
                     logger.trace("Missing hashes " + missingHashes.size());
-                    this.processMissingHashes(sender, missingHashes);
+
+                    if (!this.isSyncingInParallel())
+                        this.processMissingHashes(sender, missingHashes);
+
                     continue;
                 }
 
+                if (this.preprocessor != null)
+                    this.preprocessor.await(block);
+
                 connectionsResult.put(new ByteArrayWrapper(block.getHash()), blockchain.tryToConnect(block));
 
                 if (BlockUtils.blockInSomeBlockChain(block, blockchain)) {
@@ -319,7 +399,20 @@ public class NodeBlockProcessor implements BlockProcessor {
         final byte[] hash = status.getBestBlockHash();
         nodeInformation.addBlockToNode(new ByteArrayWrapper(hash), sender.getNodeID());
 
-        if (!this.hasBlock(hash))
+        if (this.isSyncingState()) {
+            this.stateSyncProcessor.addPeer(sender);
+
+            if (!this.stateSyncProcessor.isSyncing())
+                sender.sendMessage(new GetBlockMessage(this.statePivotHash));
+
+            return;
+        }
+
+        if (this.syncProcessor != null)
+            this.syncProcessor.processStatus(sender, status);
+
+        // the sync downloads the blocks of the peers that are far ahead
+        if (!this.hasBlock(hash) && !this.isSyncingInParallel())
             sender.sendMessage(new GetBlockMessage(hash));
 
         final long bestBlockNumber = this.getBestBlockNumber();
@@ -18,6 +18,7 @@
 
 package co.rsk.net;
 
+import co.rsk.crypto.Keccak256;
 import co.rsk.net.handler.TxHandler;
 import co.rsk.net.messages.*;
 import com.google.common.annotations.VisibleForTesting;
@@ -57,11 +58,14 @@ public class NodeMessageHandler implements MessageHandler, Runnable {
     private TransactionNodeInformation transactionNodeInformation;
 
     private LinkedBlockingQueue<MessageTask> queue = new LinkedBlockingQueue<>();
-    private Set<ByteArrayWrapper> receivedMessages = Collections.synchronizedSet(new HashSet<ByteArrayWrapper>());
+    private Set<Keccak256> receivedMessages = Collections.synchronizedSet(new HashSet<Keccak256>());
     private volatile boolean stopped;
 
     private TxHandler txHandler;
 
+    // serves and downloads the state, null if disabled
+    private StateSyncProcessor stateSyncProcessor;
+
     public NodeMessageHandler(@Nonnull final BlockProcessor blockProcessor,
                               @Nullable final ChannelManager channelManager,
                               @Nullable final PendingState pendingState,
@@ -74,6 +78,10 @@ public class NodeMessageHandler implements MessageHandler, Runnable {
         this.txHandler = txHandler;
     }
 
+    public void setStateSyncProcessor(@Nullable StateSyncProcessor stateSyncProcessor) {
+        this.stateSyncProcessor = stateSyncProcessor;
+    }
+
     @VisibleForTesting
     public NodeMessageHandler disablePoWValidation() {
         this.PoWRule = null;
@@ -107,6 +115,20 @@ public class NodeMessageHandler implements MessageHandler, Runnable {
         if (mType == MessageType.BLOCK_HEADERS_MESSAGE)
             this.processBlockHeadersMessage(sender, (BlockHeadersMessage) message);
 
+        if (this.stateSyncProcessor != null) {
+            if (mType == MessageType.GET_TRIE_NODES_MESSAGE)
+                this.stateSyncProcessor.processGetTrieNodes(sender, (GetTrieNodesMessage) message);
+
+            if (mType == MessageType.TRIE_NODES_MESSAGE)
+                this.stateSyncProcessor.processTrieNodes(sender, (TrieNodesMessage) message);
+
+            if (mType == MessageType.GET_ACCOUNT_RANGE_MESSAGE)
+                this.stateSyncProcessor.processGetAccountRange(sender, (GetAccountRangeMessage) message);
+
+            if (mType == MessageType.ACCOUNT_RANGE_MESSAGE)
+                this.stateSyncProcessor.processAccountRange(sender, (AccountRangeMessage) message);
+        }
+
         if(!blockProcessor.hasBetterBlockToSync()) {
             if (mType == MessageType.NEW_BLOCK_HASHES)
                 this.processNewBlockHashesMessage(sender, (NewBlockHashesMessage) message);
@@ -119,7 +141,7 @@ public class NodeMessageHandler implements MessageHandler, Runnable {
 
     @Override
     public void postMessage(MessageSender sender, Message message) throws InterruptedException {
-        ByteArrayWrapper encodedMessage = new ByteArrayWrapper(HashUtil.sha3(message.getEncoded()));
+        Keccak256 encodedMessage = new Keccak256(HashUtil.sha3(message.getEncoded()));
         logger.trace("Start post message (queue size {}) (message type {})", this.queue.size(), message.getMessageType());
         if (!receivedMessages.contains(encodedMessage)) {
             if (message.getMessageType() == MessageType.BLOCK_MESSAGE || message.getMessageType() == MessageType.TRANSACTIONS) {
@@ -132,7 +154,7 @@ public class NodeMessageHandler implements MessageHandler, Runnable {
         logger.trace("End post message (queue size {})", this.queue.size());
     }
 
-    private void addReceivedMessage(ByteArrayWrapper message) {
+    private void addReceivedMessage(Keccak256 message) {
         if (message != null) {
             if (this.receivedMessages.size() >= MAX_NUMBER_OF_MESSAGES_CACHED) {
                 this.receivedMessages.clear();
@@ -164,6 +186,9 @@ public class NodeMessageHandler implements MessageHandler, Runnable {
 
                 loggerMessageProcess.debug("Queued Messages: {}", this.queue.size());
 
+                if (this.stateSyncProcessor != null && this.stateSyncProcessor.isSyncing())
+                    this.stateSyncProcessor.tick();
+
                 if (task != null) {
                     logger.trace("Start task");
                     this.processMessage(task.getSender(), task.getMessage());
@@ -0,0 +1,690 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net;
+
+import co.rsk.db.ContractDetailsImpl;
+import co.rsk.db.RepositoryImpl;
+import co.rsk.db.StateSnapshotImporter;
+import co.rsk.net.messages.*;
+import co.rsk.trie.TrieStoreImpl;
+import co.rsk.trie.TrieStoreSnapshot;
+import org.ethereum.core.AccountState;
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.ContractDetails;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.vm.DataWord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import javax.annotation.Nonnull;
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * StateSyncProcessor downloads the state of a pivot block from the peers, instead of executing the blocks before it
+ *
+ * It also serves the state to other peers. First, the account trie nodes are requested by hash,
+ * starting at the state root of the pivot block. The nodes are content addressed, so each
+ * received node is checked by its hash, no other proof is needed. Then, the code and storage
+ * of the accounts are requested in address ranges, and each account is checked against
+ * the code hash and storage root in the already verified account trie.
+ *
+ * The requests are spread over all the known peers, with one outstanding request per peer.
+ *
+ * Only the states of the last blocks of the main chain are served, and the requests
+ * of each peer are limited per period.
+ */
+public class StateSyncProcessor {
+    private static final Logger logger = LoggerFactory.getLogger("statesync");
+
+    private static final Comparator<byte[]> BYTES_COMPARATOR = (b1, b2) -> FastByteComparisons.compareTo(b1, 0, b1.length, b2, 0, b2.length);
+
+    public static final int MAX_NODES_PER_REQUEST = 128;
+    public static final int MAX_ITEMS_PER_REQUEST = 1024;
+    public static final int ADDRESS_RANGES = 16;
+    public static final long REQUEST_TIMEOUT = 30000;
+    public static final int SERVED_BLOCKS = 1024;
+    public static final int MAX_SERVED_REQUESTS = 50;
+    public static final long SERVED_REQUESTS_PERIOD = 1000;
+    private static final int MAX_SERVED_PEERS = 256;
+
+    private enum Phase { IDLE, NODES, ACCOUNTS, COMPLETED }
+
+    private final RepositoryImpl repository;
+    private final Blockchain blockchain;
+    private final TrieStoreSnapshot trieSnapshot;
+
+    // the state roots of the last main chain blocks, by root, with their block number
+    private final Map<ByteArrayWrapper, Long> servedRoots = new HashMap<>();
+    private byte[] servedBestHash;
+    private final Map<NodeID, ServedPeer> servedPeers = new HashMap<>();
+    private final int maxServedRequests;
+
+    private Phase phase = Phase.IDLE;
+    private Block pivot;
+    private BigInteger pivotDifficulty;
+    private Runnable onCompleted;
+
+    private final Map<NodeID, Peer> peers = new LinkedHashMap<>();
+    private final Deque<byte[]> pendingNodes = new ArrayDeque<>();
+    private final Set<ByteArrayWrapper> knownNodes = new HashSet<>();
+    private final Deque<RangeTask> pendingRanges = new ArrayDeque<>();
+    private int completedRanges;
+
+    private long nodes;
+    private long accounts;
+
+    public StateSyncProcessor(@Nonnull RepositoryImpl repository, @Nonnull Blockchain blockchain) {
+        this(repository, blockchain, MAX_SERVED_REQUESTS);
+    }
+
+    /**
+     * @param maxServedRequests     the requests served to each peer per period, the rest are ignored
+     */
+    public StateSyncProcessor(@Nonnull RepositoryImpl repository, @Nonnull Blockchain blockchain, int maxServedRequests) {
+        this.repository = repository;
+        this.blockchain = blockchain;
+        this.maxServedRequests = maxServedRequests;
+        this.trieSnapshot = new TrieStoreSnapshot((TrieStoreImpl) repository.getTrieStore());
+    }
+
+    /**
+     * startSync starts to download the state of a block, the block becomes the best block when the state is complete
+     *
+     * @param pivot         the block, from a trusted source
+     * @param difficulty    the total difficulty of the block
+     * @param onCompleted   called after the block is the best block
+     */
+    public synchronized void startSync(@Nonnull Block pivot, @Nonnull BigInteger difficulty, Runnable onCompleted) {
+        logger.info("Starting state sync of block {} {}", pivot.getNumber(), pivot.getShortHash());
+
+        this.pivot = pivot;
+        this.pivotDifficulty = difficulty;
+        this.onCompleted = onCompleted;
+        this.phase = Phase.NODES;
+
+        addPendingNode(pivot.getStateRoot());
+        this.sendRequests();
+    }
+
+    public synchronized boolean isSyncing() {
+        return this.phase == Phase.NODES || this.phase == Phase.ACCOUNTS;
+    }
+
+    public synchronized boolean isCompleted() {
+        return this.phase == Phase.COMPLETED;
+    }
+
+    public synchronized long getNodes() {
+        return this.nodes;
+    }
+
+    public synchronized long getAccounts() {
+        return this.accounts;
+    }
+
+    /**
+     * addPeer adds a peer to request state from, usually a peer that sent its status
+     */
+    public synchronized void addPeer(@Nonnull MessageSender sender) {
+        if (!this.peers.containsKey(sender.getNodeID()))
+            this.peers.put(sender.getNodeID(), new Peer(sender));
+
+        this.sendRequests();
+    }
+
+    /**
+     * tick requests again the data of timed out requests, from other peers
+     */
+    public synchronized void tick() {
+        long now = System.currentTimeMillis();
+
+        for (Peer peer : this.peers.values())
+            if (peer.hasRequest() && now - peer.requestTime > REQUEST_TIMEOUT) {
+                logger.trace("State request to {} timed out", peer.sender.getNodeID());
+                releaseRequest(peer);
+                // a peer that doesn't answer is left after the others
+                peer.failures++;
+            }
+
+        this.sendRequests();
+    }
+
+    public synchronized void processGetTrieNodes(@Nonnull MessageSender sender, @Nonnull GetTrieNodesMessage message) {
+        if (!isServedRequest(sender))
+            return;
+
+        List<byte[]> result = new ArrayList<>();
+
+        for (byte[] hash : message.getHashes()) {
+            if (result.size() >= MAX_NODES_PER_REQUEST)
+                break;
+
+            byte[] node = this.trieSnapshot.getNode(hash);
+
+            if (node != null)
+                result.add(node);
+        }
+
+        sender.sendMessage(new TrieNodesMessage(result));
+    }
+
+    public synchronized void processGetAccountRange(@Nonnull MessageSender sender, @Nonnull GetAccountRangeMessage message) {
+        if (!isServedRequest(sender))
+            return;
+
+        byte[] root = message.getStateRoot();
+
+        // the states of the last main chain blocks were executed here, so they are complete
+        if (!isServedRoot(root))
+            return;
+
+        RepositoryImpl snapshot;
+
+        try {
+            snapshot = (RepositoryImpl) this.repository.getSnapshotTo(root);
+        } catch (IllegalArgumentException e) {
+            logger.trace("State {} is not available", Hex.toHexString(root), e);
+            return;
+        }
+
+        byte[] startAddress = message.getStartAddress();
+        int maxItems = Math.max(1, Math.min(message.getMaxItems(), MAX_ITEMS_PER_REQUEST));
+        RangeReader reader = new RangeReader(snapshot, startAddress, message.getStartKey(), message.getEndAddress(), maxItems);
+
+        // the contracts are walked in address order, from the start address on
+        this.repository.getDetailsDataStore().forEachKey(startAddress, reader::read);
+
+        sender.sendMessage(new AccountRangeMessage(root, startAddress, message.getStartKey(), reader.accounts, reader.nextAddress, reader.nextKey));
+    }
+
+    public synchronized void processTrieNodes(@Nonnull MessageSender sender, @Nonnull TrieNodesMessage message) {
+        Peer peer = this.peers.get(sender.getNodeID());
+
+        if (this.phase != Phase.NODES || peer == null || peer.nodes == null)
+            return;
+
+        Set<ByteArrayWrapper> requested = new HashSet<>();
+
+        for (byte[] hash : peer.nodes)
+            requested.add(new ByteArrayWrapper(hash));
+
+        List<byte[]> received = new ArrayList<>();
+
+        for (byte[] node : message.getNodes()) {
+            ByteArrayWrapper hash = new ByteArrayWrapper(HashUtil.sha3(node));
+
+            // a node that wasn't requested can't be checked against its parent
+            if (!requested.remove(hash))
+                continue;
+
+            received.add(node);
+
+            for (byte[] subnode : this.trieSnapshot.getSubnodeHashes(node))
+                addPendingNode(subnode);
+        }
+
+        if (!received.isEmpty())
+            this.trieSnapshot.importNodes(received);
+
+        this.nodes += received.size();
+
+        // the nodes not sent are requested again
+        for (ByteArrayWrapper hash : requested)
+            this.pendingNodes.add(hash.getData());
+
+        if (received.isEmpty())
+            peer.failures++;
+
+        peer.nodes = null;
+
+        this.sendRequests();
+    }
+
+    public synchronized void processAccountRange(@Nonnull MessageSender sender, @Nonnull AccountRangeMessage message) {
+        Peer peer = this.peers.get(sender.getNodeID());
+
+        if (this.phase != Phase.ACCOUNTS || peer == null || peer.range == null)
+            return;
+
+        RangeTask task = peer.range;
+
+        if (!Arrays.equals(message.getStateRoot(), this.pivot.getStateRoot()) ||
+                !Arrays.equals(message.getStartAddress(), task.nextAddress) ||
+                !Arrays.equals(message.getStartKey(), task.nextKey))
+            return;
+
+        peer.range = null;
+
+        // an invalid message is discarded, its range is requested again
+        byte[] restartAddress = task.address != null ? task.address : task.nextAddress;
+        byte[] lastAddress = task.lastAddress;
+        Map<ByteArrayWrapper, ContractDetails> finished = new LinkedHashMap<>();
+
+        if (processRange(task, message, finished)) {
+            for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : finished.entrySet())
+                this.repository.getDetailsDataStore().update(entry.getKey().getData(), entry.getValue());
+
+            this.accounts += finished.size();
+        }
+        else {
+            logger.warn("Invalid account range from {}", sender.getNodeID());
+            peer.failures++;
+            task.restart(restartAddress, lastAddress);
+        }
+
+        if (task.isDone()) {
+            this.completedRanges++;
+            this.repository.getDetailsDataStore().flush();
+        }
+        else
+            this.pendingRanges.addFirst(task);
+
+        if (this.completedRanges == ADDRESS_RANGES && !hasRequests())
+            completeAccounts();
+
+        this.sendRequests();
+    }
+
+    private boolean processRange(RangeTask task, AccountRangeMessage message, Map<ByteArrayWrapper, ContractDetails> finished) {
+        for (AccountRangeMessage.AccountData data : message.getAccounts()) {
+            byte[] address = data.getAddress();
+
+            if (data.getCode() != null) {
+                if (!finishAccount(task, finished) || !task.isInRange(address))
+                    return false;
+
+                task.address = address;
+                task.details = new ContractDetailsImpl();
+                task.details.setCode(data.getCode());
+            }
+            else if (task.details == null || !Arrays.equals(address, task.address))
+                return false;
+
+            for (int k = 0; k < data.getKeys().size(); k++)
+                task.details.putBytes(new DataWord(data.getKeys().get(k)), data.getValues().get(k));
+        }
+
+        byte[] nextAddress = message.getNextAddress();
+        byte[] nextKey = message.getNextKey();
+
+        // an account is complete when the next page doesn't continue its storage
+        if (nextKey.length == 0 || !Arrays.equals(nextAddress, task.address))
+            if (!finishAccount(task, finished))
+                return false;
+
+        if (nextKey.length > 0 && task.details == null)
+            return false;
+
+        if (nextAddress.length == 0) {
+            task.nextAddress = null;
+            return true;
+        }
+
+        if (!task.isInRange(nextAddress))
+            return false;
+
+        task.nextAddress = nextAddress;
+        task.nextKey = nextKey;
+
+        return true;
+    }
+
+    private boolean finishAccount(RangeTask task, Map<ByteArrayWrapper, ContractDetails> finished) {
+        if (task.details == null)
+            return true;
+
+        AccountState accountState = this.repository.getAccountState(task.address);
+
+        if (accountState == null || !StateSnapshotImporter.isValidContract(accountState, task.details)) {
+            logger.warn("Code or storage mismatch for account {}", Hex.toHexString(task.address));
+            return false;
+        }
+
+        finished.put(new ByteArrayWrapper(task.address), task.details);
+
+        task.lastAddress = task.address;
+        task.details = null;
+        task.address = null;
+
+        return true;
+    }
+
+    private void completeNodes() {
+        List<byte[]> missing = this.trieSnapshot.findMissingNodes(this.pivot.getStateRoot(), MAX_NODES_PER_REQUEST);
+
+        if (!missing.isEmpty()) {
+            this.pendingNodes.addAll(missing);
+            return;
+        }
+
+        logger.info("State sync downloaded {} trie nodes", this.nodes);
+
+        this.repository.syncToRoot(this.pivot.getStateRoot());
+        this.phase = Phase.ACCOUNTS;
+        this.completedRanges = 0;
+        this.accounts = 0;
+
+        for (int k = 0; k < ADDRESS_RANGES; k++) {
+            byte[] start = k == 0 ? EMPTY_BYTE_ARRAY : new byte[] { (byte) (k * 256 / ADDRESS_RANGES) };
+            byte[] end = k == ADDRESS_RANGES - 1 ? EMPTY_BYTE_ARRAY : new byte[] { (byte) ((k + 1) * 256 / ADDRESS_RANGES) };
+            this.pendingRanges.add(new RangeTask(start, end));
+        }
+    }
+
+    private void completeAccounts() {
+        long expected = this.trieSnapshot.countValues(this.pivot.getStateRoot());
+
+        // each account in the trie must have its details
+        if (this.accounts != expected) {
+            logger.warn("State sync got {} accounts, expected {}, downloading the accounts again", this.accounts, expected);
+            this.phase = Phase.NODES;
+            completeNodes();
+            return;
+        }
+
+        this.repository.getDetailsDataStore().flush();
+        this.blockchain.setStatus(this.pivot, this.pivotDifficulty);
+        this.phase = Phase.COMPLETED;
+
+        logger.info("State sync of block {} completed: {} trie nodes, {} accounts", this.pivot.getNumber(), this.nodes, this.accounts);
+
+        if (this.onCompleted != null)
+            this.onCompleted.run();
+    }
+
+    private void sendRequests() {
+        if (this.phase == Phase.NODES && this.pendingNodes.isEmpty() && !hasRequests())
+            completeNodes();
+
+        if (!isSyncing())
+            return;
+
+        List<Peer> available = new ArrayList<>();
+
+        for (Peer peer : this.peers.values())
+            if (!peer.hasRequest())
+                available.add(peer);
+
+        available.sort(Comparator.comparingInt(p -> p.failures));
+
+        for (Peer peer : available) {
+            if (this.phase == Phase.NODES) {
+                if (this.pendingNodes.isEmpty())
+                    return;
+
+                List<byte[]> hashes = new ArrayList<>();
+
+                while (hashes.size() < MAX_NODES_PER_REQUEST && !this.pendingNodes.isEmpty())
+                    hashes.add(this.pendingNodes.poll());
+
+                peer.nodes = hashes;
+                peer.requestTime = System.currentTimeMillis();
+                peer.sender.sendMessage(new GetTrieNodesMessage(hashes));
+            }
+            else {
+                RangeTask task = this.pendingRanges.poll();
+
+                if (task == null)
+                    return;
+
+                peer.range = task;
+                peer.requestTime = System.currentTimeMillis();
+                peer.sender.sendMessage(new GetAccountRangeMessage(this.pivot.getStateRoot(), task.nextAddress, task.nextKey, task.end, MAX_ITEMS_PER_REQUEST));
+            }
+        }
+    }
+
+    private void releaseRequest(Peer peer) {
+        if (peer.nodes != null)
+            this.pendingNodes.addAll(peer.nodes);
+
+        if (peer.range != null)
+            this.pendingRanges.addFirst(peer.range);
+
+        peer.nodes = null;
+        peer.range = null;
+    }
+
+    private boolean hasRequests() {
+        for (Peer peer : this.peers.values())
+            if (peer.hasRequest())
+                return true;
+
+        return false;
+    }
+
+    private void addPendingNode(byte[] hash) {
+        if (this.trieSnapshot.hasNode(hash) || !this.knownNodes.add(new ByteArrayWrapper(hash)))
+            return;
+
+        this.pendingNodes.add(hash);
+    }
+
+    private boolean isServedRequest(MessageSender sender) {
+        long now = System.currentTimeMillis();
+
+        // the peers without requests in the last period are forgotten
+        if (this.servedPeers.size() > MAX_SERVED_PEERS)
+            this.servedPeers.values().removeIf(peer -> now - peer.periodStart >= SERVED_REQUESTS_PERIOD);
+
+        ServedPeer peer = this.servedPeers.computeIfAbsent(sender.getNodeID(), id -> new ServedPeer());
+
+        if (now - peer.periodStart >= SERVED_REQUESTS_PERIOD) {
+            peer.periodStart = now;
+            peer.requests = 0;
+        }
+
+        if (++peer.requests <= this.maxServedRequests)
+            return true;
+
+        logger.trace("Too many state requests from {}", sender.getNodeID());
+
+        return false;
+    }
+
+    private boolean isServedRoot(byte[] root) {
+        updateServedRoots();
+
+        return this.servedRoots.containsKey(new ByteArrayWrapper(root));
+    }
+
+    // the new blocks are added walking back from the best block, all the blocks after a reorganization
+    private void updateServedRoots() {
+        Block best = this.blockchain.getBestBlock();
+
+        if (best == null || Arrays.equals(best.getHash(), this.servedBestHash))
+            return;
+
+        long oldest = best.getNumber() - SERVED_BLOCKS + 1;
+        Map<ByteArrayWrapper, Long> roots = new HashMap<>();
+
+        for (Block block = best; block != null && block.getNumber() >= oldest; block = this.blockchain.getBlockByHash(block.getParentHash())) {
+            if (Arrays.equals(block.getHash(), this.servedBestHash)) {
+                for (Map.Entry<ByteArrayWrapper, Long> entry : this.servedRoots.entrySet())
+                    if (entry.getValue() >= oldest)
+                        roots.putIfAbsent(entry.getKey(), entry.getValue());
+
+                break;
+            }
+
+            roots.putIfAbsent(new ByteArrayWrapper(block.getStateRoot()), block.getNumber());
+
+            if (block.isGenesis())
+                break;
+        }
+
+        this.servedRoots.clear();
+        this.servedRoots.putAll(roots);
+        this.servedBestHash = best.getHash();
+    }
+
+    private static Iterator<DataWord> getStorageKeys(ContractDetails details, DataWord from) {
+        if (details instanceof ContractDetailsImpl)
+            return ((ContractDetailsImpl) details).getStorageKeys(from);
+
+        return new TreeSet<>(details.getStorageKeys()).tailSet(from).iterator();
+    }
+
+    /**
+     * The account range of a request, read one address at a time, up to the max items
+     */
+    private static class RangeReader {
+        private final RepositoryImpl snapshot;
+        private final byte[] startAddress;
+        private final byte[] startKey;
+        private final byte[] endAddress;
+        private final int maxItems;
+
+        private final List<AccountRangeMessage.AccountData> accounts = new ArrayList<>();
+        private byte[] nextAddress = EMPTY_BYTE_ARRAY;
+        private byte[] nextKey = EMPTY_BYTE_ARRAY;
+        private int items;
+
+        RangeReader(RepositoryImpl snapshot, byte[] startAddress, byte[] startKey, byte[] endAddress, int maxItems) {
+            this.snapshot = snapshot;
+            this.startAddress = startAddress;
+            this.startKey = startKey;
+            this.endAddress = endAddress;
+            this.maxItems = maxItems;
+        }
+
+        /**
+         * @return  false when the range is complete
+         */
+        boolean read(byte[] address) {
+            if (endAddress.length > 0 && BYTES_COMPARATOR.compare(address, endAddress) >= 0)
+                return false;
+
+            // the details store has the accounts of every state, not only the served one
+            if (!snapshot.isExist(address))
+                return true;
+
+            if (items >= maxItems) {
+                nextAddress = address;
+                return false;
+            }
+
+            ContractDetails details = snapshot.getContractDetails(address);
+
+            if (details == null)
+                return true;
+
+            // the storage of the first account continues from the start key
+            boolean continued = startKey.length > 0 && Arrays.equals(address, startAddress);
+
+            AccountRangeMessage.AccountData data = new AccountRangeMessage.AccountData(address, continued ? null : details.getCode());
+            accounts.add(data);
+            items++;
+
+            Iterator<DataWord> keys = getStorageKeys(details, continued ? new DataWord(startKey) : new DataWord());
+
+            while (keys.hasNext()) {
+                DataWord key = keys.next();
+
+                if (items >= maxItems) {
+                    nextAddress = address;
+                    nextKey = key.getData();
+                    return false;
+                }
+
+                byte[] value = details.getBytes(key);
+
+                if (value == null)
+                    continue;
+
+                data.addRow(key.getData(), value);
+                items++;
+            }
+
+            return true;
+        }
+    }
+
+    private static class ServedPeer {
+        private long periodStart;
+        private int requests;
+    }
+
+    private static class Peer {
+        private final MessageSender sender;
+        private List<byte[]> nodes;
+        private RangeTask range;
+        private long requestTime;
+        private int failures;
+
+        Peer(MessageSender sender) {
+            this.sender = sender;
+        }
+
+        boolean hasRequest() {
+            return this.nodes != null || this.range != null;
+        }
+    }
+
+    /**
+     * The download of the accounts in [start, end), an empty end is the last address
+     */
+    private static class RangeTask {
+        private final byte[] start;
+        private final byte[] end;
+
+        // the last account written, the accounts arrive in ascending order
+        private byte[] lastAddress;
+
+        private byte[] nextAddress;
+        private byte[] nextKey = EMPTY_BYTE_ARRAY;
+
+        // the account with its storage in progress
+        private byte[] address;
+        private ContractDetailsImpl details;
+
+        RangeTask(byte[] start, byte[] end) {
+            this.start = start;
+            this.end = end;
+            this.nextAddress = start;
+        }
+
+        boolean isInRange(byte[] address) {
+            return BYTES_COMPARATOR.compare(address, this.start) >= 0 &&
+                    (this.end.length == 0 || BYTES_COMPARATOR.compare(address, this.end) < 0) &&
+                    (this.lastAddress == null || BYTES_COMPARATOR.compare(address, this.lastAddress) > 0);
+        }
+
+        boolean isDone() {
+            return this.nextAddress == null;
+        }
+
+        // drops the account in progress, the range continues at an account start
+        void restart(byte[] address, byte[] lastAddress) {
+            this.nextAddress = address;
+            this.lastAddress = lastAddress;
+            this.nextKey = EMPTY_BYTE_ARRAY;
+            this.address = null;
+            this.details = null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net.messages;
+
+import org.ethereum.util.RLP;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accounts of a state with their code and storage rows, the response to a GetAccountRangeMessage
+ *
+ * It echoes the start of the requested range. The storage of the last account could
+ * be incomplete: the range continues at nextAddress and nextKey, both empty at the range end.
+ */
+public class AccountRangeMessage extends Message {
+    private final byte[] stateRoot;
+    private final byte[] startAddress;
+    private final byte[] startKey;
+    private final List<AccountData> accounts;
+    private final byte[] nextAddress;
+    private final byte[] nextKey;
+
+    public AccountRangeMessage(byte[] stateRoot, byte[] startAddress, byte[] startKey, List<AccountData> accounts, byte[] nextAddress, byte[] nextKey) {
+        this.stateRoot = stateRoot;
+        this.startAddress = startAddress;
+        this.startKey = startKey;
+        this.accounts = accounts;
+        this.nextAddress = nextAddress;
+        this.nextKey = nextKey;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.ACCOUNT_RANGE_MESSAGE;
+    }
+
+    @Override
+    public byte[] getEncodedMessage() {
+        byte[][] elements = new byte[this.accounts.size()][];
+
+        for (int k = 0; k < elements.length; k++)
+            elements[k] = this.accounts.get(k).getEncoded();
+
+        return RLP.encodeList(RLP.encodeElement(this.stateRoot), RLP.encodeElement(this.startAddress),
+                RLP.encodeElement(this.startKey), RLP.encodeList(elements),
+                RLP.encodeElement(this.nextAddress), RLP.encodeElement(this.nextKey));
+    }
+
+    public byte[] getStateRoot() {
+        return this.stateRoot;
+    }
+
+    public byte[] getStartAddress() {
+        return this.startAddress;
+    }
+
+    public byte[] getStartKey() {
+        return this.startKey;
+    }
+
+    public List<AccountData> getAccounts() {
+        return this.accounts;
+    }
+
+    public byte[] getNextAddress() {
+        return this.nextAddress;
+    }
+
+    public byte[] getNextKey() {
+        return this.nextKey;
+    }
+
+    /**
+     * The code and storage rows of an account. The code is null when the rows
+     * continue the storage sent in a previous message.
+     */
+    public static class AccountData {
+        private final byte[] address;
+        private final byte[] code;
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        public AccountData(byte[] address, byte[] code) {
+            this.address = address;
+            this.code = code;
+        }
+
+        public void addRow(byte[] key, byte[] value) {
+            this.keys.add(key);
+            this.values.add(value);
+        }
+
+        public byte[] getAddress() {
+            return this.address;
+        }
+
+        public byte[] getCode() {
+            return this.code;
+        }
+
+        public List<byte[]> getKeys() {
+            return this.keys;
+        }
+
+        public List<byte[]> getValues() {
+            return this.values;
+        }
+
+        byte[] getEncoded() {
+            byte[][] rows = new byte[this.keys.size() * 2][];
+
+            for (int k = 0; k < this.keys.size(); k++) {
+                rows[k * 2] = RLP.encodeElement(this.keys.get(k));
+                rows[k * 2 + 1] = RLP.encodeElement(this.values.get(k));
+            }
+
+            return RLP.encodeList(RLP.encodeElement(this.address), RLP.encodeInt(this.code == null ? 0 : 1),
+                    RLP.encodeElement(this.code), RLP.encodeList(rows));
+        }
+    }
+}
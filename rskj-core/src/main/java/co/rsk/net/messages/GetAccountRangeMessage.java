@@ -0,0 +1,76 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net.messages;
+
+import org.ethereum.util.RLP;
+
+/**
+ * Requests the accounts of a state, with their code and storage, in address order
+ *
+ * The range starts at startAddress, or at the first account if it is empty, and ends
+ * before endAddress, or at the last account if it is empty. A not empty startKey
+ * continues the storage of startAddress from that key, without its code.
+ */
+public class GetAccountRangeMessage extends Message {
+    private final byte[] stateRoot;
+    private final byte[] startAddress;
+    private final byte[] startKey;
+    private final byte[] endAddress;
+    private final int maxItems;
+
+    public GetAccountRangeMessage(byte[] stateRoot, byte[] startAddress, byte[] startKey, byte[] endAddress, int maxItems) {
+        this.stateRoot = stateRoot;
+        this.startAddress = startAddress;
+        this.startKey = startKey;
+        this.endAddress = endAddress;
+        this.maxItems = maxItems;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.GET_ACCOUNT_RANGE_MESSAGE;
+    }
+
+    @Override
+    public byte[] getEncodedMessage() {
+        return RLP.encodeList(RLP.encodeElement(this.stateRoot), RLP.encodeElement(this.startAddress),
+                RLP.encodeElement(this.startKey), RLP.encodeElement(this.endAddress), RLP.encodeInt(this.maxItems));
+    }
+
+    public byte[] getStateRoot() {
+        return this.stateRoot;
+    }
+
+    public byte[] getStartAddress() {
+        return this.startAddress;
+    }
+
+    public byte[] getStartKey() {
+        return this.startKey;
+    }
+
+    public byte[] getEndAddress() {
+        return this.endAddress;
+    }
+
+    public int getMaxItems() {
+        return this.maxItems;
+    }
+}
@@ -22,6 +22,8 @@ import co.rsk.net.Status;
 import org.apache.commons.collections4.CollectionUtils;
 import org.ethereum.core.Block;
 import org.ethereum.core.Transaction;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.RLPElement;
 import org.ethereum.util.RLPList;
 
 import java.math.BigInteger;
@@ -82,6 +84,46 @@ public enum MessageType {
                 .forEach(element -> txs.add(new Transaction(element.getRLPData())));
             return new TransactionsMessage(txs);
         }
+    },
+    GET_TRIE_NODES_MESSAGE(8) {
+        @Override
+        public Message createMessage(RLPList list) {
+            return new GetTrieNodesMessage(getElements(list));
+        }
+    },
+    TRIE_NODES_MESSAGE(9) {
+        @Override
+        public Message createMessage(RLPList list) {
+            return new TrieNodesMessage(getElements(list));
+        }
+    },
+    GET_ACCOUNT_RANGE_MESSAGE(10) {
+        @Override
+        public Message createMessage(RLPList list) {
+            return new GetAccountRangeMessage(getElement(list, 0), getElement(list, 1), getElement(list, 2),
+                    getElement(list, 3), ByteUtil.byteArrayToInt(list.get(4).getRLPData()));
+        }
+    },
+    ACCOUNT_RANGE_MESSAGE(11) {
+        @Override
+        public Message createMessage(RLPList list) {
+            List<AccountRangeMessage.AccountData> accounts = new ArrayList<>();
+
+            for (RLPElement element : (RLPList) list.get(3)) {
+                RLPList account = (RLPList) element;
+                boolean hasCode = ByteUtil.byteArrayToInt(account.get(1).getRLPData()) == 1;
+                AccountRangeMessage.AccountData data = new AccountRangeMessage.AccountData(getElement(account, 0), hasCode ? getElement(account, 2) : null);
+                RLPList rows = (RLPList) account.get(3);
+
+                for (int k = 0; k + 1 < rows.size(); k += 2)
+                    data.addRow(getElement(rows, k), getElement(rows, k + 1));
+
+                accounts.add(data);
+            }
+
+            return new AccountRangeMessage(getElement(list, 0), getElement(list, 1), getElement(list, 2),
+                    accounts, getElement(list, 4), getElement(list, 5));
+        }
     };
 
     private int type;
@@ -96,6 +138,20 @@ public enum MessageType {
         return (byte) this.type;
     }
 
+    private static byte[] getElement(RLPList list, int n) {
+        byte[] data = list.get(n).getRLPData();
+        return data == null ? ByteUtil.EMPTY_BYTE_ARRAY : data;
+    }
+
+    private static List<byte[]> getElements(RLPList list) {
+        List<byte[]> elements = new ArrayList<>();
+
+        for (int k = 0; k < list.size(); k++)
+            elements.add(getElement(list, k));
+
+        return elements;
+    }
+
     public static MessageType valueOfType(int type) {
         for(MessageType mt : MessageType.values()) {
             if(mt.type == type)
@@ -0,0 +1,55 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net.messages;
+
+import org.ethereum.util.RLP;
+
+import java.util.List;
+
+/**
+ * Serialized account trie nodes, the response to a GetTrieNodesMessage.
+ * Each node is identified by the hash of its serialized form.
+ */
+public class TrieNodesMessage extends Message {
+    private final List<byte[]> nodes;
+
+    public TrieNodesMessage(List<byte[]> nodes) {
+        this.nodes = nodes;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.TRIE_NODES_MESSAGE;
+    }
+
+    @Override
+    public byte[] getEncodedMessage() {
+        byte[][] elements = new byte[this.nodes.size()][];
+
+        for (int k = 0; k < elements.length; k++)
+            elements[k] = RLP.encodeElement(this.nodes.get(k));
+
+        return RLP.encodeList(elements);
+    }
+
+    public List<byte[]> getNodes() {
+        return this.nodes;
+    }
+}
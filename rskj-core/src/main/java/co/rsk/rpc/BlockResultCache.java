@@ -0,0 +1,83 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.rpc.Web3;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Block results by block hash, with transaction hashes or full transactions, kept with their JSON
+ * so each block is serialized only once. The least recently used results are evicted when the
+ * JSON of all the results goes over the given size.
+ */
+public class BlockResultCache {
+    private final long maxSize;
+    private final LinkedHashMap<ByteArrayWrapper, Web3.BlockResult> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param maxSize maximum characters of JSON kept, zero to keep none
+     */
+    public BlockResultCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized Web3.BlockResult get(byte[] blockHash, boolean fullTx) {
+        return results.get(key(blockHash, fullTx));
+    }
+
+    public void put(byte[] blockHash, boolean fullTx, Web3.BlockResult result) {
+        // serialized before taking the lock
+        int resultSize = result.toJson().length();
+
+        if (resultSize > maxSize)
+            return;
+
+        synchronized (this) {
+            Web3.BlockResult previous = results.put(key(blockHash, fullTx), result);
+
+            if (previous != null)
+                size -= previous.toJson().length();
+
+            size += resultSize;
+
+            Iterator<Map.Entry<ByteArrayWrapper, Web3.BlockResult>> iterator = results.entrySet().iterator();
+
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().getValue().toJson().length();
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    private static ByteArrayWrapper key(byte[] blockHash, boolean fullTx) {
+        byte[] key = Arrays.copyOf(blockHash, blockHash.length + 1);
+        key[blockHash.length] = (byte) (fullTx ? 1 : 0);
+        return new ByteArrayWrapper(key);
+    }
+}
@@ -19,19 +19,48 @@
 package co.rsk.rpc;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.POJONode;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.googlecode.jsonrpc4j.JsonRpcServer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.List;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by ajlopez on 19/04/2017.
  */
 public class JsonRpcFilterServer extends JsonRpcServer {
+    // methods that only read the node state, so the calls of a batch using them can run in any order.
+    // eth_getFilterChanges and eth_getFilterLogs drain the filter, and the debug_trace methods stream
+    // their results (a parallel batch buffers each response whole), so they are not included
+    static final Set<String> READ_ONLY_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "eth_accounts", "eth_blockNumber", "eth_call", "eth_coinbase", "eth_estimateGas", "eth_gasPrice",
+            "eth_getBalance", "eth_getBlockByHash", "eth_getBlockByNumber",
+            "eth_getBlockTransactionCountByHash", "eth_getBlockTransactionCountByNumber", "eth_getCode",
+            "eth_getCompilers", "eth_getLogs", "eth_getStorageAt", "eth_getTransactionByBlockHashAndIndex",
+            "eth_getTransactionByBlockNumberAndIndex", "eth_getTransactionByHash", "eth_getTransactionCount",
+            "eth_getTransactionReceipt", "eth_getUncleByBlockHashAndIndex", "eth_getUncleByBlockNumberAndIndex",
+            "eth_getUncleCountByBlockHash", "eth_getUncleCountByBlockNumber", "eth_hashrate", "eth_mining",
+            "eth_netHashrate", "eth_protocolVersion", "eth_syncing", "net_listening", "net_peerCount",
+            "net_peerList", "net_version", "web3_clientVersion", "web3_sha3", "rsk_protocolVersion"
+    )));
+
+    private final ObjectMapper mapper;
     private List<ModuleDescription> modules;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private ExecutorService batchExecutor;
+    private Set<String> readOnlyMethods = READ_ONLY_METHODS;
 
     /**
      * Creates the server with a default {@link ObjectMapper} delegating
@@ -44,18 +73,141 @@ public class JsonRpcFilterServer extends JsonRpcServer {
      * @param modules list of configured modules
      */
     public JsonRpcFilterServer(Object handler, Class<?> remoteInterface, List<ModuleDescription> modules) {
-        super(new ObjectMapper(), handler, remoteInterface);
+        this(new ObjectMapper(), handler, remoteInterface, modules);
+    }
 
+    private JsonRpcFilterServer(ObjectMapper mapper, Object handler, Class<?> remoteInterface, List<ModuleDescription> modules) {
+        super(mapper, handler, remoteInterface);
+
+        this.mapper = mapper;
         this.modules = modules;
     }
 
+    /**
+     * Runs the calls of read only batches on the given executor, instead of one after the other
+     * on the thread serving the request. Without an executor every batch is run sequentially.
+     */
+    public void setBatchExecutor(ExecutorService batchExecutor) {
+        this.setBatchExecutor(batchExecutor, READ_ONLY_METHODS);
+    }
+
+    /**
+     * @param readOnlyMethods the methods whose calls can run in parallel
+     */
+    public void setBatchExecutor(ExecutorService batchExecutor, Set<String> readOnlyMethods) {
+        this.batchExecutor = batchExecutor;
+        this.readOnlyMethods = readOnlyMethods;
+    }
+
+    /**
+     * @return the latencies of the calls served so far, by method name
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    @Override
+    public int handleArray(ArrayNode node, OutputStream ops) throws IOException {
+        if (batchExecutor == null || node.size() < 2 || !isReadOnly(node))
+            return super.handleArray(node, ops);
+
+        List<Future<ByteArrayOutputStream>> responses = new ArrayList<>(node.size());
+        AtomicInteger result = new AtomicInteger();
+
+        for (JsonNode request : node)
+            responses.add(batchExecutor.submit(() -> {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                int code = handleNode(request, response);
+
+                if (code != 0)
+                    result.compareAndSet(0, code);
+
+                return response;
+            }));
+
+        // the responses are written in the order of the requests, skipping the notifications
+        boolean first = true;
+        ops.write('[');
+
+        for (Future<ByteArrayOutputStream> future : responses) {
+            ByteArrayOutputStream response = getResponse(future);
+
+            if (response.size() == 0)
+                continue;
+
+            if (!first)
+                ops.write(',');
+
+            response.writeTo(ops);
+            first = false;
+        }
+
+        ops.write(']');
+
+        return result.get();
+    }
+
     @Override
     protected JsonNode invoke(Object target, Method m, List<JsonNode> params)
             throws IOException,
             IllegalAccessException,
             InvocationTargetException {
         checkMethod(m.getName());
-        return super.invoke(target, m, params);
+
+        long start = System.nanoTime();
+
+        try {
+            if (JsonSerializable.class.isAssignableFrom(m.getReturnType()))
+                return invokeStreaming(target, m, params);
+
+            return super.invoke(target, m, params);
+        } finally {
+            latencies.computeIfAbsent(m.getName(), k -> new LatencyHistogram()).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Results that serialize themselves (like transaction traces) are written straight to the
+     * response when it is sent, instead of being converted to a tree of nodes first
+     */
+    private JsonNode invokeStreaming(Object target, Method m, List<JsonNode> params)
+            throws IOException,
+            IllegalAccessException,
+            InvocationTargetException {
+        Type[] parameterTypes = m.getGenericParameterTypes();
+        Object[] args = new Object[params.size()];
+
+        for (int i = 0; i < args.length; i++)
+            args[i] = mapper.readValue(mapper.treeAsTokens(params.get(i)), TypeFactory.defaultInstance().constructType(parameterTypes[i]));
+
+        Object result = m.invoke(target, args);
+
+        return result == null ? NullNode.getInstance() : new POJONode(result);
+    }
+
+    private static ByteArrayOutputStream getResponse(Future<ByteArrayOutputStream> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running a batch", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private boolean isReadOnly(ArrayNode node) {
+        for (JsonNode request : node) {
+            JsonNode method = request.get("method");
+
+            if (method == null || !method.isTextual() || !readOnlyMethods.contains(method.asText()))
+                return false;
+        }
+
+        return true;
     }
 
     public void checkMethod(String methodName) throws InvocationTargetException {
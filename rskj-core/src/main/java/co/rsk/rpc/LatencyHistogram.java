@@ -0,0 +1,92 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of call latencies, counted in power of two buckets of microseconds.
+ * Recording does not lock, so one histogram can be shared by all the threads serving a method.
+ */
+public class LatencyHistogram {
+    // the last bucket takes every latency over 2^30 microseconds (about 18 minutes)
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+        counts.incrementAndGet(bucket);
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts.get(i);
+
+        return count;
+    }
+
+    public long getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : totalNanos.sum() / count / 1000;
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return the upper bound, in microseconds, of the bucket that holds the percentile
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = getCount();
+
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank)
+                return 1L << i;
+        }
+
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%dus p50<%dus p90<%dus p99<%dus max=%dus",
+                getCount(), getMeanMicros(), getPercentileMicros(50), getPercentileMicros(90), getPercentileMicros(99), getMaxMicros());
+    }
+}
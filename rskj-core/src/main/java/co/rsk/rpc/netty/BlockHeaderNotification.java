@@ -0,0 +1,60 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc.netty;
+
+import org.ethereum.core.Block;
+
+import static org.ethereum.rpc.TypeConverter.toJsonHex;
+
+/**
+ * The header of a new best block, as pushed to the newHeads subscriptions
+ */
+public class BlockHeaderNotification {
+    public final String hash;
+    public final String parentHash;
+    public final String sha3Uncles;
+    public final String miner;
+    public final String stateRoot;
+    public final String transactionsRoot;
+    public final String receiptsRoot;
+    public final String logsBloom;
+    public final String difficulty;
+    public final String number;
+    public final String gasLimit;
+    public final String gasUsed;
+    public final String timestamp;
+    public final String extraData;
+
+    public BlockHeaderNotification(Block block) {
+        hash = toJsonHex(block.getHash());
+        parentHash = toJsonHex(block.getParentHash());
+        sha3Uncles = toJsonHex(block.getUnclesHash());
+        miner = toJsonHex(block.getCoinbase());
+        stateRoot = toJsonHex(block.getStateRoot());
+        transactionsRoot = toJsonHex(block.getTxTrieRoot());
+        receiptsRoot = toJsonHex(block.getReceiptsRoot());
+        logsBloom = toJsonHex(block.getLogBloom());
+        difficulty = toJsonHex(block.getDifficulty());
+        number = toJsonHex(block.getNumber());
+        gasLimit = toJsonHex(block.getGasLimit());
+        gasUsed = toJsonHex(block.getGasUsed());
+        timestamp = toJsonHex(block.getTimestamp());
+        extraData = toJsonHex(block.getExtraData());
+    }
+}
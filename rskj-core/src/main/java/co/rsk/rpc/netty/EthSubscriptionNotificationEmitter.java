@@ -0,0 +1,254 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc.netty;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.rpc.LogFilter;
+import org.ethereum.rpc.LogFilterElement;
+import org.ethereum.rpc.Web3;
+import org.ethereum.rpc.exception.JsonRpcInvalidParamException;
+import org.ethereum.vm.LogInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.ethereum.rpc.TypeConverter.toJsonHex;
+
+/**
+ * Pushes the eth_subscribe notifications to the websocket clients.
+ *
+ * Each event is serialized once and the same bytes are framed for every subscription.
+ * A client that doesn't read fast enough fills its channel outbound buffer, bounded by the
+ * server write buffer high water mark, and is disconnected instead of being queued more events.
+ *
+ * Only blocks that become the best block are notified, blocks imported to a side chain are not.
+ */
+public class EthSubscriptionNotificationEmitter extends EthereumListenerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger("jsonrpc");
+
+    private static final byte[] NOTIFICATION_PREFIX = "{\"jsonrpc\":\"2.0\",\"method\":\"eth_subscription\",\"params\":{\"subscription\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOTIFICATION_RESULT = "\",\"result\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOTIFICATION_SUFFIX = "}}".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Blockchain blockchain;
+
+    public EthSubscriptionNotificationEmitter(Blockchain blockchain) {
+        this.blockchain = blockchain;
+    }
+
+    /**
+     * @param params the eth_subscribe parameters: the subscription type and, for logs, an optional filter
+     * @return the id of the new subscription
+     */
+    public String subscribe(Channel channel, JsonNode params) {
+        String name = params.path(0).asText();
+        SubscriptionType type = SubscriptionType.fromName(name);
+
+        if (type == null)
+            throw new JsonRpcInvalidParamException("Unknown subscription type: " + name);
+
+        LogFilter filter = null;
+
+        if (type == SubscriptionType.LOGS)
+            filter = LogFilter.fromFilterRequest(toFilterRequest(params.path(1)));
+
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String id = toJsonHex(bytes);
+
+        subscriptions.put(id, new Subscription(id, channel, type, filter));
+
+        return id;
+    }
+
+    /**
+     * @return true if the channel had a subscription with the given id
+     */
+    public boolean unsubscribe(Channel channel, String id) {
+        Subscription subscription = subscriptions.get(id);
+
+        if (subscription == null || subscription.channel != channel)
+            return false;
+
+        return subscriptions.remove(id) != null;
+    }
+
+    public void unsubscribe(Channel channel) {
+        subscriptions.values().removeIf(subscription -> subscription.channel == channel);
+    }
+
+    public int getSubscriptionsCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void onBlock(Block block, List<TransactionReceipt> receipts) {
+        if (subscriptions.isEmpty() || !isBestBlock(block))
+            return;
+
+        List<Subscription> heads = getSubscriptions(SubscriptionType.NEW_HEADS);
+
+        if (!heads.isEmpty())
+            emit(heads, new BlockHeaderNotification(block));
+
+        List<Subscription> logs = getSubscriptions(SubscriptionType.LOGS);
+
+        if (logs.isEmpty())
+            return;
+
+        for (int txIndex = 0; txIndex < receipts.size(); txIndex++) {
+            TransactionReceipt receipt = receipts.get(txIndex);
+            List<LogInfo> logInfos = receipt.getLogInfoList();
+
+            for (int logIndex = 0; logIndex < logInfos.size(); logIndex++) {
+                LogInfo logInfo = logInfos.get(logIndex);
+                Bloom bloom = logInfo.getBloom();
+                List<Subscription> matches = new ArrayList<>();
+
+                for (Subscription subscription : logs)
+                    if (subscription.filter.matchBloom(bloom) && subscription.filter.matchesExactly(logInfo))
+                        matches.add(subscription);
+
+                if (!matches.isEmpty())
+                    emit(matches, new LogFilterElement(logInfo, block, txIndex, receipt.getTransaction(), logIndex));
+            }
+        }
+    }
+
+    @Override
+    public void onPendingTransactionsReceived(List<Transaction> transactions) {
+        if (subscriptions.isEmpty())
+            return;
+
+        List<Subscription> pending = getSubscriptions(SubscriptionType.NEW_PENDING_TRANSACTIONS);
+
+        if (pending.isEmpty())
+            return;
+
+        for (Transaction transaction : transactions)
+            emit(pending, toJsonHex(transaction.getHash()));
+    }
+
+    private boolean isBestBlock(Block block) {
+        Block best = blockchain.getBestBlock();
+
+        return best != null && Arrays.equals(best.getHash(), block.getHash());
+    }
+
+    private void emit(List<Subscription> targets, Object result) {
+        byte[] serialized;
+
+        try {
+            serialized = mapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            logger.error("Error serializing subscription notification", e);
+            return;
+        }
+
+        for (Subscription subscription : targets) {
+            Channel channel = subscription.channel;
+
+            if (!channel.isWritable()) {
+                logger.info("Closing websocket {}, it is not reading its notifications", channel.remoteAddress());
+                unsubscribe(channel);
+                channel.close();
+                continue;
+            }
+
+            channel.writeAndFlush(new TextWebSocketFrame(Unpooled.wrappedBuffer(
+                    NOTIFICATION_PREFIX, subscription.idBytes, NOTIFICATION_RESULT, serialized, NOTIFICATION_SUFFIX)));
+        }
+    }
+
+    private List<Subscription> getSubscriptions(SubscriptionType type) {
+        List<Subscription> result = new ArrayList<>();
+
+        for (Subscription subscription : subscriptions.values())
+            if (subscription.type == type)
+                result.add(subscription);
+
+        return result;
+    }
+
+    private Web3.FilterRequest toFilterRequest(JsonNode node) {
+        if (node.isMissingNode() || node.isNull())
+            return new Web3.FilterRequest();
+
+        try {
+            return mapper.treeToValue(node, Web3.FilterRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new JsonRpcInvalidParamException("Invalid logs filter", e);
+        }
+    }
+
+    private enum SubscriptionType {
+        NEW_HEADS("newHeads"),
+        LOGS("logs"),
+        NEW_PENDING_TRANSACTIONS("newPendingTransactions");
+
+        private final String name;
+
+        SubscriptionType(String name) {
+            this.name = name;
+        }
+
+        static SubscriptionType fromName(String name) {
+            for (SubscriptionType type : values())
+                if (type.name.equals(name))
+                    return type;
+
+            return null;
+        }
+    }
+
+    private static class Subscription {
+        private final byte[] idBytes;
+        private final Channel channel;
+        private final SubscriptionType type;
+        private final LogFilter filter;
+
+        Subscription(String id, Channel channel, SubscriptionType type, LogFilter filter) {
+            this.idBytes = id.getBytes(StandardCharsets.UTF_8);
+            this.channel = channel;
+            this.type = type;
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc.netty;
+
+import co.rsk.rpc.JsonRpcFilterServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.ethereum.rpc.exception.RskJsonRpcRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Serves the JSON-RPC requests arriving as websocket text frames.
+ * The subscription methods are answered here, everything else goes to the same
+ * {@link JsonRpcFilterServer} used for HTTP.
+ */
+@ChannelHandler.Sharable
+public class RskWebSocketJsonRpcHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+    private static final Logger logger = LoggerFactory.getLogger("jsonrpc");
+
+    private static final String SUBSCRIBE = "eth_subscribe";
+    private static final String UNSUBSCRIBE = "eth_unsubscribe";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonRpcFilterServer jsonRpcServer;
+    private final EthSubscriptionNotificationEmitter emitter;
+
+    public RskWebSocketJsonRpcHandler(JsonRpcFilterServer jsonRpcServer, EthSubscriptionNotificationEmitter emitter) {
+        this.jsonRpcServer = jsonRpcServer;
+        this.emitter = emitter;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) throws IOException {
+        JsonNode request = readRequest(frame.content());
+        String method = request == null ? null : request.path("method").asText();
+
+        if (SUBSCRIBE.equals(method) || UNSUBSCRIBE.equals(method)) {
+            ctx.writeAndFlush(new TextWebSocketFrame(mapper.writeValueAsString(handleSubscription(ctx, request, method))));
+            return;
+        }
+
+        ByteBuf response = ctx.alloc().buffer();
+
+        try (InputStream input = new ByteBufInputStream(frame.content());
+             ByteBufOutputStream output = new ByteBufOutputStream(response)) {
+            jsonRpcServer.handle(input, output);
+        } catch (IOException e) {
+            response.release();
+            throw e;
+        }
+
+        ctx.writeAndFlush(new TextWebSocketFrame(response));
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        emitter.unsubscribe(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("Closing websocket {}", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private ObjectNode handleSubscription(ChannelHandlerContext ctx, JsonNode request, String method) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", request.get("id"));
+
+        try {
+            jsonRpcServer.checkMethod(method);
+
+            if (SUBSCRIBE.equals(method))
+                response.put("result", emitter.subscribe(ctx.channel(), request.path("params")));
+            else
+                response.put("result", emitter.unsubscribe(ctx.channel(), request.path("params").path(0).asText()));
+        } catch (InvocationTargetException e) {
+            setError(response, -32601, e.getMessage());
+        } catch (RskJsonRpcRequestException e) {
+            setError(response, e.getCode(), e.getMessage());
+        }
+
+        return response;
+    }
+
+    private static void setError(ObjectNode response, int code, String message) {
+        response.remove("result");
+        ObjectNode error = response.putObject("error");
+        error.put("code", code);
+        error.put("message", message);
+    }
+
+    private JsonNode readRequest(ByteBuf content) {
+        // only peeks at the frame, the content is read again when handled by the server
+        try (InputStream input = new ByteBufInputStream(content.duplicate())) {
+            JsonNode node = mapper.readTree(input);
+            return node != null && node.isObject() ? node : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc.netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves JSON-RPC over websockets, including the eth_subscribe notifications
+ */
+public class Web3WebSocketServer {
+    private static final Logger logger = LoggerFactory.getLogger("jsonrpc");
+
+    private static final String PATH = "/websocket";
+    private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+    private final int port;
+    private final int workers;
+    private final int maxPendingBytes;
+    private final RskWebSocketJsonRpcHandler handler;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private EventExecutorGroup callsGroup;
+
+    /**
+     * @param workers threads running the calls, so a slow call doesn't stall the other connections
+     * @param maxPendingBytes bytes a client can have waiting to be sent before being dropped
+     */
+    public Web3WebSocketServer(int port, int workers, int maxPendingBytes, RskWebSocketJsonRpcHandler handler) {
+        this.port = port;
+        this.workers = workers;
+        this.maxPendingBytes = maxPendingBytes;
+        this.handler = handler;
+    }
+
+    public void start() throws InterruptedException {
+        logger.info("Starting websocket RPC Server on PORT [{}]", port);
+
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+        callsGroup = new DefaultEventExecutorGroup(workers);
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, maxPendingBytes)
+                .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, maxPendingBytes / 2)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new HttpServerCodec());
+                        pipeline.addLast(new HttpObjectAggregator(MAX_REQUEST_SIZE));
+                        pipeline.addLast(new WebSocketServerProtocolHandler(PATH, null, false, MAX_REQUEST_SIZE));
+                        pipeline.addLast(callsGroup, handler);
+                    }
+                });
+
+        ChannelFuture future = bootstrap.bind(port).sync();
+        logger.info("Websocket RPC Server listening on {}", future.channel().localAddress());
+    }
+
+    public void stop() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        callsGroup.shutdownGracefully();
+    }
+}
@@ -18,6 +18,8 @@
 
 package co.rsk.trie;
 
+import java.util.Iterator;
+
 /**
  * Created by ajlopez on 29/03/2017.
  */
@@ -61,4 +63,8 @@ public interface Trie {
     byte[] serialize();
 
     boolean hasStore();
+
+    Iterator<byte[]> keys();
+
+    Iterator<byte[]> keys(byte[] from);
 }
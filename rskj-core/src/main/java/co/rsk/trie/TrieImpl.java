@@ -32,9 +32,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 import static org.ethereum.crypto.SHA3Helper.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
@@ -607,6 +605,14 @@ public class TrieImpl implements Trie {
         return node;
     }
 
+    boolean hasValue() {
+        return this.value != null && this.value.length > 0;
+    }
+
+    byte[] getValue() {
+        return this.value;
+    }
+
     /**
      * getHash get hash associated to subnode at positin n. If the hash is known
      * because it is in the internal hash cache, no access to subnode is needed.
@@ -615,7 +621,7 @@ public class TrieImpl implements Trie {
      *
      * @return  node hash or null if no node is present
      */
-    private byte[] getHash(int n) {
+    byte[] getHash(int n) {
         if (this.hashes != null && this.hashes[n] != null)
             return this.hashes[n];
 
@@ -814,6 +820,19 @@ public class TrieImpl implements Trie {
         return this.nodes[n];
     }
 
+    /**
+     * peekNode gets the subnode at position n, retrieving it from the store
+     * without keeping it in this node
+     */
+    private TrieImpl peekNode(int n) {
+        TrieImpl node = this.getNode(n);
+
+        if (node != null || this.hashes == null || this.hashes[n] == null)
+            return node;
+
+        return (TrieImpl) this.store.retrieve(this.hashes[n]);
+    }
+
     /**
      * put key with associated value, returning a new Trie
      *
@@ -923,7 +942,7 @@ public class TrieImpl implements Trie {
                 newTrie = grandParent.deleteSonAndCompressOnlyOneSon(parent, putResult.getSonToDelete());
             } else {
                 // node to be deleted has more than one son, value must be set to null.
-                newTrie = new TrieImpl(grandParent.arity, grandParent.encodedSharedPath, grandParent.sharedPathLength, null, grandParent.nodes, null, grandParent.store).withSecure(grandParent.isSecure);
+                newTrie = new TrieImpl(grandParent.arity, grandParent.encodedSharedPath, grandParent.sharedPathLength, null, grandParent.nodes, grandParent.cloneHashes(), grandParent.store).withSecure(grandParent.isSecure);
             }
         }
 
@@ -989,9 +1008,10 @@ public class TrieImpl implements Trie {
         TrieImpl sonToDelete = parent.nodes[sonToDeletePos];
 
         // search for the son that is not going to be deleted
+        // sons of a retrieved node could be only referenced by their hashes
         int grandSonToKeepPos = 0;
-        for(int i = 0; i < sonToDelete.nodes.length; i++) {
-            if(sonToDelete.nodes[i] != null) {
+        for(int i = 0; i < sonToDelete.arity; i++) {
+            if(sonToDelete.retrieveNode(i) != null) {
                 grandSonToKeepPos = i;
             }
         }
@@ -1013,16 +1033,21 @@ public class TrieImpl implements Trie {
         TrieImpl newSon = new TrieImpl(grandSonToKeep.arity, newEncode, decodedPrefix.length + 1 + decodedSuffix.length, grandSonToKeep.value, newNodes, newHashes, grandSonToKeep.store).withSecure(grandSonToKeep.isSecure);
         TrieImpl[] newParentSons = this.cloneNodesNullSafe(parent);
         newParentSons[sonToDeletePos] = newSon;
+        byte[][] newParentHashes = this.cloneHashes(parent);
+
+        if (newParentHashes != null)
+            newParentHashes[sonToDeletePos] = null;
 
-        return new TrieImpl(parent.arity, parent.encodedSharedPath, parent.sharedPathLength, parent.value, newParentSons, null, parent.store).withSecure(parent.isSecure);
+        return new TrieImpl(parent.arity, parent.encodedSharedPath, parent.sharedPathLength, parent.value, newParentSons, newParentHashes, parent.store).withSecure(parent.isSecure);
     }
 
     private TrieImpl deleteSonAndCompress(TrieImpl parentToReplace, int sonToDelete) {
 
         // search for the son that is not going to be deleted
+        // sons of a retrieved node could be only referenced by their hashes
         int sonToKeepPos = 0;
-        for(int i = 0; i < parentToReplace.nodes.length; i++) {
-            if(parentToReplace.nodes[i] != null && i != sonToDelete) {
+        for(int i = 0; i < parentToReplace.arity; i++) {
+            if(i != sonToDelete && parentToReplace.retrieveNode(i) != null) {
                 sonToKeepPos = i;
             }
         }
@@ -1166,6 +1191,65 @@ public class TrieImpl implements Trie {
         return keyBytes;
     }
 
+    /**
+     * keyToBytes collapses an expanded key back to its original bytes, the inverse of bytesToKey
+     *
+     * @param key   expanded key
+     * @param arity number of subnodes in each node trie
+     *
+     * @return original key
+     */
+    public static byte[] keyToBytes(byte[] key, int arity) {
+        int factor = 8;
+        int nbits = 1;
+
+        if (arity == 4) {
+            factor = 4;
+            nbits = 2;
+        }
+        else if (arity == 16) {
+            factor = 2;
+            nbits = 4;
+        }
+
+        byte[] bytes = new byte[key.length / factor];
+        int j = 0;
+
+        for (int k = 0; k < bytes.length; k++) {
+            int b = 0;
+
+            for (int i = 0; i < factor; i++)
+                b = (b << nbits) | key[j++];
+
+            bytes[k] = (byte) b;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * keys walks the trie as the keys are requested, the nodes not in memory are read
+     * from the store but not kept in the trie
+     *
+     * @return the keys with an associated value. The keys of a secure trie are the hashes of the original keys
+     */
+    @Override
+    public Iterator<byte[]> keys() {
+        return new KeysIterator(this, null);
+    }
+
+    /**
+     * keys walks the trie from a key on, the subtrees before the key are not visited
+     *
+     * @param from  the first key, of a trie that is not secure
+     *
+     * @return the keys with an associated value, from the first key on, in increasing order for keys of the same length
+     */
+    @Override
+    public Iterator<byte[]> keys(byte[] from) {
+        return new KeysIterator(this, bytesToKey(from, this.arity));
+    }
+
     @Override
     public Trie getSnapshotTo(byte[] hash) {
         this.save();
@@ -1198,4 +1282,87 @@ public class TrieImpl implements Trie {
     private static byte[] makeEmptyHash() {
         return sha3(RLP.encodeElement(EMPTY_BYTE_ARRAY));
     }
+
+    private static class KeysIterator implements Iterator<byte[]> {
+        private final Deque<TrieImpl> nodes = new ArrayDeque<>();
+        private final Deque<byte[]> paths = new ArrayDeque<>();
+        // the path of the first key, null to visit all the keys
+        private final byte[] from;
+        private byte[] next;
+
+        KeysIterator(TrieImpl root, byte[] from) {
+            this.from = from;
+            push(root, EMPTY_BYTE_ARRAY);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public byte[] next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            byte[] result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+
+            while (next == null && !nodes.isEmpty()) {
+                TrieImpl node = nodes.pop();
+                byte[] path = paths.pop();
+
+                // pushed backwards, so the subnodes are visited in key order
+                for (int k = node.arity - 1; k >= 0; k--) {
+                    TrieImpl subnode = node.peekNode(k);
+
+                    if (subnode != null) {
+                        byte[] subpath = Arrays.copyOf(path, path.length + 1);
+                        subpath[path.length] = (byte) k;
+                        push(subnode, subpath);
+                    }
+                }
+
+                if (node.value != null && node.value.length > 0 && !isBeforeFrom(path, true))
+                    next = keyToBytes(path, node.arity);
+            }
+        }
+
+        private void push(TrieImpl node, byte[] prefix) {
+            byte[] path = prefix;
+
+            if (node.encodedSharedPath != null && node.sharedPathLength > 0) {
+                byte[] sharedPath = PathEncoder.decode(node.encodedSharedPath, node.arity, node.sharedPathLength);
+                path = Arrays.copyOf(prefix, prefix.length + sharedPath.length);
+                System.arraycopy(sharedPath, 0, path, prefix.length, sharedPath.length);
+            }
+
+            // all the keys under the path are before the first key
+            if (isBeforeFrom(path, false))
+                return;
+
+            nodes.push(node);
+            paths.push(path);
+        }
+
+        // a path that is a prefix of the first key is before it as a key, but not as a subtree
+        private boolean isBeforeFrom(byte[] path, boolean asKey) {
+            if (from == null)
+                return false;
+
+            int length = Math.min(path.length, from.length);
+
+            for (int k = 0; k < length; k++)
+                if (path[k] != from[k])
+                    return path[k] < from[k];
+
+            return asKey && path.length < from.length;
+        }
+    }
 }
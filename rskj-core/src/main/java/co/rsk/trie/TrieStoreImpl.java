@@ -21,6 +21,7 @@ package co.rsk.trie;
 import co.rsk.panic.PanicProcessor;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.db.ByteArrayWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,7 +31,11 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Predicate;
 
 /**
  * TrieStoreImpl store and retrieve Trie node by hash
@@ -54,6 +59,9 @@ public class TrieStoreImpl implements TrieStore {
     private int saveCount = 0;
     private int retrieveCount = 0;
 
+    // hashes of the nodes saved while a pruning is running, its sweep keeps them
+    private Set<ByteArrayWrapper> savedWhilePruning;
+
     public TrieStoreImpl(KeyValueDataSource store) {
         this.store = store;
     }
@@ -63,9 +71,15 @@ public class TrieStoreImpl implements TrieStore {
      * @param trie
      */
     @Override
-    public void save(Trie trie) {
+    public synchronized void save(Trie trie) {
         this.saveCount++;
-        this.store.put(trie.getHash(), trie.toMessage());
+
+        byte[] hash = trie.getHash();
+
+        if (this.savedWhilePruning != null)
+            this.savedWhilePruning.add(new ByteArrayWrapper(hash));
+
+        this.store.put(hash, trie.toMessage());
     }
 
     @Override
@@ -132,6 +146,75 @@ public class TrieStoreImpl implements TrieStore {
         return buffer.array();
     }
 
+    /**
+     * startPruning starts to keep the hashes of the saved nodes,
+     * they could be unreachable from the marked roots but they are in use.
+     * If the pruning was already started, the hashes kept so far are preserved
+     */
+    synchronized void startPruning() {
+        if (this.savedWhilePruning == null)
+            this.savedWhilePruning = new HashSet<>();
+    }
+
+    synchronized void stopPruning() {
+        this.savedWhilePruning = null;
+    }
+
+    /**
+     * delete removes a node from the store, unless it was saved since the pruning started
+     *
+     * @param hash    the hash of the node to remove
+     *
+     * @return  the number of removed bytes, zero if the node was kept
+     */
+    synchronized long delete(byte[] hash) {
+        if (this.savedWhilePruning != null && this.savedWhilePruning.contains(new ByteArrayWrapper(hash)))
+            return 0;
+
+        byte[] message = this.store.get(hash);
+
+        if (message == null)
+            return 0;
+
+        this.store.delete(hash);
+
+        return (long)hash.length + message.length;
+    }
+
+    public boolean isEmpty() {
+        boolean[] empty = { true };
+        this.store.forEachKey(key -> empty[0] = false);
+        return empty[0];
+    }
+
+    /**
+     * forEachKey visits the hashes of the stored nodes without copying them, until the action returns false
+     */
+    void forEachKey(Predicate<byte[]> action) {
+        this.store.forEachKey(action);
+    }
+
+    byte[] retrieveMessage(byte[] hash) {
+        this.retrieveCount++;
+
+        return this.store.get(hash);
+    }
+
+    /**
+     * saveMessages saves serialized nodes, in one batch
+     *
+     * @param messages  the serialized nodes by hash, sorted by hash
+     */
+    synchronized void saveMessages(SortedMap<byte[], byte[]> messages) {
+        this.saveCount += messages.size();
+
+        if (this.savedWhilePruning != null)
+            for (byte[] hash : messages.keySet())
+                this.savedWhilePruning.add(new ByteArrayWrapper(hash));
+
+        this.store.updateBatch(messages);
+    }
+
     public void copyFrom(TrieStoreImpl originalTrieStore) {
         KeyValueDataSource ds = originalTrieStore.store;
 
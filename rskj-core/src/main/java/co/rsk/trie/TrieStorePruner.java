@@ -0,0 +1,193 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.trie;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * TrieStorePruner removes from a trie store the nodes that are not reachable from a list of roots
+ *
+ * It marks the nodes of the roots, and then it sweeps the rest of the nodes in batches,
+ * pausing between them to bound the disk usage. The nodes saved while it runs are kept.
+ */
+public class TrieStorePruner {
+    private static final Logger logger = LoggerFactory.getLogger("triestore");
+
+    private final TrieStoreImpl store;
+    private final int batchSize;
+    private final long batchPause;
+
+    // accumulated metrics
+    private final AtomicLong prunedNodes = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong prunings = new AtomicLong();
+    private volatile long keptNodes;
+
+    public TrieStorePruner(TrieStoreImpl store, int batchSize, long batchPause) {
+        this.store = store;
+        this.batchSize = batchSize;
+        this.batchPause = batchPause;
+    }
+
+    /**
+     * startPruning starts to keep the nodes saved from now on, before the roots to keep are known.
+     * The next prune keeps them too
+     */
+    public void startPruning() {
+        this.store.startPruning();
+    }
+
+    /**
+     * prune removes the nodes that are not reachable from the roots
+     *
+     * @param roots     the hashes of the roots to keep
+     *
+     * @return  the number of removed nodes
+     */
+    public long prune(Collection<byte[]> roots) {
+        return prune(() -> roots);
+    }
+
+    /**
+     * prune removes the nodes that are not reachable from the roots
+     *
+     * @param rootsSupplier     gives the hashes of the roots to keep, it is called once the saved nodes are being kept
+     *
+     * @return  the number of removed nodes
+     */
+    public synchronized long prune(Supplier<Collection<byte[]>> rootsSupplier) {
+        long start = System.currentTimeMillis();
+
+        this.store.startPruning();
+
+        try {
+            // nodes saved from here on are kept by the store, so a root saved
+            // before the roots are collected is kept even if it is not listed
+            Collection<byte[]> roots = rootsSupplier.get();
+            Set<ByteArrayWrapper> marked = new HashSet<>();
+
+            for (byte[] root : roots)
+                mark(root, marked);
+
+            this.keptNodes = marked.size();
+
+            long nodes = sweep(marked);
+
+            this.prunings.incrementAndGet();
+
+            logger.info("Pruned {} trie nodes, kept {} trie nodes from {} roots, in {} ms", nodes, marked.size(), roots.size(), System.currentTimeMillis() - start);
+
+            return nodes;
+        }
+        finally {
+            this.store.stopPruning();
+        }
+    }
+
+    public long getPrunedNodes() {
+        return this.prunedNodes.get();
+    }
+
+    public long getReclaimedBytes() {
+        return this.reclaimedBytes.get();
+    }
+
+    public long getPrunings() {
+        return this.prunings.get();
+    }
+
+    public long getKeptNodes() {
+        return this.keptNodes;
+    }
+
+    private void mark(byte[] root, Set<ByteArrayWrapper> marked) {
+        Deque<byte[]> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            byte[] hash = pending.pop();
+
+            // subtrees shared with an already marked root are skipped
+            if (!marked.add(new ByteArrayWrapper(hash)))
+                continue;
+
+            TrieImpl node = (TrieImpl) this.store.retrieve(hash);
+
+            if (node == null)
+                continue;
+
+            for (int k = 0; k < node.getArity(); k++) {
+                byte[] subnodeHash = node.getHash(k);
+
+                if (subnodeHash != null)
+                    pending.push(subnodeHash);
+            }
+        }
+    }
+
+    private long sweep(Set<ByteArrayWrapper> marked) {
+        long[] nodes = new long[1];
+        int[] inBatch = new int[1];
+
+        // the stored hashes are visited, not copied, only the marked ones are in memory
+        this.store.forEachKey(hash -> {
+            if (marked.contains(new ByteArrayWrapper(hash)))
+                return true;
+
+            long bytes = this.store.delete(hash);
+
+            if (bytes == 0)
+                return true;
+
+            nodes[0]++;
+            this.prunedNodes.incrementAndGet();
+            this.reclaimedBytes.addAndGet(bytes);
+
+            if (++inBatch[0] < this.batchSize)
+                return true;
+
+            inBatch[0] = 0;
+
+            return pause();
+        });
+
+        return nodes[0];
+    }
+
+    private boolean pause() {
+        if (this.batchPause <= 0)
+            return true;
+
+        try {
+            Thread.sleep(this.batchPause);
+            return true;
+        } catch (InterruptedException e) {
+            logger.trace("Pruning was interrupted", e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
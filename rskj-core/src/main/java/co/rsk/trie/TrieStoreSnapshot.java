@@ -0,0 +1,216 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.trie;
+
+import org.ethereum.crypto.SHA3Helper;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.FastByteComparisons;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * TrieStoreSnapshot copies the nodes of a trie between stores, in their serialized form
+ *
+ * The nodes are keyed by the hash of their serialized form, so an imported node
+ * can't be altered without altering the hash of its parent, up to the root.
+ */
+public class TrieStoreSnapshot {
+    private static final byte[] EMPTY_TRIE_HASH = new TrieImpl().getHash();
+
+    private static final Comparator<byte[]> HASH_COMPARATOR = (h1, h2) -> FastByteComparisons.compareTo(h1, 0, h1.length, h2, 0, h2.length);
+
+    private final TrieStoreImpl store;
+
+    public TrieStoreSnapshot(TrieStoreImpl store) {
+        this.store = store;
+    }
+
+    /**
+     * exportNodes passes the serialized nodes of a trie to a consumer, each node before its subnodes
+     *
+     * @param root      the hash of the trie root
+     * @param consumer  the consumer of the serialized nodes
+     *
+     * @return  the number of exported nodes
+     */
+    public long exportNodes(byte[] root, Consumer<byte[]> consumer) {
+        if (Arrays.equals(root, EMPTY_TRIE_HASH))
+            return 0;
+
+        long nodes = 0;
+        Set<ByteArrayWrapper> visited = new HashSet<>();
+        Deque<byte[]> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            byte[] hash = pending.pop();
+
+            if (!visited.add(new ByteArrayWrapper(hash)))
+                continue;
+
+            byte[] message = this.store.retrieveMessage(hash);
+
+            if (message == null)
+                throw new TrieSerializationException("Missing trie node " + Hex.toHexString(hash), null);
+
+            consumer.accept(message);
+            nodes++;
+
+            pushSubnodes(message, pending);
+        }
+
+        return nodes;
+    }
+
+    /**
+     * importNodes saves serialized nodes, keyed by their hash, in a sorted batch
+     *
+     * @param messages  the serialized nodes
+     */
+    public void importNodes(Collection<byte[]> messages) {
+        SortedMap<byte[], byte[]> batch = new TreeMap<>(HASH_COMPARATOR);
+
+        for (byte[] message : messages)
+            batch.put(SHA3Helper.sha3(message), message);
+
+        this.store.saveMessages(batch);
+    }
+
+    /**
+     * hasAllNodes checks that every node of a trie is in the store
+     *
+     * @param root      the hash of the trie root
+     *
+     * @return  true if no node is missing
+     */
+    public boolean hasAllNodes(byte[] root) {
+        return findMissingNodes(root, 1).isEmpty();
+    }
+
+    /**
+     * findMissingNodes walks a trie looking for the nodes that are not in the store
+     *
+     * @param root      the hash of the trie root
+     * @param max       the maximum number of hashes to return
+     *
+     * @return  the hashes of the missing nodes
+     */
+    public List<byte[]> findMissingNodes(byte[] root, int max) {
+        List<byte[]> missing = new ArrayList<>();
+
+        walk(root, hash -> {
+            if (missing.size() < max)
+                missing.add(hash);
+        }, message -> { });
+
+        return missing;
+    }
+
+    /**
+     * countValues counts the nodes with a value in a trie, that is, its keys
+     *
+     * @param root      the hash of the trie root
+     *
+     * @return  the number of values in the stored nodes
+     */
+    public long countValues(byte[] root) {
+        long[] values = new long[1];
+
+        walk(root, hash -> { }, message -> {
+            if (TrieImpl.fromMessage(message, this.store).hasValue())
+                values[0]++;
+        });
+
+        return values[0];
+    }
+
+    /**
+     * forEachValue passes the values of a trie to a consumer, in no particular order
+     *
+     * @param root      the hash of the trie root
+     * @param consumer  the consumer of the values
+     */
+    public void forEachValue(byte[] root, Consumer<byte[]> consumer) {
+        walk(root, hash -> {
+            throw new TrieSerializationException("Missing trie node " + Hex.toHexString(hash), null);
+        }, message -> {
+            TrieImpl node = TrieImpl.fromMessage(message, this.store);
+
+            if (node.hasValue())
+                consumer.accept(node.getValue());
+        });
+    }
+
+    public boolean hasNode(byte[] hash) {
+        return this.store.retrieveMessage(hash) != null;
+    }
+
+    public byte[] getNode(byte[] hash) {
+        return this.store.retrieveMessage(hash);
+    }
+
+    /**
+     * getSubnodeHashes returns the hashes of the subnodes of a serialized node
+     */
+    public List<byte[]> getSubnodeHashes(byte[] message) {
+        Deque<byte[]> subnodes = new ArrayDeque<>();
+        pushSubnodes(message, subnodes);
+        return new ArrayList<>(subnodes);
+    }
+
+    private void walk(byte[] root, Consumer<byte[]> missingConsumer, Consumer<byte[]> nodeConsumer) {
+        if (Arrays.equals(root, EMPTY_TRIE_HASH))
+            return;
+
+        Set<ByteArrayWrapper> visited = new HashSet<>();
+        Deque<byte[]> pending = new ArrayDeque<>();
+        pending.push(root);
+
+        while (!pending.isEmpty()) {
+            byte[] hash = pending.pop();
+
+            if (!visited.add(new ByteArrayWrapper(hash)))
+                continue;
+
+            byte[] message = this.store.retrieveMessage(hash);
+
+            if (message == null) {
+                missingConsumer.accept(hash);
+                continue;
+            }
+
+            nodeConsumer.accept(message);
+            pushSubnodes(message, pending);
+        }
+    }
+
+    private void pushSubnodes(byte[] message, Deque<byte[]> pending) {
+        TrieImpl node = TrieImpl.fromMessage(message, this.store);
+
+        for (int k = node.getArity() - 1; k >= 0; k--) {
+            byte[] subnodeHash = node.getHash(k);
+
+            if (subnodeHash != null)
+                pending.push(subnodeHash);
+        }
+    }
+}
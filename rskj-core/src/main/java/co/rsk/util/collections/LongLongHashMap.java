@@ -0,0 +1,259 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long keys to primitive long values.
+ * Keys and values are kept in flat arrays (linear probing, backward shift deletion),
+ * so lookups do not box and the map does not allocate per entry.
+ *
+ * Not thread safe.
+ */
+public class LongLongHashMap {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private long[] values;
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public LongLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                return values[idx];
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        return defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                return true;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the previous value for the key, or defaultValue if there was none
+     */
+    public long put(long key, long value, long defaultValue) {
+        if (key == FREE_KEY) {
+            long previous = hasFreeKey ? freeKeyValue : defaultValue;
+
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+
+            freeKeyValue = value;
+            return previous;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                long previous = values[idx];
+                values[idx] = value;
+                return previous;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        keys[idx] = key;
+        values[idx] = value;
+
+        if (++size > threshold) {
+            rehash(keys.length * 2);
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * @return the removed value, or defaultValue if the key was not present
+     */
+    public long remove(long key, long defaultValue) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return defaultValue;
+            }
+
+            hasFreeKey = false;
+            size--;
+            return freeKeyValue;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                long previous = values[idx];
+                shiftKeys(idx);
+                size--;
+                return previous;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        return defaultValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        hasFreeKey = false;
+        size = 0;
+    }
+
+    /**
+     * @return a snapshot of the keys, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+
+        if (hasFreeKey) {
+            result[n++] = FREE_KEY;
+        }
+
+        for (long key : keys) {
+            if (key != FREE_KEY) {
+                result[n++] = key;
+            }
+        }
+
+        return result;
+    }
+
+    private void shiftKeys(int pos) {
+        // backward shift deletion keeps probe sequences intact without tombstones
+        int last;
+        int idx = pos;
+
+        while (true) {
+            last = idx;
+            idx = (idx + 1) & mask;
+
+            while (true) {
+                long key = keys[idx];
+
+                if (key == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    return;
+                }
+
+                int home = slot(key);
+
+                if (last <= idx ? (last >= home || home > idx) : (last >= home && home > idx)) {
+                    break;
+                }
+
+                idx = (idx + 1) & mask;
+            }
+
+            keys[last] = keys[idx];
+            values[last] = values[idx];
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+
+        allocate(newCapacity);
+
+        for (int k = 0; k < oldKeys.length; k++) {
+            long key = oldKeys[k];
+
+            if (key == FREE_KEY) {
+                continue;
+            }
+
+            int idx = slot(key);
+
+            while (keys[idx] != FREE_KEY) {
+                idx = (idx + 1) & mask;
+            }
+
+            keys[idx] = key;
+            values[idx] = oldValues[k];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * 0.75f);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / 0.75f) + 1, DEFAULT_CAPACITY) - 1) << 1;
+        return capacity > 0 ? capacity : 1 << 30;
+    }
+}
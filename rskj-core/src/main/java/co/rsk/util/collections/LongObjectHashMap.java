@@ -0,0 +1,274 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.util.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Open addressing hash map from primitive long keys to object values.
+ * Same layout as {@link LongLongHashMap}: keys are kept in a flat long array,
+ * so lookups by block number do not box and entries are not wrapped in nodes.
+ *
+ * Null values are not supported, get returns null for a missing key.
+ *
+ * Not thread safe.
+ */
+public class LongObjectHashMap<V> {
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private Object[] values;
+    private boolean hasFreeKey;
+    private Object freeKeyValue;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public LongObjectHashMap() {
+        this(0);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(LongLongHashMap.tableSizeFor(expectedSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == FREE_KEY) {
+            return (V) freeKeyValue;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                return (V) values[idx];
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value for the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+
+        if (key == FREE_KEY) {
+            V previous = (V) freeKeyValue;
+
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+
+            freeKeyValue = value;
+            return previous;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                V previous = (V) values[idx];
+                values[idx] = value;
+                return previous;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        keys[idx] = key;
+        values[idx] = value;
+
+        if (++size > threshold) {
+            rehash(keys.length * 2);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                return null;
+            }
+
+            V previous = (V) freeKeyValue;
+            hasFreeKey = false;
+            freeKeyValue = null;
+            size--;
+            return previous;
+        }
+
+        int idx = slot(key);
+
+        while (keys[idx] != FREE_KEY) {
+            if (keys[idx] == key) {
+                V previous = (V) values[idx];
+                shiftKeys(idx);
+                size--;
+                return previous;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, null);
+        hasFreeKey = false;
+        freeKeyValue = null;
+        size = 0;
+    }
+
+    /**
+     * @return a snapshot of the keys, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int n = 0;
+
+        if (hasFreeKey) {
+            result[n++] = FREE_KEY;
+        }
+
+        for (long key : keys) {
+            if (key != FREE_KEY) {
+                result[n++] = key;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return a snapshot of the values, in the same order as {@link #keys()}
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+
+        if (hasFreeKey) {
+            result.add((V) freeKeyValue);
+        }
+
+        for (int k = 0; k < keys.length; k++) {
+            if (keys[k] != FREE_KEY) {
+                result.add((V) values[k]);
+            }
+        }
+
+        return result;
+    }
+
+    private void shiftKeys(int pos) {
+        int last;
+        int idx = pos;
+
+        while (true) {
+            last = idx;
+            idx = (idx + 1) & mask;
+
+            while (true) {
+                long key = keys[idx];
+
+                if (key == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    values[last] = null;
+                    return;
+                }
+
+                int home = slot(key);
+
+                if (last <= idx ? (last >= home || home > idx) : (last >= home && home > idx)) {
+                    break;
+                }
+
+                idx = (idx + 1) & mask;
+            }
+
+            keys[last] = keys[idx];
+            values[last] = values[idx];
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(newCapacity);
+
+        for (int k = 0; k < oldKeys.length; k++) {
+            long key = oldKeys[k];
+
+            if (key == FREE_KEY) {
+                continue;
+            }
+
+            int idx = slot(key);
+
+            while (keys[idx] != FREE_KEY) {
+                idx = (idx + 1) & mask;
+            }
+
+            keys[idx] = key;
+            values[idx] = oldValues[k];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * 0.75f);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
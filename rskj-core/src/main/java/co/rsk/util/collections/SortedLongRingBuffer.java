@@ -0,0 +1,233 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.util.collections;
+
+import java.util.NoSuchElementException;
+import java.util.function.LongPredicate;
+
+/**
+ * Growable ring buffer of primitive longs kept in ascending order.
+ *
+ * Block numbers mostly arrive in order and are consumed from the lowest end,
+ * so appending a value not lower than the last one and polling the first one
+ * are O(1); other inserts shift the shorter side of the buffer.
+ * Lookups are binary searches. Duplicated values are allowed.
+ *
+ * Not thread safe.
+ */
+public class SortedLongRingBuffer {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] elements;
+    private int head;
+    private int size;
+
+    public SortedLongRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SortedLongRingBuffer(int capacity) {
+        elements = new long[Integer.highestOneBit(Math.max(capacity, DEFAULT_CAPACITY) - 1) << 1];
+    }
+
+    public void add(long value) {
+        if (size == elements.length) {
+            grow();
+        }
+
+        // upper bound, so equal values keep their insertion order
+        int pos = size;
+
+        if (size > 0 && value < get(size - 1)) {
+            int low = 0;
+            int high = size - 1;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (get(mid) <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            pos = low;
+        }
+
+        if (pos < size / 2) {
+            head = (head - 1) & mask();
+
+            for (int k = 0; k < pos; k++) {
+                set(k, get(k + 1));
+            }
+        } else {
+            for (int k = size; k > pos; k--) {
+                set(k, get(k - 1));
+            }
+        }
+
+        set(pos, value);
+        size++;
+    }
+
+    public long get(int index) {
+        return elements[(head + index) & mask()];
+    }
+
+    public long peekFirst() {
+        checkNotEmpty();
+        return get(0);
+    }
+
+    public long peekLast() {
+        checkNotEmpty();
+        return get(size - 1);
+    }
+
+    public long pollFirst() {
+        checkNotEmpty();
+        long value = get(0);
+        head = (head + 1) & mask();
+        size--;
+        return value;
+    }
+
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * @return the position of the first occurrence of the value, or -1 if it is not present
+     */
+    public int indexOf(long value) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (get(mid) < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low < size && get(low) == value ? low : -1;
+    }
+
+    /**
+     * Removes the first occurrence of the value
+     *
+     * @return true if the value was present
+     */
+    public boolean remove(long value) {
+        int pos = indexOf(value);
+
+        if (pos < 0) {
+            return false;
+        }
+
+        if (pos < size / 2) {
+            for (int k = pos; k > 0; k--) {
+                set(k, get(k - 1));
+            }
+
+            head = (head + 1) & mask();
+        } else {
+            for (int k = pos; k < size - 1; k++) {
+                set(k, get(k + 1));
+            }
+        }
+
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes the values matching the predicate in a single pass
+     *
+     * @return the number of removed values
+     */
+    public int removeIf(LongPredicate filter) {
+        int kept = 0;
+
+        for (int k = 0; k < size; k++) {
+            long value = get(k);
+
+            if (!filter.test(value)) {
+                set(kept++, value);
+            }
+        }
+
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @return a snapshot of the values, in ascending order
+     */
+    public long[] toArray() {
+        return toArray(size);
+    }
+
+    private void set(int index, long value) {
+        elements[(head + index) & mask()] = value;
+    }
+
+    private int mask() {
+        return elements.length - 1;
+    }
+
+    private void grow() {
+        elements = toArray(elements.length * 2);
+        head = 0;
+    }
+
+    private long[] toArray(int capacity) {
+        long[] result = new long[capacity];
+
+        for (int k = 0; k < size; k++) {
+            result[k] = get(k);
+        }
+
+        return result;
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.vm;
+
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.OpCode;
+
+/**
+ * Contract code analysed once, before execution.
+ *
+ * For each position the opcode is already resolved (null where the byte is not an opcode
+ * valid for the script version of the code), PUSH immediates are already parsed into words
+ * and the valid jump destinations are known. The VM runs cached code from this form instead of
+ * decoding every byte again on each step. Code that is not cached runs from its bytes,
+ * as it is usually executed once.
+ *
+ * Instances are immutable and can be shared between executions of the same code.
+ */
+public class DecodedCode {
+    private static final OpCode[] EMPTY_CODE = new OpCode[] { OpCode.STOP };
+
+    private final OpCode[] ops;
+    private final DataWord[] pushData;
+    private final BitSet jumpdests;
+
+    private DecodedCode(OpCode[] ops, DataWord[] pushData, BitSet jumpdests) {
+        this.ops = ops;
+        this.pushData = pushData;
+        this.jumpdests = jumpdests;
+    }
+
+    /**
+     * @param code the contract code
+     * @param start the first position after the code header
+     * @param scriptVersion the script version declared in the code header
+     */
+    public static DecodedCode decode(byte[] code, int start, int scriptVersion) {
+        OpCode[] ops = new OpCode[code.length];
+        DataWord[] pushData = new DataWord[code.length];
+        BitSet jumpdests = new BitSet(code.length);
+
+        for (int i = 0; i < code.length; i++) {
+            OpCode op = OpCode.code(code[i]);
+
+            if (op != null && op.scriptVersion() <= scriptVersion)
+                ops[i] = op;
+        }
+
+        for (int i = start; i < code.length; ++i) {
+            OpCode op = OpCode.code(code[i]);
+
+            if (op == null)
+                continue;
+
+            if (op == OpCode.JUMPDEST)
+                jumpdests.set(i);
+
+            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
+                int n = op.asInt() - OpCode.PUSH1.asInt() + 1;
+
+                // missing trailing bytes read as zeroes, as PUSH does at the end of the code
+                DataWord word = new DataWord();
+                word.assignDataRange(code, i + 1, n);
+                pushData[i] = word;
+
+                i += n;
+            }
+        }
+
+        return new DecodedCode(code.length == 0 ? EMPTY_CODE : ops, pushData, jumpdests);
+    }
+
+    /**
+     * @return the opcode at the position, or null if it is not valid there
+     */
+    public OpCode getOp(int pc) {
+        return ops[pc];
+    }
+
+    /**
+     * @return the immediate of the PUSH at the position. It is shared, callers must copy it
+     */
+    public DataWord getPushData(int pc) {
+        return pushData[pc];
+    }
+
+    public BitSet getJumpDests() {
+        return jumpdests;
+    }
+}
@@ -56,8 +56,9 @@ public class CommonConfig {
     public Repository repository() {
         KeyValueDataSource ds = makeDataSource("state");
         KeyValueDataSource detailsDS = makeDataSource("details");
+        KeyValueDataSource contractStorageDS = makeDataSource("contract-storage");
 
-        return new RepositoryImpl(new TrieStoreImpl(ds), detailsDS);
+        return new RepositoryImpl(new TrieStoreImpl(ds), detailsDS, contractStorageDS);
     }
 
     private KeyValueDataSource makeDataSource(String name) {
@@ -0,0 +1,59 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.core;
+
+import org.ethereum.rpc.Web3;
+import org.ethereum.rpc.converters.CallArgumentsToByteArray;
+import org.ethereum.util.ByteUtil;
+
+/**
+ * Unsigned transaction with an explicit sender, to run local calls (eth_call, eth_estimateGas)
+ * without signing them: it is only valid for executions that skip the transaction validations.
+ */
+public class CallMessage extends Transaction {
+
+    public CallMessage(byte[] sender, byte[] nonce, byte[] gasPrice, byte[] gasLimit, byte[] receiveAddress, byte[] value, byte[] data) {
+        super(nonce, gasPrice, gasLimit, receiveAddress, value, data);
+        this.sendAddress = sender;
+    }
+
+    public static CallMessage create(byte[] sender, byte[] nonce, Web3.CallArguments args) {
+        CallArgumentsToByteArray hexArgs = new CallArgumentsToByteArray(args);
+
+        return new CallMessage(sender, nonce, hexArgs.getGasPrice(), hexArgs.getGasLimit(), hexArgs.getToAddress(), hexArgs.getValue(), hexArgs.getData());
+    }
+
+    /**
+     * @return the same message with another gas limit
+     */
+    public CallMessage withGasLimit(long gasLimit) {
+        return new CallMessage(sendAddress, getNonce(), getGasPrice(), ByteUtil.longToBytesNoLeadZeroes(gasLimit), getReceiveAddress(), getValue(), getData());
+    }
+
+    @Override
+    public byte[] getSender() {
+        return sendAddress;
+    }
+
+    @Override
+    public boolean acceptTransactionSignature() {
+        // a call message is never signed, it is only run as a local call
+        return false;
+    }
+}
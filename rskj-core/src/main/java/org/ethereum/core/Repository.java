@@ -19,6 +19,7 @@
 
 package org.ethereum.core;
 
+import co.rsk.db.CodeCache;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.ContractDetails;
 import org.ethereum.db.DetailsDataStore;
@@ -108,6 +109,8 @@ public interface Repository {
     /**
      * Retrieve the code associated with an account
      *
+     * The code can be an instance shared by the code cache, the caller must not modify it
+     *
      * @param addr of the account
      * @return code in byte-array format
      */
@@ -196,7 +199,7 @@ public interface Repository {
      * Return to one of the previous snapshots
      * by moving the root.
      *
-     * @param root - new root
+     * @param root - new root, it must be the current root or a saved one
      */
     void syncToRoot(byte[] root);
 
@@ -221,15 +224,28 @@ public interface Repository {
                             Map<ByteArrayWrapper, ContractDetails> contractDetailes);
 
 
+    /**
+     * Returns the root hash of the current state, it doesn't save the state
+     */
     byte[] getRoot();
 
+    /**
+     * Saves the current state, so its root can be used to get a snapshot
+     */
+    void save();
+
     void loadAccount(byte[] addr, Map<ByteArrayWrapper, AccountState> cacheAccounts,
                      Map<ByteArrayWrapper, ContractDetails> cacheDetails);
 
+    /**
+     * Returns a repository on the current state root or a saved one, it fails if the root has not been saved
+     */
     Repository getSnapshotTo(byte[] root);
 
     DetailsDataStore getDetailsDataStore();
 
+    CodeCache getCodeCache();
+
     void updateContractDetails(final byte[] address, final ContractDetails contractDetails);
 
     void updateAccountState(byte[] data, AccountState accountState);
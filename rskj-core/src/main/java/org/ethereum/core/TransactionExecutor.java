@@ -31,6 +31,8 @@ import org.ethereum.vm.program.Program;
 import org.ethereum.vm.program.ProgramResult;
 import org.ethereum.vm.program.invoke.ProgramInvoke;
 import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+import org.ethereum.vm.trace.ProgramTracer;
+import org.ethereum.vm.trace.StreamingProgramTracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -46,8 +48,8 @@ import static org.ethereum.config.SystemProperties.CONFIG;
 import static org.ethereum.util.BIUtil.*;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.toHexString;
-import static org.ethereum.vm.VMUtils.saveProgramTraceFile;
-import static org.ethereum.vm.VMUtils.zipAndEncode;
+import static org.ethereum.vm.VMUtils.closeQuietly;
+import static org.ethereum.vm.VMUtils.createProgramTraceFileTracer;
 
 /**
  * @author Roman Mandeleil
@@ -58,6 +60,7 @@ public class TransactionExecutor {
     private static final Logger logger = LoggerFactory.getLogger("execute");
     private static final Logger stateLogger = LoggerFactory.getLogger("state");
     private static final PanicProcessor panicProcessor = new PanicProcessor();
+    private static final boolean VM_TRACE = CONFIG.vmTrace();
 
     private Transaction tx;
     private Repository track;
@@ -79,6 +82,8 @@ public class TransactionExecutor {
 
     private VM vm;
     private Program program;
+    private ProgramTracer tracer;
+    private StreamingProgramTracer traceFileTracer;
 
     PrecompiledContracts.PrecompiledContract precompiledContract;
 
@@ -270,7 +275,7 @@ public class TransactionExecutor {
                         programInvokeFactory.createProgramInvoke(tx, executionBlock, cacheTrack, blockStore);
 
                 this.vm = new VM();
-                this.program = new Program(code, programInvoke, tx);
+                this.program = new Program(code, programInvoke, tx, createTracer(programInvoke));
             }
         }
 
@@ -289,7 +294,7 @@ public class TransactionExecutor {
             ProgramInvoke programInvoke = programInvokeFactory.createProgramInvoke(tx, executionBlock, cacheTrack, blockStore);
 
             this.vm = new VM();
-            this.program = new Program(tx.getData(), programInvoke, tx);
+            this.program = new Program(tx.getData(), programInvoke, tx, createTracer(programInvoke));
 
             // reset storage if the contract with the same address already exists
             // TCK test case only - normally this is near-impossible situation in the real network
@@ -437,27 +442,40 @@ public class TransactionExecutor {
 
         logger.info("tx listener done");
 
-        if (CONFIG.vmTrace() && program != null && result != null) {
-            String trace = program.getTrace()
-                    .result(result.getHReturn())
-                    .error(result.getException())
-                    .toString();
-
-
-            if (CONFIG.vmTraceCompressed()) {
-                trace = zipAndEncode(trace);
-            }
-
-            String txHash = toHexString(tx.getHash());
-            saveProgramTraceFile(txHash, trace);
+        if (traceFileTracer != null) {
+            traceFileTracer.writeResult(result.getHReturn(), result.getException());
+            closeQuietly(traceFileTracer);
 
             if (listener != null)
-                listener.onVMTraceCreated(txHash, trace);
+                listener.onVMTraceFileCreated(toHexString(tx.getHash()), traceFileTracer.getFile());
+
+            traceFileTracer = null;
         }
 
         logger.info("tx finalization done");
     }
 
+    /**
+     * Follows the execution of the transaction code with the given tracer
+     * (instead of the trace files written when vm.structured.trace is enabled)
+     */
+    public TransactionExecutor setTracer(ProgramTracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    private ProgramTracer createTracer(ProgramInvoke programInvoke) {
+        if (tracer != null || !VM_TRACE)
+            return tracer;
+
+        traceFileTracer = createProgramTraceFileTracer(toHexString(tx.getHash()));
+
+        if (traceFileTracer != null)
+            traceFileTracer.writeHeader(programInvoke);
+
+        return traceFileTracer;
+    }
+
     public TransactionExecutor setLocalCall(boolean localCall) {
         this.localCall = localCall;
         return this;
@@ -81,6 +81,7 @@ public class BlockChainLoader {
                 repository.updateAccountState(address.getData(), accountState);
             }
 
+            repository.save();
             genesis.setStateRoot(repository.getRoot());
             genesis.flushRLP();
 
@@ -19,8 +19,13 @@
 
 package org.ethereum.datasource;
 
+import org.ethereum.util.FastByteComparisons;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * @author Roman Mandeleil
@@ -36,5 +41,34 @@ public interface KeyValueDataSource extends DataSource {
 
     Set<byte[]> keys();
 
+    /**
+     * forEachKey calls the action with every key until it returns false.
+     * The action can delete keys, the keys added meanwhile could be skipped.
+     * The default implementation copies the keys first
+     */
+    default void forEachKey(Predicate<byte[]> action) {
+        for (byte[] key : keys())
+            if (!action.test(key))
+                return;
+    }
+
+    /**
+     * forEachKey calls the action with the keys from a key on, in increasing unsigned byte order,
+     * until it returns false. The default implementation copies and sorts the keys first
+     */
+    default void forEachKey(byte[] from, Predicate<byte[]> action) {
+        List<byte[]> keys = new ArrayList<>();
+
+        for (byte[] key : keys())
+            if (FastByteComparisons.compareTo(key, 0, key.length, from, 0, from.length) >= 0)
+                keys.add(key);
+
+        keys.sort((k1, k2) -> FastByteComparisons.compareTo(k1, 0, k1.length, k2, 0, k2.length));
+
+        for (byte[] key : keys)
+            if (!action.test(key))
+                return;
+    }
+
     void updateBatch(Map<byte[], byte[]> rows);
 }
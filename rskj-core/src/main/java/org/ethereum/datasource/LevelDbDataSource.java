@@ -37,6 +37,7 @@ import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -226,6 +227,46 @@ public class LevelDbDataSource implements KeyValueDataSource {
         }
     }
 
+    @Override
+    public void forEachKey(Predicate<byte[]> action) {
+        resetDbLock.readLock().lock();
+        try {
+            // the iterator reads a snapshot of the database, the keys are not copied
+            try (DBIterator iterator = db.iterator()) {
+                for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
+                    if (!action.test(iterator.peekNext().getKey()))
+                        return;
+                }
+            } catch (IOException e) {
+                logger.error("Unexpected", e);
+                panicProcessor.panic("leveldb", String.format("Unexpected %s", e.getMessage()));
+                throw new RuntimeException(e);
+            }
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachKey(byte[] from, Predicate<byte[]> action) {
+        resetDbLock.readLock().lock();
+        try {
+            // the keys are sorted by the default bytewise comparator
+            try (DBIterator iterator = db.iterator()) {
+                for (iterator.seek(from); iterator.hasNext(); iterator.next()) {
+                    if (!action.test(iterator.peekNext().getKey()))
+                        return;
+                }
+            } catch (IOException e) {
+                logger.error("Unexpected", e);
+                panicProcessor.panic("leveldb", String.format("Unexpected %s", e.getMessage()));
+                throw new RuntimeException(e);
+            }
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     private void updateBatchInternal(Map<byte[], byte[]> rows) throws IOException {
         try (WriteBatch batch = db.createWriteBatch()) {
             for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
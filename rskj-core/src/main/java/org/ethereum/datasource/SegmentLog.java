@@ -0,0 +1,508 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.datasource;
+
+import co.rsk.panic.PanicProcessor;
+import co.rsk.util.collections.LongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented log of long keyed byte[] values.
+ *
+ * Every put and remove is appended as a record to the active segment file, and an in-memory
+ * primitive index maps each live key to the position of its latest record. Writes are buffered
+ * and only reach the file system on {@link #flush()}, nothing is fsynced unless {@link #sync()}
+ * is called explicitly, so there is no per-commit transaction overhead.
+ *
+ * Segments roll over once they reach the configured size. The oldest segments are deleted once
+ * none of their records is live anymore, and when a mostly dead segment is the oldest one its live
+ * records are copied to the head of the log so it can be deleted too.
+ *
+ * On open the segments are replayed in order to rebuild the index. Every record carries a CRC32,
+ * so a torn write at the tail of the log (i.e. a crash in the middle of an append) is detected and
+ * the log is truncated to the last complete record.
+ *
+ * Record layout: [int length][byte op][long key][value bytes][int crc32]
+ * where length counts op, key and value.
+ *
+ * I/O errors are logged, reported to the panic processor and rethrown unchecked,
+ * as in {@link LevelDbDataSource}.
+ *
+ * Not thread safe, callers are expected to synchronize access.
+ */
+public class SegmentLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+    private static final PanicProcessor panicProcessor = new PanicProcessor();
+
+    public static final int DEFAULT_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int TRAILER_SIZE = 4;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long NO_POSITION = -1;
+    // the oldest segment is compacted when less than this percentage of its records is live
+    private static final int COMPACT_LIVE_PERCENT = 25;
+
+    private final File dir;
+    private final int segmentSize;
+
+    private final LongLongHashMap index = new LongLongHashMap();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+
+    private Segment active;
+    private boolean compacting;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    public SegmentLog(File dir) {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentLog(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+
+        try {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Cannot create segment log directory " + dir);
+            }
+
+            recover();
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    public byte[] get(long key) {
+        long position = index.get(key, NO_POSITION);
+
+        if (position == NO_POSITION) {
+            return null;
+        }
+
+        try {
+            return readValue(position);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    public boolean contains(long key) {
+        return index.containsKey(key);
+    }
+
+    public void put(long key, byte[] value) {
+        try {
+            putInner(key, value);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    public boolean remove(long key) {
+        long previous = index.remove(key, NO_POSITION);
+
+        if (previous == NO_POSITION) {
+            return false;
+        }
+
+        try {
+            append(OP_REMOVE, key, null);
+            release(previous);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return a snapshot of the live keys, in no particular order
+     */
+    public long[] keys() {
+        return index.keys();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public void clear() {
+        int nextId = active.id + 1;
+
+        try {
+            for (Segment segment : segments.values()) {
+                segment.delete();
+            }
+
+            segments.clear();
+            index.clear();
+            writeBuffer.clear();
+
+            active = openSegment(nextId);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    /**
+     * Hands the buffered records to the file system. A process crash after this
+     * call does not lose them, a power failure might: use {@link #sync()} for that.
+     */
+    public void flush() {
+        try {
+            flushInner();
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    public void sync() {
+        try {
+            flushInner();
+            active.file.getChannel().force(false);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flushInner();
+
+            for (Segment segment : segments.values()) {
+                segment.file.close();
+            }
+        } catch (IOException e) {
+            throw failure(e);
+        } finally {
+            segments.clear();
+            index.clear();
+        }
+    }
+
+    private void putInner(long key, byte[] value) throws IOException {
+        long position = append(OP_PUT, key, value);
+        long previous = index.put(key, position, NO_POSITION);
+
+        if (previous != NO_POSITION) {
+            release(previous);
+        }
+    }
+
+    private void flushInner() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+
+        while (writeBuffer.hasRemaining()) {
+            active.flushed += active.file.getChannel().write(writeBuffer, active.flushed);
+        }
+
+        writeBuffer.clear();
+    }
+
+    private RuntimeException failure(IOException e) {
+        logger.error("Segment log " + dir + " failure", e);
+        panicProcessor.panic("segmentlog", e.getMessage());
+        return new RuntimeException(e);
+    }
+
+    private long append(byte op, long key, byte[] value) throws IOException {
+        int valueLength = value == null ? 0 : value.length;
+        int recordLength = HEADER_SIZE + valueLength + TRAILER_SIZE;
+
+        if (active.length > 0 && active.length + recordLength > segmentSize) {
+            roll();
+        }
+
+        if (writeBuffer.remaining() < recordLength) {
+            flushInner();
+
+            if (writeBuffer.capacity() < recordLength) {
+                writeBuffer = ByteBuffer.allocate(recordLength);
+            }
+        }
+
+        crc.reset();
+        crc.update(op);
+        crc.update(longToBytes(key));
+
+        if (value != null) {
+            crc.update(value);
+        }
+
+        writeBuffer.putInt(1 + 8 + valueLength);
+        writeBuffer.put(op);
+        writeBuffer.putLong(key);
+
+        if (value != null) {
+            writeBuffer.put(value);
+        }
+
+        writeBuffer.putInt((int) crc.getValue());
+
+        long position = position(active.id, active.length);
+        active.length += recordLength;
+        active.records++;
+
+        if (op == OP_PUT) {
+            active.live++;
+        }
+
+        return position;
+    }
+
+    private byte[] readValue(long position) throws IOException {
+        Segment segment = segments.get(segmentId(position));
+        long offset = offset(position);
+
+        if (segment == active && offset >= active.flushed) {
+            flushInner();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(segment.file, header, offset);
+        int length = header.getInt(0);
+
+        ByteBuffer value = ByteBuffer.allocate(length - 1 - 8);
+        readFully(segment.file, value, offset + HEADER_SIZE);
+
+        return value.array();
+    }
+
+    private void release(long position) throws IOException {
+        Segment segment = segments.get(segmentId(position));
+        segment.live--;
+
+        if (segment.live == 0 && !compacting) {
+            trim(false);
+        }
+    }
+
+    private void roll() throws IOException {
+        flushInner();
+        active = openSegment(active.id + 1);
+
+        if (!compacting) {
+            trim(true);
+        }
+    }
+
+    /**
+     * Deletes dead segments from the tail of the log, optionally copying the live records of
+     * mostly dead ones to the head first. Segments are only ever deleted oldest first: a newer
+     * segment may hold the remove record that shadows a put in an older one, and deleting it
+     * while the older one survives would resurrect the removed key on replay.
+     */
+    private void trim(boolean compact) throws IOException {
+        compacting = true;
+
+        try {
+            while (segments.size() > 1) {
+                Segment oldest = segments.firstEntry().getValue();
+
+                if (oldest == active) {
+                    return;
+                }
+
+                if (oldest.live > 0) {
+                    if (!compact || oldest.live * 100L >= oldest.records * (long) COMPACT_LIVE_PERCENT) {
+                        return;
+                    }
+
+                    for (long key : index.keys()) {
+                        long position = index.get(key, NO_POSITION);
+
+                        if (segmentId(position) == oldest.id) {
+                            putInner(key, readValue(position));
+                        }
+                    }
+                }
+
+                // records superseding the ones being deleted must reach the file first
+                flushInner();
+                segments.remove(oldest.id);
+                oldest.delete();
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, new Segment(id, new RandomAccessFile(file, "rw")));
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            replay(segment);
+        }
+
+        if (segments.isEmpty()) {
+            active = openSegment(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+
+        trim(false);
+    }
+
+    private void replay(Segment segment) throws IOException {
+        RandomAccessFile file = segment.file;
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD()), WRITE_BUFFER_SIZE));
+        long offset = 0;
+
+        while (offset < fileLength) {
+            if (fileLength - offset < HEADER_SIZE + TRAILER_SIZE) {
+                break;
+            }
+
+            int length = in.readInt();
+
+            if (length < 1 + 8 || offset + 4 + length + TRAILER_SIZE > fileLength) {
+                break;
+            }
+
+            byte op = in.readByte();
+            long key = in.readLong();
+            byte[] value = new byte[length - 1 - 8];
+            in.readFully(value);
+            int checksum = in.readInt();
+
+            crc.reset();
+            crc.update(op);
+            crc.update(longToBytes(key));
+            crc.update(value);
+
+            if ((int) crc.getValue() != checksum || (op != OP_PUT && op != OP_REMOVE)) {
+                break;
+            }
+
+            long previous;
+
+            if (op == OP_PUT) {
+                previous = index.put(key, position(segment.id, offset), NO_POSITION);
+                segment.live++;
+            } else {
+                previous = index.remove(key, NO_POSITION);
+            }
+
+            if (previous != NO_POSITION) {
+                segments.get(segmentId(previous)).live--;
+            }
+
+            segment.records++;
+            offset += 4 + length + TRAILER_SIZE;
+        }
+
+        if (offset < fileLength) {
+            logger.warn("Segment log {} segment {} truncated from {} to {} bytes", dir, segment.id, fileLength, offset);
+            file.setLength(offset);
+        }
+
+        segment.length = offset;
+        segment.flushed = offset;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Segment segment = new Segment(id, new RandomAccessFile(segmentFile(id), "rw"));
+        segment.file.setLength(0);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, String.format("%010d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static void readFully(RandomAccessFile file, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = file.getChannel().read(buffer, offset + buffer.position());
+
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment log");
+            }
+        }
+    }
+
+    private static byte[] longToBytes(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static long position(int segmentId, long offset) {
+        return ((long) segmentId << 32) | offset;
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static long offset(long position) {
+        return position & 0xFFFFFFFFL;
+    }
+
+    private class Segment {
+        private final int id;
+        private final RandomAccessFile file;
+        private long length;
+        private long flushed;
+        private int records;
+        private int live;
+
+        Segment(int id, RandomAccessFile file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        void delete() throws IOException {
+            file.close();
+
+            File f = segmentFile(id);
+
+            if (f.exists() && !f.delete()) {
+                logger.warn("Cannot delete segment {}", f);
+            }
+        }
+    }
+}
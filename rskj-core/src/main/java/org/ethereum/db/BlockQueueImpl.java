@@ -22,19 +22,19 @@ package org.ethereum.db;
 import co.rsk.panic.PanicProcessor;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.core.BlockWrapper;
-import org.ethereum.datasource.mapdb.MapDBFactory;
-import org.ethereum.datasource.mapdb.Serializers;
+import org.ethereum.datasource.SegmentLog;
 import org.ethereum.db.index.ArrayListIndex;
 import org.ethereum.db.index.Index;
-import org.mapdb.DB;
-import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static java.lang.System.getProperty;
 import static org.ethereum.config.SystemProperties.CONFIG;
 
 /**
@@ -50,11 +50,8 @@ public class BlockQueueImpl implements BlockQueue {
     private int readHits;
 
     private final static String STORE_NAME = "blockqueue";
-    private final static String HASH_SET_NAME = "hashset";
-    private MapDBFactory mapDBFactory;
 
-    private DB db;
-    private Map<Long, BlockWrapper> blocks;
+    private SegmentLog blocks;
     private Set<ByteArrayWrapper> hashes;
     private Index index;
 
@@ -67,6 +64,7 @@ public class BlockQueueImpl implements BlockQueue {
 
     private final Object writeMutex = new Object();
     private final Object readMutex = new Object();
+    private final Object dbMutex = new Object();
 
     @Override
     public void open() {
@@ -75,22 +73,21 @@ public class BlockQueueImpl implements BlockQueue {
             public void run() {
                 try {
                     initLock.lock();
-                    db = mapDBFactory.createTransactionalDB(dbName());
-                    blocks = db.hashMapCreate(STORE_NAME)
-                            .keySerializer(Serializer.LONG)
-                            .valueSerializer(Serializers.BLOCK_WRAPPER)
-                            .makeOrGet();
-                    hashes = db.hashSetCreate(HASH_SET_NAME)
-                            .serializer(Serializers.BYTE_ARRAY_WRAPPER)
-                            .makeOrGet();
+                    blocks = new SegmentLog(dbDir());
+                    hashes = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
                     if(CONFIG.databaseReset()) {
                         blocks.clear();
-                        hashes.clear();
-                        db.commit();
                     }
 
-                    index = new ArrayListIndex(blocks.keySet());
+                    // the hash set is not persisted, it is rebuilt from the logged blocks
+                    List<Long> numbers = new ArrayList<>(blocks.size());
+                    for (long number : blocks.keys()) {
+                        numbers.add(number);
+                        hashes.add(new ByteArrayWrapper(getBlock(number).getHash()));
+                    }
+
+                    index = new ArrayListIndex(numbers);
                     initDone = true;
                     readHits = 0;
                     init.signalAll();
@@ -103,14 +100,16 @@ public class BlockQueueImpl implements BlockQueue {
         }).start();
     }
 
-    private String dbName() {
-        return String.format("%s/%s", STORE_NAME, STORE_NAME);
+    private File dbDir() {
+        return new File(getProperty("user.dir") + "/" + CONFIG.databaseDir() + "/" + STORE_NAME);
     }
 
     @Override
     public void close() {
         awaitInit();
-        db.close();
+        synchronized (dbMutex) {
+            blocks.close();
+        }
         initDone = false;
     }
 
@@ -126,7 +125,7 @@ public class BlockQueueImpl implements BlockQueue {
 
                     if (!numbers.contains(b.getNumber())) {
                         numbers.add(b.getNumber());
-                        blocks.put(b.getNumber(), b);
+                        putBlock(b);
                         newHashes.add(new ByteArrayWrapper(b.getHash()));
                     }
 
@@ -144,7 +143,7 @@ public class BlockQueueImpl implements BlockQueue {
                 takeLock.unlock();
             }
         }
-        db.commit();
+        dbCommit();
     }
 
     @Override
@@ -157,7 +156,7 @@ public class BlockQueueImpl implements BlockQueue {
             }
 
         }
-        db.commit();
+        dbCommit();
     }
 
     @Override
@@ -176,12 +175,12 @@ public class BlockQueueImpl implements BlockQueue {
                 replaceInner(block);
             }
         }
-        db.commit();
+        dbCommit();
     }
 
     private void replaceInner(BlockWrapper block) {
 
-        BlockWrapper old = blocks.get(block.getNumber());
+        BlockWrapper old = getBlock(block.getNumber());
 
         if (block.isEqual(old)) return;
 
@@ -189,12 +188,12 @@ public class BlockQueueImpl implements BlockQueue {
             hashes.remove(new ByteArrayWrapper(old.getHash()));
         }
 
-        blocks.put(block.getNumber(), block);
+        putBlock(block);
         hashes.add(new ByteArrayWrapper(block.getHash()));
     }
 
     private void addInner(BlockWrapper block) {
-        blocks.put(block.getNumber(), block);
+        putBlock(block);
         hashes.add(new ByteArrayWrapper(block.getHash()));
 
         takeLock.lock();
@@ -221,8 +220,8 @@ public class BlockQueueImpl implements BlockQueue {
             }
 
             Long idx = index.poll();
-            BlockWrapper block = blocks.get(idx);
-            blocks.remove(idx);
+            BlockWrapper block = getBlock(idx);
+            removeBlock(idx);
 
             if (block != null) {
                 hashes.remove(new ByteArrayWrapper(block.getHash()));
@@ -244,7 +243,7 @@ public class BlockQueueImpl implements BlockQueue {
             }
 
             Long idx = index.peek();
-            return blocks.get(idx);
+            return getBlock(idx);
         }
     }
 
@@ -280,11 +279,11 @@ public class BlockQueueImpl implements BlockQueue {
     public void clear() {
         awaitInit();
 
-        blocks.clear();
+        synchronized (dbMutex) {
+            blocks.clear();
+        }
         hashes.clear();
         index.clear();
-
-        db.commit();
     }
 
     @Override
@@ -329,18 +328,20 @@ public class BlockQueueImpl implements BlockQueue {
 
         synchronized (index) {
 
-            for (Long idx : index) {
+            for (long idx : index.toArray()) {
                 if (++i > scanLimit) break;
 
-                BlockWrapper b = blocks.get(idx);
+                BlockWrapper b = getBlock(idx);
                 if (b.sentBy(nodeId)) removed.add(idx);
             }
 
-            blocks.keySet().removeAll(removed);
+            for (Long idx : removed) {
+                removeBlock(idx);
+            }
             index.removeAll(removed);
         }
 
-        db.commit();
+        dbCommit();
 
         if (logger.isDebugEnabled()) {
             if (removed.isEmpty()) {
@@ -362,7 +363,7 @@ public class BlockQueueImpl implements BlockQueue {
 
         synchronized (readMutex) {
             Long num = index.peekLast();
-            return blocks.get(num);
+            return num == null ? null : getBlock(num);
         }
     }
 
@@ -371,12 +372,12 @@ public class BlockQueueImpl implements BlockQueue {
 
         synchronized (readMutex) {
 
-            BlockWrapper existing = blocks.get(block.getNumber());
+            BlockWrapper existing = getBlock(block.getNumber());
             if (existing == null || !existing.equals(block))
                 return;
 
             index.remove(block.getNumber());
-            blocks.remove(block.getNumber());
+            removeBlock(block.getNumber());
 
             hashes.remove(new ByteArrayWrapper(block.getHash()));
         }
@@ -395,12 +396,35 @@ public class BlockQueueImpl implements BlockQueue {
 
     private void commitReading() {
         if(++readHits >= READ_HITS_COMMIT_THRESHOLD) {
-            db.commit();
+            dbCommit();
             readHits = 0;
         }
     }
 
-    public void setMapDBFactory(MapDBFactory mapDBFactory) {
-        this.mapDBFactory = mapDBFactory;
+    private BlockWrapper getBlock(long number) {
+        byte[] bytes;
+        synchronized (dbMutex) {
+            bytes = blocks.get(number);
+        }
+        return bytes == null ? null : new BlockWrapper(bytes);
+    }
+
+    private void putBlock(BlockWrapper block) {
+        byte[] bytes = block.getBytes();
+        synchronized (dbMutex) {
+            blocks.put(block.getNumber(), bytes);
+        }
+    }
+
+    private void removeBlock(long number) {
+        synchronized (dbMutex) {
+            blocks.remove(number);
+        }
+    }
+
+    private void dbCommit() {
+        synchronized (dbMutex) {
+            blocks.flush();
+        }
     }
 }
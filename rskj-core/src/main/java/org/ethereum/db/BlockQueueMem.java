@@ -236,7 +236,7 @@ public class BlockQueueMem implements BlockQueue {
 
             boolean hasSent = false;
 
-            for (Long idx : index) {
+            for (long idx : index.toArray()) {
                 BlockWrapper b = blocks.get(idx);
 
                 if (!hasSent) {
@@ -20,118 +20,319 @@
 package org.ethereum.db;
 
 import co.rsk.db.ContractDetailsImpl;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.KeyValueDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 import static java.lang.String.format;
 import static org.ethereum.util.ByteUtil.wrap;
 
+/**
+ * Lookups and single key updates run concurrently, on concurrent maps.
+ * Taking the dirty details takes the write lock, so no details can be loaded and cached
+ * while the cache is being encoded and cleared. The taken batch can be written to the
+ * database later, in another thread, while new updates go to the emptied cache.
+ *
+ * The storage tries of the contracts with external storage are kept in the storage data source,
+ * shared by all the contracts: the nodes are keyed by hash, so the tries don't collide.
+ */
 public class DetailsDataStore {
 
     private static final Logger gLogger = LoggerFactory.getLogger("general");
 
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
     private DatabaseImpl db = null;
+    private KeyValueDataSource storageDataSource = new HashMapDB();
+    private TrieStoreImpl storageStore = new TrieStoreImpl(storageDataSource);
     private Map<ByteArrayWrapper, ContractDetails> cache = new ConcurrentHashMap<>();
-    private Set<ByteArrayWrapper> removes = new HashSet<>();
+    private Set<ByteArrayWrapper> removes = ConcurrentHashMap.newKeySet();
+
+    // batches taken but not yet written, newest first
+    private final List<Map<ByteArrayWrapper, byte[]>> flushing = new CopyOnWriteArrayList<>();
 
-    public synchronized void setDB(DatabaseImpl db) {
-        this.db = db;
+    public void setDB(DatabaseImpl db) {
+        lock.writeLock().lock();
+
+        try {
+            this.db = db;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    public synchronized ContractDetails get(byte[] key) {
-        ByteArrayWrapper wrappedKey = wrap(key);
-        ContractDetails details = cache.get(wrappedKey);
+    public void setStorageDataSource(KeyValueDataSource storageDataSource) {
+        lock.writeLock().lock();
 
-        if (details == null) {
+        try {
+            this.storageDataSource = storageDataSource;
+            this.storageStore = new TrieStoreImpl(storageDataSource);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-            if (removes.contains(wrappedKey)) return null;
-            byte[] data = db.get(key);
-            if (data == null) return null;
+    public TrieStoreImpl getStorageStore() {
+        return this.storageStore;
+    }
 
-            details = createContractDetails(data);
-            cache.put(wrappedKey, details);
+    public ContractDetails get(byte[] key) {
+        lock.readLock().lock();
 
-            float out = ((float) data.length) / 1048576;
-            if (out > 10) {
-                String sizeFmt = format("%02.2f", out);
-                gLogger.debug("loaded: key: " + Hex.toHexString(key) + " size: " + sizeFmt + "MB");
-            }
+        try {
+            // the load runs under the cache entry lock, so it can't race with update or remove of the same key
+            return cache.computeIfAbsent(wrap(key), this::load);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ContractDetails load(ByteArrayWrapper wrappedKey) {
+        if (removes.contains(wrappedKey)) return null;
+
+        byte[] key = wrappedKey.getData();
+        byte[] data = loadFlushing(wrappedKey);
+        if (data == null) return null;
+
+        ContractDetails details = createContractDetails(data);
+
+        float out = ((float) data.length) / 1048576;
+        if (out > 10) {
+            String sizeFmt = format("%02.2f", out);
+            gLogger.debug("loaded: key: " + Hex.toHexString(key) + " size: " + sizeFmt + "MB");
         }
 
         return details;
     }
 
+    private byte[] loadFlushing(ByteArrayWrapper wrappedKey) {
+        for (Map<ByteArrayWrapper, byte[]> batch : flushing)
+            if (batch.containsKey(wrappedKey))
+                return batch.get(wrappedKey);
+
+        return db.get(wrappedKey.getData());
+    }
+
     protected ContractDetails createContractDetails(byte[] data) {
-        return new ContractDetailsImpl(data);
+        return new ContractDetailsImpl(data, storageStore);
     }
 
-    public synchronized void update(byte[] key, ContractDetails contractDetails) {
+    public void update(byte[] key, ContractDetails contractDetails) {
         contractDetails.setAddress(key);
 
+        if (contractDetails instanceof ContractDetailsImpl)
+            ((ContractDetailsImpl) contractDetails).setStorageStore(storageStore);
+
         ByteArrayWrapper wrappedKey = wrap(key);
-        cache.put(wrappedKey, contractDetails);
-        removes.remove(wrappedKey);
+
+        lock.readLock().lock();
+
+        try {
+            cache.put(wrappedKey, contractDetails);
+            removes.remove(wrappedKey);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public synchronized void remove(byte[] key) {
+    public void remove(byte[] key) {
         ByteArrayWrapper wrappedKey = wrap(key);
-        cache.remove(wrappedKey);
-        removes.add(wrappedKey);
-    }
 
-    public synchronized void flush() {
-        long keys = cache.size();
+        lock.readLock().lock();
+
+        try {
+            // mark it removed first, so a concurrent get doesn't load it again
+            removes.add(wrappedKey);
+            cache.remove(wrappedKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
+    public void flush() {
         long start = System.nanoTime();
-        long totalSize = flushInternal();
+        Map<ByteArrayWrapper, byte[]> batch = takeDirty();
+        long totalSize = writeDirty(batch);
         long finish = System.nanoTime();
 
         float flushSize = (float) totalSize / 1_048_576;
         float flushTime = (float) (finish - start) / 1_000_000;
-        gLogger.info(format("Flush details in: %02.2f ms, %d keys, %02.2fMB", flushTime, keys, flushSize));
+        gLogger.info(format("Flush details in: %02.2f ms, %d keys, %02.2fMB", flushTime, batch.size(), flushSize));
     }
 
-    private long flushInternal() {
+    /**
+     * takeDirty encodes the updated and removed details, and clears the cache,
+     * so the following updates go to a new dirty set.
+     * The details keep being read from the returned batch until it is written.
+     *
+     * @return  the encoded details by key, a null value for a removed key
+     */
+    public Map<ByteArrayWrapper, byte[]> takeDirty() {
+        Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+
+        lock.writeLock().lock();
+
+        try {
+            for (ByteArrayWrapper key : removes)
+                batch.put(key, null);
+
+            for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cache.entrySet()) {
+                ContractDetails details = entry.getValue();
+                details.syncStorage();
+                batch.put(entry.getKey(), details.getEncoded());
+            }
+
+            cache.clear();
+            removes.clear();
+
+            flushing.add(0, batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return batch;
+    }
+
+    /**
+     * writeDirty writes to the database a batch returned by takeDirty.
+     * The batches should be written in the same order they were taken.
+     *
+     * @param batch     the batch to write
+     * @return  the number of bytes written
+     */
+    public long writeDirty(Map<ByteArrayWrapper, byte[]> batch) {
         long totalSize = 0;
 
-        Map<byte[], byte[]> batch = new HashMap<>();
-        for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cache.entrySet()) {
-            ContractDetails details = entry.getValue();
-            details.syncStorage();
+        Map<byte[], byte[]> rows = new HashMap<>();
+        List<byte[]> deletes = new ArrayList<>();
 
-            byte[] key = entry.getKey().getData();
-            byte[] value = details.getEncoded();
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : batch.entrySet()) {
+            byte[] value = entry.getValue();
 
-            batch.put(key, value);
+            if (value == null) {
+                deletes.add(entry.getKey().getData());
+                continue;
+            }
+
+            rows.put(entry.getKey().getData(), value);
             totalSize += value.length;
         }
 
-        db.getDb().updateBatch(batch);
+        db.getDb().updateBatch(rows);
 
-        for (ByteArrayWrapper key : removes) {
-            db.delete(key.getData());
-        }
+        for (byte[] key : deletes)
+            db.delete(key);
 
-        cache.clear();
-        removes.clear();
+        // the details are now read from the database
+        flushing.removeIf(b -> b == batch);
 
         return totalSize;
     }
 
+    public void close() {
+        lock.writeLock().lock();
+
+        try {
+            storageDataSource.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.readLock().lock();
+
+        try {
+            if (!cache.isEmpty() || !flushing.isEmpty())
+                return false;
+
+            boolean[] empty = { true };
+            db.getDb().forEachKey(key -> empty[0] = false);
+            return empty[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * forEachKey calls the action with the keys from a key on, in increasing order, until it returns false.
+     * The keys in the database are walked, not copied. Removed keys could be visited
+     */
+    public void forEachKey(byte[] from, Predicate<byte[]> action) {
+        ByteArrayWrapper wrappedFrom = wrap(from);
+        TreeSet<ByteArrayWrapper> pending = new TreeSet<>();
+        KeyValueDataSource dataSource;
+
+        lock.readLock().lock();
+
+        try {
+            for (ByteArrayWrapper key : cache.keySet())
+                if (key.compareTo(wrappedFrom) >= 0)
+                    pending.add(key);
+
+            for (Map<ByteArrayWrapper, byte[]> batch : flushing)
+                for (ByteArrayWrapper key : batch.keySet())
+                    if (key.compareTo(wrappedFrom) >= 0)
+                        pending.add(key);
+
+            dataSource = db.getDb();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // the cached keys are merged into the database keys
+        boolean[] stopped = new boolean[1];
+
+        dataSource.forEachKey(from, key -> {
+            ByteArrayWrapper wrappedKey = wrap(key);
+
+            while (!pending.isEmpty() && pending.first().compareTo(wrappedKey) <= 0) {
+                ByteArrayWrapper first = pending.pollFirst();
+
+                if (!first.equals(wrappedKey) && !action.test(first.getData())) {
+                    stopped[0] = true;
+                    return false;
+                }
+            }
+
+            stopped[0] = !action.test(key);
+            return !stopped[0];
+        });
 
-    public synchronized Set<ByteArrayWrapper> keys() {
-        Set<ByteArrayWrapper> keys = new HashSet<>();
-        keys.addAll(cache.keySet());
-        keys.addAll(db.dumpKeys());
+        if (stopped[0])
+            return;
 
-        return keys;
+        for (ByteArrayWrapper key : pending)
+            if (!action.test(key.getData()))
+                return;
+    }
+
+    public Set<ByteArrayWrapper> keys() {
+        lock.readLock().lock();
+
+        try {
+            Set<ByteArrayWrapper> keys = new HashSet<>();
+            keys.addAll(cache.keySet());
+
+            for (Map<ByteArrayWrapper, byte[]> batch : flushing)
+                batch.forEach((key, value) -> { if (value != null) keys.add(key); });
+
+            keys.addAll(db.dumpKeys());
+
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
 }
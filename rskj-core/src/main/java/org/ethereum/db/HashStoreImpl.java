@@ -19,18 +19,19 @@
 
 package org.ethereum.db;
 
+import co.rsk.util.collections.SortedLongRingBuffer;
 import org.apache.commons.collections4.IterableUtils;
-import org.ethereum.datasource.mapdb.MapDBFactory;
+import org.ethereum.datasource.SegmentLog;
 import org.ethereum.util.FastByteComparisons;
-import org.mapdb.DB;
-import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static java.lang.System.getProperty;
 import static org.ethereum.config.SystemProperties.CONFIG;
 
 /**
@@ -42,11 +43,9 @@ public class HashStoreImpl implements HashStore {
     private static final Logger logger = LoggerFactory.getLogger("blockqueue");
 
     private static final String STORE_NAME = "hashstore";
-    private MapDBFactory mapDBFactory;
 
-    private DB db;
-    private Map<Long, byte[]> hashes;
-    private List<Long> index;
+    private SegmentLog hashes;
+    private SortedLongRingBuffer index;
 
     private boolean initDone = false;
     private final ReentrantLock initLock = new ReentrantLock();
@@ -59,19 +58,20 @@ public class HashStoreImpl implements HashStore {
             public void run() {
                 initLock.lock();
                 try {
-                    db = mapDBFactory.createTransactionalDB(dbName());
-                    hashes = db.hashMapCreate(STORE_NAME)
-                            .keySerializer(Serializer.LONG)
-                            .valueSerializer(Serializer.BYTE_ARRAY)
-                            .makeOrGet();
+                    hashes = new SegmentLog(dbDir());
 
                     if(CONFIG.databaseReset()) {
                         hashes.clear();
-                        db.commit();
                     }
 
-                    index = new ArrayList<>(hashes.keySet());
-                    sortIndex();
+                    // sorted first, so each key is appended
+                    long[] keys = hashes.keys();
+                    Arrays.sort(keys);
+
+                    index = new SortedLongRingBuffer(keys.length);
+                    for (long idx : keys) {
+                        index.add(idx);
+                    }
 
                     initDone = true;
                     init.signalAll();
@@ -84,14 +84,16 @@ public class HashStoreImpl implements HashStore {
         }).start();
     }
 
-    private String dbName() {
-        return String.format("%s/%s", STORE_NAME, STORE_NAME);
+    private File dbDir() {
+        return new File(getProperty("user.dir") + "/" + CONFIG.databaseDir() + "/" + STORE_NAME);
     }
 
     @Override
     public void close() {
         awaitInit();
-        db.close();
+        synchronized (this) {
+            hashes.close();
+        }
         initDone = false;
     }
 
@@ -128,7 +130,7 @@ public class HashStoreImpl implements HashStore {
     }
 
     private synchronized void addInner(boolean first, byte[] hash) {
-        Long idx = createIndex(first);
+        long idx = createIndex(first);
         hashes.put(idx, hash);
     }
 
@@ -140,8 +142,7 @@ public class HashStoreImpl implements HashStore {
                 return null;
             }
 
-            Long idx = index.get(0);
-            return hashes.get(idx);
+            return hashes.get(index.peekFirst());
         }
     }
 
@@ -178,10 +179,9 @@ public class HashStoreImpl implements HashStore {
                 return null;
             }
 
-            Long idx = index.get(0);
+            long idx = index.pollFirst();
             hash = hashes.get(idx);
             hashes.remove(idx);
-            index.remove(0);
         }
         return hash;
     }
@@ -193,9 +193,13 @@ public class HashStoreImpl implements HashStore {
     }
 
     @Override
-    public Set<Long> getKeys() {
+    public synchronized Set<Long> getKeys() {
         awaitInit();
-        return hashes.keySet();
+        Set<Long> keys = new HashSet<>(index.size());
+        for (long idx : index.toArray()) {
+            keys.add(idx);
+        }
+        return keys;
     }
 
     @Override
@@ -211,22 +215,21 @@ public class HashStoreImpl implements HashStore {
             index.clear();
             hashes.clear();
         }
-        dbCommit();
     }
 
     @Override
     public void removeAll(Collection<byte[]> removing) {
         awaitInit();
-        Set<Long> removed = new HashSet<>();
-        for(final Map.Entry<Long, byte[]> e : hashes.entrySet()) {
-            byte[] hash = IterableUtils.find(removing, hash1 -> FastByteComparisons.compareTo(hash1, 0, 32, e.getValue(), 0, 32) == 0);
-            if(hash != null) {
-                removed.add(e.getKey());
-            }
-        }
-        index.removeAll(removed);
-        for(Long idx : removed) {
-            hashes.remove(idx);
+        synchronized (this) {
+            index.removeIf(idx -> {
+                final byte[] value = hashes.get(idx);
+                byte[] hash = IterableUtils.find(removing, hash1 -> FastByteComparisons.compareTo(hash1, 0, 32, value, 0, 32) == 0);
+                if(hash == null) {
+                    return false;
+                }
+                hashes.remove(idx);
+                return true;
+            });
         }
         dbCommit();
     }
@@ -235,36 +238,26 @@ public class HashStoreImpl implements HashStore {
         dbCommit("");
     }
 
-    private void dbCommit(String info) {
+    private synchronized void dbCommit(String info) {
         long s = System.currentTimeMillis();
-        db.commit();
-        logger.debug("HashStoreImpl: db.commit took " + (System.currentTimeMillis() - s) + " ms (" + info + ") " + Thread.currentThread().getName());
+        hashes.flush();
+        logger.debug("HashStoreImpl: log flush took " + (System.currentTimeMillis() - s) + " ms (" + info + ") " + Thread.currentThread().getName());
     }
 
-    private Long createIndex(boolean first) {
-        Long idx;
+    // the new keys go before the first or after the last, so the buffer doesn't shift them
+    private long createIndex(boolean first) {
+        long idx;
         if(index.isEmpty()) {
             idx = 0L;
-            index.add(idx);
         } else if(first) {
-            idx = index.get(0) - 1;
-            index.add(0, idx);
+            idx = index.peekFirst() - 1;
         } else {
-            idx = index.get(index.size() - 1) + 1;
-            index.add(idx);
+            idx = index.peekLast() + 1;
         }
+        index.add(idx);
         return idx;
     }
 
-    private void sortIndex() {
-        Collections.sort(index);
-    }
-
-    public void setMapDBFactory(MapDBFactory mapDBFactory) {
-        this.mapDBFactory = mapDBFactory;
-    }
-
-
     private void awaitInit() {
         initLock.lock();
         try {
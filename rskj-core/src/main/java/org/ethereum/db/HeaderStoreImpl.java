@@ -21,19 +21,18 @@ package org.ethereum.db;
 
 import co.rsk.panic.PanicProcessor;
 import org.ethereum.core.BlockHeaderWrapper;
-import org.ethereum.datasource.mapdb.MapDBFactory;
-import org.ethereum.datasource.mapdb.Serializers;
+import org.ethereum.datasource.SegmentLog;
 import org.ethereum.db.index.ArrayListIndex;
 import org.ethereum.db.index.Index;
-import org.mapdb.DB;
-import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static java.lang.System.getProperty;
 import static org.ethereum.config.SystemProperties.CONFIG;
 
 /**
@@ -46,10 +45,8 @@ public class HeaderStoreImpl implements HeaderStore {
     private static final PanicProcessor panicProcessor = new PanicProcessor();
 
     private static final String STORE_NAME = "headerstore";
-    private MapDBFactory mapDBFactory;
 
-    private DB db;
-    private Map<Long, BlockHeaderWrapper> headers;
+    private SegmentLog headers;
     private Index index;
 
     private boolean initDone = false;
@@ -65,18 +62,18 @@ public class HeaderStoreImpl implements HeaderStore {
             public void run() {
                 initLock.lock();
                 try {
-                    db = mapDBFactory.createTransactionalDB(dbName());
-                    headers = db.hashMapCreate(STORE_NAME)
-                            .keySerializer(Serializer.LONG)
-                            .valueSerializer(Serializers.BLOCK_HEADER_WRAPPER)
-                            .makeOrGet();
+                    headers = new SegmentLog(dbDir());
 
                     if(CONFIG.databaseReset()) {
                         headers.clear();
-                        db.commit();
                     }
 
-                    index = new ArrayListIndex(headers.keySet());
+                    List<Long> numbers = new ArrayList<>(headers.size());
+                    for (long number : headers.keys()) {
+                        numbers.add(number);
+                    }
+
+                    index = new ArrayListIndex(numbers);
                     initDone = true;
                     init.signalAll();
 
@@ -88,14 +85,16 @@ public class HeaderStoreImpl implements HeaderStore {
         }).start();
     }
 
-    private String dbName() {
-        return String.format("%s/%s", STORE_NAME, STORE_NAME);
+    private File dbDir() {
+        return new File(getProperty("user.dir") + "/" + CONFIG.databaseDir() + "/" + STORE_NAME);
     }
 
     @Override
     public void close() {
         awaitInit();
-        db.close();
+        synchronized (mutex) {
+            headers.close();
+        }
         initDone = false;
     }
 
@@ -107,7 +106,7 @@ public class HeaderStoreImpl implements HeaderStore {
             if (index.contains(header.getNumber())) {
                 return;
             }
-            headers.put(header.getNumber(), header);
+            headers.put(header.getNumber(), header.getBytes());
             index.add(header.getNumber());
         }
 
@@ -123,7 +122,7 @@ public class HeaderStoreImpl implements HeaderStore {
                 if(!index.contains(b.getNumber()) &&
                         !numbers.contains(b.getNumber())) {
 
-                    this.headers.put(b.getNumber(), b);
+                    this.headers.put(b.getNumber(), b.getBytes());
                     numbers.add(b.getNumber());
                 }
             }
@@ -143,7 +142,7 @@ public class HeaderStoreImpl implements HeaderStore {
             }
 
             Long idx = index.peek();
-            return headers.get(idx);
+            return decode(headers.get(idx));
         }
     }
 
@@ -194,10 +193,10 @@ public class HeaderStoreImpl implements HeaderStore {
     public void clear() {
         awaitInit();
 
-        headers.clear();
-        index.clear();
-
-        dbCommit();
+        synchronized (mutex) {
+            headers.clear();
+            index.clear();
+        }
     }
 
     @Override
@@ -207,18 +206,20 @@ public class HeaderStoreImpl implements HeaderStore {
         int i = 0;
         List<Long> removed = new ArrayList<>();
 
-        synchronized (index) {
+        synchronized (mutex) {
 
-            for (Long idx : index) {
-                BlockHeaderWrapper h = headers.get(idx);
+            for (long idx : index.toArray()) {
+                BlockHeaderWrapper h = decode(headers.get(idx));
                 if (h.sentBy(nodeId)) removed.add(idx);
             }
 
-            headers.keySet().removeAll(removed);
+            for (Long idx : removed) {
+                headers.remove(idx);
+            }
             index.removeAll(removed);
         }
 
-        db.commit();
+        dbCommit("drop");
 
         if (logger.isDebugEnabled()) {
             if (removed.isEmpty()) {
@@ -229,14 +230,12 @@ public class HeaderStoreImpl implements HeaderStore {
         }
     }
 
-    private void dbCommit() {
-        dbCommit("");
-    }
-
     private void dbCommit(String info) {
         long s = System.currentTimeMillis();
-        db.commit();
-        logger.debug("HashStoreImpl: db.commit took " + (System.currentTimeMillis() - s) + " ms (" + info + ") " + Thread.currentThread().getName());
+        synchronized (mutex) {
+            headers.flush();
+        }
+        logger.debug("HeaderStoreImpl: log flush took " + (System.currentTimeMillis() - s) + " ms (" + info + ") " + Thread.currentThread().getName());
     }
 
     private void awaitInit() {
@@ -257,7 +256,7 @@ public class HeaderStoreImpl implements HeaderStore {
             }
 
             Long idx = index.poll();
-            BlockHeaderWrapper header = headers.get(idx);
+            BlockHeaderWrapper header = decode(headers.get(idx));
             headers.remove(idx);
 
             if (header == null) {
@@ -269,7 +268,7 @@ public class HeaderStoreImpl implements HeaderStore {
         }
     }
 
-    public void setMapDBFactory(MapDBFactory mapDBFactory) {
-        this.mapDBFactory = mapDBFactory;
+    private static BlockHeaderWrapper decode(byte[] bytes) {
+        return bytes == null ? null : new BlockHeaderWrapper(bytes);
     }
 }
@@ -146,7 +146,7 @@ public class HeaderStoreMem implements HeaderStore {
 
             boolean hasSent = false;
 
-            for (Long idx : index) {
+            for (long idx : index.toArray()) {
                 BlockHeaderWrapper h = headers.get(idx);
                 if (!hasSent) {
                     hasSent = h.sentBy(nodeId);
@@ -19,6 +19,7 @@
 
 package org.ethereum.db;
 
+import co.rsk.db.CodeCache;
 import co.rsk.db.ContractDetailsImpl;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Block;
@@ -48,6 +49,8 @@ public class RepositoryTrack implements Repository {
     private static final byte[] EMPTY_DATA_HASH = HashUtil.sha3(EMPTY_BYTE_ARRAY);
     private static final Logger logger = LoggerFactory.getLogger("repository");
 
+    // the caches are guarded by this track's monitor, the parent repository
+    // handles its own locking, so loading from it doesn't block other tracks
     Map<ByteArrayWrapper, AccountState> cacheAccounts = new HashMap<>();
     Map<ByteArrayWrapper, ContractDetails> cacheDetails = new HashMap<>();
 
@@ -63,7 +66,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public AccountState createAccount(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
             logger.trace("createAccount: [{}]", Hex.toHexString(addr));
 
             AccountState accountState = new AccountState();
@@ -80,7 +83,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public AccountState getAccountState(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
 
             AccountState accountState = cacheAccounts.get(wrap(addr));
 
@@ -96,7 +99,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public boolean isExist(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
             AccountState accountState = cacheAccounts.get(wrap(addr));
             if (accountState != null)
                 return !accountState.isDeleted();
@@ -108,7 +111,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public ContractDetails getContractDetails(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
             ContractDetails contractDetails = cacheDetails.get(wrap(addr));
 
             if (contractDetails == null) {
@@ -124,7 +127,7 @@ public class RepositoryTrack implements Repository {
     public void loadAccount(byte[] addr, Map<ByteArrayWrapper, AccountState> cacheAccounts,
                             Map<ByteArrayWrapper, ContractDetails> cacheDetails) {
 
-        synchronized (repository) {
+        synchronized (this) {
             AccountState accountState = this.cacheAccounts.get(wrap(addr));
             ContractDetails contractDetails = this.cacheDetails.get(wrap(addr));
 
@@ -145,7 +148,7 @@ public class RepositoryTrack implements Repository {
     public void delete(byte[] addr) {
         logger.trace("delete account: [{}]", Hex.toHexString(addr));
 
-        synchronized (repository) {
+        synchronized (this) {
             getAccountState(addr).setDeleted(true);
             getContractDetails(addr).setDeleted(true);
         }
@@ -154,7 +157,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public BigInteger increaseNonce(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
             AccountState accountState = getAccountState(addr);
 
             if (accountState == null)
@@ -175,7 +178,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public void hibernate(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
             AccountState accountState = getAccountState(addr);
 
             if (accountState == null)
@@ -189,7 +192,7 @@ public class RepositoryTrack implements Repository {
     }
 
     public BigInteger setNonce(byte[] addr, BigInteger bigInteger) {
-        synchronized (repository) {
+        synchronized (this) {
             AccountState accountState = getAccountState(addr);
 
             if (accountState == null)
@@ -223,7 +226,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public BigInteger addBalance(byte[] addr, BigInteger value) {
 
-        synchronized (repository) {
+        synchronized (this) {
             AccountState accountState = getAccountState(addr);
             if (accountState == null) {
                 accountState = createAccount(addr);
@@ -243,7 +246,7 @@ public class RepositoryTrack implements Repository {
     public void saveCode(byte[] addr, byte[] code) {
         logger.trace("saving code addr: [{}], code: [{}]", Hex.toHexString(addr),
                 Hex.toHexString(code));
-        synchronized (repository) {
+        synchronized (this) {
             getContractDetails(addr).setCode(code);
             getContractDetails(addr).setDirty(true);
             getAccountState(addr).setCodeHash(sha3(code));
@@ -253,7 +256,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public byte[] getCode(byte[] addr) {
 
-        synchronized (repository) {
+        synchronized (this) {
             if (!isExist(addr))
                 return EMPTY_BYTE_ARRAY;
 
@@ -261,7 +264,13 @@ public class RepositoryTrack implements Repository {
             if (Arrays.equals(codeHash, EMPTY_DATA_HASH))
                 return EMPTY_BYTE_ARRAY;
 
-            return getContractDetails(addr).getCode();
+            CodeCache codeCache = getCodeCache();
+            byte[] code = codeCache.getCode(codeHash);
+
+            if (code != null)
+                return code;
+
+            return codeCache.putCode(codeHash, getContractDetails(addr).getCode());
         }
     }
 
@@ -271,7 +280,7 @@ public class RepositoryTrack implements Repository {
         logger.trace("add storage row, addr: [{}], key: [{}] val: [{}]", Hex.toHexString(addr),
                 key.toString(), value.toString());
 
-        synchronized (repository) {
+        synchronized (this) {
             getContractDetails(addr).put(key, value);
         }
     }
@@ -282,21 +291,21 @@ public class RepositoryTrack implements Repository {
         logger.trace("add storage bytes, addr: [{}], key: [{}]", Hex.toHexString(addr),
                 key.toString());
 
-        synchronized (repository) {
+        synchronized (this) {
             getContractDetails(addr).putBytes(key, value);
         }
     }
 
     @Override
     public DataWord getStorageValue(byte[] addr, DataWord key) {
-        synchronized (repository) {
+        synchronized (this) {
             return getContractDetails(addr).get(key);
         }
     }
 
     @Override
     public byte[] getStorageBytes(byte[] addr, DataWord key) {
-        synchronized (repository) {
+        synchronized (this) {
             return getContractDetails(addr).getBytes(key);
         }
     }
@@ -338,7 +347,7 @@ public class RepositoryTrack implements Repository {
     @Override
     public void commit() {
 
-        synchronized (repository) {
+        synchronized (this) {
             applyCacheDetailsChanges();
 
             repository.updateBatch(cacheAccounts, cacheDetails);
@@ -349,7 +358,7 @@ public class RepositoryTrack implements Repository {
     }
 
     public void applyCacheDetailsChanges(){
-        synchronized (repository) {
+        synchronized (this) {
             for (ContractDetails contractDetails : cacheDetails.values()) {
 
                 ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) contractDetails;
@@ -394,7 +403,7 @@ public class RepositoryTrack implements Repository {
     public void updateBatch(Map<ByteArrayWrapper, AccountState> accountStates,
                             Map<ByteArrayWrapper, ContractDetails> contractDetails) {
 
-        synchronized (repository) {
+        synchronized (this) {
             for (Map.Entry<ByteArrayWrapper, AccountState> entry : accountStates.entrySet()) {
                 cacheAccounts.put(entry.getKey(), entry.getValue());
             }
@@ -416,6 +425,11 @@ public class RepositoryTrack implements Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void save() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public boolean isClosed() {
         throw new UnsupportedOperationException();
@@ -447,9 +461,14 @@ public class RepositoryTrack implements Repository {
         return dds;
     }
 
+    @Override
+    public CodeCache getCodeCache() {
+        return repository.getCodeCache();
+    }
+
     @Override
     public void updateContractDetails(byte[] address, ContractDetails contractDetails) {
-        synchronized (repository) {
+        synchronized (this) {
             logger.trace("updateContractDetails: [{}]", Hex.toHexString(address));
             ContractDetails contractDetailsCache = new ContractDetailsCacheImpl(null);
             contractDetails.setDirty(true);
@@ -459,7 +478,7 @@ public class RepositoryTrack implements Repository {
 
     @Override
     public void updateAccountState(byte[] address, AccountState accountState) {
-        synchronized (repository) {
+        synchronized (this) {
             logger.trace("updateAccountState: [{}]", Hex.toHexString(address));
             cacheAccounts.put(wrap(address), accountState);
         }
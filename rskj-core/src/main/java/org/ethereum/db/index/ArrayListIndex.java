@@ -19,6 +19,8 @@
 
 package org.ethereum.db.index;
 
+import co.rsk.util.collections.SortedLongRingBuffer;
+
 import java.util.*;
 
 /**
@@ -26,49 +28,47 @@ import java.util.*;
  * @since 28.01.2016
  */
 public class ArrayListIndex implements Index {
-    private List<Long> index;
+    private final SortedLongRingBuffer index;
 
     public ArrayListIndex(Collection<Long> numbers) {
-        index = new ArrayList<>(numbers);
-        sort();
+        index = new SortedLongRingBuffer(numbers.size());
+        addAll(numbers);
     }
 
     @Override
     public synchronized void addAll(Collection<Long> nums) {
-        index.addAll(nums);
-        sort();
+        for (Long num : nums) {
+            index.add(num);
+        }
     }
 
     @Override
     public synchronized void add(Long num) {
         index.add(num);
-        sort();
     }
 
     @Override
     public synchronized Long peek() {
-        return index.get(0);
+        return index.peekFirst();
     }
 
     @Override
     public synchronized Long poll() {
-        Long num = index.get(0);
-        index.remove(0);
-        return num;
+        return index.pollFirst();
     }
 
     @Override
     public synchronized boolean contains(Long num) {
-        return Collections.binarySearch(index, num) >= 0;
+        return index.contains(num);
     }
 
     @Override
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return index.isEmpty();
     }
 
     @Override
-    public int size() {
+    public synchronized int size() {
         return index.size();
     }
 
@@ -77,28 +77,56 @@ public class ArrayListIndex implements Index {
         index.clear();
     }
 
-    private void sort() {
-        Collections.sort(index);
+    @Override
+    public synchronized PrimitiveIterator.OfLong iterator() {
+        return new SnapshotIterator(index.toArray());
     }
 
     @Override
-    public Iterator<Long> iterator() {
-        return index.iterator();
+    public synchronized long[] toArray() {
+        return index.toArray();
     }
 
     public synchronized void removeAll(Collection<Long> indexes) {
-        index.removeAll(indexes);
+        for (Long num : indexes) {
+            while (index.remove(num)) {
+                // drop every occurrence, as List.removeAll does
+            }
+        }
     }
 
     @Override
     public synchronized Long peekLast() {
 
         if (index.isEmpty()) return null;
-        return index.get(index.size() - 1);
+        return index.peekLast();
     }
 
     @Override
     public synchronized void remove(Long num) {
         index.remove(num);
     }
+
+    private static class SnapshotIterator implements PrimitiveIterator.OfLong {
+        private final long[] numbers;
+        private int next;
+
+        SnapshotIterator(long[] numbers) {
+            this.numbers = numbers;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < numbers.length;
+        }
+
+        @Override
+        public long nextLong() {
+            if (next >= numbers.length) {
+                throw new NoSuchElementException();
+            }
+
+            return numbers[next++];
+        }
+    }
 }
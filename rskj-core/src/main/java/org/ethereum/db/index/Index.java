@@ -48,4 +48,9 @@ public interface Index extends Iterable<Long> {
     Long peekLast();
 
     void remove(Long num);
+
+    /**
+     * @return a snapshot of the numbers, in ascending order
+     */
+    long[] toArray();
 }
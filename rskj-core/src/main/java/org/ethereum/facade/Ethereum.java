@@ -21,6 +21,7 @@ package org.ethereum.facade;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Block;
+import org.ethereum.core.CallMessage;
 import org.ethereum.core.CallTransaction;
 import org.ethereum.core.ImportResult;
 import org.ethereum.core.Transaction;
@@ -155,5 +156,10 @@ public interface Ethereum {
     // TODO added method, to review
     ProgramResult callConstantCallTransaction(Transaction tx, Block block);
 
+    /**
+     * @return the lowest gas limit the call message succeeds with, run in the given block
+     */
+    long estimateGas(CallMessage message, Block block);
+
     SystemProperties getSystemProperties();
 }
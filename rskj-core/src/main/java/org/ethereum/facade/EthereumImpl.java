@@ -19,6 +19,7 @@
 
 package org.ethereum.facade;
 
+import co.rsk.core.bc.GasEstimator;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.core.PendingState;
@@ -303,9 +304,8 @@ public class EthereumImpl implements Ethereum {
         Repository repository = ((Repository) worldManager.getRepository()).getSnapshotTo(block.getStateRoot()).startTracking();
 
         try {
-            Block bestBlock = worldManager.getBlockchain().getBestBlock();
             org.ethereum.core.TransactionExecutor executor = new org.ethereum.core.TransactionExecutor
-                    (tx, bestBlock.getCoinbase(), repository,
+                    (tx, block.getCoinbase(), repository,
                             worldManager.getBlockStore(), receiptStore, programInvokeFactory, block)
                     .setLocalCall(true);
 
@@ -321,6 +321,14 @@ public class EthereumImpl implements Ethereum {
 
     }
 
+    @Override
+    public long estimateGas(CallMessage message, Block block) {
+        Repository repository = ((Repository) worldManager.getRepository()).getSnapshotTo(block.getStateRoot());
+
+        return new GasEstimator(repository, block, worldManager.getBlockStore(), receiptStore, programInvokeFactory)
+                .estimateGas(message);
+    }
+
     @Override
     public SystemProperties getSystemProperties() {
         return this.config;
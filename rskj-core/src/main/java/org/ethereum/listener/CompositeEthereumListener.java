@@ -27,6 +27,7 @@ import org.ethereum.net.rlpx.Node;
 import org.ethereum.net.server.Channel;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -123,6 +124,13 @@ public class CompositeEthereumListener implements EthereumListener {
         }
     }
 
+    @Override
+    public void onVMTraceFileCreated(String transactionHash, File traceFile) {
+        for (EthereumListener listener : listeners) {
+            listener.onVMTraceFileCreated(transactionHash, traceFile);
+        }
+    }
+
     @Override
     public void onNodeDiscovered(Node node) {
         for (EthereumListener listener : listeners) {
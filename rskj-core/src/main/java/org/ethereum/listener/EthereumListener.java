@@ -25,7 +25,9 @@ import org.ethereum.net.message.Message;
 import org.ethereum.net.p2p.HelloMessage;
 import org.ethereum.net.rlpx.Node;
 import org.ethereum.net.server.Channel;
+import org.ethereum.vm.VMUtils;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -62,8 +64,26 @@ public interface EthereumListener {
 
     void onNoConnections();
 
+    /**
+     * Called by the default onVMTraceFileCreated with the content of the trace file
+     *
+     * @param trace the trace, zipped and encoded if the traces are compressed
+     */
     void onVMTraceCreated(String transactionHash, String trace);
 
+    /**
+     * The traces are streamed to files. By default, the file is read and passed to onVMTraceCreated,
+     * the listeners of long traces should override this instead.
+     *
+     * @param traceFile the file the trace was streamed to
+     */
+    default void onVMTraceFileCreated(String transactionHash, File traceFile) {
+        String trace = VMUtils.readProgramTraceFile(traceFile);
+
+        if (trace != null)
+            onVMTraceCreated(transactionHash, trace);
+    }
+
     void onTransactionExecuted(TransactionExecutionSummary summary);
 
     void onPeerAddedToSyncPool(Channel peer);
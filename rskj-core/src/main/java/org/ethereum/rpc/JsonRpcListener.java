@@ -54,7 +54,7 @@ public class JsonRpcListener {
         server.setHandler(handler);
         JsonRpcServlet.eth = this.eth;
         JsonRpcServlet.service = this.service;
-        handler.addServletWithMapping(JsonRpcServlet.class, "/*");
+        handler.addServletWithMapping(JsonRpcServlet.class, "/*").setAsyncSupported(true);
 
         server.start();
     }
@@ -20,9 +20,9 @@ package org.ethereum.rpc;
 
 import co.rsk.rpc.CorsConfiguration;
 import co.rsk.rpc.JsonRpcFilterServer;
+import co.rsk.rpc.LatencyHistogram;
 import com.googlecode.jsonrpc4j.AnnotationsErrorResolver;
 import com.googlecode.jsonrpc4j.DefaultErrorResolver;
-import com.googlecode.jsonrpc4j.JsonRpcServer;
 import com.googlecode.jsonrpc4j.MultipleErrorResolver;
 import co.rsk.config.RskSystemProperties;
 import co.rsk.core.WalletFactory;
@@ -31,12 +31,16 @@ import org.ethereum.rpc.exception.RskErrorResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JsonRpcServlet extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger("rpcServer");
@@ -44,23 +48,51 @@ public class JsonRpcServlet extends HttpServlet {
 
     public static Ethereum eth;
     public static Web3 service;
-    private JsonRpcServer jsonRpcServer;
+    private JsonRpcFilterServer jsonRpcServer;
     private CorsConfiguration corsConfiguration = new CorsConfiguration();
+    private ExecutorService workers;
+    private ExecutorService batchExecutor;
+    private ScheduledExecutorService latenciesLogger;
 
     protected void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws IOException {
-        long start = System.nanoTime();
         processCorsHeaders(resp);
-        jsonRpcServer.handle(req, resp);
-        logger.debug("RPC call finished after [{}] nano", System.nanoTime() - start);
+        handle(req, resp);
     }
 
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws IOException {
-        long start = System.nanoTime();
         processCorsHeaders(resp);
-        jsonRpcServer.handle(req, resp);
-        logger.debug("RPC call finished after [{}] nano", System.nanoTime() - start);
+        handle(req, resp);
+    }
+
+    /**
+     * Hands the request to the workers, releasing the connector thread while the call runs.
+     * When the container can't suspend the request it is served on the calling thread.
+     */
+    private void handle(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long start = System.nanoTime();
+
+        if (workers == null || !req.isAsyncSupported()) {
+            jsonRpcServer.handle(req, resp);
+            logger.debug("RPC call finished after [{}] nano", System.nanoTime() - start);
+            return;
+        }
+
+        AsyncContext context = req.startAsync();
+        context.setTimeout(0);
+
+        // with the queue full the task runs on the connector thread, pushing back on the clients
+        workers.execute(() -> {
+            try {
+                jsonRpcServer.handle((HttpServletRequest) context.getRequest(), (HttpServletResponse) context.getResponse());
+            } catch (IOException e) {
+                logger.warn("Error writing RPC response", e);
+            } finally {
+                context.complete();
+                logger.debug("RPC call finished after [{}] nano", System.nanoTime() - start);
+            }
+        });
     }
 
     protected void doOptions(HttpServletRequest req, HttpServletResponse resp)
@@ -79,11 +111,51 @@ public class JsonRpcServlet extends HttpServlet {
             this.service = new Web3Impl(JsonRpcServlet.eth, RskSystemProperties.RSKCONFIG, WalletFactory.createPersistentWallet());
         }
 
+        RskSystemProperties properties = RskSystemProperties.RSKCONFIG;
+
+        // the batches run on their own pool, so a worker waiting for its batch never waits for another worker
+        this.workers = new ThreadPoolExecutor(properties.rpcWorkers(), properties.rpcWorkers(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.rpcWorkersQueueSize()), namedThreads("rpcWorker"), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.batchExecutor = new ThreadPoolExecutor(properties.rpcBatchThreads(), properties.rpcBatchThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.rpcWorkersQueueSize()), namedThreads("rpcBatch"), new ThreadPoolExecutor.CallerRunsPolicy());
+
         this.jsonRpcServer = this.getJsonRpcServer();
         this.jsonRpcServer.setErrorResolver(new MultipleErrorResolver(new RskErrorResolver(), AnnotationsErrorResolver.INSTANCE, DefaultErrorResolver.INSTANCE));
+        this.jsonRpcServer.setBatchExecutor(this.batchExecutor);
+
+        int interval = properties.rpcLatenciesLogInterval();
+
+        if (interval > 0) {
+            this.latenciesLogger = Executors.newSingleThreadScheduledExecutor(namedThreads("rpcLatencies"));
+            this.latenciesLogger.scheduleAtFixedRate(this::logLatencies, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (latenciesLogger != null)
+            latenciesLogger.shutdown();
+
+        workers.shutdown();
+        batchExecutor.shutdown();
+    }
+
+    private void logLatencies() {
+        for (Map.Entry<String, LatencyHistogram> entry : jsonRpcServer.getLatencies().entrySet())
+            logger.info("{}: {}", entry.getKey(), entry.getValue());
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
-    private JsonRpcServer getJsonRpcServer() {
+    private JsonRpcFilterServer getJsonRpcServer() {
         return new JsonRpcFilterServer(this.service, this.service.getClass(), RskSystemProperties.RSKCONFIG.getRpcModules());
     }
 
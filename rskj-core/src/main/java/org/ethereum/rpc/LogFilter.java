@@ -26,8 +26,11 @@ import org.ethereum.vm.LogInfo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
+import static org.ethereum.rpc.TypeConverter.StringHexToByteArray;
+
 /**
  * Created by Anton Nashatyrev on 12.04.2016.
  */
@@ -37,6 +40,46 @@ public class LogFilter {
     private byte[][] contractAddresses = new byte[0][];
     private Bloom[][] filterBlooms;
 
+    /**
+     * Builds the filter for the address and topics of a request. Lists of values can come as
+     * arrays or, when the request was parsed into plain objects, as collections.
+     */
+    public static LogFilter fromFilterRequest(Web3.FilterRequest fr) {
+        LogFilter logFilter = new LogFilter();
+
+        if (fr.address instanceof String) {
+            logFilter.withContractAddress(StringHexToByteArray((String) fr.address));
+        } else if (fr.address instanceof String[] || fr.address instanceof Collection) {
+            List<byte[]> addr = new ArrayList<>();
+            for (Object s : toArray(fr.address)) {
+                addr.add(StringHexToByteArray((String) s));
+            }
+            logFilter.withContractAddress(addr.toArray(new byte[0][]));
+        }
+
+        if (fr.topics != null) {
+            for (Object topic : fr.topics) {
+                if (topic == null) {
+                    logFilter.withTopic(null);
+                } else if (topic instanceof String) {
+                    logFilter.withTopic(new DataWord(StringHexToByteArray((String) topic)).getData());
+                } else if (topic instanceof String[] || topic instanceof Collection) {
+                    List<byte[]> t = new ArrayList<>();
+                    for (Object s : toArray(topic)) {
+                        t.add(new DataWord(StringHexToByteArray((String) s)).getData());
+                    }
+                    logFilter.withTopic(t.toArray(new byte[0][]));
+                }
+            }
+        }
+
+        return logFilter;
+    }
+
+    private static Object[] toArray(Object values) {
+        return values instanceof Collection ? ((Collection<?>) values).toArray() : (Object[]) values;
+    }
+
     public LogFilter withContractAddress(byte[] ... orAddress) {
         contractAddresses = orAddress;
         return this;
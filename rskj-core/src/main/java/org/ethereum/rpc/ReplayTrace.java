@@ -0,0 +1,162 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.rpc;
+
+import co.rsk.core.bc.BlockExecutor;
+import co.rsk.core.bc.BlockTracer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionExecutor;
+import org.ethereum.vm.program.ProgramResult;
+import org.ethereum.vm.trace.ProgramTracer;
+import org.ethereum.vm.trace.StructLogTracer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static org.ethereum.rpc.TypeConverter.toJsonHex;
+
+/**
+ * Result of debug_traceTransaction and debug_traceBlock.
+ *
+ * The block is replayed from the state of its parent while the result is serialized,
+ * and the struct logs are written to the JSON output as the VM runs them.
+ */
+public class ReplayTrace extends JsonSerializable.Base {
+
+    private final BlockExecutor executor;
+    private final Block block;
+    private final Block parent;
+    private final int txIndex;
+    private final Web3.TraceOptions options;
+
+    private ReplayTrace(BlockExecutor executor, Block block, Block parent, int txIndex, Web3.TraceOptions options) {
+        this.executor = executor;
+        this.block = block;
+        this.parent = parent;
+        this.txIndex = txIndex;
+        this.options = options == null ? new Web3.TraceOptions() : options;
+    }
+
+    /**
+     * Trace of one transaction, the transactions before it in the block are replayed untraced
+     */
+    public static ReplayTrace ofTransaction(BlockExecutor executor, Block block, Block parent, int txIndex, Web3.TraceOptions options) {
+        return new ReplayTrace(executor, block, parent, txIndex, options);
+    }
+
+    /**
+     * Traces of all the transactions of the block
+     */
+    public static ReplayTrace ofBlock(BlockExecutor executor, Block block, Block parent, Web3.TraceOptions options) {
+        return new ReplayTrace(executor, block, parent, -1, options);
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        boolean wholeBlock = txIndex < 0;
+
+        if (wholeBlock) {
+            generator.writeStartArray();
+        }
+
+        try {
+            executor.traceBlock(new JsonBlockTracer(generator, wholeBlock), block, parent);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (wholeBlock) {
+            generator.writeEndArray();
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+        serialize(generator, provider);
+    }
+
+    private class JsonBlockTracer implements BlockTracer {
+        private final JsonGenerator generator;
+        private final boolean wholeBlock;
+        private int index;
+        private StructLogTracer tracer;
+
+        JsonBlockTracer(JsonGenerator generator, boolean wholeBlock) {
+            this.generator = generator;
+            this.wholeBlock = wholeBlock;
+        }
+
+        @Override
+        public ProgramTracer startTransaction(Transaction tx) {
+            if (!wholeBlock && index != txIndex) {
+                tracer = null;
+                return null;
+            }
+
+            try {
+                if (wholeBlock) {
+                    generator.writeStartObject();
+                    generator.writeStringField("txHash", toJsonHex(tx.getHash()));
+                    generator.writeFieldName("result");
+                }
+
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("structLogs");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            tracer = new StructLogTracer(generator, !options.disableStack, !options.disableMemory, !options.disableStorage, options.limit);
+            return tracer;
+        }
+
+        @Override
+        public boolean endTransaction(Transaction tx, TransactionExecutor txExecutor) {
+            index++;
+
+            if (tracer == null) {
+                return true;
+            }
+
+            try {
+                tracer.checkError();
+                generator.writeEndArray();
+
+                ProgramResult result = txExecutor.getResult();
+                generator.writeNumberField("gas", txExecutor.getGasUsed());
+                generator.writeBooleanField("failed", result.getException() != null);
+                generator.writeStringField("returnValue", toJsonHex(result.getHReturn()));
+                generator.writeEndObject();
+
+                if (wholeBlock) {
+                    generator.writeEndObject();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return wholeBlock || index <= txIndex;
+        }
+    }
+}
@@ -18,10 +18,18 @@
 
 package org.ethereum.rpc;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import org.ethereum.rpc.dto.CompilationResultDTO;
 import org.ethereum.rpc.dto.TransactionReceiptDTO;
 import org.ethereum.rpc.dto.TransactionResultDTO;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -56,7 +64,31 @@ public interface Web3 {
         }
     }
 
-    class BlockResult {
+    class TraceOptions {
+        public boolean disableStack;
+        public boolean disableMemory;
+        public boolean disableStorage;
+        public int limit; // maximum number of struct logs of each transaction, zero for no limit
+
+        @Override
+        public String toString() {
+            return "TraceOptions{" +
+                    "disableStack=" + disableStack +
+                    ", disableMemory=" + disableMemory +
+                    ", disableStorage=" + disableStorage +
+                    ", limit=" + limit +
+                    '}';
+        }
+    }
+
+    /**
+     * The JSON of a block result is built the first time it's serialized and reused after,
+     * so the fields must not change once the result has been returned.
+     */
+    class BlockResult extends JsonSerializable.Base {
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+
+
         public String number; // QUANTITY - the block number. null when its pending block.
         public String hash; // DATA, 32 Bytes - hash of the block. null when its pending block.
         public String parentHash; // DATA, 32 Bytes - hash of the parent block.
@@ -77,6 +109,55 @@ public interface Web3 {
         public String[] uncles; //: Array - Array of uncle hashes.
         public String minimumGasPrice;
 
+        private volatile String json;
+
+        public String toJson() {
+            String result = json;
+
+            if (result != null)
+                return result;
+
+            StringWriter writer = new StringWriter();
+
+            try (JsonGenerator generator = MAPPER.getFactory().createGenerator(writer)) {
+                generator.writeStartObject();
+                generator.writeStringField("number", number);
+                generator.writeStringField("hash", hash);
+                generator.writeStringField("parentHash", parentHash);
+                generator.writeStringField("sha3Uncles", sha3Uncles);
+                generator.writeStringField("logsBloom", logsBloom);
+                generator.writeStringField("transactionsRoot", transactionsRoot);
+                generator.writeStringField("stateRoot", stateRoot);
+                generator.writeStringField("receiptsRoot", receiptsRoot);
+                generator.writeStringField("miner", miner);
+                generator.writeStringField("difficulty", difficulty);
+                generator.writeStringField("totalDifficulty", totalDifficulty);
+                generator.writeStringField("extraData", extraData);
+                generator.writeStringField("size", size);
+                generator.writeStringField("gasLimit", gasLimit);
+                generator.writeStringField("gasUsed", gasUsed);
+                generator.writeStringField("timestamp", timestamp);
+                generator.writeObjectField("transactions", transactions);
+                generator.writeObjectField("uncles", uncles);
+                generator.writeStringField("minimumGasPrice", minimumGasPrice);
+                generator.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return json = writer.toString();
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeRawValue(toJson());
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, provider);
+        }
+
         @Override
         public String toString() {
             return "BlockResult{" +
@@ -148,6 +229,7 @@ public interface Web3 {
     String eth_sendRawTransaction(String rawData) throws Exception;
     String eth_call(CallArguments args, String bnOrId) throws Exception;
     String eth_estimateGas(CallArguments args) throws Exception;
+    String eth_estimateGas(CallArguments args, String bnOrId) throws Exception;
     BlockResult eth_getBlockByHash(String blockHash,Boolean fullTransactionObjects) throws Exception;
     BlockResult eth_getBlockByNumber(String bnOrId,Boolean fullTransactionObjects) throws Exception;
     TransactionResultDTO eth_getTransactionByHash(String transactionHash) throws Exception;
@@ -199,4 +281,9 @@ public interface Web3 {
     void evm_reset();
     void evm_mine();
     String evm_increaseTime(String seconds);
+
+    ReplayTrace debug_traceTransaction(String transactionHash) throws Exception;
+    ReplayTrace debug_traceTransaction(String transactionHash, TraceOptions options) throws Exception;
+    ReplayTrace debug_traceBlock(String blockHash) throws Exception;
+    ReplayTrace debug_traceBlock(String blockHash, TraceOptions options) throws Exception;
 }
@@ -19,8 +19,10 @@
 package org.ethereum.rpc;
 
 import co.rsk.core.SnapshotManager;
+import co.rsk.core.bc.BlockExecutor;
 import co.rsk.mine.MinerManager;
 import co.rsk.peg.Bridge;
+import co.rsk.rpc.BlockResultCache;
 import co.rsk.rpc.ModuleDescription;
 import com.google.common.annotations.VisibleForTesting;
 import co.rsk.config.RskSystemProperties;
@@ -36,6 +38,7 @@ import org.ethereum.config.blockchain.RegTestConfig;
 import org.ethereum.core.*;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.BlockStore;
 import org.ethereum.db.TransactionInfo;
 import org.ethereum.facade.Ethereum;
 import org.ethereum.listener.CompositeEthereumListener;
@@ -95,6 +98,8 @@ public class Web3Impl implements Web3 {
 
     private SolidityCompiler solidityCompiler;
 
+    private final BlockResultCache blockResults = new BlockResultCache(RskSystemProperties.RSKCONFIG.rpcBlockCacheSize());
+
     public Web3Impl(SolidityCompiler compiler, Wallet wallet) {
         this.solidityCompiler = compiler;
         this.wallet = wallet;
@@ -611,30 +616,30 @@ public class Web3Impl implements Web3 {
         }
     }
 
-    public ProgramResult createCallTxAndExecute(CallArguments args, byte[] keyToSign) throws Exception {
+    public ProgramResult createCallTxAndExecute(CallArguments args, Block block) throws Exception {
         byte[] nonce = new byte[]{0};
-        Transaction tx = Transaction.create(nonce, args);
-
-        byte[] signingKey = (keyToSign == null) ? new byte[32] : keyToSign;
-
-        tx.sign(signingKey);
-
-        Block block = worldManager.getBlockchain().getBestBlock();
+        Transaction tx = CallMessage.create(getCallSender(args.from), nonce, args);
 
         return eth.callConstantCallTransaction(tx, block);
     }
 
     public String eth_call(CallArguments args, String bnOrId) throws Exception {
-        if (!bnOrId.equals("latest"))
-            throw new JsonRpcUnimplementedMethodException("Method only supports 'latest' as a parameter so far.");
-
-        ProgramResult res = createCallTxAndExecute(args, this.getKeyToSign(args.from));
+        ProgramResult res = createCallTxAndExecute(args, getCallBlock(bnOrId));
         return toJsonHex(res.getHReturn());
     }
 
     public String eth_estimateGas(CallArguments args) throws Exception {
-        ProgramResult res = createCallTxAndExecute(args, this.getKeyToSign(args.from));
-        return toJsonHex(res.getGasUsed());
+        return eth_estimateGas(args, "latest");
+    }
+
+    public String eth_estimateGas(CallArguments args, String bnOrId) throws Exception {
+        Block block = getCallBlock(bnOrId);
+        CallMessage message = CallMessage.create(getCallSender(args.from), new byte[]{0}, args);
+
+        if (args.gas == null || args.gas.isEmpty())
+            message = message.withGasLimit(new BigInteger(1, block.getGasLimit()).longValue());
+
+        return toJsonHex(eth.estimateGas(message, block));
     }
 
     public BlockResult getBlockResult(Block b, boolean fullTx) {
@@ -645,6 +650,21 @@ public class Web3Impl implements Web3 {
 
         boolean isPending = (mergeHeader == null || mergeHeader.length == 0) && !b.isGenesis();
 
+        // the pending block changes, only the results of the blocks with a final hash are kept
+        if (isPending)
+            return createBlockResult(b, fullTx, true);
+
+        BlockResult br = blockResults.get(b.getHash(), fullTx);
+
+        if (br == null) {
+            br = createBlockResult(b, fullTx, false);
+            blockResults.put(b.getHash(), fullTx, br);
+        }
+
+        return br;
+    }
+
+    private BlockResult createBlockResult(Block b, boolean fullTx, boolean isPending) {
         BlockResult br = new BlockResult();
         br.number = isPending ? null : TypeConverter.toJsonHex(b.getNumber());
         br.hash = isPending ? null : TypeConverter.toJsonHex(b.getHash());
@@ -656,7 +676,7 @@ public class Web3Impl implements Web3 {
         br.receiptsRoot = TypeConverter.toJsonHex(b.getReceiptsRoot());
         br.miner = isPending ? null : TypeConverter.toJsonHex(b.getCoinbase());
         br.difficulty = TypeConverter.toJsonHex(b.getDifficulty());
-        br.totalDifficulty = TypeConverter.toJsonHex(worldManager.getBlockchain().getTotalDifficulty());
+        br.totalDifficulty = TypeConverter.toJsonHex(getTotalDifficulty(b));
         br.extraData = TypeConverter.toJsonHex(b.getExtraData());
         br.size = TypeConverter.toJsonHex(b.getEncoded().length);
         br.gasLimit = TypeConverter.toJsonHex(b.getGasLimit());
@@ -686,6 +706,19 @@ public class Web3Impl implements Web3 {
         return br;
     }
 
+    private BigInteger getTotalDifficulty(Block b) {
+        BlockStore blockStore = worldManager.getBlockchain().getBlockStore();
+        BigInteger totalDifficulty = blockStore.getTotalDifficultyForHash(b.getHash());
+
+        if (totalDifficulty != null && totalDifficulty.signum() > 0)
+            return totalDifficulty;
+
+        // a block not stored yet, like the pending one, adds to the difficulty of its parent
+        BigInteger parentDifficulty = b.isGenesis() ? null : blockStore.getTotalDifficultyForHash(b.getParentHash());
+
+        return parentDifficulty == null ? b.getCumulativeDifficulty() : parentDifficulty.add(b.getCumulativeDifficulty());
+    }
+
     public BlockResult eth_getBlockByHash(String blockHash, Boolean fullTransactionObjects) throws Exception {
         BlockResult s = null;
         try {
@@ -1026,33 +1059,7 @@ public class Web3Impl implements Web3 {
     public String eth_newFilter(FilterRequest fr) throws Exception {
         String str = null;
         try {
-            LogFilter logFilter = new LogFilter();
-
-            if (fr.address instanceof String) {
-                logFilter.withContractAddress(StringHexToByteArray((String) fr.address));
-            } else if (fr.address instanceof String[]) {
-                List<byte[]> addr = new ArrayList<>();
-                for (String s : ((String[]) fr.address)) {
-                    addr.add(StringHexToByteArray(s));
-                }
-                logFilter.withContractAddress(addr.toArray(new byte[0][]));
-            }
-
-            if (fr.topics != null) {
-                for (Object topic : fr.topics) {
-                    if (topic == null) {
-                        logFilter.withTopic(null);
-                    } else if (topic instanceof String) {
-                        logFilter.withTopic(new DataWord(StringHexToByteArray((String) topic)).getData());
-                    } else if (topic instanceof String[]) {
-                        List<byte[]> t = new ArrayList<>();
-                        for (String s : ((String[]) topic)) {
-                            t.add(new DataWord(StringHexToByteArray(s)).getData());
-                        }
-                        logFilter.withTopic(t.toArray(new byte[0][]));
-                    }
-                }
-            }
+            LogFilter logFilter = LogFilter.fromFilterRequest(fr);
 
             JsonLogFilter filter = new JsonLogFilter(logFilter);
 
@@ -1371,7 +1378,7 @@ public class Web3Impl implements Web3 {
         arguments.gasPrice = "0x0";
         arguments.value = "0x0";
         arguments.gas = "0xf4240";
-        ProgramResult res = createCallTxAndExecute(arguments, new byte[32]);
+        ProgramResult res = createCallTxAndExecute(arguments, worldManager.getBlockchain().getBestBlock());
         BridgeState state = BridgeStateReader.readSate(TypeConverter.removeZeroX(toJsonHex(res.getHReturn())));
         return state.stateToMap();
     }
@@ -1401,16 +1408,32 @@ public class Web3Impl implements Web3 {
         return this.wallet.getAccount(StringHexToByteArray(address), passphrase);
     }
 
-    private byte[] getKeyToSign(String address) {
-        byte[] privateKey = new byte[32];
+    private byte[] getCallSender(String address) {
+        if (address != null)
+            return StringHexToByteArray(address);
 
-        Account account;
-        account = (address != null) ? this.wallet.getAccount(StringHexToByteArray(address)) : this.getDefaultAccount();
+        Account account = this.getDefaultAccount();
 
-        if (account != null)
-            privateKey = account.getEcKey().getPrivKeyBytes();
+        return account != null ? account.getAddress() : new byte[20];
+    }
+
+    /**
+     * The block whose state a call runs on, given by number, tag or hash
+     */
+    private Block getCallBlock(String bnOrId) throws Exception {
+        Block block;
+
+        if (bnOrId == null)
+            block = worldManager.getBlockchain().getBestBlock();
+        else if (bnOrId.startsWith("0x") && bnOrId.length() == 66)
+            block = getBlockByJSonHash(bnOrId);
+        else
+            block = getByJsonBlockId(bnOrId);
 
-        return privateKey;
+        if (block == null)
+            throw new JsonRpcInvalidParamException("unknown block " + bnOrId);
+
+        return block;
     }
 
     @Override
@@ -1463,4 +1486,71 @@ public class Web3Impl implements Web3 {
             throw new JsonRpcInvalidParamException("invalid number of seconds " + seconds, e);
         }
     }
+
+    @Override
+    public ReplayTrace debug_traceTransaction(String transactionHash) throws Exception {
+        return debug_traceTransaction(transactionHash, null);
+    }
+
+    @Override
+    public ReplayTrace debug_traceTransaction(String transactionHash, TraceOptions options) throws Exception {
+        logger.debug("debug_traceTransaction({}, {})", transactionHash, options);
+
+        Blockchain blockchain = worldManager.getBlockchain();
+        byte[] hash = StringHexToByteArray(transactionHash);
+        TransactionInfo txInfo = blockchain.getReceiptStore().getInMainChain(hash, worldManager.getBlockStore());
+
+        if (txInfo == null) {
+            logger.trace("No transaction info for {}", transactionHash);
+            return null;
+        }
+
+        Block block = worldManager.getBlockStore().getBlockByHash(txInfo.getBlockHash());
+
+        if (block == null) {
+            logger.trace("No block for transaction {}", transactionHash);
+            return null;
+        }
+
+        return ReplayTrace.ofTransaction(createReplayExecutor(), block, getReplayParent(block), txInfo.getIndex(), options);
+    }
+
+    @Override
+    public ReplayTrace debug_traceBlock(String blockHash) throws Exception {
+        return debug_traceBlock(blockHash, null);
+    }
+
+    @Override
+    public ReplayTrace debug_traceBlock(String blockHash, TraceOptions options) throws Exception {
+        logger.debug("debug_traceBlock({}, {})", blockHash, options);
+
+        Block block = getBlockByJSonHash(blockHash);
+
+        if (block == null || block.isGenesis()) {
+            return null;
+        }
+
+        return ReplayTrace.ofBlock(createReplayExecutor(), block, getReplayParent(block), options);
+    }
+
+    // the trace is replayed while it is serialized, so the state of the parent is checked before
+    private Block getReplayParent(Block block) {
+        Block parent = worldManager.getBlockStore().getBlockByHash(block.getParentHash());
+
+        if (parent == null)
+            throw new JsonRpcInvalidParamException("state not available for block " + toJsonHex(block.getHash()) + ", its parent is missing");
+
+        try {
+            worldManager.getBlockchain().getRepository().getSnapshotTo(parent.getStateRoot());
+        } catch (IllegalArgumentException e) {
+            throw new JsonRpcInvalidParamException("state not available for block " + toJsonHex(block.getHash()), e);
+        }
+
+        return parent;
+    }
+
+    private BlockExecutor createReplayExecutor() {
+        Blockchain blockchain = worldManager.getBlockchain();
+        return new BlockExecutor(blockchain.getRepository(), blockchain, worldManager.getBlockStore(), null);
+    }
 }
@@ -47,6 +47,10 @@ public class DataWord implements Comparable<DataWord> {
     public static final DataWord ONE = new DataWord(1);
     public static final DataWord ZERO_EMPTY_ARRAY = new DataWord(new byte[0]);      // don't push it in to the stack
 
+    /* Arithmetic is done on 32-bit limbs, see the helpers at the end of the class */
+    private static final int LIMBS = 8;
+    private static final long LIMB_MASK = 0xFFFFFFFFL;
+
     private byte[] data; // Optimization, do not initialize until needed
 
     public DataWord() {
@@ -351,15 +355,30 @@ public class DataWord implements Comparable<DataWord> {
         this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
     }
 
-    // TODO: mul can be done in more efficient way
-    // TODO:     with shift left shift right trick
-    // TODO      without BigInteger quick hack
     public void mul(DataWord word) {
-        BigInteger result = value().multiply(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        int[] a = toLimbs(this.data);
+        int[] b = toLimbs(word.data);
+        int[] r = new int[LIMBS];
+
+        // schoolbook multiplication, keeping only the low 256 bits
+        for (int i = 0; i < LIMBS; i++) {
+            long ai = a[i] & LIMB_MASK;
+
+            if (ai == 0)
+                continue;
+
+            long carry = 0;
+
+            for (int j = 0; j < LIMBS - i; j++) {
+                long t = ai * (b[j] & LIMB_MASK) + (r[i + j] & LIMB_MASK) + carry;
+                r[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+        }
+
+        this.data = fromLimbs(r);
     }
 
-    // TODO: improve with no BigInteger
     public void div(DataWord word) {
 
         if (word.isZero()) {
@@ -367,11 +386,11 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = value().divide(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        int[] q = new int[LIMBS];
+        divMod(toLimbs(this.data), toLimbs(word.data), q, null);
+        this.data = fromLimbs(q);
     }
 
-    // TODO: improve with no BigInteger
     public void sDiv(DataWord word) {
 
         if (word.isZero()) {
@@ -379,24 +398,49 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = sValue().divide(word.sValue());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
-    }
+        // truncated division on the magnitudes, as BigInteger.divide does
+        boolean negative = this.isNegative() != word.isNegative();
+        int[] q = new int[LIMBS];
+        divMod(toAbsLimbs(this), toAbsLimbs(word), q, null);
 
+        if (negative)
+            negate(q);
+
+        this.data = fromLimbs(q);
+    }
 
-    // TODO: improve with no BigInteger
     public void sub(DataWord word) {
-        BigInteger result = value().subtract(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        byte[] result = new byte[32];
+
+        for (int i = 31, borrow = 0; i >= 0; i--) {
+            int v = (this.data[i] & 0xff) - (word.data[i] & 0xff) - borrow;
+            result[i] = (byte) v;
+            borrow = v < 0 ? 1 : 0;
+        }
+
+        this.data = result;
     }
 
-    // TODO: improve with no BigInteger
     public void exp(DataWord word) {
-        BigInteger result = value().modPow(word.value(), _2_256);
-        this.data = ByteUtil.copyToArray(result);
+        int[] e = toLimbs(word.data);
+        int[] base = toLimbs(this.data);
+        int[] result = new int[LIMBS];
+        result[0] = 1;
+
+        int bits = bitLength(e);
+
+        // right to left square and multiply, everything modulo 2^256
+        for (int i = 0; i < bits; i++) {
+            if ((e[i >>> 5] >>> (i & 31) & 1) != 0)
+                result = mulLow(result, base);
+
+            if (i + 1 < bits)
+                base = mulLow(base, base);
+        }
+
+        this.data = fromLimbs(result);
     }
 
-    // TODO: improve with no BigInteger
     public void mod(DataWord word) {
 
         if (word.isZero()) {
@@ -404,8 +448,9 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = value().mod(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        int[] r = new int[LIMBS];
+        divMod(toLimbs(this.data), toLimbs(word.data), null, r);
+        this.data = fromLimbs(r);
     }
 
     public void sMod(DataWord word) {
@@ -415,10 +460,15 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = sValue().abs().mod(word.sValue().abs());
-        result = (sValue().signum() == -1) ? result.negate() : result;
+        // the result takes the sign of the dividend
+        boolean negative = this.isNegative();
+        int[] r = new int[LIMBS];
+        divMod(toAbsLimbs(this), toAbsLimbs(word), null, r);
 
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        if (negative)
+            negate(r);
+
+        this.data = fromLimbs(r);
     }
 
     public void addmod(DataWord word1, DataWord word2) {
@@ -439,8 +489,240 @@ public class DataWord implements Comparable<DataWord> {
             return;
         }
 
-        BigInteger result = value().multiply(word1.value()).mod(word2.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        int[] a = toLimbs(this.data);
+        int[] b = toLimbs(word1.data);
+        int[] product = new int[2 * LIMBS];
+
+        // full 512 bit product, reduced afterwards
+        for (int i = 0; i < LIMBS; i++) {
+            long ai = a[i] & LIMB_MASK;
+
+            if (ai == 0)
+                continue;
+
+            long carry = 0;
+
+            for (int j = 0; j < LIMBS; j++) {
+                long t = ai * (b[j] & LIMB_MASK) + (product[i + j] & LIMB_MASK) + carry;
+                product[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+
+            product[i + LIMBS] = (int) carry;
+        }
+
+        int[] r = new int[LIMBS];
+        divMod(product, toLimbs(word2.data), null, r);
+        this.data = fromLimbs(r);
+    }
+
+    /**
+     * Compares the two words as signed (two's complement) 256-bit numbers,
+     * which is what SLT and SGT need, without going through sValue()
+     */
+    public int signedCompareTo(DataWord o) {
+        boolean negative = this.isNegative();
+
+        if (negative != o.isNegative())
+            return negative ? -1 : 1;
+
+        return this.compareTo(o);
+    }
+
+    /*
+     * Arithmetic helpers. A 256-bit value is handled as 8 unsigned 32-bit limbs,
+     * least significant limb first, so products and partial remainders fit in a long.
+     */
+
+    private static int[] toLimbs(byte[] data) {
+        int[] limbs = new int[LIMBS];
+
+        for (int i = 0, k = 28; i < LIMBS; i++, k -= 4) {
+            limbs[i] = (data[k] & 0xff) << 24 | (data[k + 1] & 0xff) << 16 | (data[k + 2] & 0xff) << 8 | (data[k + 3] & 0xff);
+        }
+
+        return limbs;
+    }
+
+    private static int[] toAbsLimbs(DataWord word) {
+        int[] limbs = toLimbs(word.data);
+
+        if (word.isNegative())
+            negate(limbs);
+
+        return limbs;
+    }
+
+    private static byte[] fromLimbs(int[] limbs) {
+        byte[] data = new byte[32];
+
+        for (int i = 0, k = 28; i < LIMBS; i++, k -= 4) {
+            int v = limbs[i];
+            data[k] = (byte) (v >>> 24);
+            data[k + 1] = (byte) (v >>> 16);
+            data[k + 2] = (byte) (v >>> 8);
+            data[k + 3] = (byte) v;
+        }
+
+        return data;
+    }
+
+    // two's complement negation modulo 2^256, in place
+    private static void negate(int[] limbs) {
+        long carry = 1;
+
+        for (int i = 0; i < LIMBS; i++) {
+            long t = (~limbs[i] & LIMB_MASK) + carry;
+            limbs[i] = (int) t;
+            carry = t >>> 32;
+        }
+    }
+
+    private static int[] mulLow(int[] a, int[] b) {
+        int[] r = new int[LIMBS];
+
+        for (int i = 0; i < LIMBS; i++) {
+            long ai = a[i] & LIMB_MASK;
+
+            if (ai == 0)
+                continue;
+
+            long carry = 0;
+
+            for (int j = 0; j < LIMBS - i; j++) {
+                long t = ai * (b[j] & LIMB_MASK) + (r[i + j] & LIMB_MASK) + carry;
+                r[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+        }
+
+        return r;
+    }
+
+    private static int significantLimbs(int[] limbs) {
+        int n = limbs.length;
+
+        while (n > 0 && limbs[n - 1] == 0)
+            n--;
+
+        return n;
+    }
+
+    private static int bitLength(int[] limbs) {
+        int n = significantLimbs(limbs);
+
+        if (n == 0)
+            return 0;
+
+        return (n << 5) - Integer.numberOfLeadingZeros(limbs[n - 1]);
+    }
+
+    /**
+     * Unsigned long division of u by v (Knuth, TAOCP vol 2, 4.3.1, algorithm D).
+     * v must not be zero. The quotient is written to q (when not null), which must be
+     * at least as long as u; the remainder to r (when not null), which must have at
+     * least as many limbs as v.
+     */
+    private static void divMod(int[] u, int[] v, int[] q, int[] r) {
+        int m = significantLimbs(u);
+        int n = significantLimbs(v);
+
+        if (m < n) {
+            if (r != null)
+                System.arraycopy(u, 0, r, 0, m);
+            return;
+        }
+
+        if (n == 1) {
+            long d = v[0] & LIMB_MASK;
+            long rem = 0;
+
+            for (int i = m - 1; i >= 0; i--) {
+                long cur = rem << 32 | (u[i] & LIMB_MASK);
+                long qi = Long.divideUnsigned(cur, d);
+                rem = cur - qi * d;
+
+                if (q != null)
+                    q[i] = (int) qi;
+            }
+
+            if (r != null)
+                r[0] = (int) rem;
+
+            return;
+        }
+
+        // normalize so that the top limb of the divisor has its high bit set
+        int s = Integer.numberOfLeadingZeros(v[n - 1]);
+        int[] vn = new int[n];
+        int[] un = new int[m + 1];
+
+        for (int i = n - 1; i > 0; i--)
+            vn[i] = (int) ((v[i] & LIMB_MASK) << s | (v[i - 1] & LIMB_MASK) >>> (32 - s));
+
+        vn[0] = v[0] << s;
+
+        un[m] = (int) ((u[m - 1] & LIMB_MASK) >>> (32 - s));
+
+        for (int i = m - 1; i > 0; i--)
+            un[i] = (int) ((u[i] & LIMB_MASK) << s | (u[i - 1] & LIMB_MASK) >>> (32 - s));
+
+        un[0] = u[0] << s;
+
+        long vTop = vn[n - 1] & LIMB_MASK;
+        long vNext = vn[n - 2] & LIMB_MASK;
+
+        for (int j = m - n; j >= 0; j--) {
+            // estimate the quotient digit from the top two limbs, then correct it
+            long num = (un[j + n] & LIMB_MASK) << 32 | (un[j + n - 1] & LIMB_MASK);
+            long qhat = Long.divideUnsigned(num, vTop);
+            long rhat = num - qhat * vTop;
+
+            while (qhat > LIMB_MASK
+                    || Long.compareUnsigned(qhat * vNext, rhat << 32 | (un[j + n - 2] & LIMB_MASK)) > 0) {
+                qhat--;
+                rhat += vTop;
+
+                if (rhat > LIMB_MASK)
+                    break;
+            }
+
+            // multiply and subtract
+            long borrow = 0;
+            long t;
+
+            for (int i = 0; i < n; i++) {
+                long p = qhat * (vn[i] & LIMB_MASK);
+                t = (un[i + j] & LIMB_MASK) - borrow - (p & LIMB_MASK);
+                un[i + j] = (int) t;
+                borrow = (p >>> 32) - (t >> 32);
+            }
+
+            t = (un[j + n] & LIMB_MASK) - borrow;
+            un[j + n] = (int) t;
+
+            if (t < 0) {
+                // qhat was one too large, add the divisor back
+                qhat--;
+                long carry = 0;
+
+                for (int i = 0; i < n; i++) {
+                    t = (un[i + j] & LIMB_MASK) + (vn[i] & LIMB_MASK) + carry;
+                    un[i + j] = (int) t;
+                    carry = t >>> 32;
+                }
+
+                un[j + n] += (int) carry;
+            }
+
+            if (q != null)
+                q[j] = (int) qhat;
+        }
+
+        if (r != null) {
+            for (int i = 0; i < n; i++)
+                r[i] = (int) ((un[i] & LIMB_MASK) >>> s | (un[i + 1] & LIMB_MASK) << (32 - s));
+        }
     }
 
     @JsonValue
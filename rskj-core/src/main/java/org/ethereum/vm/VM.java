@@ -89,7 +89,6 @@ public class VM {
     private int vmCounter = 0;
 
     private static VMHook vmHook;
-    private final static boolean vmTrace = CONFIG.vmTrace();
     private final static long dumpBlock = CONFIG.dumpBlock();
     private boolean computeGas = true; // for performance comp
 
@@ -168,12 +167,10 @@ public class VM {
     boolean isLogEnabled;
 
     protected void checkOpcode() {
+        // the decoded code has no opcode where the byte is not valid for the script version
         if (op == null) {
             throw Program.Exception.invalidOpCode(program.getCurrentOp());
         }
-        if (op.scriptVersion() > program.getScriptVersion())
-            throw Program.Exception.invalidOpCode(program.getCurrentOp());
-
     }
 
 
@@ -361,14 +358,12 @@ public class VM {
     protected void doLT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.value() + " < " + word2.value();
 
-        // TODO: We should compare the performance of BigInteger comparison with DataWord comparison:
         if (word1.compareTo(word2)==-1) {
             word1.setTrue();
         } else {
@@ -382,14 +377,13 @@ public class VM {
     protected void doSLT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.sValue() + " < " + word2.sValue();
 
-        if (word1.sValue().compareTo(word2.sValue()) == -1) {
+        if (word1.signedCompareTo(word2) < 0) {
             word1.setTrue();
         } else {
             word1.zero();
@@ -402,14 +396,13 @@ public class VM {
     protected void doSGT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.sValue() + " > " + word2.sValue();
 
-        if (word1.sValue().compareTo(word2.sValue()) == 1) {
+        if (word1.signedCompareTo(word2) > 0) {
             word1.setTrue();
         } else {
             word1.zero();
@@ -423,14 +416,13 @@ public class VM {
     protected void doGT() {
         spendOpCodeGas();
         // EXECUTION PHASE
-        // TODO: can be improved by not using BigInteger
         DataWord word1 = program.stackPop();
         DataWord word2 = program.stackPop();
 
         if (isLogEnabled)
             hint = word1.value() + " > " + word2.value();
 
-        if (word1.value().compareTo(word2.value()) == 1) {
+        if (word1.compareTo(word2) > 0) {
             word1.setTrue();
         } else {
             word1.zero();
@@ -1205,10 +1197,9 @@ public class VM {
     protected void doPUSH(){
         spendOpCodeGas();
         // EXECUTION PHASE
-        program.step();
         int nPush = op.val() - OpCode.PUSH1.val() + 1;
 
-        DataWord data = program.sweepGetDataWord(nPush);
+        DataWord data = program.sweepPushData(nPush);
 
         if (isLogEnabled)
             hint = "" + Hex.toHexString(data.getData());
@@ -1716,15 +1707,18 @@ public class VM {
         program = aprogram;
         stack = program.getStack();
 
+        // untraced programs make no tracing call on each step
+        boolean traced = program.getTracer() != null;
+
         try {
 
             for(long s=0;s<steps;s++) {
                 if (program.isStopped()) break;
 
-                if (vmTrace)
+                if (traced)
                     program.saveOpTrace();
 
-                op = OpCode.code(program.getCurrentOp());
+                op = program.getCurrentOpCode();
 
                 checkOpcode();
                 program.setLastOp(op.val());
@@ -20,12 +20,14 @@
 package org.ethereum.vm;
 
 import co.rsk.panic.PanicProcessor;
+import org.ethereum.vm.trace.StreamingProgramTracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterOutputStream;
 
@@ -54,13 +56,13 @@ public final class VMUtils {
         }
     }
 
-    private static File createProgramTraceFile(String txHash) {
+    private static File createProgramTraceFile(String fileName) {
         File result = null;
 
         if (!CONFIG.vmTrace() || isEmpty(CONFIG.vmTraceDir()))
             return result;
 
-        String pathname = format("%s/%s/%s/%s.json", getProperty("user.dir"), CONFIG.databaseDir(), CONFIG.vmTraceDir(), txHash);
+        String pathname = format("%s/%s/%s/%s", getProperty("user.dir"), CONFIG.databaseDir(), CONFIG.vmTraceDir(), fileName);
         File file = new File(pathname);
 
         if (file.exists()) {
@@ -97,12 +99,54 @@ public final class VMUtils {
     }
 
     public static void saveProgramTraceFile(String txHash, String content) {
-        File file = createProgramTraceFile(txHash);
+        File file = createProgramTraceFile(txHash + ".json");
         if (file != null) {
             writeStringToFile(file, content);
         }
     }
 
+    /**
+     * @return a tracer that streams to the trace file of the transaction (gzipped if the trace
+     * is configured as compressed), or null if traces are not saved
+     */
+    public static StreamingProgramTracer createProgramTraceFileTracer(String txHash) {
+        boolean compressed = CONFIG.vmTraceCompressed();
+        File file = createProgramTraceFile(txHash + (compressed ? ".jsonl.gz" : ".jsonl"));
+
+        if (file == null)
+            return null;
+
+        try {
+            return StreamingProgramTracer.toFile(file, compressed);
+        } catch (IOException e) {
+            LOGGER.error(format("Cannot write to file '%s': ", file.getAbsolutePath()), e);
+            panicProcessor.panic("vmutils", String.format("Cannot write to file %s: %s", file.getAbsolutePath(), e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Reads a trace file as the listeners got the traces built in memory:
+     * zipped and encoded if the trace is compressed
+     *
+     * @return the trace, or null if the file can't be read
+     */
+    public static String readProgramTraceFile(File file) {
+        boolean compressed = file.getName().endsWith(".gz");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            InputStream in = new FileInputStream(file);
+            write(compressed ? new GZIPInputStream(in) : in, out, BUF_SIZE);
+
+            String trace = new String(out.toByteArray(), "UTF-8");
+            return compressed ? zipAndEncode(trace) : trace;
+        } catch (IOException e) {
+            LOGGER.error(format("Cannot read file '%s': ", file.getAbsolutePath()), e);
+            return null;
+        }
+    }
+
     private static final int BUF_SIZE = 4096;
 
     private static void write(InputStream in, OutputStream out, int bufSize) throws IOException {
@@ -23,21 +23,27 @@ import org.ethereum.vm.DataWord;
 import org.ethereum.vm.program.listener.ProgramListener;
 import org.ethereum.vm.program.listener.ProgramListenerAware;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import static java.lang.Math.ceil;
-import static java.lang.Math.min;
 import static java.lang.String.format;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.oneByteToHexString;
 
+/**
+ * VM memory, kept in a single byte array so any address is reached directly.
+ *
+ * Memory is still accounted in chunks of CHUNK_SIZE bytes (see internalSize), but the
+ * backing array grows geometrically, so repeated small extensions do not copy on each step.
+ */
 public class Memory implements ProgramListenerAware {
 
     private static final int CHUNK_SIZE = 1024;
     private static final int WORD_SIZE = 32;
 
-    private List<byte[]> chunks = new LinkedList<>();
+    private byte[] data = EMPTY_BYTE_ARRAY;
+    private int allocated;
     private int softSize;
     private ProgramListener traceListener;
 
@@ -50,27 +56,8 @@ public class Memory implements ProgramListenerAware {
         if (size <= 0) return EMPTY_BYTE_ARRAY;
 
         extend(address, size);
-        byte[] data = new byte[size];
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        int toGrab = data.length;
-        int start = 0;
-
-        while (toGrab > 0) {
-            int copied = grabMax(chunkIndex, chunkOffset, toGrab, data, start);
-
-            // read next chunk from the start
-            ++chunkIndex;
-            chunkOffset = 0;
 
-            // mark remind
-            toGrab -= copied;
-            start += copied;
-        }
-
-        return data;
+        return Arrays.copyOfRange(data, address, address + size);
     }
 
     public void write(int address, byte[] data, int dataSize, boolean limited) {
@@ -81,27 +68,14 @@ public class Memory implements ProgramListenerAware {
         if (!limited)
             extend(address, dataSize);
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
         int toCapture = 0;
         if (limited)
             toCapture = (address + dataSize > softSize) ? softSize - address : dataSize;
         else
             toCapture = dataSize;
 
-        int start = 0;
-        while (toCapture > 0) {
-            int captured = captureMax(chunkIndex, chunkOffset, toCapture, data, start);
-
-            // capture next chunk
-            ++chunkIndex;
-            chunkOffset = 0;
-
-            // mark remind
-            toCapture -= captured;
-            start += captured;
-        }
+        if (toCapture > 0)
+            System.arraycopy(data, 0, this.data, address, toCapture);
 
         if (traceListener != null) traceListener.onMemoryWrite(address, data, dataSize);
     }
@@ -117,14 +91,13 @@ public class Memory implements ProgramListenerAware {
 
         final int newSize = address + size;
 
-        int toAllocate = newSize - internalSize();
-        if (toAllocate > 0) {
-            addChunks((int) ceil((double) toAllocate / CHUNK_SIZE));
+        if (newSize > allocated) {
+            allocate(newSize);
         }
 
-        toAllocate = newSize - softSize;
+        int toAllocate = newSize - softSize;
         if (toAllocate > 0) {
-            toAllocate = (int) ceil((double) toAllocate / WORD_SIZE) * WORD_SIZE;
+            toAllocate = (toAllocate + WORD_SIZE - 1) / WORD_SIZE * WORD_SIZE;
             softSize += toAllocate;
 
             if (traceListener != null) traceListener.onMemoryExtend(toAllocate);
@@ -137,13 +110,10 @@ public class Memory implements ProgramListenerAware {
 
     // just access expecting all data valid
     public byte readByte(int address) {
+        if (address >= allocated)
+            throw new IndexOutOfBoundsException("Memory address out of range: " + address);
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        byte[] chunk = chunks.get(chunkIndex);
-
-        return chunk[chunkOffset];
+        return data[address];
     }
 
     @Override
@@ -181,35 +151,29 @@ public class Memory implements ProgramListenerAware {
     }
 
     public int internalSize() {
-        return chunks.size() * CHUNK_SIZE;
+        return allocated;
     }
 
+    /**
+     * @return a copy of the memory split in chunks of CHUNK_SIZE bytes
+     */
     public List<byte[]> getChunks() {
-        return new LinkedList<>(chunks);
-    }
-
-    private int captureMax(int chunkIndex, int chunkOffset, int size, byte[] src, int srcPos) {
+        List<byte[]> chunks = new ArrayList<>(allocated / CHUNK_SIZE);
 
-        byte[] chunk = chunks.get(chunkIndex);
-        int toCapture = min(size, chunk.length - chunkOffset);
+        for (int offset = 0; offset < allocated; offset += CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(data, offset, offset + CHUNK_SIZE));
+        }
 
-        System.arraycopy(src, srcPos, chunk, chunkOffset, toCapture);
-        return toCapture;
+        return chunks;
     }
 
-    private int grabMax(int chunkIndex, int chunkOffset, int size, byte[] dest, int destPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toGrab = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(chunk, chunkOffset, dest, destPos, toGrab);
-
-        return toGrab;
-    }
+    private void allocate(int newSize) {
+        // accounted size grows in whole chunks, the backing array at least doubles
+        allocated = (int) (((long) newSize + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE);
 
-    private void addChunks(int num) {
-        for (int i = 0; i < num; ++i) {
-            chunks.add(new byte[CHUNK_SIZE]);
+        if (allocated > data.length) {
+            int capacity = (int) Math.min(Math.max((long) allocated, 2L * data.length), Integer.MAX_VALUE - CHUNK_SIZE);
+            data = Arrays.copyOf(data, Math.max(capacity, allocated));
         }
     }
 }
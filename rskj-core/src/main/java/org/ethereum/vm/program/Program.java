@@ -19,9 +19,11 @@
 
 package org.ethereum.vm.program;
 
+import co.rsk.db.CodeCache;
 import co.rsk.peg.Bridge;
 import co.rsk.remasc.RemascContract;
 import co.rsk.vm.BitSet;
+import co.rsk.vm.DecodedCode;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Block;
 import org.ethereum.core.Repository;
@@ -35,10 +37,10 @@ import org.ethereum.vm.PrecompiledContracts.PrecompiledContract;
 import org.ethereum.vm.program.invoke.ProgramInvoke;
 import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
 import org.ethereum.vm.program.invoke.ProgramInvokeFactoryImpl;
-import org.ethereum.vm.program.listener.CompositeProgramListener;
 import org.ethereum.vm.program.listener.ProgramListenerAware;
 import org.ethereum.vm.trace.ProgramTrace;
 import org.ethereum.vm.trace.ProgramTraceListener;
+import org.ethereum.vm.trace.ProgramTracer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -86,15 +88,15 @@ public class Program {
     private ProgramInvokeFactory programInvokeFactory = new ProgramInvokeFactoryImpl();
 
     private ProgramOutListener listener;
-    private ProgramTraceListener traceListener = new ProgramTraceListener();
-    private CompositeProgramListener programListener = new CompositeProgramListener();
+    // null when the execution is not traced, nothing is allocated or called for tracing then
+    private final ProgramTracer tracer;
 
     private Stack stack;
     private Memory memory;
     private Storage storage;
 
     private ProgramResult result = new ProgramResult();
-    private ProgramTrace trace = new ProgramTrace();
+    private ProgramTrace trace;
 
     private byte[] ops;
     private int pc;
@@ -106,6 +108,7 @@ public class Program {
     private int startAddr;
 
     private BitSet jumpdest;
+    private DecodedCode decodedCode;
     /**********************************************************************************************************
      * About DataWord Pool:
      *---------------------------------------------------------------------------------------------------------
@@ -168,7 +171,7 @@ public class Program {
      * performed. Until that moment, dataWordPool is enabled by setting useDataWordPool=true
      *
      *******************************************************************************************************************/
-    private java.util.Stack<DataWord> dataWordPool;
+    private ArrayDeque<DataWord> dataWordPool;
 
     private static Boolean useDataWordPool = true;
 
@@ -176,36 +179,38 @@ public class Program {
     boolean isGasLogEnabled;
 
     public Program(byte[] ops, ProgramInvoke programInvoke) {
+        this(ops, programInvoke, null);
+    }
+
+    public Program(byte[] ops, ProgramInvoke programInvoke, Transaction transaction) {
+        this(ops, programInvoke, transaction, null);
+    }
+
+    /**
+     * @param tracer follows the execution, null to run without tracing
+     */
+    public Program(byte[] ops, ProgramInvoke programInvoke, Transaction transaction, ProgramTracer tracer) {
         isLogEnabled = logger.isInfoEnabled();
         isGasLogEnabled =gasLogger.isInfoEnabled();
 
         this.invoke = programInvoke;
+        this.transaction = transaction;
+        this.tracer = tracer;
 
         this.ops = nullToEmpty(ops);
 
         this.memory = setupProgramListener(new Memory());
         this.stack = setupProgramListener(new Stack());
-        this.stack.ensureCapacity(1024); // faster?
         this.storage = setupProgramListener(new Storage(programInvoke));
-        this.trace = new ProgramTrace(programInvoke);
 
         if (useDataWordPool)
-            this.dataWordPool= new java.util.Stack<DataWord>();
+            this.dataWordPool= new ArrayDeque<>(1024);
             else
             this.dataWordPool=null;
 
-        if (dataWordPool!=null) {
-            this.dataWordPool.ensureCapacity(1024); // faster?
-        }
-
         precompile();
     }
 
-    public Program(byte[] ops, ProgramInvoke programInvoke, Transaction transaction) {
-        this(ops, programInvoke);
-        this.transaction = transaction;
-    }
-
     public static void setUseDataWordPool(Boolean value) {
         useDataWordPool = value;
     }
@@ -235,11 +240,7 @@ public class Program {
     }
 
     private <T extends ProgramListenerAware> T setupProgramListener(T traceListenerAware) {
-        if (programListener.isEmpty()) {
-            programListener.addListener(traceListener);
-        }
-
-        traceListenerAware.setTraceListener(traceListener);
+        traceListenerAware.setTraceListener(tracer);
         return traceListenerAware;
     }
 
@@ -276,7 +277,7 @@ public class Program {
         if (dataWordPool==null) {
             return new DataWord();
         }
-        if (dataWordPool.empty())
+        if (dataWordPool.isEmpty())
             return new DataWord();
         else {
             return dataWordPool.pop();
@@ -419,6 +420,24 @@ public class Program {
         return dw;
     }
 
+    /**
+     * Reads the immediate of the PUSH at the current position (already parsed if
+     * the code was decoded) and moves the program counter past the instruction
+     */
+    public DataWord sweepPushData(int n) {
+        DataWord data = decodedCode != null ? decodedCode.getPushData(pc) : null;
+
+        if (data == null) {
+            step();
+            return sweepGetDataWord(n);
+        }
+
+        DataWord dw = newDataWord(data);
+        setPC(pc + 1 + n);
+
+        return dw;
+    }
+
     public DataWord stackPop() {
         return stack.pop();
     }
@@ -626,7 +645,7 @@ public class Program {
         if (isNotEmpty(programCode)) {
 
             VM vm = new VM();
-            Program program = new Program(programCode, programInvoke, internalTx);
+            Program program = new Program(programCode, programInvoke, internalTx, tracer);
             vm.play(program);
             result = program.getResult();
 
@@ -850,11 +869,11 @@ public class Program {
                 limitToMaxLong(msg.getGas()), contextBalance, data, track, this.invoke.getBlockStore(), byTestingSuite());
 
         VM vm = new VM();
-        Program program = new Program(programCode, programInvoke, internalTx);
+        // the nested program shares the tracer, so its operations are traced in place
+        Program program = new Program(programCode, programInvoke, internalTx, tracer);
         vm.play(program);
         childResult  = program.getResult();
 
-        getTrace().merge(program.getTrace());
         getResult().merge(childResult );
 
         if (childResult .getException() != null) {
@@ -1183,11 +1202,15 @@ public class Program {
     }
 
     public void saveOpTrace() {
-        if (this.pc < ops.length) {
-            trace.addOp(ops[pc], pc, getCallDeep(), getRemainingGas(), traceListener.resetActions());
+        if (tracer != null && this.pc < ops.length) {
+            tracer.onOp(this);
         }
     }
 
+    public ProgramTracer getTracer() {
+        return tracer;
+    }
+
     public static int getScriptVersionInCode(byte[] ops){
         if (ops.length >= 4) {
             OpCode op = OpCode.code(ops[0]);
@@ -1198,7 +1221,14 @@ public class Program {
         return 0;
     }
 
+    /**
+     * @return the trace recorded in memory, empty unless the program runs with a ProgramTraceListener
+     */
     public ProgramTrace getTrace() {
+        if (trace == null) {
+            trace = tracer instanceof ProgramTraceListener ? ((ProgramTraceListener) tracer).getTrace() : new ProgramTrace();
+        }
+
         return trace;
     }
 
@@ -1232,12 +1262,23 @@ public class Program {
         startAddr = 0;
         pc = 0;
         i = processAndSkipCodeHeader(i);
-        computeJumpDests(i);
+
+        // code from the code cache keeps its analysis, the decoded code is never modified after this
+        CodeCache codeCache = invoke.getRepository().getCodeCache();
+        decodedCode = codeCache != null ? codeCache.getDecodedCode(ops) : null;
+
+        // only the cached code is decoded, as the next executions reuse it;
+        // other code (init code, code not in the cache) runs directly from its bytes
+        if (decodedCode == null && codeCache != null && codeCache.isCached(ops)) {
+            decodedCode = DecodedCode.decode(ops, i, scriptVersion);
+            codeCache.putDecodedCode(ops, decodedCode);
+        }
+
+        jumpdest = decodedCode != null ? decodedCode.getJumpDests() : computeJumpDests(i);
     }
 
-    public void computeJumpDests(int i) {
-        if (jumpdest == null)
-            jumpdest = new BitSet(ops.length);
+    private BitSet computeJumpDests(int i) {
+        BitSet dests = new BitSet(ops.length);
 
         for (; i < ops.length; ++i) {
             OpCode op = OpCode.code(ops[i]);
@@ -1246,12 +1287,25 @@ public class Program {
                 continue;
 
             if (op == OpCode.JUMPDEST)
-                jumpdest.set(i);
+                dests.set(i);
 
-            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
+            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt())
                 i += op.asInt() - OpCode.PUSH1.asInt() + 1;
-            }
         }
+
+        return dests;
+    }
+
+    /**
+     * @return the opcode at the current position, or null if it is not a valid opcode for this code
+     */
+    public OpCode getCurrentOpCode() {
+        if (decodedCode != null)
+            return decodedCode.getOp(pc);
+
+        OpCode op = OpCode.code(getCurrentOp());
+
+        return op != null && op.scriptVersion() <= scriptVersion ? op : null;
     }
 
     static String formatBinData(byte[] binData, int startPC) {
@@ -23,8 +23,24 @@ import org.ethereum.vm.DataWord;
 import org.ethereum.vm.program.listener.ProgramListener;
 import org.ethereum.vm.program.listener.ProgramListenerAware;
 
-public class Stack extends java.util.Stack<DataWord> implements ProgramListenerAware {
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * The VM operand stack.
+ *
+ * Words are kept in a plain array sized for the whole EVM stack limit, so push and pop
+ * are an index update: no synchronization (as java.util.Stack had) and no growth while
+ * a program runs. Index 0 is the bottom of the stack, as in java.util.Stack.
+ */
+public class Stack implements ProgramListenerAware, Iterable<DataWord> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private DataWord[] words = new DataWord[DEFAULT_CAPACITY];
+    private int size;
     private ProgramListener traceListener;
 
     @Override
@@ -32,26 +48,105 @@ public class Stack extends java.util.Stack<DataWord> implements ProgramListenerA
         this.traceListener = listener;
     }
 
-    @Override
-    public synchronized DataWord pop() {
+    public DataWord pop() {
+        if (size == 0)
+            throw new EmptyStackException();
+
         if (traceListener != null) traceListener.onStackPop();
-        return super.pop();
+
+        DataWord item = words[--size];
+        words[size] = null;
+        return item;
     }
 
-    @Override
     public DataWord push(DataWord item) {
         if (traceListener != null) traceListener.onStackPush(item);
-        return super.push(item);
+
+        if (size == words.length)
+            words = Arrays.copyOf(words, size * 2);
+
+        words[size++] = item;
+        return item;
+    }
+
+    public DataWord peek() {
+        if (size == 0)
+            throw new EmptyStackException();
+
+        return words[size - 1];
+    }
+
+    public DataWord get(int index) {
+        checkIndex(index);
+        return words[index];
+    }
+
+    public DataWord set(int index, DataWord item) {
+        checkIndex(index);
+        DataWord previous = words[index];
+        words[index] = item;
+        return previous;
     }
 
     public void swap(int from, int to) {
         if (isAccessible(from) && isAccessible(to) && (from != to)) {
             if (traceListener != null) traceListener.onStackSwap(from, to);
-            DataWord tmp = get(from);
-            set(from, set(to, tmp));
+            DataWord tmp = words[from];
+            words[from] = words[to];
+            words[to] = tmp;
         }
     }
 
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0, size, null);
+        size = 0;
+    }
+
+    public DataWord[] toArray() {
+        return Arrays.copyOf(words, size);
+    }
+
+    /**
+     * Iterates from the bottom of the stack to the top
+     */
+    @Override
+    public Iterator<DataWord> iterator() {
+        return new Iterator<DataWord>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public DataWord next() {
+                if (next >= size)
+                    throw new NoSuchElementException();
+
+                return words[next++];
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private void checkIndex(int index) {
+        if (!isAccessible(index))
+            throw new ArrayIndexOutOfBoundsException(index);
+    }
+
     private boolean isAccessible(int from) {
         return from >= 0 && from < size();
     }
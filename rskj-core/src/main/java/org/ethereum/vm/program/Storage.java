@@ -19,6 +19,7 @@
 
 package org.ethereum.vm.program;
 
+import co.rsk.db.CodeCache;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Block;
 import org.ethereum.core.Repository;
@@ -119,7 +120,7 @@ public class Storage implements Repository, ProgramListenerAware {
     }
 
     private boolean canListenTrace(byte[] address) {
-        return this.address.equals(new DataWord(address)) && (traceListener != null);
+        return (traceListener != null) && this.address.equals(new DataWord(address));
     }
 
     @Override
@@ -220,6 +221,11 @@ public class Storage implements Repository, ProgramListenerAware {
         return repository.getRoot();
     }
 
+    @Override
+    public void save() {
+        repository.save();
+    }
+
     @Override
     public void loadAccount(byte[] addr, Map<ByteArrayWrapper, AccountState> cacheAccounts, Map<ByteArrayWrapper, ContractDetails> cacheDetails) {
         repository.loadAccount(addr, cacheAccounts, cacheDetails);
@@ -235,6 +241,11 @@ public class Storage implements Repository, ProgramListenerAware {
         return this.repository.getDetailsDataStore();
     }
 
+    @Override
+    public CodeCache getCodeCache() {
+        return this.repository.getCodeCache();
+    }
+
     @Override
     public void updateContractDetails(byte[] address, ContractDetails contractDetails) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,78 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.trace;
+
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.program.listener.ProgramListenerAdaptor;
+
+/**
+ * Base for tracers that report the stack, memory and storage changes as OpActions
+ */
+public abstract class OpActionsTracer extends ProgramListenerAdaptor implements ProgramTracer {
+
+    private OpActions actions = new OpActions();
+
+    @Override
+    public void onMemoryExtend(int delta) {
+        actions.addMemoryExtend(delta);
+    }
+
+    @Override
+    public void onMemoryWrite(int address, byte[] data, int size) {
+        actions.addMemoryWrite(address, data, size);
+    }
+
+    @Override
+    public void onStackPop() {
+        actions.addStackPop();
+    }
+
+    @Override
+    public void onStackPush(DataWord value) {
+        actions.addStackPush(value);
+    }
+
+    @Override
+    public void onStackSwap(int from, int to) {
+        actions.addStackSwap(from, to);
+    }
+
+    @Override
+    public void onStoragePut(DataWord key, DataWord value) {
+        if (value.equals(DataWord.ZERO)) {
+            actions.addStorageRemove(key);
+        } else {
+            actions.addStoragePut(key, value);
+        }
+    }
+
+    @Override
+    public void onStorageClear() {
+        actions.addStorageClear();
+    }
+
+    /**
+     * @return the actions collected since the previous call
+     */
+    public OpActions resetActions() {
+        OpActions current = this.actions;
+        this.actions = new OpActions();
+        return current;
+    }
+}
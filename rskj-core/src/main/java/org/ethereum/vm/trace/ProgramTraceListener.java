@@ -19,60 +19,26 @@
 
 package org.ethereum.vm.trace;
 
-import org.ethereum.vm.DataWord;
-import org.ethereum.vm.program.listener.ProgramListenerAdaptor;
+import org.ethereum.vm.program.Program;
 
-import static org.ethereum.config.SystemProperties.CONFIG;
-
-public class ProgramTraceListener extends ProgramListenerAdaptor {
-
-    private final boolean enabled = CONFIG.vmTrace();
-    private OpActions actions = new OpActions();
-
-    @Override
-    public void onMemoryExtend(int delta) {
-        if (enabled) actions.addMemoryExtend(delta);
-    }
-
-    @Override
-    public void onMemoryWrite(int address, byte[] data, int size) {
-        if (enabled) actions.addMemoryWrite(address, data, size);
-    }
-
-    @Override
-    public void onStackPop() {
-        if (enabled) actions.addStackPop();
-    }
+/**
+ * Tracer that records the whole execution in a ProgramTrace, in memory.
+ * Meant for tests and small executions, see StreamingProgramTracer otherwise.
+ */
+public class ProgramTraceListener extends OpActionsTracer {
 
-    @Override
-    public void onStackPush(DataWord value) {
-        if (enabled) actions.addStackPush(value);
-    }
+    private final ProgramTrace trace;
 
-    @Override
-    public void onStackSwap(int from, int to) {
-        if (enabled) actions.addStackSwap(from, to);
+    public ProgramTraceListener(ProgramTrace trace) {
+        this.trace = trace;
     }
 
-    @Override
-    public void onStoragePut(DataWord key, DataWord value) {
-        if (enabled) {
-            if (value.equals(DataWord.ZERO)) {
-                actions.addStorageRemove(key);
-            } else {
-                actions.addStoragePut(key, value);
-            }
-        }
+    public ProgramTrace getTrace() {
+        return trace;
     }
 
     @Override
-    public void onStorageClear() {
-        if (enabled) actions.addStorageClear();
-    }
-
-    public OpActions resetActions() {
-        OpActions actions = this.actions;
-        this.actions = new OpActions();
-        return actions;
+    public void onOp(Program program) {
+        trace.addOp(program.getCurrentOp(), program.getPC(), program.getCallDeep(), program.getRemainingGas(), resetActions());
     }
 }
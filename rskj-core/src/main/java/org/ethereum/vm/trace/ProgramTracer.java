@@ -0,0 +1,35 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.trace;
+
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.listener.ProgramListener;
+
+/**
+ * Follows a program execution as it runs: one call per operation, before the operation
+ * executes, plus the stack, memory and storage changes it makes (see ProgramListener).
+ *
+ * A tracer is given to the top level program and is shared with the programs of nested
+ * calls and creates, so it sees every operation in execution order.
+ * Programs without a tracer make no tracing calls at all.
+ */
+public interface ProgramTracer extends ProgramListener {
+
+    void onOp(Program program);
+}
@@ -78,6 +78,15 @@ public final class Serializers {
         }
     }
 
+    /**
+     * @return a compact mapper that serializes fields only, as serializeFieldsOnly does
+     */
+    public static ObjectMapper createFieldsOnlyMapper() {
+        ObjectMapper mapper = createMapper(false);
+        mapper.setVisibility(fieldsOnlyVisibilityChecker(mapper));
+        return mapper;
+    }
+
     private static VisibilityChecker<?> fieldsOnlyVisibilityChecker(ObjectMapper mapper) {
         return mapper.getSerializationConfig().getDefaultVisibilityChecker()
                 .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
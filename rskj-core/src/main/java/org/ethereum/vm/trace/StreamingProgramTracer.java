@@ -0,0 +1,140 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.trace;
+
+import co.rsk.panic.PanicProcessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ethereum.vm.OpCode;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvoke;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Tracer that writes the execution as it runs, one JSON document per line (JSONL),
+ * so the trace of a large transaction is never held in memory.
+ *
+ * The first line describes the traced contract (as the ProgramTrace fields do), then there is
+ * one line per operation (an Op, with the actions of the operation) and the last line has the
+ * result and error of the execution.
+ *
+ * A failure writing the trace is logged and stops the tracing, it never affects the execution.
+ */
+public class StreamingProgramTracer extends OpActionsTracer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("vmtrace");
+    private static final PanicProcessor panicProcessor = new PanicProcessor();
+
+    private final ObjectMapper mapper = Serializers.createFieldsOnlyMapper();
+    private final Writer writer;
+    private File file;
+    private boolean failed;
+
+    public StreamingProgramTracer(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param compressed gzip the trace while it is written
+     */
+    public static StreamingProgramTracer toFile(File file, boolean compressed) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+
+        if (compressed) {
+            out = new GZIPOutputStream(out);
+        }
+
+        StreamingProgramTracer tracer = new StreamingProgramTracer(out);
+        tracer.file = file;
+        return tracer;
+    }
+
+    /**
+     * @return the file the trace is written to, null if it is not written to a file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the description of the traced contract, loaded as ProgramTrace does
+     */
+    public void writeHeader(ProgramInvoke programInvoke) {
+        ProgramTrace header = new ProgramTrace(programInvoke);
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("contractAddress", header.getContractAddress());
+        fields.put("storageSize", header.getStorageSize());
+        fields.put("fullStorage", header.isFullStorage());
+        fields.put("initStorage", header.getInitStorage());
+
+        writeLine(fields);
+    }
+
+    @Override
+    public void onOp(Program program) {
+        Op op = new Op();
+        op.setActions(resetActions());
+        op.setCode(OpCode.code(program.getCurrentOp()));
+        op.setDeep(program.getCallDeep());
+        op.setGas(program.getRemainingGas());
+        op.setPc(program.getPC());
+
+        writeLine(op);
+    }
+
+    /**
+     * Writes the outcome of the execution, as the last line of the trace
+     */
+    public void writeResult(byte[] result, Exception error) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("result", toHexString(result));
+        fields.put("error", error == null ? "" : format("%s: %s", error.getClass(), error.getMessage()));
+
+        writeLine(fields);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeLine(Object value) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            writer.write(mapper.writeValueAsString(value));
+            writer.write('\n');
+        } catch (IOException e) {
+            failed = true;
+            LOGGER.error("Cannot write program trace: ", e);
+            panicProcessor.panic("vmtrace", "Cannot write program trace: " + e.getMessage());
+        }
+    }
+}
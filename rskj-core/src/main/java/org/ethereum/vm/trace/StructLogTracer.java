@@ -0,0 +1,164 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.trace;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.OpCode;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.listener.ProgramListenerAdaptor;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracer that writes one struct log per operation (pc, op, gas, depth and optionally the
+ * stack, memory and the storage written so far by the running contract) straight to a JSON
+ * array being generated, so the trace is never held in memory.
+ *
+ * Writing errors can not be thrown from the VM, they stop the tracing and are reported
+ * by checkError.
+ */
+public class StructLogTracer extends ProgramListenerAdaptor implements ProgramTracer {
+
+    private static final int WORD_SIZE = 32;
+
+    private final JsonGenerator generator;
+    private final boolean withStack;
+    private final boolean withMemory;
+    private final boolean withStorage;
+    private final int limit;
+
+    private final Map<DataWord, Map<String, String>> storageByAddress = new HashMap<>();
+    private Map<String, String> storage;
+    private int written;
+    private IOException error;
+
+    /**
+     * @param limit maximum number of struct logs to write, zero or less for no limit
+     */
+    public StructLogTracer(JsonGenerator generator, boolean withStack, boolean withMemory, boolean withStorage, int limit) {
+        this.generator = generator;
+        this.withStack = withStack;
+        this.withMemory = withMemory;
+        this.withStorage = withStorage;
+        this.limit = limit;
+    }
+
+    @Override
+    public void onOp(Program program) {
+        if (withStorage) {
+            storage = storageByAddress.computeIfAbsent(program.getOwnerAddress().clone(), address -> new TreeMap<>());
+        }
+
+        if (error != null || (limit > 0 && written >= limit)) {
+            return;
+        }
+
+        try {
+            writeStructLog(program);
+            written++;
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    public void onStoragePut(DataWord key, DataWord value) {
+        if (storage != null) {
+            storage.put(Hex.toHexString(key.getData()), Hex.toHexString(value.getData()));
+        }
+    }
+
+    @Override
+    public void onStoragePut(DataWord key, byte[] value) {
+        if (storage != null) {
+            storage.put(Hex.toHexString(key.getData()), Hex.toHexString(value));
+        }
+    }
+
+    @Override
+    public void onStorageClear() {
+        if (storage != null) {
+            storage.clear();
+        }
+    }
+
+    /**
+     * @return the number of struct logs written
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Throws the error found writing the struct logs, if any
+     */
+    public void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void writeStructLog(Program program) throws IOException {
+        OpCode op = program.getCurrentOpCode();
+
+        generator.writeStartObject();
+        generator.writeNumberField("pc", program.getPC());
+        generator.writeStringField("op", op != null ? op.name() : String.format("0x%02x", program.getCurrentOp()));
+        generator.writeNumberField("gas", program.getRemainingGas());
+        generator.writeNumberField("depth", program.getCallDeep() + 1);
+
+        if (withStack) {
+            generator.writeArrayFieldStart("stack");
+
+            for (DataWord word : program.getStack()) {
+                generator.writeString(Hex.toHexString(word.getData()));
+            }
+
+            generator.writeEndArray();
+        }
+
+        if (withMemory) {
+            byte[] memory = program.getMemory();
+            generator.writeArrayFieldStart("memory");
+
+            for (int offset = 0; offset < memory.length; offset += WORD_SIZE) {
+                generator.writeString(Hex.toHexString(memory, offset, Math.min(WORD_SIZE, memory.length - offset)));
+            }
+
+            generator.writeEndArray();
+        }
+
+        if (withStorage) {
+            generator.writeObjectFieldStart("storage");
+
+            for (Map.Entry<String, String> entry : storage.entrySet()) {
+                generator.writeStringField(entry.getKey(), entry.getValue());
+            }
+
+            generator.writeEndObject();
+        }
+
+        generator.writeEndObject();
+    }
+}
@@ -18,6 +18,8 @@
 
 package co.rsk.config;
 
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -47,4 +49,13 @@ public class RskSystemPropertiesTest {
         Assert.assertTrue(commands.contains("TRANSACTIONS"));
         Assert.assertTrue(commands.contains("RSK_MESSAGE:BLOCK_MESSAGE"));
     }
+
+    @Test
+    public void rpcWorkersThreadsAndQueueSize() {
+        Config config = ConfigFactory.parseString("rpc { workers.threads = 8 \n workers.queue.size = 100 }");
+        RskSystemProperties properties = new RskSystemProperties(config);
+
+        Assert.assertEquals(8, properties.rpcWorkers());
+        Assert.assertEquals(100, properties.rpcWorkersQueueSize());
+    }
 }
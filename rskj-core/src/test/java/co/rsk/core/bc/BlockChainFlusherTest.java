@@ -0,0 +1,152 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.core.bc;
+
+import co.rsk.db.RepositoryImpl;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.DetailsDataStore;
+import org.ethereum.db.IndexedBlockStore;
+import org.ethereum.vm.DataWord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class BlockChainFlusherTest {
+    private static final byte[] ADDRESS = new byte[] { 0x01, 0x02, 0x03 };
+
+    @Test
+    public void flushContractDetailsInBackground() {
+        HashMapDB detailsDS = new HashMapDB();
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), detailsDS);
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMap<>(), new HashMapDB(), null, null);
+
+        Repository track = repository.startTracking();
+        track.addStorageRow(ADDRESS, new DataWord(1), new DataWord(42));
+        track.commit();
+
+        BlockChainFlusher flusher = new BlockChainFlusher(repository, blockStore);
+
+        flusher.flush();
+
+        // the details are read while they're being written
+        Assert.assertEquals(new DataWord(42), repository.getStorageValue(ADDRESS, new DataWord(1)));
+
+        flusher.stop();
+
+        Assert.assertNotNull(detailsDS.get(ADDRESS));
+        Assert.assertEquals(0, flusher.getDirtyBytes());
+        Assert.assertEquals(1, flusher.getFlushes());
+        Assert.assertTrue(flusher.getFlushedBytes() > 0);
+        Assert.assertEquals(flusher.getFlushedBytes(), flusher.getLastFlushBytes());
+        Assert.assertEquals(new DataWord(42), repository.getStorageValue(ADDRESS, new DataWord(1)));
+    }
+
+    @Test
+    public void flushSeveralTimes() {
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), new HashMapDB());
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMap<>(), new HashMapDB(), null, null);
+
+        BlockChainFlusher flusher = new BlockChainFlusher(repository, blockStore);
+
+        for (int k = 0; k < 10; k++) {
+            Repository track = repository.startTracking();
+            track.addStorageRow(ADDRESS, new DataWord(k), new DataWord(k + 1));
+            track.commit();
+            flusher.flush();
+            Assert.assertEquals(k + 1, flusher.getFlushes());
+        }
+
+        flusher.stop();
+
+        Assert.assertEquals(10, flusher.getFlushes());
+        Assert.assertEquals(0, flusher.getDirtyBytes());
+
+        for (int k = 0; k < 10; k++)
+            Assert.assertEquals(new DataWord(k + 1), repository.getStorageValue(ADDRESS, new DataWord(k)));
+    }
+
+    @Test
+    public void flushTheBlockStoreOnTheCallingThread() {
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), new HashMapDB());
+        BlockStore blockStore = mock(BlockStore.class);
+        List<Thread> threads = new ArrayList<>();
+
+        doAnswer(invocation -> threads.add(Thread.currentThread())).when(blockStore).flush();
+
+        BlockChainFlusher flusher = new BlockChainFlusher(repository, blockStore);
+
+        flusher.flush();
+        flusher.stop();
+
+        Assert.assertEquals(1, threads.size());
+        Assert.assertSame(Thread.currentThread(), threads.get(0));
+    }
+
+    @Test
+    public void flushTheBlockStoreAfterTheDetailsAreWritten() {
+        HashMapDB detailsDS = new HashMapDB();
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), detailsDS);
+        BlockStore blockStore = mock(BlockStore.class);
+        List<byte[]> details = new ArrayList<>();
+
+        doAnswer(invocation -> details.add(detailsDS.get(ADDRESS))).when(blockStore).flush();
+
+        Repository track = repository.startTracking();
+        track.addStorageRow(ADDRESS, new DataWord(1), new DataWord(42));
+        track.commit();
+
+        BlockChainFlusher flusher = new BlockChainFlusher(repository, blockStore);
+
+        flusher.flush();
+        flusher.stop();
+
+        Assert.assertEquals(1, details.size());
+        Assert.assertNotNull(details.get(0));
+    }
+
+    @Test
+    public void dontFlushTheBlockStoreIfTheDetailsAreNotWritten() {
+        Repository repository = mock(Repository.class);
+        DetailsDataStore detailsDataStore = mock(DetailsDataStore.class);
+        BlockStore blockStore = mock(BlockStore.class);
+
+        when(repository.getDetailsDataStore()).thenReturn(detailsDataStore);
+        when(detailsDataStore.takeDirty()).thenReturn(new HashMap<>());
+        when(detailsDataStore.writeDirty(any())).thenThrow(new IllegalStateException("disk full"));
+
+        BlockChainFlusher flusher = new BlockChainFlusher(repository, blockStore);
+
+        flusher.flush();
+        flusher.stop();
+
+        verify(blockStore, never()).flush();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.core.bc;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.test.builders.AccountBuilder;
+import co.rsk.test.builders.TransactionBuilder;
+import org.ethereum.core.Account;
+import org.ethereum.core.Block;
+import org.ethereum.core.Transaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockPreprocessorTest {
+    @Test
+    public void preprocessAndAwaitBlock() {
+        Account sender = new AccountBuilder().name("sender").build();
+        Account receiver = new AccountBuilder().name("receiver").build();
+
+        List<Transaction> txs = new ArrayList<>();
+
+        for (int k = 0; k < 10; k++)
+            txs.add(new TransactionBuilder().sender(sender).receiver(receiver).nonce(k).build());
+
+        Block genesis = BlockGenerator.getGenesisBlock();
+        Block block = new Block(BlockGenerator.createChildBlock(genesis, txs).getEncoded());
+
+        BlockPreprocessor preprocessor = new BlockPreprocessor(2, 10);
+
+        Assert.assertTrue(preprocessor.preprocess(block));
+        Assert.assertEquals(1, preprocessor.getPendingCount());
+
+        preprocessor.await(block);
+
+        Assert.assertEquals(0, preprocessor.getPendingCount());
+        Assert.assertEquals(10, block.getTransactionsList().size());
+
+        for (Transaction tx : block.getTransactionsList())
+            Assert.assertArrayEquals(sender.getAddress(), tx.getSender());
+
+        preprocessor.stop();
+    }
+
+    @Test
+    public void awaitNotPreprocessedBlock() {
+        Block block = BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock());
+
+        BlockPreprocessor preprocessor = new BlockPreprocessor(1, 10);
+
+        preprocessor.await(block);
+
+        Assert.assertEquals(0, preprocessor.getPendingCount());
+
+        preprocessor.stop();
+    }
+
+    @Test
+    public void rejectBlocksWhenTooManyArePending() {
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 3);
+
+        // no threads running the tasks
+        BlockPreprocessor preprocessor = new BlockPreprocessor(1, 2);
+        preprocessor.stop();
+
+        Assert.assertTrue(preprocessor.preprocess(blocks.get(0)));
+        Assert.assertTrue(preprocessor.preprocess(blocks.get(1)));
+        Assert.assertTrue(preprocessor.preprocess(blocks.get(1)));
+        Assert.assertFalse(preprocessor.preprocess(blocks.get(2)));
+
+        // the pending task runs in the caller thread
+        preprocessor.await(blocks.get(0));
+
+        Assert.assertEquals(1, preprocessor.getPendingCount());
+        Assert.assertTrue(preprocessor.preprocess(blocks.get(2)));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.core.bc;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.db.RepositoryImpl;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Block;
+import org.ethereum.core.CallMessage;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactoryImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+public class GasEstimatorTest {
+    private static final byte[] SENDER = Hex.decode("0102030405060708090a0b0c0d0e0f1011121314");
+    private static final byte[] CONTRACT = Hex.decode("1111111111111111111111111111111111111111");
+    private static final byte[] EMPTY_ACCOUNT = Hex.decode("2222222222222222222222222222222222222222");
+
+    // GAS PUSH2 0x2710 LT PUSH1 0x0a JUMPI INVALID JUMPDEST STOP: fails unless more than 10000 gas is left
+    private static final String GAS_CHECKING_CODE = "5a61271010600a57fe5b00";
+
+    @Test
+    public void estimateTransfer() {
+        GasEstimator estimator = createEstimator(new RepositoryImpl(new TrieStoreImpl(new HashMapDB())));
+
+        Assert.assertEquals(21000, estimator.estimateGas(createMessage(EMPTY_ACCOUNT, 1000000)));
+        Assert.assertEquals(2, estimator.getRuns());
+    }
+
+    @Test
+    public void estimateCallNeedingMoreGasThanItUses() {
+        Repository repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()));
+        repository.saveCode(CONTRACT, Hex.decode(GAS_CHECKING_CODE));
+
+        GasEstimator estimator = createEstimator(repository);
+        CallMessage message = createMessage(CONTRACT, 1000000);
+
+        long estimated = estimator.estimateGas(message);
+
+        Assert.assertTrue(estimated > 21000 + 10000);
+        Assert.assertEquals(estimated, estimator.estimateGas(message.withGasLimit(estimated)));
+
+        // one gas less fails at the first run, using all its gas
+        Assert.assertEquals(estimated - 1, estimator.estimateGas(message.withGasLimit(estimated - 1)));
+        Assert.assertEquals(1, estimator.getRuns());
+    }
+
+    @Test
+    public void returnGasUsedWhenTheCallAlwaysFails() {
+        Repository repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()));
+        repository.saveCode(CONTRACT, Hex.decode(GAS_CHECKING_CODE));
+
+        GasEstimator estimator = createEstimator(repository);
+
+        Assert.assertEquals(25000, estimator.estimateGas(createMessage(CONTRACT, 25000)));
+        Assert.assertEquals(1, estimator.getRuns());
+    }
+
+    private static GasEstimator createEstimator(Repository repository) {
+        Block block = BlockGenerator.getGenesisBlock();
+        return new GasEstimator(repository, block, null, null, new ProgramInvokeFactoryImpl());
+    }
+
+    private static CallMessage createMessage(byte[] to, long gasLimit) {
+        return new CallMessage(SENDER, new byte[] { 0 }, new byte[] { 0 }, new byte[] { 0 }, to, new byte[] { 0 }, null)
+                .withGasLimit(gasLimit);
+    }
+}
@@ -35,6 +35,7 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -245,6 +246,27 @@ public class PendingStateImplTest {
         Assert.assertTrue(list.isEmpty());
     }
 
+    @Test
+    public void removeObsoleteTransactionAddedAsWireAndPending() {
+        PendingStateImpl pendingState = createSampleNewPendingStateWithAccounts(2, new BigInteger("1000000"));
+        Transaction tx = createSampleTransaction(1, 2, 1000, 0);
+
+        pendingState.addWireTransactions(Collections.singletonList(tx));
+        pendingState.addPendingTransaction(tx);
+
+        Assert.assertEquals(1, pendingState.getWireTransactions().size());
+        Assert.assertEquals(1, pendingState.getPendingTransactions().size());
+
+        pendingState.removeObsoleteTransactions(1, 1, 0);
+
+        Assert.assertEquals(1, pendingState.getPendingTransactions().size());
+
+        pendingState.removeObsoleteTransactions(20, pendingState.getOutdatedThreshold(), 0);
+
+        Assert.assertTrue(pendingState.getWireTransactions().isEmpty());
+        Assert.assertTrue(pendingState.getPendingTransactions().isEmpty());
+    }
+
     @Test
     public void getAllPendingTransactions() {
         PendingStateImpl pendingState = createSampleNewPendingStateWithAccounts(2, new BigInteger("1000000"));
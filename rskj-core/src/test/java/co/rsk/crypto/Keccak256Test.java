@@ -0,0 +1,77 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.crypto;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class Keccak256Test {
+    @Test
+    public void equalHashesAreEqualKeys() {
+        byte[] hash = HashUtil.sha3(new byte[] { 1, 2, 3 });
+        Keccak256 key = new Keccak256(hash);
+        Keccak256 other = new Keccak256(hash.clone());
+
+        Assert.assertEquals(key, other);
+        Assert.assertEquals(key.hashCode(), other.hashCode());
+        Assert.assertEquals(0, key.compareTo(other));
+        Assert.assertSame(hash, key.getBytes());
+    }
+
+    @Test
+    public void differentHashesAreDifferentKeys() {
+        byte[] hash = new byte[32];
+        byte[] other = new byte[32];
+        other[5] = 1;
+
+        Assert.assertNotEquals(new Keccak256(hash), new Keccak256(other));
+        Assert.assertFalse(new Keccak256(hash).equals(new ByteArrayWrapper(hash)));
+    }
+
+    @Test
+    public void ordersLikeByteArrayWrapper() {
+        Random random = new Random(42);
+
+        for (int k = 0; k < 1000; k++) {
+            byte[] a = new byte[32];
+            byte[] b = new byte[32];
+            random.nextBytes(a);
+            System.arraycopy(a, 0, b, 0, 32);
+            b[random.nextInt(32)] = (byte) random.nextInt();
+
+            int expected = Integer.signum(new ByteArrayWrapper(a).compareTo(new ByteArrayWrapper(b)));
+
+            Assert.assertEquals(expected, Integer.signum(new Keccak256(a).compareTo(new Keccak256(b))));
+        }
+    }
+
+    @Test
+    public void toStringIsHex() {
+        Assert.assertEquals("0000000000000000000000000000000000000000000000000000000000000000", new Keccak256(new byte[32]).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongLength() {
+        new Keccak256(new byte[20]);
+    }
+}
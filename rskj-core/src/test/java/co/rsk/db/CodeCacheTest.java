@@ -0,0 +1,96 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.db;
+
+import co.rsk.vm.DecodedCode;
+import org.ethereum.crypto.HashUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CodeCacheTest {
+    @Test
+    public void getUnknownCode() {
+        CodeCache cache = new CodeCache(1024);
+
+        Assert.assertNull(cache.getCode(HashUtil.sha3(new byte[] { 1 })));
+        Assert.assertNull(cache.getCode(null));
+    }
+
+    @Test
+    public void putAndGetCodeByHash() {
+        CodeCache cache = new CodeCache(1024);
+        byte[] code = new byte[] { 0x60, 0x01, 0x5b };
+        byte[] codeHash = HashUtil.sha3(code);
+
+        byte[] cached = cache.putCode(codeHash, code);
+
+        Assert.assertArrayEquals(code, cached);
+        Assert.assertNotSame(code, cached);
+        Assert.assertSame(cached, cache.getCode(codeHash));
+        // the same code put again returns the shared instance
+        Assert.assertSame(cached, cache.putCode(codeHash, code.clone()));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void doesNotCacheCodeWithWrongHash() {
+        CodeCache cache = new CodeCache(1024);
+        byte[] code = new byte[] { 0x60, 0x01 };
+        byte[] wrongHash = HashUtil.sha3(new byte[] { 0x60, 0x02 });
+
+        Assert.assertSame(code, cache.putCode(wrongHash, code));
+        Assert.assertNull(cache.getCode(wrongHash));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedCode() {
+        CodeCache cache = new CodeCache(10);
+        byte[] code1 = new byte[] { 1, 1, 1, 1 };
+        byte[] code2 = new byte[] { 2, 2, 2, 2 };
+        byte[] code3 = new byte[] { 3, 3, 3, 3 };
+
+        cache.putCode(HashUtil.sha3(code1), code1);
+        cache.putCode(HashUtil.sha3(code2), code2);
+        cache.getCode(HashUtil.sha3(code1));
+        cache.putCode(HashUtil.sha3(code3), code3);
+
+        Assert.assertNotNull(cache.getCode(HashUtil.sha3(code1)));
+        Assert.assertNull(cache.getCode(HashUtil.sha3(code2)));
+        Assert.assertNotNull(cache.getCode(HashUtil.sha3(code3)));
+    }
+
+    @Test
+    public void keepsDecodedCodeOnlyForCachedCodeInstances() {
+        CodeCache cache = new CodeCache(1024);
+        byte[] code = new byte[] { 0x60, 0x01, 0x5b };
+        byte[] cached = cache.putCode(HashUtil.sha3(code), code);
+        DecodedCode decoded = DecodedCode.decode(code, 0, 0);
+
+        Assert.assertFalse(cache.isCached(code));
+        Assert.assertTrue(cache.isCached(cached));
+
+        cache.putDecodedCode(code, decoded);
+        Assert.assertNull(cache.getDecodedCode(code));
+
+        cache.putDecodedCode(cached, decoded);
+        Assert.assertSame(decoded, cache.getDecodedCode(cached));
+        Assert.assertNull(cache.getDecodedCode(cached.clone()));
+    }
+}
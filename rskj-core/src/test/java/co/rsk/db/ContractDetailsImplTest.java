@@ -20,13 +20,17 @@ package co.rsk.db;
 
 import co.rsk.trie.*;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.datasource.DataSourcePool;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.db.ContractDetails;
+import org.ethereum.util.RLP;
 import org.ethereum.vm.DataWord;
 import org.junit.Assert;
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 
 import static org.ethereum.TestUtils.randomBytes;
@@ -519,10 +523,12 @@ public class ContractDetailsImplTest {
 
     @Test
     public void usingSameExternalStorage() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
         TrieStore store = new TrieStoreImpl(new HashMapDB());
         Trie trie = new TrieImpl(store, false);
         byte[] accountAddress = randomAddress();
         ContractDetailsImpl details = new ContractDetailsImpl(accountAddress, trie, null);
+        details.setStorageStore(storageStore);
 
         int nkeys = IN_MEMORY_STORAGE_LIMIT;
 
@@ -533,8 +539,8 @@ public class ContractDetailsImplTest {
 
         details.syncStorage();
 
-        ContractDetailsImpl details1 = new ContractDetailsImpl(details.getEncoded());
-        ContractDetailsImpl details2 = new ContractDetailsImpl(details.getEncoded());
+        ContractDetailsImpl details1 = new ContractDetailsImpl(details.getEncoded(), storageStore);
+        ContractDetailsImpl details2 = new ContractDetailsImpl(details.getEncoded(), storageStore);
 
         Assert.assertTrue(details1.hasExternalStorage());
         Assert.assertTrue(details2.hasExternalStorage());
@@ -548,12 +554,69 @@ public class ContractDetailsImplTest {
         details2.syncStorage();
     }
 
+    @Test
+    public void externalStoragesOfDifferentContractsShareTheDataSource() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
+        int nkeys = IN_MEMORY_STORAGE_LIMIT;
+        ContractDetailsImpl details1 = new ContractDetailsImpl(randomAddress(), new TrieImpl(new TrieStoreImpl(new HashMapDB()), false), null);
+        details1.setStorageStore(storageStore);
+        ContractDetailsImpl details2 = new ContractDetailsImpl(randomAddress(), new TrieImpl(new TrieStoreImpl(new HashMapDB()), false), null);
+        details2.setStorageStore(storageStore);
+
+        for (int k = 1; k <= nkeys + 1; k++) {
+            details1.put(new DataWord(k), new DataWord(k * 2));
+            details2.put(new DataWord(k), new DataWord(k * 3));
+        }
+
+        details1.syncStorage();
+        details2.syncStorage();
+
+        Assert.assertSame(((TrieImpl) details1.getTrie()).getStore(), ((TrieImpl) details2.getTrie()).getStore());
+
+        ContractDetailsImpl decoded1 = new ContractDetailsImpl(details1.getEncoded(), storageStore);
+        ContractDetailsImpl decoded2 = new ContractDetailsImpl(details2.getEncoded(), storageStore);
+
+        for (int k = 1; k <= nkeys + 1; k++) {
+            Assert.assertEquals(new DataWord(k * 2), decoded1.get(new DataWord(k)));
+            Assert.assertEquals(new DataWord(k * 3), decoded2.get(new DataWord(k)));
+        }
+    }
+
+    @Test
+    public void moveExternalStorageFromItsOwnDataSource() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
+        byte[] address = randomAddress();
+        String legacyName = "details-storage/" + Hex.toHexString(address);
+        ContractDetailsImpl details = new ContractDetailsImpl(address, new TrieImpl(new TrieStoreImpl(DataSourcePool.levelDbByName(legacyName)), false), null);
+        details.setStorageStore(storageStore);
+        Map<DataWord, DataWord> values = new HashMap<>();
+
+        for (int k = 1; k <= IN_MEMORY_STORAGE_LIMIT + 1; k++)
+            values.put(new DataWord(k), new DataWord(randomBytes(32)));
+
+        details.setStorage(values);
+        details.getStorageHash();
+        Assert.assertTrue(details.hasExternalStorage());
+
+        byte[] encoded = details.getEncoded();
+        DataSourcePool.closeDataSource(legacyName);
+
+        ContractDetailsImpl decoded = new ContractDetailsImpl(encoded, storageStore);
+
+        for (Map.Entry<DataWord, DataWord> entry : values.entrySet())
+            Assert.assertEquals(entry.getValue(), decoded.get(entry.getKey()));
+
+        Assert.assertFalse(Files.exists(Paths.get(SystemProperties.CONFIG.databaseDir(), legacyName)));
+    }
+
     @Test
     public void syncStorageWithExternalStorage() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
         TrieStore store = new TrieStoreImpl(new HashMapDB());
         Trie trie = new TrieImpl(store, false);
         byte[] accountAddress = randomAddress();
         ContractDetailsImpl details = new ContractDetailsImpl(accountAddress, trie, null);
+        details.setStorageStore(storageStore);
 
         int nkeys = IN_MEMORY_STORAGE_LIMIT;
 
@@ -566,14 +629,14 @@ public class ContractDetailsImplTest {
 
         int ssize = details.getStorageSize();
 
-        details = new ContractDetailsImpl(details.getEncoded());
+        details = new ContractDetailsImpl(details.getEncoded(), storageStore);
 
         Assert.assertEquals(ssize, details.getStorageSize());
 
         for (int k = 1; k <= nkeys + 1; k++)
             Assert.assertNotNull(details.get(new DataWord(k)));
 
-        ContractDetailsImpl clone = new ContractDetailsImpl(details.getEncoded());
+        ContractDetailsImpl clone = new ContractDetailsImpl(details.getEncoded(), storageStore);
 
         Assert.assertNotNull(clone);
         Assert.assertTrue(clone.hasExternalStorage());
@@ -595,10 +658,12 @@ public class ContractDetailsImplTest {
 
     @Test
     public void syncStorageAndGetKeyValues() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
         TrieStore store = new TrieStoreImpl(new HashMapDB());
         Trie trie = new TrieImpl(store, false);
         byte[] accountAddress = randomAddress();
         ContractDetailsImpl details = new ContractDetailsImpl(accountAddress, trie, null);
+        details.setStorageStore(storageStore);
 
         int nkeys = IN_MEMORY_STORAGE_LIMIT;
 
@@ -612,7 +677,7 @@ public class ContractDetailsImplTest {
         for (int k = 1; k <= nkeys + 1; k++)
             Assert.assertNotNull(details.get(new DataWord(k)));
 
-        ContractDetailsImpl clone = new ContractDetailsImpl(details.getEncoded());
+        ContractDetailsImpl clone = new ContractDetailsImpl(details.getEncoded(), storageStore);
 
         Assert.assertNotNull(clone);
         Assert.assertTrue(clone.hasExternalStorage());
@@ -634,6 +699,7 @@ public class ContractDetailsImplTest {
 
     @Test
     public void testExternalStorageSerialization() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
         byte[] address = randomAddress();
         byte[] code = randomBytes(512);
         Map<DataWord, DataWord> elements = new HashMap<>();
@@ -641,6 +707,7 @@ public class ContractDetailsImplTest {
         HashMapDB externalStorage = new HashMapDB();
 
         ContractDetailsImpl original = new ContractDetailsImpl(address, new TrieImpl(new TrieStoreImpl(externalStorage), true), code);
+        original.setStorageStore(storageStore);
 
         for (int i = 0; i < IN_MEMORY_STORAGE_LIMIT + 10; i++) {
             DataWord key = randomDataWord();
@@ -654,7 +721,7 @@ public class ContractDetailsImplTest {
 
         byte[] rlp = original.getEncoded();
 
-        ContractDetailsImpl deserialized = new ContractDetailsImpl(rlp);
+        ContractDetailsImpl deserialized = new ContractDetailsImpl(rlp, storageStore);
 
         Assert.assertEquals(toHexString(address), toHexString(deserialized.getAddress()));
         Assert.assertEquals(toHexString(code), toHexString(deserialized.getCode()));
@@ -673,6 +740,7 @@ public class ContractDetailsImplTest {
 
     @Test
     public void externalStorageTransition() {
+        TrieStoreImpl storageStore = new TrieStoreImpl(new HashMapDB());
         byte[] address = randomAddress();
         byte[] code = randomBytes(512);
         Map<DataWord, DataWord> elements = new HashMap<>();
@@ -680,6 +748,7 @@ public class ContractDetailsImplTest {
         HashMapDB externalStorage = new HashMapDB();
 
         ContractDetailsImpl original = new ContractDetailsImpl(address, new TrieImpl(new TrieStoreImpl(externalStorage), true), code);
+        original.setStorageStore(storageStore);
 
         for (int i = 0; i < IN_MEMORY_STORAGE_LIMIT - 1; i++) {
             DataWord key = randomDataWord();
@@ -691,7 +760,7 @@ public class ContractDetailsImplTest {
 
         original.syncStorage();
 
-        ContractDetails deserialized = new ContractDetailsImpl(original.getEncoded());
+        ContractDetails deserialized = new ContractDetailsImpl(original.getEncoded(), storageStore);
 
         // adds keys for in-memory storage limit overflow
         for (int i = 0; i < 10; i++) {
@@ -704,7 +773,7 @@ public class ContractDetailsImplTest {
 
         deserialized.syncStorage();
 
-        deserialized = new ContractDetailsImpl(deserialized.getEncoded());
+        deserialized = new ContractDetailsImpl(deserialized.getEncoded(), storageStore);
 
         Map<DataWord, DataWord> storage = deserialized.getStorage();
         Assert.assertEquals(elements.size(), storage.size());
@@ -860,6 +929,52 @@ public class ContractDetailsImplTest {
                 Hex.toHexString(contractDetails_.get(new DataWord(key_13)).getData()));
     }
 
+    @Test
+    public void decodeEncodingWithTheStorageKeysList() {
+        byte[] address = randomAddress();
+        Trie trie = new TrieImpl(new TrieStoreImpl(new HashMapDB()), true);
+
+        trie = trie.put(DataWord.ONE.getData(), new DataWord(42).getNoLeadZeroesData());
+        trie = trie.put(new DataWord(2).getData(), new DataWord(43).getNoLeadZeroesData());
+
+        byte[] legacyEncoded = RLP.encodeList(
+                RLP.encodeElement(address),
+                RLP.encodeByte((byte) 0),
+                RLP.encodeElement(trie.serialize()),
+                RLP.encodeElement(new byte[] { 0x01 }),
+                RLP.encodeList(RLP.encodeElement(DataWord.ONE.getData()), RLP.encodeElement(new DataWord(2).getData())));
+
+        ContractDetailsImpl details = new ContractDetailsImpl(legacyEncoded);
+
+        Assert.assertEquals(2, details.getStorageSize());
+        Assert.assertEquals(new DataWord(42), details.get(DataWord.ONE));
+        Assert.assertTrue(details.getStorageKeys().contains(new DataWord(2)));
+
+        ContractDetailsImpl result = new ContractDetailsImpl(details.getEncoded());
+
+        Assert.assertEquals(2, result.getStorageSize());
+        Assert.assertEquals(new DataWord(43), result.get(new DataWord(2)));
+        Assert.assertEquals(details.getStorageKeys(), result.getStorageKeys());
+    }
+
+    @Test
+    public void storageSizeIsKeptWhenReplacingAndDeletingValues() {
+        ContractDetailsImpl details = new ContractDetailsImpl();
+
+        details.put(DataWord.ONE, new DataWord(42));
+        details.put(DataWord.ONE, new DataWord(43));
+        details.put(new DataWord(2), new DataWord(44));
+        details.put(new DataWord(3), DataWord.ZERO);
+
+        Assert.assertEquals(2, details.getStorageSize());
+
+        details.put(DataWord.ONE, DataWord.ZERO);
+
+        Assert.assertEquals(1, details.getStorageSize());
+        Assert.assertEquals(1, details.getStorageKeys().size());
+        Assert.assertTrue(details.getStorageKeys().contains(new DataWord(2)));
+    }
+
     private static byte[] randomData() {
         byte[] bytes = new byte[32];
 
@@ -862,6 +862,8 @@ public class RepositoryImplOriginalTest {
         track2.addStorageRow(horse, horseKey1, horseVal1);
         track2.commit();
 
+        // intermediate roots are not saved by getRoot
+        repository.save();
         byte[] root2 = repository.getRoot();
 
         track2 = repository.startTracking(); //track
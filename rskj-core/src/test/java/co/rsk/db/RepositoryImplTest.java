@@ -24,6 +24,8 @@ import co.rsk.trie.TrieStoreImpl;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Repository;
 import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.vm.DataWord;
 import org.junit.Assert;
@@ -34,6 +36,9 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Mockito.*;
 
 /**
  * Created by ajlopez on 29/03/2017.
@@ -252,6 +257,25 @@ public class RepositoryImplTest {
         Assert.assertArrayEquals(accCode, code);
     }
 
+    @Test
+    public void getCodeFromOwnCodeCache() {
+        byte[] accAddress = randomAccountAddress();
+        byte[] accCode = new byte[] { 0x01, 0x02, 0x03 };
+
+        RepositoryImpl repository = new RepositoryImpl();
+        RepositoryImpl other = new RepositoryImpl();
+
+        repository.createAccount(accAddress);
+        repository.saveCode(accAddress, accCode);
+
+        byte[] code = repository.getCode(accAddress);
+
+        Assert.assertSame(code, repository.getCodeCache().getCode(HashUtil.sha3(accCode)));
+        Assert.assertSame(code, repository.startTracking().getCode(accAddress));
+        Assert.assertNotSame(repository.getCodeCache(), other.getCodeCache());
+        Assert.assertNull(other.getCodeCache().getCode(HashUtil.sha3(accCode)));
+    }
+
     @Test
     public void hibernateAccount() {
         byte[] accAddress = randomAccountAddress();
@@ -285,6 +309,18 @@ public class RepositoryImplTest {
         Assert.assertEquals(0, code.length);
     }
 
+    @Test
+    public void closeTheContractStorageButNotFromSnapshots() {
+        KeyValueDataSource contractStorageDS = mock(KeyValueDataSource.class);
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), new HashMapDB(), contractStorageDS);
+
+        repository.getSnapshotTo(repository.getRoot()).close();
+        verify(contractStorageDS, never()).close();
+
+        repository.close();
+        verify(contractStorageDS).close();
+    }
+
     @Test
     public void startTracking() {
         RepositoryImpl repository = new RepositoryImpl();
@@ -602,6 +638,106 @@ public class RepositoryImplTest {
         Assert.assertTrue(repository.isExist(accAddress));
     }
 
+    @Test(timeout = 20000)
+    public void readsSeeACommittedStateWhileWriting() throws InterruptedException {
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(new HashMapDB()));
+        byte[] accAddress = randomAccountAddress();
+        DataWord key = new DataWord(1);
+
+        Repository track = repository.startTracking();
+        track.addBalance(accAddress, BigInteger.ONE);
+        track.addStorageRow(accAddress, key, new DataWord(1));
+        track.commit();
+
+        AtomicBoolean failed = new AtomicBoolean(true);
+        Thread reader = new Thread(() -> {
+            BigInteger last = BigInteger.ZERO;
+
+            for (int k = 0; k < 200; k++) {
+                BigInteger balance = repository.getBalance(accAddress);
+                DataWord value = repository.getStorageValue(accAddress, key);
+
+                // balances only grow, and the storage value is never removed
+                if (balance.compareTo(last) < 0 || value == null)
+                    return;
+
+                last = balance;
+            }
+
+            failed.set(false);
+        });
+
+        synchronized (repository) {
+            // a writer holding the repository doesn't block readers
+            reader.start();
+
+            for (int k = 0; k < 200; k++) {
+                Repository blockTrack = repository.startTracking();
+                blockTrack.addBalance(accAddress, BigInteger.ONE);
+                blockTrack.addStorageRow(accAddress, key, new DataWord(k + 2));
+                blockTrack.commit();
+            }
+
+            reader.join();
+        }
+
+        Assert.assertFalse(failed.get());
+        Assert.assertEquals(BigInteger.valueOf(201), repository.getBalance(accAddress));
+        Assert.assertEquals(new DataWord(201), repository.getStorageValue(accAddress, key));
+    }
+
+    @Test
+    public void getSnapshotToUnsavedRootFails() {
+        HashMapDB map = new HashMapDB();
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(map));
+        byte[] accAddress = randomAccountAddress();
+
+        repository.addBalance(accAddress, BigInteger.TEN);
+
+        byte[] root = repository.getRoot();
+
+        repository.addBalance(accAddress, BigInteger.ONE);
+
+        // a recent root is in memory, the snapshot doesn't save it
+        Assert.assertEquals(BigInteger.TEN, repository.getSnapshotTo(root).getBalance(accAddress));
+        Assert.assertEquals(BigInteger.valueOf(11), repository.getSnapshotTo(repository.getRoot()).getBalance(accAddress));
+        Assert.assertTrue(map.keys().isEmpty());
+
+        for (int k = 0; k < RepositoryImpl.RECENT_ROOTS; k++) {
+            repository.addBalance(accAddress, BigInteger.ONE);
+            repository.getRoot();
+        }
+
+        try {
+            repository.getSnapshotTo(root);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(map.keys().isEmpty());
+        }
+    }
+
+    @Test
+    public void getRootDoesNotSaveTheTrie() {
+        HashMapDB map = new HashMapDB();
+        RepositoryImpl repository = new RepositoryImpl(new TrieStoreImpl(map));
+        byte[] accAddress = randomAccountAddress();
+
+        repository.addBalance(accAddress, BigInteger.TEN);
+
+        byte[] root = repository.getRoot();
+
+        Assert.assertTrue(map.keys().isEmpty());
+
+        repository.save();
+
+        Assert.assertFalse(map.keys().isEmpty());
+        Assert.assertArrayEquals(root, repository.getRoot());
+
+        Repository snapshot = new RepositoryImpl(new TrieStoreImpl(map)).getSnapshotTo(root);
+
+        Assert.assertEquals(BigInteger.TEN, snapshot.getBalance(accAddress));
+    }
+
     private static byte[] randomAccountAddress() {
         byte[] bytes = new byte[20];
 
@@ -0,0 +1,105 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.db;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.trie.Trie;
+import co.rsk.trie.TrieImpl;
+import co.rsk.trie.TrieStoreImpl;
+import co.rsk.trie.TrieStorePruner;
+import org.ethereum.core.Block;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.IndexedBlockStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class StatePrunerTest {
+    @Test
+    public void keepStateOfTheLastBlocksOnly() {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMap<>(), new HashMapDB(), null, null);
+
+        List<Trie> states = new ArrayList<>();
+        Trie trie = new TrieImpl(store, true);
+        Block block = BlockGenerator.getGenesisBlock();
+        blockStore.saveBlock(block, BigInteger.ZERO, true);
+
+        for (int k = 0; k < 10; k++) {
+            trie = trie.put("counter", new byte[] { (byte) k });
+            trie.save();
+            states.add(trie);
+
+            block = BlockGenerator.createChildBlock(block, null, trie.getHash());
+            blockStore.saveBlock(block, BigInteger.valueOf(k + 1), true);
+        }
+
+        // a fork at the last level
+        Trie forkTrie = trie.put("fork", new byte[] { 0x01 });
+        forkTrie.save();
+        Block fork = BlockGenerator.createChildBlock(blockStore.getChainBlockByNumber(9), null, forkTrie.getHash());
+        blockStore.saveBlock(fork, BigInteger.valueOf(10), false);
+
+        StatePruner pruner = new StatePruner(new TrieStorePruner(store, 100, 0), blockStore, new RepositoryImpl(store), 3, 5);
+
+        Assert.assertTrue(pruner.prune() > 0);
+
+        for (int k = 0; k < 7; k++)
+            Assert.assertNull(store.retrieve(states.get(k).getHash()));
+
+        for (int k = 7; k < 10; k++)
+            Assert.assertArrayEquals(new byte[] { (byte) k }, store.retrieve(states.get(k).getHash()).get("counter"));
+
+        Assert.assertNotNull(store.retrieve(forkTrie.getHash()));
+        Assert.assertTrue(pruner.getPruner().getReclaimedBytes() > 0);
+    }
+
+    @Test
+    public void keepTheRepositoryState() {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMap<>(), new HashMapDB(), null, null);
+
+        Block block = BlockGenerator.getGenesisBlock();
+        blockStore.saveBlock(block, BigInteger.ZERO, true);
+
+        // a state saved by a block that is not in the block store yet
+        RepositoryImpl repository = new RepositoryImpl(store);
+        byte[] address = new byte[20];
+        repository.addBalance(address, BigInteger.TEN);
+        repository.save();
+
+        Trie trie = new TrieImpl(store, true).put("foo", "bar".getBytes());
+        trie.save();
+
+        StatePruner pruner = new StatePruner(new TrieStorePruner(store, 100, 0), blockStore, repository, 3, 5);
+
+        Assert.assertTrue(pruner.prune() > 0);
+
+        Assert.assertNull(store.retrieve(trie.getHash()));
+        Assert.assertEquals(BigInteger.TEN, repository.getSnapshotTo(repository.getRoot()).getBalance(address));
+        Assert.assertNotNull(store.retrieve(repository.getRoot()));
+    }
+}
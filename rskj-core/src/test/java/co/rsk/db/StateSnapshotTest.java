@@ -0,0 +1,180 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.db;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Block;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+public class StateSnapshotTest {
+    private static final byte[] CODE = new byte[] { 0x60, 0x60, 0x60, 0x60 };
+
+    @Test
+    public void exportAndImportState() throws IOException {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository);
+
+        byte[] snapshot = export(repository, block);
+
+        RepositoryImpl newRepository = createRepository();
+        StateSnapshotImporter importer = new StateSnapshotImporter(newRepository);
+
+        Assert.assertTrue(importer.importSnapshot(new ByteArrayInputStream(snapshot), block.getHash()));
+
+        Assert.assertArrayEquals(block.getStateRoot(), newRepository.getRoot());
+        Assert.assertEquals(block.getNumber(), importer.getHeader().getNumber());
+        Assert.assertEquals(11, importer.getAccounts());
+        Assert.assertEquals(20, importer.getRows());
+        Assert.assertTrue(importer.getNodes() > 0);
+
+        for (int k = 1; k <= 10; k++) {
+            byte[] address = address(k);
+            Assert.assertEquals(BigInteger.valueOf(k * 1000), newRepository.getBalance(address));
+            Assert.assertEquals(BigInteger.valueOf(k), newRepository.getNonce(address));
+        }
+
+        byte[] contract = address(100);
+        Assert.assertArrayEquals(CODE, newRepository.getCode(contract));
+
+        for (int k = 0; k < 20; k++)
+            Assert.assertEquals(new DataWord(k + 1), newRepository.getStorageValue(contract, new DataWord(k)));
+    }
+
+    @Test
+    public void rejectSnapshotOfAnotherBlock() throws IOException {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository);
+
+        byte[] snapshot = export(repository, block);
+
+        StateSnapshotImporter importer = new StateSnapshotImporter(createRepository());
+
+        Assert.assertFalse(importer.importSnapshot(new ByteArrayInputStream(snapshot), block.getParentHash()));
+    }
+
+    @Test
+    public void rejectAlteredSnapshot() throws IOException {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository);
+
+        byte[] snapshot = export(repository, block);
+
+        for (int k = 0; k < snapshot.length; k += snapshot.length / 10) {
+            byte[] altered = snapshot.clone();
+            altered[k] ^= 0x01;
+
+            StateSnapshotImporter importer = new StateSnapshotImporter(createRepository());
+
+            Assert.assertFalse(importer.importSnapshot(new ByteArrayInputStream(altered), block.getHash()));
+        }
+    }
+
+    @Test
+    public void rejectTruncatedSnapshot() throws IOException {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository);
+
+        byte[] snapshot = export(repository, block);
+        byte[] truncated = new byte[snapshot.length - 40];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+
+        StateSnapshotImporter importer = new StateSnapshotImporter(createRepository());
+
+        Assert.assertFalse(importer.importSnapshot(new ByteArrayInputStream(truncated), block.getHash()));
+    }
+
+    @Test
+    public void rejectSnapshotWithoutAContract() throws IOException {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository);
+
+        // the contract account is in the state trie, but its code and storage are not exported
+        repository.getDetailsDataStore().remove(address(100));
+
+        byte[] snapshot = export(repository, block);
+
+        StateSnapshotImporter importer = new StateSnapshotImporter(createRepository());
+
+        Assert.assertFalse(importer.importSnapshot(new ByteArrayInputStream(snapshot), block.getHash()));
+        Assert.assertEquals(10, importer.getAccounts());
+    }
+
+    @Test
+    public void importOnlyIntoAnEmptyRepository() throws IOException {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository);
+
+        byte[] snapshot = export(repository, block);
+
+        StateSnapshotImporter importer = new StateSnapshotImporter(repository);
+
+        Assert.assertFalse(importer.importSnapshot(new ByteArrayInputStream(snapshot), block.getHash()));
+        Assert.assertEquals(0, importer.getNodes());
+    }
+
+    private static byte[] export(RepositoryImpl repository, Block block) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StateSnapshotExporter(repository, 4).export(block.getHeader(), out);
+        return out.toByteArray();
+    }
+
+    private static RepositoryImpl createRepository() {
+        return new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), new HashMapDB());
+    }
+
+    private static Block createBlock(RepositoryImpl repository) {
+        Repository track = repository.startTracking();
+
+        for (int k = 1; k <= 10; k++) {
+            byte[] address = address(k);
+            track.addBalance(address, BigInteger.valueOf(k * 1000));
+
+            for (int n = 0; n < k; n++)
+                track.increaseNonce(address);
+        }
+
+        byte[] contract = address(100);
+        track.saveCode(contract, CODE);
+
+        for (int k = 0; k < 20; k++)
+            track.addStorageRow(contract, new DataWord(k), new DataWord(k + 1));
+
+        track.commit();
+        repository.save();
+
+        return BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock(), null, repository.getRoot());
+    }
+
+    private static byte[] address(int n) {
+        byte[] address = new byte[20];
+        address[19] = (byte) n;
+        return address;
+    }
+}
@@ -208,5 +208,211 @@ public class BlockStoreTest {
         Assert.assertNotNull(blocks);
         Assert.assertEquals(0, blocks.size());
     }
-}
 
+    @Test
+    public void evictOldestBlocksOverMaximumBlocks() {
+        BlockStore store = new BlockStore(10, BlockStore.DEFAULT_MAX_BYTES, 10, 1000, 60000);
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 15);
+
+        for (Block b : blocks)
+            Assert.assertTrue(store.saveBlock(b));
+
+        Assert.assertEquals(10, store.size());
+        Assert.assertFalse(store.hasBlock(blocks.get(4)));
+        Assert.assertTrue(store.hasBlock(blocks.get(5)));
+        Assert.assertTrue(store.getBlocksByParentHash(blocks.get(3).getHash()).isEmpty());
+        Assert.assertEquals(1, store.getBlocksByParentHash(blocks.get(4).getHash()).size());
+    }
+
+    @Test
+    public void evictOldestBlocksOverMaximumBytes() {
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 10);
+        long size = blocks.get(0).getEncoded().length;
+        BlockStore store = new BlockStore(100, size * 3 + size / 2, 100, 1000, 60000);
+
+        long total = 0;
+
+        for (Block b : blocks.subList(0, 3)) {
+            store.saveBlock(b);
+            total += b.getEncoded().length;
+        }
+
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(total, store.getBytes());
+
+        store.saveBlock(blocks.get(3));
+
+        Assert.assertEquals(3, store.size());
+        Assert.assertFalse(store.hasBlock(blocks.get(0)));
+        Assert.assertTrue(store.getBytes() <= size * 3 + size / 2);
+
+        store.removeBlock(blocks.get(1));
+        store.removeBlock(blocks.get(2));
+        store.removeBlock(blocks.get(3));
+
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(0, store.getBytes());
+    }
+
+    @Test
+    public void limitBlocksPerPeer() {
+        BlockStore store = new BlockStore(100, BlockStore.DEFAULT_MAX_BYTES, 5, 1000, 60000);
+        NodeID peer1 = new NodeID(new byte[] { 0x01 });
+        NodeID peer2 = new NodeID(new byte[] { 0x02 });
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 12);
+
+        for (Block b : blocks.subList(0, 2))
+            store.saveBlock(b, peer2);
+
+        for (Block b : blocks.subList(2, 12))
+            store.saveBlock(b, peer1);
+
+        Assert.assertEquals(7, store.size());
+        Assert.assertEquals(5, store.getBlocksCount(peer1));
+        Assert.assertEquals(2, store.getBlocksCount(peer2));
+        Assert.assertTrue(store.hasBlock(blocks.get(0)));
+        Assert.assertFalse(store.hasBlock(blocks.get(6)));
+        Assert.assertTrue(store.hasBlock(blocks.get(7)));
+    }
+
+    @Test
+    public void evictFarthestBlocksFromBestBlock() {
+        BlockStore store = new BlockStore(5, BlockStore.DEFAULT_MAX_BYTES, 100, 1000, 60000);
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 15);
+
+        store.expire(10, 0);
+
+        for (int number : new int[] { 15, 14, 10, 11, 12 })
+            Assert.assertTrue(store.saveBlock(blocks.get(number - 1)));
+
+        // the new block is the farthest one
+        Assert.assertFalse(store.saveBlock(blocks.get(3)));
+        Assert.assertEquals(5, store.size());
+
+        Assert.assertTrue(store.saveBlock(blocks.get(7)));
+        Assert.assertFalse(store.hasBlock(blocks.get(14)));
+
+        // as far as block 14, but newer
+        Assert.assertTrue(store.saveBlock(blocks.get(5)));
+        Assert.assertFalse(store.hasBlock(blocks.get(13)));
+        Assert.assertEquals(5, store.size());
+    }
+
+    @Test
+    public void evictFarthestBlocksFromTheNewBestBlock() {
+        BlockStore store = new BlockStore(4, BlockStore.DEFAULT_MAX_BYTES, 100, 1000, 60000);
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 20);
+
+        store.expire(2, 0);
+
+        for (int number : new int[] { 3, 4, 12, 13 })
+            Assert.assertTrue(store.saveBlock(blocks.get(number - 1)));
+
+        Assert.assertTrue(store.saveBlock(blocks.get(4)));
+        Assert.assertFalse(store.hasBlock(blocks.get(12)));
+
+        store.expire(14, 0);
+
+        // now the lowest blocks are the farthest ones
+        Assert.assertTrue(store.saveBlock(blocks.get(13)));
+        Assert.assertFalse(store.hasBlock(blocks.get(2)));
+        Assert.assertTrue(store.saveBlock(blocks.get(14)));
+        Assert.assertFalse(store.hasBlock(blocks.get(3)));
+        Assert.assertEquals(4, store.size());
+    }
+
+    @Test
+    public void evictFarthestBlocksOfPeer() {
+        BlockStore store = new BlockStore(100, BlockStore.DEFAULT_MAX_BYTES, 3, 1000, 60000);
+        NodeID peer1 = new NodeID(new byte[] { 0x01 });
+        NodeID peer2 = new NodeID(new byte[] { 0x02 });
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 20);
+
+        store.expire(10, 0);
+
+        store.saveBlock(blocks.get(19), peer2);
+
+        for (int number : new int[] { 11, 18, 12 })
+            store.saveBlock(blocks.get(number - 1), peer1);
+
+        store.saveBlock(blocks.get(12), peer1);
+
+        Assert.assertEquals(3, store.getBlocksCount(peer1));
+        Assert.assertFalse(store.hasBlock(blocks.get(17)));
+        Assert.assertTrue(store.hasBlock(blocks.get(10)));
+        Assert.assertTrue(store.hasBlock(blocks.get(19)));
+    }
+
+    @Test
+    public void rejectAndExpireBlocksFarFromBestBlock() {
+        BlockStore store = new BlockStore(100, BlockStore.DEFAULT_MAX_BYTES, 100, 5, 60000);
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 20);
+
+        for (Block b : blocks)
+            store.saveBlock(b);
+
+        BlockHeader header = blocks.get(1).getHeader();
+        store.saveHeader(header);
+
+        store.expire(10, 0);
+
+        // blocks 5 to 15 are kept
+        Assert.assertEquals(11, store.size());
+        Assert.assertEquals(5, store.minimalHeight());
+        Assert.assertEquals(15, store.maximumHeight());
+        Assert.assertFalse(store.hasHeader(header.getHash()));
+        Assert.assertEquals(0, store.getHeadersCount());
+
+        Assert.assertFalse(store.saveBlock(blocks.get(16)));
+        Assert.assertFalse(store.hasBlock(blocks.get(16)));
+
+        store.expire(11, 0);
+
+        Assert.assertTrue(store.saveBlock(blocks.get(15)));
+        Assert.assertEquals(11, store.size());
+    }
+
+    @Test
+    public void expireOldBlocks() {
+        BlockStore store = new BlockStore(100, BlockStore.DEFAULT_MAX_BYTES, 100, 1000, 1000);
+        List<Block> blocks = BlockGenerator.getBlockChain(BlockGenerator.getGenesisBlock(), 4);
+
+        store.saveBlock(blocks.get(0), null, 1000);
+        store.saveBlock(blocks.get(1), null, 1500);
+        store.saveBlock(blocks.get(2), null, 2000);
+        store.saveBlock(blocks.get(3), null, 2500);
+
+        store.expire(0, 2200);
+
+        Assert.assertEquals(3, store.size());
+        Assert.assertFalse(store.hasBlock(blocks.get(0)));
+
+        store.expire(0, 3200);
+
+        Assert.assertEquals(1, store.size());
+        Assert.assertTrue(store.hasBlock(blocks.get(3)));
+    }
+
+    @Test
+    public void ignoreBlockAndHeaderWithInvalidParentHash() {
+        BlockStore store = new BlockStore();
+        Block parent = BlockGenerator.getGenesisBlock();
+        BlockHeader header = new BlockHeader(new byte[] { 0x01, 0x02 }, parent.getUnclesHash(), parent.getCoinbase(),
+                parent.getLogBloom(), parent.getDifficulty(), 1, parent.getGasLimit(), 0, parent.getTimestamp() + 1,
+                new byte[0], new byte[0], 0);
+        header.setTransactionsRoot(Block.getTxTrie(new ArrayList<>()).getHash());
+        Block block = new Block(header, new ArrayList<>(), new ArrayList<>());
+
+        Assert.assertFalse(store.saveBlock(block));
+        Assert.assertFalse(store.hasBlock(block));
+        Assert.assertEquals(0, store.size());
+
+        store.saveHeader(header);
+
+        Assert.assertFalse(store.hasHeader(header.getHash()));
+        Assert.assertEquals(0, store.getHeadersCount());
+
+        store.removeBlock(block);
+        store.removeHeader(header);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.core.bc.BlockChainImpl;
+import co.rsk.net.messages.*;
+import co.rsk.net.simples.SimpleMessageSender;
+import co.rsk.test.builders.BlockChainBuilder;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.ImportResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockSyncProcessorTest {
+    @Test
+    public void requestSkeletonFromPeerFarAhead() {
+        Blockchain blockchain = createBlockchain(0);
+        BlockSyncProcessor processor = new BlockSyncProcessor(blockchain, 10);
+        SimpleMessageSender peer = createSender(1);
+
+        Block best = BlockGenerator.createBlock(45, 0);
+        processor.processStatus(peer, new Status(best.getNumber(), best.getHash()));
+
+        Assert.assertTrue(processor.isSyncing());
+        Assert.assertEquals(1, peer.getMessages().size());
+
+        GetBlockHeadersMessage message = (GetBlockHeadersMessage) peer.getMessages().get(0);
+
+        Assert.assertNull(message.getBlockHash());
+        Assert.assertEquals(40, message.getBlockNumber());
+        Assert.assertEquals(5, message.getMaxHeaders());
+        Assert.assertEquals(9, message.getSkipBlocks());
+    }
+
+    @Test
+    public void noSyncWithPeerNear() {
+        Blockchain blockchain = createBlockchain(0);
+        BlockSyncProcessor processor = new BlockSyncProcessor(blockchain, 10);
+        SimpleMessageSender peer = createSender(1);
+
+        Block best = BlockGenerator.createBlock(9, 0);
+        processor.processStatus(peer, new Status(best.getNumber(), best.getHash()));
+
+        Assert.assertFalse(processor.isSyncing());
+        Assert.assertTrue(peer.getMessages().isEmpty());
+    }
+
+    @Test
+    public void requestSegmentsToSeveralPeersAndRetryInvalidSegment() {
+        Blockchain source = createBlockchain(45);
+        Blockchain blockchain = createBlockchain(0);
+        BlockSyncProcessor processor = new BlockSyncProcessor(blockchain, 10);
+        SimpleMessageSender peer1 = createSender(1);
+        SimpleMessageSender peer2 = createSender(2);
+
+        Status status = new Status(45, source.getBestBlock().getHash());
+        processor.processStatus(peer1, status);
+
+        List<BlockHeader> skeleton = new ArrayList<>();
+
+        for (int k = 40; k >= 0; k -= 10)
+            skeleton.add(source.getBlockByNumber(k).getHeader());
+
+        Assert.assertTrue(processor.processBlockHeaders(peer1, skeleton));
+
+        // the first segment goes to the idle peer
+        Assert.assertEquals(2, peer1.getMessages().size());
+        assertSegmentRequest(source, 10, peer1.getMessages().get(1));
+
+        processor.processStatus(peer2, status);
+
+        Assert.assertEquals(1, peer2.getMessages().size());
+        assertSegmentRequest(source, 20, peer2.getMessages().get(0));
+
+        // a segment that doesn't reach its skeleton ends is requested again
+        Assert.assertTrue(processor.processBlockHeaders(peer2, getHeaders(source, 20, 12)));
+        Assert.assertEquals(2, peer2.getMessages().size());
+        assertSegmentRequest(source, 20, peer2.getMessages().get(1));
+        Assert.assertEquals(0, processor.getPendingHeaders());
+
+        Assert.assertTrue(processor.processBlockHeaders(peer2, getHeaders(source, 20, 11)));
+        Assert.assertEquals(10, processor.getPendingHeaders());
+
+        // the blocks of the segment can't be requested to peer2, peer1 still has a segment request
+        Assert.assertEquals(3, peer2.getMessages().size());
+        assertSegmentRequest(source, 30, peer2.getMessages().get(2));
+
+        // headers that were not requested are left to the block by block sync
+        Assert.assertFalse(processor.processBlockHeaders(peer2, getHeaders(source, 45, 41)));
+    }
+
+    @Test
+    public void syncBlocksFromTwoPeers() {
+        Blockchain source = createBlockchain(45);
+        Blockchain blockchain = createBlockchain(0);
+
+        NodeBlockProcessor sourceProcessor = new NodeBlockProcessor(new BlockStore(), source);
+        NodeMessageHandler sourceHandler = new NodeMessageHandler(sourceProcessor, null, null, null).disablePoWValidation();
+
+        NodeBlockProcessor processor = new NodeBlockProcessor(new BlockStore(), blockchain);
+        BlockSyncProcessor syncProcessor = new BlockSyncProcessor(blockchain, 10);
+        processor.setBlockSyncProcessor(syncProcessor);
+        NodeMessageHandler handler = new NodeMessageHandler(processor, null, null, null).disablePoWValidation();
+
+        SimpleMessageSender peer1 = createSender(1);
+        SimpleMessageSender peer2 = createSender(2);
+
+        Status status = new Status(45, source.getBestBlock().getHash());
+        handler.processMessage(peer1, new StatusMessage(status));
+        handler.processMessage(peer2, new StatusMessage(status));
+
+        // the peer best block is not requested, the sync downloads the blocks
+        Assert.assertTrue(peer1.getGetBlockMessages().isEmpty());
+
+        int blocks1 = 0;
+        int blocks2 = 0;
+
+        while (!peer1.getMessages().isEmpty() || !peer2.getMessages().isEmpty()) {
+            blocks1 += exchange(handler, sourceHandler, peer1);
+            blocks2 += exchange(handler, sourceHandler, peer2);
+        }
+
+        Assert.assertFalse(syncProcessor.isSyncing());
+        Assert.assertEquals(40, blockchain.getBestBlock().getNumber());
+        Assert.assertArrayEquals(source.getBlockByNumber(40).getHash(), blockchain.getBestBlock().getHash());
+
+        // both peers sent blocks
+        Assert.assertEquals(40, blocks1 + blocks2);
+        Assert.assertTrue(blocks1 > 0);
+        Assert.assertTrue(blocks2 > 0);
+    }
+
+    // delivers the requests sent to a peer to the source, and its responses back, returns the number of blocks
+    private static int exchange(NodeMessageHandler handler, NodeMessageHandler sourceHandler, SimpleMessageSender peer) {
+        List<Message> requests = new ArrayList<>(peer.getMessages());
+        peer.getMessages().clear();
+
+        SimpleMessageSender responses = createSender(0);
+
+        for (Message request : requests)
+            sourceHandler.processMessage(responses, request);
+
+        int blocks = 0;
+
+        for (Message response : responses.getMessages()) {
+            if (response.getMessageType() == MessageType.BLOCK_MESSAGE)
+                blocks++;
+
+            handler.processMessage(peer, response);
+        }
+
+        return blocks;
+    }
+
+    private static void assertSegmentRequest(Blockchain source, long upper, Message message) {
+        GetBlockHeadersMessage request = (GetBlockHeadersMessage) message;
+
+        Assert.assertArrayEquals(source.getBlockByNumber(upper).getHash(), request.getBlockHash());
+        Assert.assertEquals(10, request.getMaxHeaders());
+        Assert.assertEquals(0, request.getSkipBlocks());
+    }
+
+    private static List<BlockHeader> getHeaders(Blockchain source, long from, long to) {
+        List<BlockHeader> headers = new ArrayList<>();
+
+        for (long k = from; k >= to; k--)
+            headers.add(source.getBlockByNumber(k).getHeader());
+
+        return headers;
+    }
+
+    private static SimpleMessageSender createSender(int id) {
+        SimpleMessageSender sender = new SimpleMessageSender();
+        sender.setNodeID(new byte[] { (byte) id });
+        return sender;
+    }
+
+    private static Blockchain createBlockchain(int size) {
+        BlockChainImpl blockChain = new BlockChainBuilder().build();
+
+        Block genesis = BlockGenerator.getGenesisBlock();
+        genesis.setStateRoot(blockChain.getRepository().getRoot());
+        genesis.flushRLP();
+
+        Assert.assertEquals(ImportResult.IMPORTED_BEST, blockChain.tryToConnect(genesis));
+
+        if (size > 0)
+            for (Block block : BlockGenerator.getBlockChain(genesis, size))
+                blockChain.tryToConnect(block);
+
+        return blockChain;
+    }
+}
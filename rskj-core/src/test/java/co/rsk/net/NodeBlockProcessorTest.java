@@ -20,6 +20,8 @@ package co.rsk.net;
 
 import co.rsk.blockchain.utils.BlockGenerator;
 import co.rsk.core.bc.BlockChainImpl;
+import co.rsk.core.bc.BlockPreprocessor;
+import co.rsk.db.RepositoryImpl;
 import co.rsk.net.messages.*;
 import co.rsk.net.simples.SimpleNodeSender;
 import co.rsk.test.builders.BlockChainBuilder;
@@ -27,6 +29,7 @@ import co.rsk.net.simples.SimpleMessageSender;
 import org.ethereum.core.Block;
 import org.ethereum.core.Blockchain;
 import org.ethereum.core.ImportResult;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.ByteArrayWrapper;
 import org.junit.Assert;
 import org.junit.Test;
@@ -271,6 +274,68 @@ public class NodeBlockProcessorTest {
         Assert.assertEquals(0, store.size());
     }
 
+    @Test
+    public void requestPivotBlockAndStartStateSync() {
+        final BlockStore store = new BlockStore();
+        final BlockChainImpl blockchain = (BlockChainImpl) createBlockchain(0);
+        final NodeBlockProcessor processor = new NodeBlockProcessor(store, blockchain);
+        final StateSyncProcessor stateSync = new StateSyncProcessor((RepositoryImpl) blockchain.getRepository(), blockchain);
+
+        final Block pivot = BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock(), null, HashUtil.sha3(new byte[] { 0x01 }));
+        final Block best = BlockGenerator.createBlock(40, 0);
+
+        processor.setStateSync(stateSync, pivot.getHash(), BigInteger.TEN);
+
+        Assert.assertTrue(processor.isSyncingState());
+
+        final SimpleMessageSender sender = new SimpleMessageSender();
+
+        processor.processStatus(sender, new Status(best.getNumber(), best.getHash()));
+
+        Assert.assertEquals(1, sender.getMessages().size());
+        Assert.assertArrayEquals(pivot.getHash(), sender.getGetBlockMessagesHashes().get(0).getData());
+
+        // other blocks are not processed until the state is complete
+        processor.processBlock(sender, best);
+
+        Assert.assertEquals(1, sender.getMessages().size());
+        Assert.assertFalse(store.hasBlock(best));
+
+        processor.processBlock(sender, pivot);
+
+        Assert.assertTrue(stateSync.isSyncing());
+        Assert.assertEquals(2, sender.getMessages().size());
+
+        final GetTrieNodesMessage message = (GetTrieNodesMessage) sender.getMessages().get(1);
+
+        Assert.assertArrayEquals(pivot.getStateRoot(), message.getHashes().get(0));
+    }
+
+    @Test
+    public void processTenBlocksInverseOrderAddingToBlockchainUsingPreprocessor() {
+        Blockchain blockchain = createBlockchain();
+        BlockStore store = new BlockStore();
+        Block genesis = blockchain.getBestBlock();
+        List<Block> blocks = BlockGenerator.getBlockChain(genesis, 10);
+
+        NodeBlockProcessor processor = new NodeBlockProcessor(store, blockchain);
+        BlockPreprocessor preprocessor = new BlockPreprocessor(2, 100);
+        processor.setBlockPreprocessor(preprocessor);
+
+        for (int k = 0; k < 9; k++)
+            processor.processBlock(null, blocks.get(9 - k));
+
+        Assert.assertEquals(9, preprocessor.getPendingCount());
+
+        processor.processBlock(null, blocks.get(0));
+
+        Assert.assertEquals(10, blockchain.getBestBlock().getNumber());
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(0, preprocessor.getPendingCount());
+
+        preprocessor.stop();
+    }
+
     @Test
     public void processTenBlocksWithHoleAddingToBlockchain() {
         Blockchain blockchain = createBlockchain();
@@ -0,0 +1,356 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.core.bc.BlockChainImpl;
+import co.rsk.db.RepositoryImpl;
+import co.rsk.net.messages.*;
+import co.rsk.net.simples.SimpleMessageSender;
+import co.rsk.test.builders.BlockChainBuilder;
+import co.rsk.trie.TrieStoreImpl;
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StateSyncProcessorTest {
+    private static final byte[] CODE = new byte[] { 0x60, 0x60, 0x60, 0x60 };
+
+    @Test
+    public void syncStateFromTwoPeers() {
+        RepositoryImpl serverRepository = createRepository();
+        Block pivot = createBlock(serverRepository, 1500);
+
+        StateSyncProcessor server = new StateSyncProcessor(serverRepository, withBestBlock(pivot), Integer.MAX_VALUE);
+
+        BlockChainImpl blockchain = new BlockChainBuilder().build();
+        RepositoryImpl repository = (RepositoryImpl) blockchain.getRepository();
+        StateSyncProcessor client = new StateSyncProcessor(repository, blockchain);
+
+        SimpleMessageSender peer1 = createSender(1);
+        SimpleMessageSender peer2 = createSender(2);
+
+        client.addPeer(peer1);
+        client.addPeer(peer2);
+
+        boolean[] completed = new boolean[1];
+        client.startSync(pivot, BigInteger.TEN, () -> completed[0] = true);
+
+        Assert.assertTrue(client.isSyncing());
+        Assert.assertEquals(1, peer1.getMessages().size());
+        Assert.assertEquals(0, peer2.getMessages().size());
+
+        int exchanges = exchange(client, server, peer1, peer2);
+
+        Assert.assertTrue(completed[0]);
+        Assert.assertTrue(client.isCompleted());
+        Assert.assertFalse(client.isSyncing());
+        Assert.assertTrue(exchanges > 2);
+        Assert.assertEquals(12, client.getAccounts());
+        Assert.assertTrue(client.getNodes() > 0);
+
+        Assert.assertArrayEquals(pivot.getHash(), blockchain.getBestBlock().getHash());
+        Assert.assertEquals(BigInteger.TEN, blockchain.getTotalDifficulty());
+        Assert.assertArrayEquals(pivot.getStateRoot(), repository.getRoot());
+
+        for (int k = 1; k <= 10; k++) {
+            byte[] address = address(k);
+            Assert.assertEquals(BigInteger.valueOf(k * 1000), repository.getBalance(address));
+            Assert.assertEquals(BigInteger.valueOf(k), repository.getNonce(address));
+        }
+
+        for (int c = 0; c < 2; c++) {
+            byte[] contract = address(100 + c);
+            Assert.assertArrayEquals(CODE, repository.getCode(contract));
+
+            for (int k = 0; k < 1500; k++)
+                Assert.assertEquals(new DataWord(k + 1), repository.getStorageValue(contract, new DataWord(k)));
+        }
+    }
+
+    @Test
+    public void serveAccountRangeInPages() {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository, 20);
+
+        StateSyncProcessor server = new StateSyncProcessor(repository, withBestBlock(block));
+        SimpleMessageSender sender = createSender(1);
+
+        // address(100) and address(101) are the last accounts
+        byte[] start = new byte[] { (byte) 0xf0 };
+        server.processGetAccountRange(sender, new GetAccountRangeMessage(block.getStateRoot(), start, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, 15));
+
+        AccountRangeMessage message = (AccountRangeMessage) sender.getMessages().get(0);
+
+        Assert.assertEquals(1, message.getAccounts().size());
+        Assert.assertArrayEquals(address(100), message.getAccounts().get(0).getAddress());
+        Assert.assertArrayEquals(CODE, message.getAccounts().get(0).getCode());
+        Assert.assertEquals(14, message.getAccounts().get(0).getKeys().size());
+        Assert.assertArrayEquals(address(100), message.getNextAddress());
+        Assert.assertArrayEquals(new DataWord(14).getData(), message.getNextKey());
+
+        server.processGetAccountRange(sender, new GetAccountRangeMessage(block.getStateRoot(), message.getNextAddress(), message.getNextKey(), EMPTY_BYTE_ARRAY, 15));
+
+        message = (AccountRangeMessage) sender.getMessages().get(1);
+
+        Assert.assertEquals(2, message.getAccounts().size());
+        Assert.assertNull(message.getAccounts().get(0).getCode());
+        Assert.assertEquals(6, message.getAccounts().get(0).getKeys().size());
+        Assert.assertArrayEquals(address(101), message.getAccounts().get(1).getAddress());
+        Assert.assertEquals(7, message.getAccounts().get(1).getKeys().size());
+        Assert.assertArrayEquals(address(101), message.getNextAddress());
+    }
+
+    @Test
+    public void rejectAccountWithAlteredStorage() {
+        RepositoryImpl serverRepository = createRepository();
+        Block pivot = createBlock(serverRepository, 20);
+
+        StateSyncProcessor server = new StateSyncProcessor(serverRepository, withBestBlock(pivot), Integer.MAX_VALUE);
+
+        BlockChainImpl blockchain = new BlockChainBuilder().build();
+        RepositoryImpl repository = (RepositoryImpl) blockchain.getRepository();
+        StateSyncProcessor client = new StateSyncProcessor(repository, blockchain);
+
+        SimpleMessageSender peer = createSender(1);
+        client.addPeer(peer);
+        client.startSync(pivot, BigInteger.TEN, null);
+
+        // the trie nodes are downloaded, the first account range is requested
+        SimpleMessageSender serverPeer = createSender(1);
+
+        while (!(peer.getMessages().get(peer.getMessages().size() - 1) instanceof GetAccountRangeMessage))
+            exchangeOne(client, server, peer, serverPeer);
+
+        GetAccountRangeMessage request = (GetAccountRangeMessage) peer.getMessages().get(peer.getMessages().size() - 1);
+
+        AccountRangeMessage.AccountData data = new AccountRangeMessage.AccountData(address(1), EMPTY_BYTE_ARRAY);
+        data.addRow(new DataWord(1).getData(), new DataWord(1).getData());
+
+        int requests = peer.getMessages().size();
+
+        client.processAccountRange(serverPeer, new AccountRangeMessage(request.getStateRoot(), request.getStartAddress(),
+                request.getStartKey(), Collections.singletonList(data), EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY));
+
+        // the same range is requested again
+        Assert.assertEquals(requests + 1, peer.getMessages().size());
+        GetAccountRangeMessage retry = (GetAccountRangeMessage) peer.getMessages().get(requests);
+        Assert.assertArrayEquals(request.getStartAddress(), retry.getStartAddress());
+        Assert.assertEquals(0, client.getAccounts());
+
+        exchange(client, server, peer, serverPeer);
+
+        Assert.assertTrue(client.isCompleted());
+        Assert.assertArrayEquals(pivot.getHash(), blockchain.getBestBlock().getHash());
+    }
+
+    @Test
+    public void ignoreUnrequestedTrieNodes() {
+        RepositoryImpl serverRepository = createRepository();
+        Block pivot = createBlock(serverRepository, 20);
+
+        BlockChainImpl blockchain = new BlockChainBuilder().build();
+        StateSyncProcessor client = new StateSyncProcessor((RepositoryImpl) blockchain.getRepository(), blockchain);
+
+        SimpleMessageSender peer = createSender(1);
+        client.addPeer(peer);
+        client.startSync(pivot, BigInteger.TEN, null);
+
+        List<byte[]> nodes = new ArrayList<>();
+        nodes.add(new byte[] { 0x01, 0x02, 0x03 });
+
+        client.processTrieNodes(peer, new TrieNodesMessage(nodes));
+
+        Assert.assertEquals(0, client.getNodes());
+        Assert.assertTrue(client.isSyncing());
+        Assert.assertEquals(2, peer.getMessages().size());
+        Assert.assertArrayEquals(pivot.getStateRoot(), ((GetTrieNodesMessage) peer.getMessages().get(1)).getHashes().get(0));
+    }
+
+    @Test
+    public void serveOnlyTheStatesOfTheLastMainChainBlocks() {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository, 20);
+        byte[] oldRoot = block.getStateRoot();
+
+        Repository track = repository.startTracking();
+        track.addBalance(address(1), BigInteger.ONE);
+        track.commit();
+        repository.save();
+
+        Block child = BlockGenerator.createChildBlock(block, null, repository.getRoot());
+        Blockchain blockchain = withBestBlock(child);
+        when(blockchain.getBlockByHash(block.getHash())).thenReturn(block);
+
+        StateSyncProcessor server = new StateSyncProcessor(repository, blockchain);
+        SimpleMessageSender sender = createSender(1);
+
+        // a saved state that is not the state of a block
+        Repository other = repository.startTracking();
+        other.addBalance(address(2), BigInteger.ONE);
+        other.commit();
+        repository.save();
+
+        server.processGetAccountRange(sender, new GetAccountRangeMessage(repository.getRoot(), EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, 15));
+        Assert.assertTrue(sender.getMessages().isEmpty());
+
+        server.processGetAccountRange(sender, new GetAccountRangeMessage(oldRoot, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, 15));
+        server.processGetAccountRange(sender, new GetAccountRangeMessage(child.getStateRoot(), EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, 15));
+        Assert.assertEquals(2, sender.getMessages().size());
+
+        // the parent is too old to be served once the best block is far ahead
+        Block best = child;
+
+        for (int k = 0; k < StateSyncProcessor.SERVED_BLOCKS; k++) {
+            Block next = BlockGenerator.createChildBlock(best, null, child.getStateRoot());
+            when(blockchain.getBlockByHash(best.getHash())).thenReturn(best);
+            best = next;
+        }
+
+        when(blockchain.getBestBlock()).thenReturn(best);
+
+        server.processGetAccountRange(sender, new GetAccountRangeMessage(oldRoot, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, 15));
+        Assert.assertEquals(2, sender.getMessages().size());
+    }
+
+    @Test
+    public void limitTheRequestsServedToEachPeer() {
+        RepositoryImpl repository = createRepository();
+        Block block = createBlock(repository, 20);
+
+        StateSyncProcessor server = new StateSyncProcessor(repository, withBestBlock(block), 3);
+        SimpleMessageSender sender1 = createSender(1);
+        SimpleMessageSender sender2 = createSender(2);
+
+        for (int k = 0; k < 5; k++) {
+            server.processGetAccountRange(sender1, new GetAccountRangeMessage(block.getStateRoot(), EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY, 15));
+            server.processGetTrieNodes(sender2, new GetTrieNodesMessage(Collections.singletonList(block.getStateRoot())));
+        }
+
+        Assert.assertEquals(3, sender1.getMessages().size());
+        Assert.assertEquals(3, sender2.getMessages().size());
+    }
+
+    private static Blockchain withBestBlock(Block block) {
+        Blockchain blockchain = mock(Blockchain.class);
+        when(blockchain.getBestBlock()).thenReturn(block);
+        return blockchain;
+    }
+
+    // delivers the requests of the client to the server, and the responses back, until there are no more requests
+    private static int exchange(StateSyncProcessor client, StateSyncProcessor server, SimpleMessageSender... peers) {
+        int exchanges = 0;
+
+        while (true) {
+            boolean sent = false;
+
+            for (SimpleMessageSender peer : peers) {
+                if (exchangeOne(client, server, peer, peer)) {
+                    sent = true;
+                    exchanges++;
+                }
+            }
+
+            if (!sent)
+                return exchanges;
+        }
+    }
+
+    private static boolean exchangeOne(StateSyncProcessor client, StateSyncProcessor server, SimpleMessageSender peer, SimpleMessageSender serverPeer) {
+        List<Message> requests = new ArrayList<>(peer.getMessages());
+        peer.getMessages().clear();
+
+        for (Message request : requests) {
+            SimpleMessageSender responses = createSender(0);
+
+            if (request.getMessageType() == MessageType.GET_TRIE_NODES_MESSAGE)
+                server.processGetTrieNodes(responses, (GetTrieNodesMessage) Message.create(request.getEncoded()));
+            else
+                server.processGetAccountRange(responses, (GetAccountRangeMessage) Message.create(request.getEncoded()));
+
+            for (Message response : responses.getMessages()) {
+                Message received = Message.create(response.getEncoded());
+
+                if (received.getMessageType() == MessageType.TRIE_NODES_MESSAGE)
+                    client.processTrieNodes(serverPeer, (TrieNodesMessage) received);
+                else
+                    client.processAccountRange(serverPeer, (AccountRangeMessage) received);
+            }
+        }
+
+        return !requests.isEmpty();
+    }
+
+    private static SimpleMessageSender createSender(int id) {
+        SimpleMessageSender sender = new SimpleMessageSender();
+        sender.setNodeID(new byte[] { (byte) id });
+        return sender;
+    }
+
+    private static RepositoryImpl createRepository() {
+        return new RepositoryImpl(new TrieStoreImpl(new HashMapDB()), new HashMapDB());
+    }
+
+    private static Block createBlock(RepositoryImpl repository, int rows) {
+        Repository track = repository.startTracking();
+
+        for (int k = 1; k <= 10; k++) {
+            byte[] address = address(k);
+            track.addBalance(address, BigInteger.valueOf(k * 1000));
+
+            for (int n = 0; n < k; n++)
+                track.increaseNonce(address);
+        }
+
+        for (int c = 0; c < 2; c++) {
+            byte[] contract = address(100 + c);
+            track.saveCode(contract, CODE);
+
+            for (int k = 0; k < rows; k++)
+                track.addStorageRow(contract, new DataWord(k), new DataWord(k + 1));
+        }
+
+        track.commit();
+        repository.save();
+
+        return BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock(), null, repository.getRoot());
+    }
+
+    // the addresses are spread over the address ranges
+    private static byte[] address(int n) {
+        byte[] address = new byte[20];
+        address[0] = (byte) (n >= 100 ? 0xf0 + n - 100 : n * 23 - 18);
+        address[19] = (byte) n;
+        return address;
+    }
+}
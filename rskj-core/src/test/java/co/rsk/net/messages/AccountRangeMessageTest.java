@@ -0,0 +1,91 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net.messages;
+
+import org.ethereum.crypto.HashUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+public class AccountRangeMessageTest {
+    private static final byte[] ROOT = HashUtil.sha3(new byte[] { 0x01 });
+
+    @Test
+    public void encodeAndDecodeGetAccountRangeMessage() {
+        byte[] start = new byte[] { 0x10 };
+        byte[] key = new byte[32];
+        key[31] = 0x05;
+
+        GetAccountRangeMessage message = (GetAccountRangeMessage) Message.create(new GetAccountRangeMessage(ROOT, start, key, EMPTY_BYTE_ARRAY, 1024).getEncoded());
+
+        Assert.assertEquals(MessageType.GET_ACCOUNT_RANGE_MESSAGE, message.getMessageType());
+        Assert.assertArrayEquals(ROOT, message.getStateRoot());
+        Assert.assertArrayEquals(start, message.getStartAddress());
+        Assert.assertArrayEquals(key, message.getStartKey());
+        Assert.assertArrayEquals(EMPTY_BYTE_ARRAY, message.getEndAddress());
+        Assert.assertEquals(1024, message.getMaxItems());
+    }
+
+    @Test
+    public void encodeAndDecodeAccountRangeMessage() {
+        byte[] address1 = new byte[20];
+        address1[0] = 0x01;
+        byte[] address2 = new byte[20];
+        address2[0] = 0x02;
+        byte[] key = new byte[32];
+        key[31] = 0x07;
+
+        List<AccountRangeMessage.AccountData> accounts = new ArrayList<>();
+
+        // the storage continues from a previous message, without code
+        AccountRangeMessage.AccountData data1 = new AccountRangeMessage.AccountData(address1, null);
+        data1.addRow(new byte[32], new byte[] { 0x01 });
+        accounts.add(data1);
+
+        // an account without code
+        accounts.add(new AccountRangeMessage.AccountData(address2, EMPTY_BYTE_ARRAY));
+
+        AccountRangeMessage message = (AccountRangeMessage) Message.create(new AccountRangeMessage(ROOT, address1, key, accounts, address2, EMPTY_BYTE_ARRAY).getEncoded());
+
+        Assert.assertEquals(MessageType.ACCOUNT_RANGE_MESSAGE, message.getMessageType());
+        Assert.assertArrayEquals(ROOT, message.getStateRoot());
+        Assert.assertArrayEquals(address1, message.getStartAddress());
+        Assert.assertArrayEquals(key, message.getStartKey());
+        Assert.assertArrayEquals(address2, message.getNextAddress());
+        Assert.assertArrayEquals(EMPTY_BYTE_ARRAY, message.getNextKey());
+        Assert.assertEquals(2, message.getAccounts().size());
+
+        AccountRangeMessage.AccountData result1 = message.getAccounts().get(0);
+        Assert.assertArrayEquals(address1, result1.getAddress());
+        Assert.assertNull(result1.getCode());
+        Assert.assertEquals(1, result1.getKeys().size());
+        Assert.assertArrayEquals(new byte[32], result1.getKeys().get(0));
+        Assert.assertArrayEquals(new byte[] { 0x01 }, result1.getValues().get(0));
+
+        AccountRangeMessage.AccountData result2 = message.getAccounts().get(1);
+        Assert.assertArrayEquals(address2, result2.getAddress());
+        Assert.assertArrayEquals(EMPTY_BYTE_ARRAY, result2.getCode());
+        Assert.assertTrue(result2.getKeys().isEmpty());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.net.messages;
+
+import org.ethereum.crypto.HashUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TrieNodesMessageTest {
+    @Test
+    public void encodeAndDecodeGetTrieNodesMessage() {
+        List<byte[]> hashes = new ArrayList<>();
+        hashes.add(HashUtil.sha3(new byte[] { 0x01 }));
+        hashes.add(HashUtil.sha3(new byte[] { 0x02 }));
+
+        GetTrieNodesMessage message = (GetTrieNodesMessage) Message.create(new GetTrieNodesMessage(hashes).getEncoded());
+
+        Assert.assertEquals(MessageType.GET_TRIE_NODES_MESSAGE, message.getMessageType());
+        Assert.assertEquals(2, message.getHashes().size());
+        Assert.assertArrayEquals(hashes.get(0), message.getHashes().get(0));
+        Assert.assertArrayEquals(hashes.get(1), message.getHashes().get(1));
+    }
+
+    @Test
+    public void encodeAndDecodeTrieNodesMessage() {
+        List<byte[]> nodes = new ArrayList<>();
+        nodes.add(new byte[] { 0x01, 0x02, 0x03 });
+        nodes.add(new byte[100]);
+
+        TrieNodesMessage message = (TrieNodesMessage) Message.create(new TrieNodesMessage(nodes).getEncoded());
+
+        Assert.assertEquals(MessageType.TRIE_NODES_MESSAGE, message.getMessageType());
+        Assert.assertEquals(2, message.getNodes().size());
+        Assert.assertArrayEquals(nodes.get(0), message.getNodes().get(0));
+        Assert.assertEquals(100, message.getNodes().get(1).length);
+    }
+
+    @Test
+    public void encodeAndDecodeEmptyTrieNodesMessage() {
+        TrieNodesMessage message = (TrieNodesMessage) Message.create(new TrieNodesMessage(Collections.emptyList()).getEncoded());
+
+        Assert.assertTrue(message.getNodes().isEmpty());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc;
+
+import org.ethereum.rpc.Web3;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockResultCacheTest {
+    private static final byte[] HASH1 = new byte[] { 1 };
+    private static final byte[] HASH2 = new byte[] { 2 };
+    private static final byte[] HASH3 = new byte[] { 3 };
+
+    @Test
+    public void keepHashesAndFullTransactionsResultsApart() {
+        BlockResultCache cache = new BlockResultCache(10000);
+        Web3.BlockResult hashes = createResult("0x01");
+        Web3.BlockResult full = createResult("0x01");
+
+        cache.put(HASH1, false, hashes);
+        cache.put(HASH1, true, full);
+
+        Assert.assertSame(hashes, cache.get(HASH1, false));
+        Assert.assertSame(full, cache.get(HASH1, true));
+        Assert.assertNull(cache.get(HASH2, false));
+    }
+
+    @Test
+    public void evictTheLeastRecentlyUsedResults() {
+        int resultSize = createResult("0x01").toJson().length();
+        BlockResultCache cache = new BlockResultCache(resultSize * 2);
+
+        cache.put(HASH1, false, createResult("0x01"));
+        cache.put(HASH2, false, createResult("0x02"));
+        cache.get(HASH1, false);
+        cache.put(HASH3, false, createResult("0x03"));
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.get(HASH1, false));
+        Assert.assertNull(cache.get(HASH2, false));
+        Assert.assertNotNull(cache.get(HASH3, false));
+    }
+
+    @Test
+    public void keepNothingWithoutSize() {
+        BlockResultCache cache = new BlockResultCache(0);
+
+        cache.put(HASH1, false, createResult("0x01"));
+
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private static Web3.BlockResult createResult(String number) {
+        Web3.BlockResult result = new Web3.BlockResult();
+        result.number = number;
+        result.transactions = new Object[0];
+        result.uncles = new String[0];
+        return result;
+    }
+}
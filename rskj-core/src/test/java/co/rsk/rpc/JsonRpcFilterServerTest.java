@@ -18,12 +18,23 @@
 
 package co.rsk.rpc;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by ajlopez on 20/04/2017.
@@ -63,6 +74,176 @@ public class JsonRpcFilterServerTest {
         }
     }
 
+    @Test
+    public void writeSelfSerializingResultsWhenSendingTheResponse() throws IOException {
+        ModuleDescription module = new ModuleDescription("test", "1.0", true, null, null);
+        JsonRpcFilterServer server = new JsonRpcFilterServer(new CountingServiceImpl(), CountingService.class, Collections.singletonList(module));
+
+        String request = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"test_count\",\"params\":[3]}";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        server.handle(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), output);
+
+        Assert.assertEquals("[0,1,2]", new ObjectMapper().readTree(output.toByteArray()).get("result").toString());
+    }
+
+    @Test
+    public void runReadOnlyBatchesInParallelKeepingTheOrder() throws IOException {
+        ModuleDescription module = new ModuleDescription("web3", "1.0", true, null, null);
+        JsonRpcFilterServer server = new JsonRpcFilterServer(new EchoServiceImpl(), EchoService.class, Collections.singletonList(module));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        server.setBatchExecutor(executor, new HashSet<>(Arrays.asList("web3_echo", "web3_thread")));
+
+        String request = "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"web3_echo\",\"params\":[\"a\"]}," +
+                "{\"jsonrpc\":\"2.0\",\"method\":\"web3_echo\",\"params\":[\"notification\"]}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"web3_echo\",\"params\":[\"b\"]}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"web3_thread\",\"params\":[]}]";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try {
+            server.handle(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), output);
+        } finally {
+            executor.shutdown();
+        }
+
+        JsonNode responses = new ObjectMapper().readTree(output.toByteArray());
+
+        Assert.assertEquals(3, responses.size());
+        Assert.assertEquals("a", responses.get(0).get("result").asText());
+        Assert.assertEquals("b", responses.get(1).get("result").asText());
+        Assert.assertNotEquals(Thread.currentThread().getName(), responses.get(2).get("result").asText());
+        Assert.assertEquals(3, server.getLatencies().get("web3_echo").getCount());
+        Assert.assertEquals(1, server.getLatencies().get("web3_thread").getCount());
+    }
+
+    @Test
+    public void runBatchesWithWritesSequentially() throws IOException {
+        List<ModuleDescription> modules = new ArrayList<>();
+        modules.add(new ModuleDescription("web3", "1.0", true, null, null));
+        modules.add(new ModuleDescription("personal", "1.0", true, null, null));
+        JsonRpcFilterServer server = new JsonRpcFilterServer(new EchoServiceImpl(), EchoService.class, modules);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        server.setBatchExecutor(executor, new HashSet<>(Arrays.asList("web3_echo", "web3_thread")));
+
+        String request = "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"web3_thread\",\"params\":[]}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"personal_echo\",\"params\":[\"a\"]}]";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try {
+            server.handle(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), output);
+        } finally {
+            executor.shutdown();
+        }
+
+        JsonNode responses = new ObjectMapper().readTree(output.toByteArray());
+
+        Assert.assertEquals(2, responses.size());
+        Assert.assertEquals(Thread.currentThread().getName(), responses.get(0).get("result").asText());
+        Assert.assertEquals("a", responses.get(1).get("result").asText());
+    }
+
+    @Test
+    public void filterChangesAndTracesAreNotReadOnly() {
+        Assert.assertTrue(JsonRpcFilterServer.READ_ONLY_METHODS.contains("eth_getBalance"));
+        Assert.assertTrue(JsonRpcFilterServer.READ_ONLY_METHODS.contains("eth_call"));
+        Assert.assertFalse(JsonRpcFilterServer.READ_ONLY_METHODS.contains("eth_getFilterChanges"));
+        Assert.assertFalse(JsonRpcFilterServer.READ_ONLY_METHODS.contains("eth_getFilterLogs"));
+        Assert.assertFalse(JsonRpcFilterServer.READ_ONLY_METHODS.contains("debug_traceTransaction"));
+        Assert.assertFalse(JsonRpcFilterServer.READ_ONLY_METHODS.contains("debug_traceBlock"));
+    }
+
+    @Test
+    public void runBatchesOfFilterChangesSequentially() throws IOException {
+        ModuleDescription module = new ModuleDescription("eth", "1.0", true, null, null);
+        JsonRpcFilterServer server = new JsonRpcFilterServer(new FilterServiceImpl(), FilterService.class, Collections.singletonList(module));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        server.setBatchExecutor(executor);
+
+        String request = "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getFilterChanges\",\"params\":[]}," +
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_getFilterChanges\",\"params\":[]}]";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try {
+            server.handle(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)), output);
+        } finally {
+            executor.shutdown();
+        }
+
+        JsonNode responses = new ObjectMapper().readTree(output.toByteArray());
+
+        Assert.assertEquals(Thread.currentThread().getName(), responses.get(0).get("result").asText());
+        Assert.assertEquals(Thread.currentThread().getName(), responses.get(1).get("result").asText());
+    }
+
+    public interface FilterService {
+        String eth_getFilterChanges();
+    }
+
+    public static class FilterServiceImpl implements FilterService {
+        @Override
+        public String eth_getFilterChanges() {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    public interface EchoService {
+        String web3_echo(String value);
+
+        String web3_thread();
+
+        String personal_echo(String value);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public String web3_echo(String value) {
+            return value;
+        }
+
+        @Override
+        public String web3_thread() {
+            return Thread.currentThread().getName();
+        }
+
+        @Override
+        public String personal_echo(String value) {
+            return value;
+        }
+    }
+
+    public interface CountingService {
+        Counting test_count(int n);
+    }
+
+    public static class CountingServiceImpl implements CountingService {
+        @Override
+        public Counting test_count(int n) {
+            return new Counting(n);
+        }
+    }
+
+    public static class Counting extends JsonSerializable.Base {
+        private final int n;
+
+        Counting(int n) {
+            this.n = n;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartArray();
+
+            for (int i = 0; i < n; i++)
+                generator.writeNumber(i);
+
+            generator.writeEndArray();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, provider);
+        }
+    }
+
     private static List<ModuleDescription> getModules() {
         List<String> enabledMethods = new ArrayList<>();
         enabledMethods.add("evm_snapshot");
@@ -0,0 +1,50 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMeanMicros());
+        Assert.assertEquals(0, histogram.getPercentileMicros(99));
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 99; i++)
+            histogram.record(100_000);      // 100 us
+
+        histogram.record(5_000_000);        // 5 ms
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(149, histogram.getMeanMicros());
+        Assert.assertEquals(5000, histogram.getMaxMicros());
+        Assert.assertEquals(128, histogram.getPercentileMicros(50));
+        Assert.assertEquals(128, histogram.getPercentileMicros(99));
+        Assert.assertEquals(8192, histogram.getPercentileMicros(100));
+    }
+}
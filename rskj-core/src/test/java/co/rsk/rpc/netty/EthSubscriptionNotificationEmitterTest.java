@@ -0,0 +1,178 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc.netty;
+
+import co.rsk.blockchain.utils.BlockGenerator;
+import co.rsk.core.bc.BlockChainImpl;
+import co.rsk.test.builders.BlockChainBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.ImportResult;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.rpc.exception.JsonRpcInvalidParamException;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.ethereum.rpc.TypeConverter.toJsonHex;
+import static org.mockito.Mockito.*;
+
+public class EthSubscriptionNotificationEmitterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void notifyNewHeads() throws IOException {
+        Block block = BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock());
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(withBestBlock(block));
+        EmbeddedChannel channel = new EmbeddedChannel();
+        String id = emitter.subscribe(channel, MAPPER.readTree("[\"newHeads\"]"));
+
+        emitter.onBlock(block, Collections.emptyList());
+
+        JsonNode notification = readNotification(channel);
+
+        Assert.assertEquals("eth_subscription", notification.get("method").asText());
+        Assert.assertEquals(id, notification.get("params").get("subscription").asText());
+        Assert.assertEquals(toJsonHex(block.getHash()), notification.get("params").get("result").get("hash").asText());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void notifyOnlyTheMatchingLogs() throws IOException {
+        Block block = BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock());
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(withBestBlock(block));
+        EmbeddedChannel channel = new EmbeddedChannel();
+        byte[] address = Hex.decode("0000000000000000000000000000000000001234");
+        emitter.subscribe(channel, MAPPER.readTree("[\"logs\",{\"address\":\"0x0000000000000000000000000000000000001234\"}]"));
+
+        TransactionReceipt receipt = new TransactionReceipt();
+        receipt.setTransaction(new Transaction(null, null, null, null, null, null));
+        receipt.setLogInfoList(Arrays.asList(
+                new LogInfo(new byte[20], Collections.singletonList(new DataWord(1)), new byte[] { 1 }),
+                new LogInfo(address, Collections.singletonList(new DataWord(2)), new byte[] { 2 })));
+
+        emitter.onBlock(block, Collections.singletonList(receipt));
+
+        JsonNode log = readNotification(channel).get("params").get("result");
+
+        Assert.assertEquals("0x0000000000000000000000000000000000001234", log.get("address").asText());
+        Assert.assertEquals("0x1", log.get("logIndex").asText());
+        Assert.assertEquals("0x02", log.get("data").asText());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void notifyPendingTransactionsToEverySubscription() throws IOException {
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(mock(Blockchain.class));
+        EmbeddedChannel channel1 = new EmbeddedChannel();
+        EmbeddedChannel channel2 = new EmbeddedChannel();
+        emitter.subscribe(channel1, MAPPER.readTree("[\"newPendingTransactions\"]"));
+        emitter.subscribe(channel2, MAPPER.readTree("[\"newPendingTransactions\"]"));
+
+        Transaction tx = new Transaction(null, null, null, null, null, null);
+        emitter.onPendingTransactionsReceived(Collections.singletonList(tx));
+
+        Assert.assertEquals(toJsonHex(tx.getHash()), readNotification(channel1).get("params").get("result").asText());
+        Assert.assertEquals(toJsonHex(tx.getHash()), readNotification(channel2).get("params").get("result").asText());
+    }
+
+    @Test
+    public void unsubscribeOnlyFromTheOwnerChannel() throws IOException {
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(mock(Blockchain.class));
+        EmbeddedChannel channel = new EmbeddedChannel();
+        String id = emitter.subscribe(channel, MAPPER.readTree("[\"newHeads\"]"));
+
+        Assert.assertFalse(emitter.unsubscribe(new EmbeddedChannel(), id));
+        Assert.assertTrue(emitter.unsubscribe(channel, id));
+        Assert.assertFalse(emitter.unsubscribe(channel, id));
+        Assert.assertEquals(0, emitter.getSubscriptionsCount());
+    }
+
+    @Test(expected = JsonRpcInvalidParamException.class)
+    public void rejectUnknownSubscriptionTypes() throws IOException {
+        new EthSubscriptionNotificationEmitter(mock(Blockchain.class)).subscribe(new EmbeddedChannel(), MAPPER.readTree("[\"syncing\"]"));
+    }
+
+    @Test
+    public void dropSlowConsumers() throws IOException {
+        Block block = BlockGenerator.createChildBlock(BlockGenerator.getGenesisBlock());
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(withBestBlock(block));
+        Channel channel = mock(Channel.class);
+        when(channel.isWritable()).thenReturn(false);
+        emitter.subscribe(channel, MAPPER.readTree("[\"newHeads\"]"));
+
+        emitter.onBlock(block, Collections.emptyList());
+
+        verify(channel).close();
+        verify(channel, never()).writeAndFlush(any());
+        Assert.assertEquals(0, emitter.getSubscriptionsCount());
+    }
+
+    @Test
+    public void notifyOnlyTheBestBlock() throws IOException {
+        BlockChainImpl blockchain = new BlockChainBuilder().build();
+        Block genesis = BlockGenerator.getGenesisBlock();
+        genesis.setStateRoot(blockchain.getRepository().getRoot());
+        genesis.flushRLP();
+        Assert.assertEquals(ImportResult.IMPORTED_BEST, blockchain.tryToConnect(genesis));
+
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(blockchain);
+        blockchain.setListener(emitter);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        emitter.subscribe(channel, MAPPER.readTree("[\"newHeads\"]"));
+
+        Block best = BlockGenerator.createChildBlock(genesis, 0, 10);
+        Block sibling = BlockGenerator.createChildBlock(genesis, 0, 5);
+
+        Assert.assertEquals(ImportResult.IMPORTED_BEST, blockchain.tryToConnect(best));
+        Assert.assertEquals(ImportResult.IMPORTED_NOT_BEST, blockchain.tryToConnect(sibling));
+
+        Assert.assertEquals(toJsonHex(best.getHash()), readNotification(channel).get("params").get("result").get("hash").asText());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    private static Blockchain withBestBlock(Block block) {
+        Blockchain blockchain = mock(Blockchain.class);
+        when(blockchain.getBestBlock()).thenReturn(block);
+        return blockchain;
+    }
+
+    private static JsonNode readNotification(EmbeddedChannel channel) throws IOException {
+        TextWebSocketFrame frame = (TextWebSocketFrame) channel.readOutbound();
+        Assert.assertNotNull(frame);
+
+        try {
+            return MAPPER.readTree(frame.text());
+        } finally {
+            frame.release();
+        }
+    }
+}
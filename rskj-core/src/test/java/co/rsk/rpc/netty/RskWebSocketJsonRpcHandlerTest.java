@@ -0,0 +1,108 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.rpc.netty;
+
+import co.rsk.rpc.JsonRpcFilterServer;
+import co.rsk.rpc.ModuleDescription;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.ethereum.core.Blockchain;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+
+public class RskWebSocketJsonRpcHandlerTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void subscribeAndUnsubscribe() throws IOException {
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(mock(Blockchain.class));
+        EmbeddedChannel channel = createChannel(emitter);
+
+        JsonNode subscribed = call(channel, "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_subscribe\",\"params\":[\"newHeads\"]}");
+        String id = subscribed.get("result").asText();
+
+        Assert.assertEquals(1, subscribed.get("id").asInt());
+        Assert.assertEquals(1, emitter.getSubscriptionsCount());
+
+        JsonNode unsubscribed = call(channel, "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_unsubscribe\",\"params\":[\"" + id + "\"]}");
+
+        Assert.assertTrue(unsubscribed.get("result").asBoolean());
+        Assert.assertEquals(0, emitter.getSubscriptionsCount());
+    }
+
+    @Test
+    public void answerInvalidSubscriptionsWithAnError() throws IOException {
+        EmbeddedChannel channel = createChannel(new EthSubscriptionNotificationEmitter(mock(Blockchain.class)));
+
+        JsonNode response = call(channel, "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_subscribe\",\"params\":[\"syncing\"]}");
+
+        Assert.assertNull(response.get("result"));
+        Assert.assertEquals(-32602, response.get("error").get("code").asInt());
+    }
+
+    @Test
+    public void passOtherCallsToTheServer() throws IOException {
+        EmbeddedChannel channel = createChannel(new EthSubscriptionNotificationEmitter(mock(Blockchain.class)));
+
+        JsonNode response = call(channel, "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_echo\",\"params\":[\"hello\"]}");
+
+        Assert.assertEquals("hello", response.get("result").asText());
+    }
+
+    @Test
+    public void removeTheSubscriptionsWhenTheClientLeaves() throws IOException {
+        EthSubscriptionNotificationEmitter emitter = new EthSubscriptionNotificationEmitter(mock(Blockchain.class));
+        EmbeddedChannel channel = createChannel(emitter);
+
+        call(channel, "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_subscribe\",\"params\":[\"newPendingTransactions\"]}");
+        channel.finish();
+
+        Assert.assertEquals(0, emitter.getSubscriptionsCount());
+    }
+
+    public interface EchoService {
+        String eth_echo(String value);
+    }
+
+    private static EmbeddedChannel createChannel(EthSubscriptionNotificationEmitter emitter) {
+        ModuleDescription module = new ModuleDescription("eth", "1.0", true, null, null);
+        EchoService service = value -> value;
+        JsonRpcFilterServer server = new JsonRpcFilterServer(service, EchoService.class, Collections.singletonList(module));
+
+        return new EmbeddedChannel(new RskWebSocketJsonRpcHandler(server, emitter));
+    }
+
+    private static JsonNode call(EmbeddedChannel channel, String request) throws IOException {
+        channel.writeInbound(new TextWebSocketFrame(request));
+        TextWebSocketFrame frame = (TextWebSocketFrame) channel.readOutbound();
+
+        try {
+            return MAPPER.readTree(frame.text());
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -18,9 +18,16 @@
 
 package co.rsk.trie;
 
+import org.ethereum.datasource.HashMapDB;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Created by ajlopez on 11/01/2017.
  */
@@ -130,4 +137,82 @@ public class TrieImplKeyValueTest {
             Assert.assertArrayEquals(key, value, expected);
         }
     }
+
+    @Test
+    public void noKeysInEmptyTrie() {
+        Trie trie = new TrieImpl();
+
+        Assert.assertFalse(trie.keys().hasNext());
+    }
+
+    @Test
+    public void iterateOneHundredKeys() {
+        Trie trie = new TrieImpl();
+
+        for (int k = 0; k < 100; k++)
+            trie = trie.put(k + "", (k + "").getBytes());
+
+        trie = trie.delete("42");
+
+        Set<String> keys = new HashSet<>();
+
+        for (Iterator<byte[]> iterator = trie.keys(); iterator.hasNext();)
+            Assert.assertTrue(keys.add(new String(iterator.next())));
+
+        Assert.assertEquals(99, keys.size());
+        Assert.assertFalse(keys.contains("42"));
+
+        for (int k = 0; k < 100; k++)
+            if (k != 42)
+                Assert.assertTrue(keys.contains(k + ""));
+    }
+
+    @Test
+    public void iterateKeysOfRetrievedTrie() {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = new TrieImpl(store, false);
+
+        trie = trie.put("foo", "bar".getBytes())
+                .put("f", "42".getBytes())
+                .put("bar", "foo".getBytes());
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        Set<String> keys = new HashSet<>();
+
+        for (Iterator<byte[]> iterator = retrieved.keys(); iterator.hasNext();)
+            keys.add(new String(iterator.next()));
+
+        Assert.assertEquals(3, keys.size());
+        Assert.assertTrue(keys.contains("foo"));
+        Assert.assertTrue(keys.contains("f"));
+        Assert.assertTrue(keys.contains("bar"));
+    }
+
+    @Test
+    public void iterateKeysFromAKey() {
+        TrieStore store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = new TrieImpl(store, false);
+
+        for (int k = 0; k < 100; k++)
+            trie = trie.put(String.format("%02d", k), (k + "").getBytes());
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        List<String> keys = new ArrayList<>();
+
+        for (Iterator<byte[]> iterator = retrieved.keys("42".getBytes()); iterator.hasNext();)
+            keys.add(new String(iterator.next()));
+
+        Assert.assertEquals(58, keys.size());
+
+        for (int k = 42; k < 100; k++)
+            Assert.assertEquals(String.format("%02d", k), keys.get(k - 42));
+
+        Assert.assertFalse(trie.keys("a".getBytes()).hasNext());
+    }
 }
@@ -21,6 +21,7 @@ package co.rsk.trie;
 import org.ethereum.datasource.HashMapDB;
 import org.junit.Assert;
 import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
 
 import java.io.IOException;
 
@@ -191,4 +192,72 @@ public class TrieImplSaveRetrieveTest {
         Assert.assertArrayEquals(trie.get("bar"), trie2.get("bar"));
         Assert.assertArrayEquals(trie.get("answer"), trie2.get("answer"));
     }
+
+    @Test
+    public void saveRetrieveAndDeleteOneThousandKeyValues() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        Trie trie = new TrieImpl(store, false);
+
+        for (int k = 0; k < 1000; k++)
+            trie = trie.put(k + "", (k + "").getBytes());
+
+        trie.save();
+
+        for (int k = 0; k < 1000; k += 2) {
+            // only the nodes in the deleted key path are loaded
+            Trie trie2 = store.retrieve(trie.getHash());
+
+            trie2 = trie2.delete(k + "");
+
+            Assert.assertNull(trie2.get(k + ""));
+            Assert.assertArrayEquals((k + 1 + "").getBytes(), trie2.get(k + 1 + ""));
+        }
+    }
+
+    @Test
+    public void deleteFromRetrievedTrieWithSiblingAfterTheDeletedKey() {
+        // previous versions deleted "1" instead, giving 1d3a5df9...
+        assertDeleteRoot(new String[] { "0", "1", "2", "3" }, "0", "66c4112f4a8138d496fd2a837f01cef3663c28fa6d733b0d592a199e79ee85d0");
+        // previous versions gave 6e8f11d8...
+        assertDeleteRoot(new String[] { "foo", "f", "bar" }, "bar", "8dfeb0fbdb2891fc53b2d6b19bde540689a37b1f4d33414c8474e22900fb7a08");
+    }
+
+    @Test
+    public void deleteFromRetrievedTrieWithSiblingBeforeTheDeletedKey() {
+        // previous versions threw a NullPointerException
+        assertDeleteRoot(new String[] { "0", "1", "2", "3" }, "1", "1d3a5df91f7975fc23b73afa9b9930359ba16cfcc7473c57f221449e2a1c3d52");
+        assertDeleteRoot(new String[] { "0", "1", "2", "3" }, "3", "9070207447d8678b91ab6b882c5bced8d6ea3eacc5fb9fb2128c476eaf099d3f");
+    }
+
+    @Test
+    public void deleteValueWithSubnodesFromRetrievedTrie() {
+        // previous versions threw a NullPointerException
+        assertDeleteRoot(new String[] { "a", "ab", "ac", "b" }, "a", "d4798a0d74bad1caeddf5da7641fa92964583786dc193d950c00d0463bb3206d");
+        assertDeleteRoot(new String[] { "foo", "f", "bar" }, "f", "c836c24f12ae601d29d979611b0c759a4f959dab5b085e2f54dee9961b61583a");
+    }
+
+    @Test
+    public void deleteFromRetrievedTrieKeepsTheRootsPreviousVersionsGot() {
+        assertDeleteRoot(new String[] { "a", "ab", "ac" }, "ab", "369464c320b8896ae1aa0248901a55d8ace0d05e62186797c2b5219596e53551");
+        assertDeleteRoot(new String[] { "foo", "f", "bar" }, "foo", "c836c24f12ae601d29d979611b0c759a4f959dab5b085e2f54dee9961b61583a");
+    }
+
+    // the expected root is also the root of the same delete in the trie built in memory,
+    // the roots of deletes in memory are the ones previous versions got
+    private static void assertDeleteRoot(String[] keys, String keyToDelete, String expectedRoot) {
+        TrieStoreImpl store = new TrieStoreImpl(new HashMapDB());
+        Trie trie = new TrieImpl(store, false);
+
+        for (String key : keys)
+            trie = trie.put(key, key.getBytes());
+
+        trie.save();
+
+        Trie retrieved = store.retrieve(trie.getHash());
+
+        Assert.assertEquals(expectedRoot, Hex.toHexString(trie.delete(keyToDelete).getHash()));
+        Assert.assertEquals(expectedRoot, Hex.toHexString(retrieved.delete(keyToDelete).getHash()));
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.trie;
+
+import org.ethereum.datasource.HashMapDB;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TrieStorePrunerTest {
+    @Test
+    public void pruneUnreachableNodes() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        Trie trie1 = new TrieImpl(store, true);
+
+        for (int k = 0; k < 100; k++)
+            trie1 = trie1.put(k + "", (k + "").getBytes());
+
+        trie1.save();
+
+        Trie trie2 = trie1.put("foo", "bar".getBytes()).delete("42");
+        trie2.save();
+
+        int nkeys = map.keys().size();
+
+        TrieStorePruner pruner = new TrieStorePruner(store, 10, 0);
+
+        long pruned = pruner.prune(Collections.singletonList(trie2.getHash()));
+
+        Assert.assertTrue(pruned > 0);
+        Assert.assertEquals(nkeys - pruned, map.keys().size());
+        Assert.assertEquals(pruned, pruner.getPrunedNodes());
+        Assert.assertTrue(pruner.getReclaimedBytes() > 0);
+        Assert.assertEquals(map.keys().size(), pruner.getKeptNodes());
+
+        Assert.assertNull(store.retrieve(trie1.getHash()));
+
+        Trie retrieved = store.retrieve(trie2.getHash());
+
+        Assert.assertNotNull(retrieved);
+        Assert.assertArrayEquals("bar".getBytes(), retrieved.get("foo"));
+        Assert.assertNull(retrieved.get("42"));
+
+        for (int k = 0; k < 100; k++)
+            if (k != 42)
+                Assert.assertArrayEquals((k + "").getBytes(), retrieved.get(k + ""));
+    }
+
+    @Test
+    public void keepNodesReachableFromAnyRoot() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        Trie trie1 = new TrieImpl(store, true).put("foo", "bar".getBytes()).put("bar", "foo".getBytes());
+        Trie trie2 = trie1.put("answer", "42".getBytes());
+        trie1.save();
+        trie2.save();
+
+        int nkeys = map.keys().size();
+
+        TrieStorePruner pruner = new TrieStorePruner(store, 10, 0);
+
+        Assert.assertEquals(0, pruner.prune(Arrays.asList(trie1.getHash(), trie2.getHash())));
+        Assert.assertEquals(nkeys, map.keys().size());
+        Assert.assertEquals(0, pruner.getReclaimedBytes());
+    }
+
+    @Test
+    public void keepNodesSavedWhilePruning() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        Trie trie = new TrieImpl(store, true).put("foo", "bar".getBytes());
+        trie.save();
+
+        store.startPruning();
+        store.save(trie);
+
+        Assert.assertEquals(0, store.delete(trie.getHash()));
+
+        store.stopPruning();
+
+        Assert.assertNotNull(store.retrieve(trie.getHash()));
+        Assert.assertTrue(store.delete(trie.getHash()) > 0);
+        Assert.assertNull(store.retrieve(trie.getHash()));
+    }
+
+    @Test
+    public void keepNodesSavedBeforeTheRootsAreCollected() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+
+        Trie parent = new TrieImpl(store, true).put("foo", "bar".getBytes());
+        parent.save();
+
+        Trie child = parent.put("bar", "baz".getBytes());
+
+        TrieStorePruner pruner = new TrieStorePruner(store, 10, 0);
+
+        // the child state is saved before its block is known as a root to keep
+        pruner.prune(() -> {
+            child.save();
+            return Collections.singletonList(parent.getHash());
+        });
+
+        Trie retrieved = store.retrieve(child.getHash());
+
+        Assert.assertNotNull(retrieved);
+        Assert.assertArrayEquals("bar".getBytes(), retrieved.get("foo"));
+        Assert.assertArrayEquals("baz".getBytes(), retrieved.get("bar"));
+    }
+
+    @Test
+    public void keepNodesSavedSinceThePruningStarted() {
+        HashMapDB map = new HashMapDB();
+        TrieStoreImpl store = new TrieStoreImpl(map);
+        TrieStorePruner pruner = new TrieStorePruner(store, 10, 0);
+
+        pruner.startPruning();
+
+        Trie trie = new TrieImpl(store, true).put("foo", "bar".getBytes());
+        trie.save();
+
+        Assert.assertEquals(0, pruner.prune(Collections.emptyList()));
+        Assert.assertNotNull(store.retrieve(trie.getHash()));
+
+        // once pruned, the nodes saved before are not kept anymore
+        Assert.assertTrue(pruner.prune(Collections.emptyList()) > 0);
+        Assert.assertNull(store.retrieve(trie.getHash()));
+    }
+}
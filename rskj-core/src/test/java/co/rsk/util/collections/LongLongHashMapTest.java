@@ -0,0 +1,100 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongLongHashMapTest {
+    @Test
+    public void emptyMap() {
+        LongLongHashMap map = new LongLongHashMap();
+
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(-1, map.get(0, -1));
+        Assert.assertFalse(map.containsKey(1));
+        Assert.assertEquals(0, map.keys().length);
+    }
+
+    @Test
+    public void putGetAndRemoveIncludingZeroKey() {
+        LongLongHashMap map = new LongLongHashMap();
+
+        Assert.assertEquals(-1, map.put(0, 10, -1));
+        Assert.assertEquals(-1, map.put(Long.MIN_VALUE, 20, -1));
+        Assert.assertEquals(10, map.put(0, 11, -1));
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(11, map.get(0, -1));
+        Assert.assertEquals(20, map.get(Long.MIN_VALUE, -1));
+
+        Assert.assertEquals(11, map.remove(0, -1));
+        Assert.assertEquals(-1, map.remove(0, -1));
+        Assert.assertEquals(1, map.size());
+        Assert.assertFalse(map.containsKey(0));
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomOperations() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int k = 0; k < 100000; k++) {
+            long key = random.nextInt(2000) - 1000;
+
+            if (random.nextInt(3) == 0) {
+                Long previous = expected.remove(key);
+                Assert.assertEquals(previous == null ? -1 : previous, map.remove(key, -1));
+            } else {
+                long value = random.nextLong();
+                Long previous = expected.put(key, value);
+                Assert.assertEquals(previous == null ? -1 : previous, map.put(key, value, -1));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            Assert.assertEquals((long) entry.getValue(), map.get(entry.getKey(), -1));
+        }
+
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray(), keys);
+    }
+
+    @Test
+    public void clear() {
+        LongLongHashMap map = new LongLongHashMap();
+
+        map.put(0, 1, -1);
+        map.put(1, 2, -1);
+        map.clear();
+
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.containsKey(0));
+        Assert.assertFalse(map.containsKey(1));
+    }
+}
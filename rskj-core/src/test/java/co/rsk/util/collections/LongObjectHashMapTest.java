@@ -0,0 +1,110 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectHashMapTest {
+    @Test
+    public void emptyMap() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(0));
+        Assert.assertFalse(map.containsKey(1));
+        Assert.assertEquals(0, map.keys().length);
+        Assert.assertTrue(map.values().isEmpty());
+    }
+
+    @Test
+    public void putGetAndRemoveIncludingZeroKey() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        Assert.assertNull(map.put(0, "zero"));
+        Assert.assertNull(map.put(Long.MAX_VALUE, "max"));
+        Assert.assertEquals("zero", map.put(0, "cero"));
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("cero", map.get(0));
+        Assert.assertEquals("max", map.get(Long.MAX_VALUE));
+
+        Assert.assertEquals("cero", map.remove(0));
+        Assert.assertNull(map.remove(0));
+        Assert.assertEquals(1, map.size());
+        Assert.assertFalse(map.containsKey(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValuesAreRejected() {
+        new LongObjectHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomOperations() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int k = 0; k < 100000; k++) {
+            long key = random.nextInt(2000) - 1000;
+
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Long value = random.nextLong();
+                Assert.assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        long[] keys = map.keys();
+        Assert.assertEquals(keys.length, map.values().size());
+
+        for (int k = 0; k < keys.length; k++) {
+            Assert.assertEquals(map.get(keys[k]), map.values().get(k));
+        }
+
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).sorted().toArray(), keys);
+    }
+
+    @Test
+    public void clear() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        map.put(0, "zero");
+        map.put(1, "one");
+        map.clear();
+
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(0));
+        Assert.assertNull(map.get(1));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class SortedLongRingBufferTest {
+    @Test
+    public void keepsValuesSorted() {
+        SortedLongRingBuffer buffer = new SortedLongRingBuffer();
+
+        buffer.add(5);
+        buffer.add(1);
+        buffer.add(3);
+        buffer.add(3);
+        buffer.add(10);
+
+        Assert.assertArrayEquals(new long[] { 1, 3, 3, 5, 10 }, buffer.toArray());
+        Assert.assertEquals(1, buffer.peekFirst());
+        Assert.assertEquals(10, buffer.peekLast());
+        Assert.assertEquals(1, buffer.indexOf(3));
+        Assert.assertFalse(buffer.contains(4));
+    }
+
+    @Test
+    public void pollAndRemoveWrapAround() {
+        SortedLongRingBuffer buffer = new SortedLongRingBuffer(4);
+
+        for (long k = 0; k < 100; k++) {
+            buffer.add(k);
+            buffer.add(k + 1000);
+            Assert.assertEquals(k, buffer.pollFirst());
+        }
+
+        Assert.assertEquals(100, buffer.size());
+        Assert.assertTrue(buffer.remove(1050));
+        Assert.assertFalse(buffer.remove(1050));
+        Assert.assertTrue(buffer.remove(1001));
+        Assert.assertEquals(1000, buffer.peekFirst());
+        Assert.assertEquals(1099, buffer.peekLast());
+        Assert.assertEquals(98, buffer.size());
+    }
+
+    @Test
+    public void behavesLikeSortedListUnderRandomOperations() {
+        SortedLongRingBuffer buffer = new SortedLongRingBuffer();
+        List<Long> expected = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int k = 0; k < 20000; k++) {
+            long value = random.nextInt(500);
+            int op = random.nextInt(4);
+
+            if (op == 0) {
+                Assert.assertEquals(expected.remove(value), buffer.remove(value));
+            } else if (op == 1 && !expected.isEmpty()) {
+                Assert.assertEquals((long) expected.remove(0), buffer.pollFirst());
+            } else {
+                expected.add(value);
+                Collections.sort(expected);
+                buffer.add(value);
+            }
+
+            Assert.assertEquals(expected.size(), buffer.size());
+        }
+
+        Assert.assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), buffer.toArray());
+    }
+
+    @Test
+    public void removeIfKeepsTheOrder() {
+        SortedLongRingBuffer buffer = new SortedLongRingBuffer(4);
+
+        for (long k = 0; k < 10; k++) {
+            buffer.add(k);
+            buffer.pollFirst();
+            buffer.add(k + 100);
+        }
+
+        Assert.assertEquals(5, buffer.removeIf(value -> value % 2 == 1));
+        Assert.assertArrayEquals(new long[] { 100, 102, 104, 106, 108 }, buffer.toArray());
+
+        buffer.add(99);
+        Assert.assertEquals(99, buffer.peekFirst());
+        Assert.assertEquals(108, buffer.peekLast());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void pollEmptyBuffer() {
+        new SortedLongRingBuffer().pollFirst();
+    }
+
+    @Test
+    public void clear() {
+        SortedLongRingBuffer buffer = new SortedLongRingBuffer();
+
+        buffer.add(1);
+        buffer.clear();
+
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertFalse(buffer.contains(1));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.vm;
+
+import co.rsk.db.CodeCache;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.vm.OpCode;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+public class DecodedCodeTest {
+    @Test
+    public void decodeOpsAndPushData() {
+        // PUSH2 0x5b01 JUMPDEST ADD
+        DecodedCode decoded = DecodedCode.decode(Hex.decode("615b015b01"), 0, 0);
+
+        Assert.assertEquals(OpCode.PUSH2, decoded.getOp(0));
+        Assert.assertEquals(OpCode.JUMPDEST, decoded.getOp(3));
+        Assert.assertEquals(OpCode.ADD, decoded.getOp(4));
+        Assert.assertEquals("0000000000000000000000000000000000000000000000000000000000005b01", decoded.getPushData(0).toString());
+        Assert.assertNull(decoded.getPushData(3));
+    }
+
+    @Test
+    public void jumpDestsSkipPushData() {
+        DecodedCode decoded = DecodedCode.decode(Hex.decode("615b015b01"), 0, 0);
+
+        Assert.assertFalse(decoded.getJumpDests().get(1));
+        Assert.assertTrue(decoded.getJumpDests().get(3));
+    }
+
+    @Test
+    public void truncatedPushReadsTrailingZeroes() {
+        // PUSH3 with only one byte left
+        DecodedCode decoded = DecodedCode.decode(Hex.decode("62ff"), 0, 0);
+
+        Assert.assertEquals("0000000000000000000000000000000000000000000000000000000000ff0000", decoded.getPushData(0).toString());
+    }
+
+    @Test
+    public void invalidOpcodeHasNoOp() {
+        DecodedCode decoded = DecodedCode.decode(Hex.decode("0c00"), 0, 0);
+
+        Assert.assertNull(decoded.getOp(0));
+        Assert.assertEquals(OpCode.STOP, decoded.getOp(1));
+    }
+
+    @Test
+    public void emptyCodeStops() {
+        DecodedCode decoded = DecodedCode.decode(new byte[0], 0, 0);
+
+        Assert.assertEquals(OpCode.STOP, decoded.getOp(0));
+    }
+
+    @Test
+    public void programDecodesOnlyCachedCode() {
+        ProgramInvokeMockImpl invoke = new ProgramInvokeMockImpl();
+        CodeCache cache = invoke.getRepository().getCodeCache();
+        byte[] code = Hex.decode("615b015b01");
+
+        Program program = new Program(code, invoke);
+
+        Assert.assertNull(cache.getDecodedCode(code));
+        Assert.assertEquals(OpCode.PUSH2, program.getCurrentOpCode());
+
+        byte[] cached = cache.putCode(HashUtil.sha3(code), code);
+        Program cachedProgram = new Program(cached, invoke);
+
+        Assert.assertNotNull(cache.getDecodedCode(cached));
+        Assert.assertEquals(OpCode.PUSH2, cachedProgram.getCurrentOpCode());
+    }
+}
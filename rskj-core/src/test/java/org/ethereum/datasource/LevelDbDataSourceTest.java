@@ -61,6 +61,26 @@ public class LevelDbDataSourceTest {
         dataSource.close();
     }
 
+    @Test
+    public void testDeletingWhileVisitingTheKeys() {
+        LevelDbDataSource dataSource = new LevelDbDataSource("test");
+        dataSource.init();
+
+        dataSource.updateBatch(createBatch(100));
+
+        int[] visited = new int[1];
+
+        dataSource.forEachKey(key -> {
+            dataSource.delete(key);
+            return ++visited[0] < 60;
+        });
+
+        assertEquals(60, visited[0]);
+        assertEquals(40, dataSource.keys().size());
+
+        dataSource.close();
+    }
+
     private static Map<byte[], byte[]> createBatch(int batchSize) {
         HashMap<byte[], byte[]> result = new HashMap<>();
         for (int i = 0; i < batchSize; i++) {
@@ -0,0 +1,188 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.datasource;
+
+import org.ethereum.util.FileUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+public class SegmentLogTest {
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("segmentlog").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtil.recursiveDelete(dir.getAbsolutePath());
+    }
+
+    @Test
+    public void putAndGet() {
+        SegmentLog log = new SegmentLog(dir);
+
+        log.put(1, new byte[] { 0x01, 0x02 });
+        log.put(-5, new byte[] { 0x03 });
+
+        Assert.assertArrayEquals(new byte[] { 0x01, 0x02 }, log.get(1));
+        Assert.assertArrayEquals(new byte[] { 0x03 }, log.get(-5));
+        Assert.assertNull(log.get(2));
+        Assert.assertEquals(2, log.size());
+
+        log.close();
+    }
+
+    @Test
+    public void putRemoveAndReopen() {
+        SegmentLog log = new SegmentLog(dir);
+
+        log.put(0, new byte[] { 0x01 });
+        log.put(1, new byte[] { 0x02 });
+        log.put(1, new byte[] { 0x03 });
+        Assert.assertTrue(log.remove(0));
+        Assert.assertFalse(log.remove(0));
+        log.close();
+
+        SegmentLog reopened = new SegmentLog(dir);
+
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertFalse(reopened.contains(0));
+        Assert.assertArrayEquals(new byte[] { 0x03 }, reopened.get(1));
+
+        reopened.close();
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        SegmentLog log = new SegmentLog(dir);
+
+        log.put(7, new byte[] { 0x01 });
+        log.clear();
+        log.put(8, new byte[] { 0x02 });
+        log.close();
+
+        SegmentLog reopened = new SegmentLog(dir);
+
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertNull(reopened.get(7));
+        Assert.assertArrayEquals(new byte[] { 0x02 }, reopened.get(8));
+
+        reopened.close();
+    }
+
+    @Test
+    public void rollSegmentsAndDeleteDeadOnes() {
+        SegmentLog log = new SegmentLog(dir, 256);
+
+        for (int k = 0; k < 100; k++) {
+            log.put(k, new byte[32]);
+        }
+
+        Assert.assertTrue(dir.listFiles().length > 1);
+
+        for (int k = 0; k < 99; k++) {
+            log.remove(k);
+        }
+
+        // rolling over compacts the oldest segment, that only holds key 99
+        for (int k = 100; k < 110; k++) {
+            log.put(k, new byte[32]);
+        }
+
+        log.flush();
+
+        Assert.assertTrue(dir.listFiles().length <= 4);
+        Assert.assertEquals(11, log.size());
+        Assert.assertArrayEquals(new byte[32], log.get(99));
+
+        log.close();
+
+        SegmentLog reopened = new SegmentLog(dir, 256);
+
+        Assert.assertEquals(11, reopened.size());
+        Assert.assertTrue(reopened.contains(99));
+        Assert.assertTrue(reopened.contains(109));
+        Assert.assertFalse(reopened.contains(98));
+
+        reopened.close();
+    }
+
+    @Test
+    public void recoverFromTornWrite() throws IOException {
+        SegmentLog log = new SegmentLog(dir);
+
+        log.put(1, new byte[] { 0x01, 0x02, 0x03 });
+        log.put(2, new byte[] { 0x04, 0x05, 0x06 });
+        log.close();
+
+        File segment = dir.listFiles()[0];
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 2);
+        }
+
+        SegmentLog recovered = new SegmentLog(dir);
+
+        Assert.assertEquals(1, recovered.size());
+        Assert.assertArrayEquals(new byte[] { 0x01, 0x02, 0x03 }, recovered.get(1));
+
+        recovered.put(3, new byte[] { 0x07 });
+        recovered.close();
+
+        SegmentLog reopened = new SegmentLog(dir);
+
+        Assert.assertEquals(2, reopened.size());
+        Assert.assertArrayEquals(new byte[] { 0x07 }, reopened.get(3));
+
+        reopened.close();
+    }
+
+    @Test
+    public void recoverFromCorruptedRecord() throws IOException {
+        SegmentLog log = new SegmentLog(dir);
+
+        log.put(1, new byte[] { 0x01 });
+        log.put(2, new byte[] { 0x02 });
+        log.close();
+
+        File segment = dir.listFiles()[0];
+
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(file.length() - 5);
+            file.write(0x7f);
+        }
+
+        SegmentLog recovered = new SegmentLog(dir);
+
+        Assert.assertEquals(1, recovered.size());
+        Assert.assertTrue(recovered.contains(1));
+        Assert.assertFalse(recovered.contains(2));
+
+        recovered.close();
+    }
+}
@@ -24,8 +24,6 @@ import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.core.BlockWrapper;
 import org.ethereum.core.Genesis;
-import org.ethereum.datasource.mapdb.MapDBFactory;
-import org.ethereum.datasource.mapdb.MapDBFactoryImpl;
 import org.ethereum.util.CollectionUtils;
 import org.ethereum.util.FileUtil;
 import org.ethereum.util.Functional;
@@ -98,9 +96,7 @@ public class BlockQueueTest {
         CONFIG.setDataBaseDir(testDb);
         CONFIG.setDatabaseReset(false);
 
-        MapDBFactory mapDBFactory = new MapDBFactoryImpl();
         blockQueue = new BlockQueueImpl();
-        ((BlockQueueImpl)blockQueue).setMapDBFactory(mapDBFactory);
         blockQueue.open();
 
         Random rnd = new Random(System.currentTimeMillis());
@@ -136,7 +136,6 @@ public class BlockStressTest {
         long start, end;
 
         BlockQueue blockQueue = new BlockQueueImpl();
-        ((BlockQueueImpl)blockQueue).setMapDBFactory(mapDBFactory);
         blockQueue.open();
 
         Set<byte[]> hashes = blockSource.keySet();
@@ -175,7 +174,6 @@ public class BlockStressTest {
         int threadsCount = 5;
 
         BlockQueue blockQueue = new BlockQueueImpl();
-        ((BlockQueueImpl)blockQueue).setMapDBFactory(mapDBFactory);
         blockQueue.open();
 
         try {
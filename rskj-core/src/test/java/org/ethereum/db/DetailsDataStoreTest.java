@@ -29,11 +29,17 @@ import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import static org.ethereum.TestUtils.*;
 import static org.ethereum.util.ByteUtil.toHexString;
+import static org.ethereum.util.ByteUtil.wrap;
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 public class DetailsDataStoreTest {
 
@@ -157,4 +163,104 @@ public class DetailsDataStoreTest {
         ContractDetails contractDetails = dds.get(c_key);
         assertNull(contractDetails);
     }
+
+    @Test
+    public void readTakenDetailsBeforeWritingThem() {
+        HashMapDB ds = new HashMapDB();
+        DatabaseImpl db = new DatabaseImpl(ds);
+        DetailsDataStore dds = new DetailsDataStore();
+        dds.setDB(db);
+
+        byte[] c_key = Hex.decode("1a2b");
+        byte[] r_key = Hex.decode("3c4d");
+
+        ContractDetails contractDetails = new ContractDetailsImpl();
+        contractDetails.setCode(Hex.decode("60606060"));
+        contractDetails.put(new DataWord(Hex.decode("11")), new DataWord(Hex.decode("aa")));
+
+        dds.update(c_key, contractDetails);
+        dds.update(r_key, new ContractDetailsImpl());
+        dds.flush();
+        dds.remove(r_key);
+
+        String encoded = Hex.toHexString(dds.get(c_key).getEncoded());
+
+        Map<ByteArrayWrapper, byte[]> batch = dds.takeDirty();
+
+        assertEquals(2, batch.size());
+        assertNull(batch.get(wrap(r_key)));
+        assertNotNull(ds.get(r_key));
+        assertNull(dds.get(r_key));
+        assertEquals(encoded, Hex.toHexString(dds.get(c_key).getEncoded()));
+
+        dds.writeDirty(batch);
+
+        assertNull(ds.get(r_key));
+        assertNull(dds.get(r_key));
+        assertTrue(dds.keys().contains(wrap(c_key)));
+        assertFalse(dds.keys().contains(wrap(r_key)));
+        assertEquals(encoded, Hex.toHexString(dds.get(c_key).getEncoded()));
+    }
+
+    @Test
+    public void keepExternalStorageInTheStorageDataSource() {
+        HashMapDB storageDS = new HashMapDB();
+        DetailsDataStore dds = new DetailsDataStore();
+        dds.setDB(new DatabaseImpl(new HashMapDB()));
+        dds.setStorageDataSource(storageDS);
+
+        byte[] c_key = Hex.decode("1a2b");
+        int nkeys = SystemProperties.CONFIG.detailsInMemoryStorageLimit() + 1;
+
+        ContractDetails contractDetails = new ContractDetailsImpl();
+        dds.update(c_key, contractDetails);
+
+        for (int k = 1; k <= nkeys; k++)
+            contractDetails.put(new DataWord(k), new DataWord(k * 2));
+
+        dds.flush();
+
+        assertFalse(storageDS.keys().isEmpty());
+
+        ContractDetails loaded = dds.get(c_key);
+
+        for (int k = 1; k <= nkeys; k++)
+            assertEquals(new DataWord(k * 2), loaded.get(new DataWord(k)));
+    }
+
+    @Test
+    public void walkTheKeysFromAKeyInOrder() {
+        DetailsDataStore dds = new DetailsDataStore();
+        dds.setDB(new DatabaseImpl(new HashMapDB()));
+
+        dds.update(Hex.decode("30"), new ContractDetailsImpl());
+        dds.update(Hex.decode("10"), new ContractDetailsImpl());
+        dds.flush();
+
+        dds.update(Hex.decode("40"), new ContractDetailsImpl());
+        Map<ByteArrayWrapper, byte[]> batch = dds.takeDirty();
+        dds.update(Hex.decode("20"), new ContractDetailsImpl());
+        dds.update(Hex.decode("30"), new ContractDetailsImpl());
+
+        List<String> keys = new ArrayList<>();
+        dds.forEachKey(Hex.decode("11"), key -> keys.add(Hex.toHexString(key)));
+        assertEquals(Arrays.asList("20", "30", "40"), keys);
+
+        dds.writeDirty(batch);
+
+        keys.clear();
+        dds.forEachKey(Hex.decode("10"), key -> keys.add(Hex.toHexString(key)) && keys.size() < 2);
+        assertEquals(Arrays.asList("10", "20"), keys);
+    }
+
+    @Test
+    public void closeTheStorageDataSource() {
+        KeyValueDataSource storageDS = mock(KeyValueDataSource.class);
+        DetailsDataStore dds = new DetailsDataStore();
+        dds.setStorageDataSource(storageDS);
+
+        dds.close();
+
+        verify(storageDS).close();
+    }
 }
@@ -20,8 +20,6 @@
 package org.ethereum.db;
 
 import org.ethereum.config.SystemProperties;
-import org.ethereum.datasource.mapdb.MapDBFactory;
-import org.ethereum.datasource.mapdb.MapDBFactoryImpl;
 import org.ethereum.util.FileUtil;
 import org.junit.After;
 import org.junit.Before;
@@ -65,9 +63,7 @@ public class HashStoreTest {
         SystemProperties.CONFIG.setDatabaseReset(false);
 //        SystemProperties.CONFIG.overrideParams(SystemProperties.PROPERTY_DB_DIR, testDb);
 
-        MapDBFactory mapDBFactory = new MapDBFactoryImpl();
         hashStore = new HashStoreImpl();
-        ((HashStoreImpl)hashStore).setMapDBFactory(mapDBFactory);
         hashStore.open();
     }
 
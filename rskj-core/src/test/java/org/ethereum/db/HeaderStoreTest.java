@@ -21,7 +21,6 @@ package org.ethereum.db;
 
 import org.ethereum.core.BlockHeader;
 import org.ethereum.core.BlockHeaderWrapper;
-import org.ethereum.datasource.mapdb.MapDBFactoryImpl;
 import org.ethereum.util.FileUtil;
 import org.junit.After;
 import org.junit.Assert;
@@ -67,7 +66,6 @@ public class HeaderStoreTest {
         CONFIG.setDatabaseReset(false);
 
         hs = new HeaderStoreImpl();
-        hs.setMapDBFactory(new MapDBFactoryImpl());
         hs.open();
     }
 
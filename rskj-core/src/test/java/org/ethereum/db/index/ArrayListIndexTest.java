@@ -0,0 +1,50 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.db.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+public class ArrayListIndexTest {
+    @Test
+    public void iterateASnapshotOfTheNumbers() {
+        ArrayListIndex index = new ArrayListIndex(Arrays.asList(3L, 1L, 2L));
+
+        PrimitiveIterator.OfLong iterator = index.iterator();
+
+        index.add(0L);
+        index.poll();
+
+        Assert.assertEquals(1, iterator.nextLong());
+        Assert.assertEquals(2, iterator.nextLong());
+        Assert.assertEquals(3, iterator.nextLong());
+        Assert.assertFalse(iterator.hasNext());
+
+        Assert.assertArrayEquals(new long[] { 1, 2, 3 }, index.toArray());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void iterateAnEmptyIndex() {
+        new ArrayListIndex(Arrays.asList()).iterator().nextLong();
+    }
+}
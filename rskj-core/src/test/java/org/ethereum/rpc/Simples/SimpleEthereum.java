@@ -20,6 +20,7 @@ package org.ethereum.rpc.Simples;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Block;
+import org.ethereum.core.CallMessage;
 import org.ethereum.core.CallTransaction;
 import org.ethereum.core.ImportResult;
 import org.ethereum.core.Transaction;
@@ -180,6 +181,11 @@ public class SimpleEthereum implements Ethereum {
         return null;
     }
 
+    @Override
+    public long estimateGas(CallMessage message, Block block) {
+        return 0;
+    }
+
     @Override
     public SystemProperties getSystemProperties() {
         return null;
@@ -18,6 +18,7 @@
 
 package org.ethereum.rpc;
 
+import co.rsk.blockchain.utils.BlockGenerator;
 import co.rsk.config.RskSystemProperties;
 import co.rsk.core.WalletFactory;
 import co.rsk.core.bc.PendingStateImpl;
@@ -26,6 +27,8 @@ import co.rsk.test.World;
 import co.rsk.test.builders.AccountBuilder;
 import co.rsk.test.builders.BlockBuilder;
 import co.rsk.test.builders.TransactionBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.crypto.ECKey;
@@ -41,6 +44,7 @@ import org.ethereum.solidity.compiler.SolidityCompiler;
 import org.ethereum.vm.program.ProgramResult;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 import org.spongycastle.util.encoders.Hex;
@@ -357,6 +361,113 @@ public class Web3ImplTest {
         org.junit.Assert.assertEquals(blockNumberAsHex, tr.blockNumber);
     }
 
+    @Test
+    public void traceTransaction() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+
+        Account acc1 = new AccountBuilder(world).name("acc1").balance(BigInteger.valueOf(2000000)).build();
+        Transaction tx = new TransactionBuilder().sender(acc1).data("6001600201600055").gasLimit(BigInteger.valueOf(200000)).build();
+        Block genesis = world.getBlockChain().getBestBlock();
+        Block block1 = new BlockBuilder(world).parent(genesis).transactions(Arrays.asList(tx)).build();
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
+
+        JsonNode trace = new ObjectMapper().valueToTree(web3.debug_traceTransaction(Hex.toHexString(tx.getHash())));
+
+        org.junit.Assert.assertFalse(trace.get("failed").asBoolean());
+        org.junit.Assert.assertTrue(trace.get("gas").asLong() > 0);
+
+        JsonNode structLogs = trace.get("structLogs");
+        org.junit.Assert.assertEquals(5, structLogs.size());
+        org.junit.Assert.assertEquals("PUSH1", structLogs.get(0).get("op").asText());
+        org.junit.Assert.assertEquals(0, structLogs.get(0).get("stack").size());
+        org.junit.Assert.assertEquals("SSTORE", structLogs.get(4).get("op").asText());
+        org.junit.Assert.assertEquals(2, structLogs.get(4).get("stack").size());
+        org.junit.Assert.assertEquals(1, structLogs.get(4).get("depth").asInt());
+    }
+
+    @Test
+    public void traceTransactionWithOptions() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+
+        Account acc1 = new AccountBuilder(world).name("acc1").balance(BigInteger.valueOf(2000000)).build();
+        Transaction tx = new TransactionBuilder().sender(acc1).data("6001600201600055").gasLimit(BigInteger.valueOf(200000)).build();
+        Block genesis = world.getBlockChain().getBestBlock();
+        Block block1 = new BlockBuilder(world).parent(genesis).transactions(Arrays.asList(tx)).build();
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
+
+        Web3.TraceOptions options = new Web3.TraceOptions();
+        options.disableStack = true;
+        options.disableMemory = true;
+        options.disableStorage = true;
+        options.limit = 2;
+
+        JsonNode trace = new ObjectMapper().valueToTree(web3.debug_traceTransaction(Hex.toHexString(tx.getHash()), options));
+
+        JsonNode structLogs = trace.get("structLogs");
+        org.junit.Assert.assertEquals(2, structLogs.size());
+        org.junit.Assert.assertNull(structLogs.get(0).get("stack"));
+        org.junit.Assert.assertNull(structLogs.get(0).get("memory"));
+        org.junit.Assert.assertNull(structLogs.get(0).get("storage"));
+    }
+
+    @Test
+    public void traceBlock() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+
+        Account acc1 = new AccountBuilder(world).name("acc1").balance(BigInteger.valueOf(2000000)).build();
+        Account acc2 = new AccountBuilder().name("acc2").build();
+        Transaction tx1 = new TransactionBuilder().sender(acc1).receiver(acc2).value(BigInteger.valueOf(1000)).build();
+        Transaction tx2 = new TransactionBuilder().sender(acc1).nonce(1).data("600160020160005500").gasLimit(BigInteger.valueOf(200000)).build();
+        Block genesis = world.getBlockChain().getBestBlock();
+        Block block1 = new BlockBuilder(world).parent(genesis).transactions(Arrays.asList(tx1, tx2)).build();
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
+
+        JsonNode traces = new ObjectMapper().valueToTree(web3.debug_traceBlock("0x" + Hex.toHexString(block1.getHash())));
+
+        org.junit.Assert.assertEquals(2, traces.size());
+        org.junit.Assert.assertEquals(TypeConverter.toJsonHex(tx1.getHash()), traces.get(0).get("txHash").asText());
+        org.junit.Assert.assertEquals(0, traces.get(0).get("result").get("structLogs").size());
+        org.junit.Assert.assertEquals(6, traces.get(1).get("result").get("structLogs").size());
+        org.junit.Assert.assertEquals("{}", traces.get(1).get("result").get("structLogs").get(4).get("storage").toString());
+        org.junit.Assert.assertEquals("{\"0000000000000000000000000000000000000000000000000000000000000000\":\"0000000000000000000000000000000000000000000000000000000000000003\"}",
+                traces.get(1).get("result").get("structLogs").get(5).get("storage").toString());
+    }
+
+    @Test
+    public void traceBlockWithoutParentState() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+
+        Block genesis = world.getBlockChain().getBestBlock();
+        Block parent = BlockGenerator.createChildBlock(genesis, new ArrayList<>(), SHA3Helper.sha3(new byte[] { 0x01 }));
+        Block block = BlockGenerator.createChildBlock(parent);
+        Block orphan = BlockGenerator.createChildBlock(block);
+
+        world.getBlockChain().getBlockStore().saveBlock(parent, BigInteger.ONE, false);
+        world.getBlockChain().getBlockStore().saveBlock(block, BigInteger.ONE, false);
+
+        // the state of the parent is not saved
+        assertStateNotAvailable(web3, block);
+
+        world.getBlockChain().getBlockStore().saveBlock(orphan, BigInteger.ONE, false);
+        world.getBlockChain().getBlockStore().removeBlock(block);
+
+        // the parent is missing
+        assertStateNotAvailable(web3, orphan);
+    }
+
+    private static void assertStateNotAvailable(Web3Impl web3, Block block) throws Exception {
+        try {
+            web3.debug_traceBlock(TypeConverter.toJsonHex(block.getHash()));
+            org.junit.Assert.fail();
+        } catch (JsonRpcInvalidParamException e) {
+            org.junit.Assert.assertTrue(e.getMessage().startsWith("state not available"));
+        }
+    }
+
     @Test
     public void getTransactionReceiptNotInMainBlockchain() throws Exception {
         World world = new World();
@@ -772,6 +883,36 @@ public class Web3ImplTest {
         org.junit.Assert.assertEquals(0, bresult.uncles.length);
     }
 
+    @Test
+    public void getBlockByHashWithItsOwnTotalDifficultyAndCachedJson() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+
+        Block genesis = world.getBlockChain().getBestBlock();
+        Block block1 = new BlockBuilder(world).parent(genesis).build();
+        block1.setBitcoinMergedMiningHeader(new byte[] { 0x01 });
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
+        Block block2 = new BlockBuilder(world).parent(block1).build();
+        block2.setBitcoinMergedMiningHeader(new byte[] { 0x02 });
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block2));
+
+        String block1HashString = TypeConverter.toJsonHex(block1.getHash());
+        BigInteger totalDifficulty = world.getBlockChain().getBlockStore().getTotalDifficultyForHash(block1.getHash());
+
+        Web3.BlockResult bresult = web3.eth_getBlockByHash(block1HashString, false);
+
+        org.junit.Assert.assertEquals(TypeConverter.toJsonHex(totalDifficulty), bresult.totalDifficulty);
+        org.junit.Assert.assertNotEquals(TypeConverter.toJsonHex(world.getBlockChain().getTotalDifficulty()), bresult.totalDifficulty);
+        org.junit.Assert.assertSame(bresult, web3.eth_getBlockByNumber("0x1", false));
+        org.junit.Assert.assertNotSame(bresult, web3.eth_getBlockByHash(block1HashString, true));
+
+        JsonNode json = new ObjectMapper().readTree(new ObjectMapper().writeValueAsString(bresult));
+
+        org.junit.Assert.assertEquals(block1HashString, json.get("hash").asText());
+        org.junit.Assert.assertEquals(bresult.totalDifficulty, json.get("totalDifficulty").asText());
+        org.junit.Assert.assertEquals(0, json.get("transactions").size());
+    }
+
     @Test
     public void getBlockByHashWithTransactionsHashAsResult() throws Exception {
         World world = new World();
@@ -960,6 +1101,79 @@ public class Web3ImplTest {
         org.junit.Assert.assertEquals("0x0000000000000000000000000000000000000000000000000000000064617665", result);
     }
 
+    @Test
+    public void callAtHistoricalBlockWithoutSigning() throws Exception {
+        World world = new World();
+        Block genesis = world.getBlockChain().getBestBlock();
+        Block block1 = new BlockBuilder(world).parent(genesis).build();
+        Block block2 = new BlockBuilder(world).parent(block1).build();
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block1));
+        org.junit.Assert.assertEquals(ImportResult.IMPORTED_BEST, world.getBlockChain().tryToConnect(block2));
+
+        Web3Impl web3 = createWeb3(world);
+
+        Ethereum ethMock = Mockito.mock(Ethereum.class);
+        ProgramResult res = new ProgramResult();
+        res.setHReturn(new byte[] { 0x01 });
+        Mockito.when(ethMock.callConstantCallTransaction(Mockito.any(Transaction.class), Mockito.any(Block.class))).thenReturn(res);
+        web3.eth = ethMock;
+
+        byte[] from = Hex.decode("0102030405060708090a0b0c0d0e0f1011121314");
+        Web3.CallArguments argsForCall = new Web3.CallArguments();
+        argsForCall.from = TypeConverter.toJsonHex(from);
+        argsForCall.to = "0x0000000000000000000000000000000000000001";
+
+        org.junit.Assert.assertEquals("0x01", web3.eth_call(argsForCall, "0x1"));
+        org.junit.Assert.assertEquals("0x01", web3.eth_call(argsForCall, TypeConverter.toJsonHex(block1.getHash())));
+
+        ArgumentCaptor<Transaction> txCaptor = ArgumentCaptor.forClass(Transaction.class);
+        ArgumentCaptor<Block> blockCaptor = ArgumentCaptor.forClass(Block.class);
+        Mockito.verify(ethMock, Mockito.times(2)).callConstantCallTransaction(txCaptor.capture(), blockCaptor.capture());
+
+        for (Transaction tx : txCaptor.getAllValues()) {
+            org.junit.Assert.assertNull(tx.getSignature());
+            org.junit.Assert.assertArrayEquals(from, tx.getSender());
+        }
+
+        org.junit.Assert.assertArrayEquals(block1.getHash(), blockCaptor.getAllValues().get(0).getHash());
+        org.junit.Assert.assertArrayEquals(block1.getHash(), blockCaptor.getAllValues().get(1).getHash());
+    }
+
+    @Test
+    public void estimateGasWithTheBlockGasLimitByDefault() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+        Block genesis = world.getBlockChain().getBestBlock();
+
+        Ethereum ethMock = Mockito.mock(Ethereum.class);
+        Mockito.when(ethMock.estimateGas(Mockito.any(CallMessage.class), Mockito.any(Block.class))).thenReturn(21000L);
+        web3.eth = ethMock;
+
+        Web3.CallArguments argsForCall = new Web3.CallArguments();
+        argsForCall.to = "0x0000000000000000000000000000000000000001";
+
+        org.junit.Assert.assertEquals("0x5208", web3.eth_estimateGas(argsForCall, "earliest"));
+
+        ArgumentCaptor<CallMessage> messageCaptor = ArgumentCaptor.forClass(CallMessage.class);
+        ArgumentCaptor<Block> blockCaptor = ArgumentCaptor.forClass(Block.class);
+        Mockito.verify(ethMock).estimateGas(messageCaptor.capture(), blockCaptor.capture());
+
+        org.junit.Assert.assertArrayEquals(genesis.getHash(), blockCaptor.getValue().getHash());
+        org.junit.Assert.assertEquals(new BigInteger(1, genesis.getGasLimit()), new BigInteger(1, messageCaptor.getValue().getGasLimit()));
+    }
+
+    @Test(expected = JsonRpcInvalidParamException.class)
+    public void callAtUnknownBlock() throws Exception {
+        World world = new World();
+        Web3Impl web3 = createWeb3(world);
+        web3.eth = Mockito.mock(Ethereum.class);
+
+        Web3.CallArguments argsForCall = new Web3.CallArguments();
+        argsForCall.to = "0x0000000000000000000000000000000000000001";
+
+        web3.eth_call(argsForCall, "0x10");
+    }
+
     @Test
     public void getCodeBlockDoesNotExist() throws Exception {
         World world = new World();
@@ -1317,4 +1531,14 @@ public class Web3ImplTest {
             return Arrays.equals(tx.getSender(), from);
         }
     }
+
+    private Web3Impl createWeb3(World world) {
+        SimpleWorldManager worldManager = new SimpleWorldManager();
+        worldManager.setBlockchain(world.getBlockChain());
+        worldManager.setBlockStore(world.getBlockChain().getBlockStore());
+
+        Web3Impl web3 = new Web3Impl(compiler, WalletFactory.createWallet());
+        web3.worldManager = worldManager;
+        return web3;
+    }
 }
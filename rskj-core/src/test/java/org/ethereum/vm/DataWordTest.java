@@ -19,11 +19,16 @@
 
 package org.ethereum.vm;
 
+import org.ethereum.util.ByteUtil;
 import org.junit.Test;
 
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -204,6 +209,150 @@ public class DataWordTest {
         System.out.println(result2);
     }
 
+    @Test
+    public void testArithmeticMatchesBigInteger() {
+        Random random = new Random(42);
+        List<DataWord> words = sampleWords(random);
+
+        for (DataWord a : words) {
+            for (DataWord b : words) {
+                BigInteger x = a.value();
+                BigInteger y = b.value();
+                BigInteger sx = a.sValue();
+                BigInteger sy = b.sValue();
+
+                assertOp(x.multiply(y), a, b, DataWord::mul);
+                assertOp(x.subtract(y), a, b, DataWord::sub);
+                assertOp(x.add(y), a, b, DataWord::add);
+                assertOp(y.signum() == 0 ? BigInteger.ZERO : x.divide(y), a, b, DataWord::div);
+                assertOp(y.signum() == 0 ? BigInteger.ZERO : x.mod(y), a, b, DataWord::mod);
+                assertOp(y.signum() == 0 ? BigInteger.ZERO : sx.divide(sy), a, b, DataWord::sDiv);
+
+                BigInteger smod = y.signum() == 0 ? BigInteger.ZERO : sx.abs().mod(sy.abs());
+                assertOp(sx.signum() == -1 ? smod.negate() : smod, a, b, DataWord::sMod);
+
+                assertEquals(Integer.signum(sx.compareTo(sy)), a.signedCompareTo(b));
+                assertEquals(Integer.signum(x.compareTo(y)), a.compareTo(b));
+            }
+        }
+    }
+
+    @Test
+    public void testMulModMatchesBigInteger() {
+        Random random = new Random(7);
+        List<DataWord> words = sampleWords(random);
+
+        for (DataWord a : words) {
+            for (DataWord b : words) {
+                for (int k = 0; k < 4; k++) {
+                    DataWord m = words.get(random.nextInt(words.size()));
+                    BigInteger expected = m.isZero() ? BigInteger.ZERO : a.value().multiply(b.value()).mod(m.value());
+
+                    DataWord result = a.clone();
+                    result.mulmod(b.clone(), m.clone());
+                    assertEquals(expected, result.value());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExpMatchesBigInteger() {
+        Random random = new Random(11);
+        List<DataWord> words = sampleWords(random);
+
+        for (DataWord a : words) {
+            for (int k = 0; k < 8; k++) {
+                DataWord b = words.get(random.nextInt(words.size()));
+                DataWord result = a.clone();
+                result.exp(b.clone());
+                assertEquals(a.value().modPow(b.value(), DataWord._2_256), result.value());
+            }
+        }
+
+        DataWord zero = new DataWord(0);
+        zero.exp(new DataWord(0));
+        assertEquals(BigInteger.ONE, zero.value());
+    }
+
+    @Test
+    public void testArithmeticPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            Random random = new Random(1);
+            List<DataWord> words = sampleWords(random);
+            int ITERATIONS = 200;
+
+            long now1 = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (DataWord a : words) {
+                    for (DataWord b : words) {
+                        DataWord x = a.clone();
+                        x.mul(b);
+                        x.div(b);
+                        x.mod(a);
+                        x.sub(b);
+                        x.mulmod(a, b);
+                    }
+                }
+            }
+            System.out.println("Limbs: " + (System.currentTimeMillis() - now1) + "ms");
+
+            long now2 = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (DataWord a : words) {
+                    for (DataWord b : words) {
+                        BigInteger x = a.value().multiply(b.value()).and(DataWord.MAX_VALUE);
+                        BigInteger y = b.value();
+                        x = y.signum() == 0 ? BigInteger.ZERO : x.divide(y);
+                        x = a.isZero() ? BigInteger.ZERO : x.mod(a.value());
+                        x = x.subtract(y).and(DataWord.MAX_VALUE);
+                        x = y.signum() == 0 ? BigInteger.ZERO : x.multiply(a.value()).mod(y);
+                        new DataWord(ByteUtil.copyToArray(x));
+                    }
+                }
+            }
+            System.out.println("BigInteger: " + (System.currentTimeMillis() - now2) + "ms");
+        } else {
+            System.out.println("Arithmetic performance test is disabled.");
+        }
+    }
+
+    private static void assertOp(BigInteger expected, DataWord a, DataWord b, BiConsumer<DataWord, DataWord> op) {
+        DataWord result = a.clone();
+        op.accept(result, b.clone());
+        assertEquals(32, result.getData().length);
+        assertEquals(expected.and(DataWord.MAX_VALUE), result.value());
+    }
+
+    private static List<DataWord> sampleWords(Random random) {
+        List<BigInteger> values = new ArrayList<>();
+        values.add(BigInteger.ZERO);
+        values.add(BigInteger.ONE);
+        values.add(BigInteger.valueOf(2));
+        values.add(BigInteger.valueOf(0xFFFFFFFFL));
+        values.add(BigInteger.ONE.shiftLeft(32));
+        values.add(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE));
+        values.add(BigInteger.ONE.shiftLeft(255));
+        values.add(BigInteger.ONE.shiftLeft(255).subtract(BigInteger.ONE));
+        values.add(DataWord.MAX_VALUE);
+        values.add(DataWord.MAX_VALUE.subtract(BigInteger.ONE));
+
+        for (int i = 0; i < 40; i++) {
+            // a spread of magnitudes, from one limb to full width
+            values.add(new BigInteger(1 + random.nextInt(256), random));
+        }
+
+        List<DataWord> words = new ArrayList<>();
+
+        for (BigInteger value : values) {
+            words.add(new DataWord(ByteUtil.copyToArray(value)));
+        }
+
+        return words;
+    }
+
     @Test
     public void testSignExtend1() {
 
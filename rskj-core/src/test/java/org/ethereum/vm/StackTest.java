@@ -0,0 +1,101 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm;
+
+import org.ethereum.vm.program.Stack;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StackTest {
+
+    @Test
+    public void pushPopPeek() {
+        Stack stack = new Stack();
+        assertTrue(stack.isEmpty());
+
+        DataWord one = new DataWord(1);
+        DataWord two = new DataWord(2);
+        stack.push(one);
+        stack.push(two);
+
+        assertEquals(2, stack.size());
+        assertSame(two, stack.peek());
+        assertSame(two, stack.pop());
+        assertSame(one, stack.pop());
+        assertTrue(stack.isEmpty());
+    }
+
+    @Test(expected = EmptyStackException.class)
+    public void popEmpty() {
+        new Stack().pop();
+    }
+
+    @Test(expected = EmptyStackException.class)
+    public void peekEmpty() {
+        new Stack().peek();
+    }
+
+    @Test
+    public void swapAndGetUseBottomBasedIndexes() {
+        Stack stack = new Stack();
+        stack.push(new DataWord(1));
+        stack.push(new DataWord(2));
+        stack.push(new DataWord(3));
+
+        stack.swap(stack.size() - 1, 0);
+
+        assertEquals(3, stack.get(0).intValue());
+        assertEquals(1, stack.peek().intValue());
+
+        List<Integer> values = new ArrayList<>();
+        for (DataWord word : stack) {
+            values.add(word.intValue());
+        }
+
+        assertEquals(3, values.size());
+        assertEquals(Integer.valueOf(3), values.get(0));
+        assertEquals(Integer.valueOf(2), values.get(1));
+        assertEquals(Integer.valueOf(1), values.get(2));
+        assertEquals(3, stack.toArray().length);
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        Stack stack = new Stack();
+
+        for (int i = 0; i < 3000; i++) {
+            stack.push(new DataWord(i));
+        }
+
+        assertEquals(3000, stack.size());
+
+        for (int i = 2999; i >= 0; i--) {
+            assertEquals(i, stack.pop().intValue());
+        }
+
+        stack.push(new DataWord(1));
+        stack.clear();
+        assertTrue(stack.isEmpty());
+    }
+}
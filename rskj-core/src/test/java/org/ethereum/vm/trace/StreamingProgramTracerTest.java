@@ -0,0 +1,135 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2017 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ethereum.vm.trace;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.vm.VM;
+import org.ethereum.vm.VMUtils;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StreamingProgramTracerTest {
+
+    private ProgramInvokeMockImpl invoke;
+
+    @Before
+    public void setup() {
+        invoke = new ProgramInvokeMockImpl();
+    }
+
+    @After
+    public void tearDown() {
+        invoke.getRepository().close();
+    }
+
+    @Test
+    public void programWithoutTracerHasNoTrace() {
+        Program program = new Program(Hex.decode("6001600201"), invoke, null, null);
+        new VM().play(program);
+
+        Assert.assertNull(program.getTracer());
+        Assert.assertTrue(program.getTrace().getOps().isEmpty());
+    }
+
+    @Test
+    public void programCreatedWithoutTracerArgumentHasNoTracer() {
+        Program program = new Program(Hex.decode("6001600201"), invoke, null);
+
+        Assert.assertNull(program.getTracer());
+    }
+
+    @Test
+    public void writesOneLinePerOperation() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingProgramTracer tracer = new StreamingProgramTracer(out);
+
+        // PUSH1 1 PUSH1 2 ADD
+        Program program = new Program(Hex.decode("6001600201"), invoke, null, tracer);
+        new VM().play(program);
+        tracer.writeResult(program.getResult().getHReturn(), program.getResult().getException());
+        tracer.close();
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(4, lines.length);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode first = mapper.readTree(lines[0]);
+        Assert.assertEquals("PUSH1", first.get("code").asText());
+        Assert.assertEquals(0, first.get("pc").asInt());
+
+        JsonNode add = mapper.readTree(lines[2]);
+        Assert.assertEquals("ADD", add.get("code").asText());
+        Assert.assertEquals(4, add.get("pc").asInt());
+        // the actions recorded are those of the previous operation, as in ProgramTrace
+        Assert.assertEquals("push", add.get("actions").get("stack").get(0).get("name").asText());
+
+        JsonNode result = mapper.readTree(lines[3]);
+        Assert.assertEquals("", result.get("error").asText());
+    }
+
+    @Test
+    public void traceFilesAreReadForTheTraceListeners() throws IOException {
+        String plain = traceToFile(false);
+        String compressed = traceToFile(true);
+
+        Assert.assertTrue(plain.startsWith("{"));
+        Assert.assertEquals(plain, VMUtils.unzipAndDecode(compressed));
+    }
+
+    private String traceToFile(boolean compressed) throws IOException {
+        File file = File.createTempFile("trace", compressed ? ".jsonl.gz" : ".jsonl");
+        file.deleteOnExit();
+
+        StreamingProgramTracer tracer = StreamingProgramTracer.toFile(file, compressed);
+        Program program = new Program(Hex.decode("6001600201"), invoke, null, tracer);
+        new VM().play(program);
+        tracer.writeResult(program.getResult().getHReturn(), program.getResult().getException());
+        tracer.close();
+
+        List<String> traces = new ArrayList<>();
+
+        EthereumListener listener = new EthereumListenerAdapter() {
+            @Override
+            public void onVMTraceCreated(String transactionHash, String trace) {
+                traces.add(trace);
+            }
+        };
+
+        listener.onVMTraceFileCreated("0x01", file);
+
+        Assert.assertEquals(1, traces.size());
+
+        return traces.get(0);
+    }
+}